@@ -0,0 +1,53 @@
+package com.newchar.debug.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+/**
+ * refreshTexts 只标记文本失效，真正的拼接发生在下一次读取时，所以每次操作都读取 summary 与 display，
+ * 与列表展示一个 event 的开销一致。
+ */
+@State(Scope.Thread)
+public class DebugNetEventBenchmark {
+
+    @Param({"ipv4_tcp", "http_request", "recorded"})
+    public String corpus;
+
+    private DebugNetEvent[] mEvents;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[][] packets = PacketCorpus.load(corpus);
+        mEvents = new DebugNetEvent[packets.length];
+        int count = 0;
+        for (byte[] packet : packets) {
+            DebugNetEvent event = IpPacketParser.parse(packet, packet.length, TrafficDirection.UPLOAD);
+            if (event != null) {
+                mEvents[count++] = event;
+            }
+        }
+        if (count < mEvents.length) {
+            DebugNetEvent[] trimmed = new DebugNetEvent[count];
+            System.arraycopy(mEvents, 0, trimmed, 0, count);
+            mEvents = trimmed;
+        }
+    }
+
+    @Benchmark
+    public void refreshTexts(Blackhole blackhole) {
+        DebugNetEvent event = mEvents[mIndex];
+        if (++mIndex == mEvents.length) {
+            mIndex = 0;
+        }
+        event.refreshTexts();
+        blackhole.consume(event.getSummaryText());
+        blackhole.consume(event.getDisplayText());
+    }
+}
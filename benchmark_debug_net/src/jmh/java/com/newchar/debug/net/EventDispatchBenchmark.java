@@ -0,0 +1,98 @@
+package com.newchar.debug.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DebugNetMonitor.dispatch 的热路径：事件进入 {@link EventDispatcher} 的环形队列，由 drain 任务批量后处理并回调 listener。
+ * DebugNetMonitor 本身依赖 Android 的 Handler，这里用同样的构造参数直接创建 EventDispatcher，
+ * 把 WORK_HANDLER 换成在基准线程上执行的任务队列。
+ *
+ * dispatchBatch 先投递一批 event 再执行积攒的 drain，与捕获线程连续写入、worker 稍后批量处理的节奏一致；
+ * dispatchEach 每投递一个 event 就立即 drain，是批量退化为单个时的最坏情况。
+ */
+@State(Scope.Thread)
+public class EventDispatchBenchmark {
+
+    private static final int BATCH = EventDispatcher.MAX_BATCH_SIZE;
+    /** 与 DebugNetConfig 的默认队列容量一致。 */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    @Param({"recorded"})
+    public String corpus;
+
+    /** none：没有后处理器；sync：一个原样返回的同步后处理器。 */
+    @Param({"none", "sync"})
+    public String postProcessor;
+
+    private final ArrayDeque<Runnable> mPendingTasks = new ArrayDeque<>();
+    private EventDispatcher mBatchDispatcher;
+    private EventDispatcher mInlineDispatcher;
+    private DebugNetEvent[] mEvents;
+    private int mIndex;
+    private long mDelivered;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[][] packets = PacketCorpus.load(corpus);
+        mEvents = new DebugNetEvent[packets.length];
+        for (int i = 0; i < packets.length; i++) {
+            DebugNetEvent event = IpPacketParser.parse(packets[i], packets[i].length, TrafficDirection.UPLOAD);
+            mEvents[i] = event != null ? event : new DebugNetEvent(TrafficDirection.UPLOAD, "IP", "", 0, "", 0, 0);
+        }
+        mBatchDispatcher = createDispatcher(mPendingTasks::add);
+        mInlineDispatcher = createDispatcher(Runnable::run);
+    }
+
+    private EventDispatcher createDispatcher(Executor executor) {
+        PostProcessorChain chain = new PostProcessorChain();
+        if ("sync".equals(postProcessor)) {
+            chain.set(payload -> payload);
+        }
+        List<DebugNetTrafficListener> listeners = new CopyOnWriteArrayList<>();
+        listeners.add(event -> {
+            mDelivered++;
+            return true;
+        });
+        return new EventDispatcher(executor, (task, delayMillis) -> mPendingTasks.add(task), chain, listeners,
+                QUEUE_CAPACITY, DebugNetOverflowPolicy.DROP_OLDEST, new AtomicLong());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long dispatchBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            mBatchDispatcher.dispatch(next());
+        }
+        Runnable task;
+        while ((task = mPendingTasks.poll()) != null) {
+            task.run();
+        }
+        return mDelivered;
+    }
+
+    @Benchmark
+    public long dispatchEach() {
+        mInlineDispatcher.dispatch(next());
+        return mDelivered;
+    }
+
+    private DebugNetEvent next() {
+        DebugNetEvent event = mEvents[mIndex];
+        if (++mIndex == mEvents.length) {
+            mIndex = 0;
+        }
+        return event;
+    }
+}
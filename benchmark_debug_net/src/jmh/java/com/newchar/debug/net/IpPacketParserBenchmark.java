@@ -0,0 +1,49 @@
+package com.newchar.debug.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * 每次操作解析语料中的下一个包，ns/op 即单包解析耗时。
+ * parseHeader 对应开启 HTTP 解析时的零分配路径，parse 对应逐包生成 event 的路径（含请求行猜测）。
+ */
+@State(Scope.Thread)
+public class IpPacketParserBenchmark {
+
+    @Param({"ipv4_tcp", "ipv6_tcp", "ipv4_udp", "ipv6_udp", "http_request", "recorded"})
+    public String corpus;
+
+    private final PacketHeader mHeader = new PacketHeader();
+    private byte[][] mPackets;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        mPackets = PacketCorpus.load(corpus);
+    }
+
+    @Benchmark
+    public boolean parseHeader() {
+        byte[] packet = next();
+        return IpPacketParser.parseHeader(packet, packet.length, mHeader);
+    }
+
+    @Benchmark
+    public DebugNetEvent parse() {
+        byte[] packet = next();
+        return IpPacketParser.parse(packet, packet.length, TrafficDirection.UPLOAD);
+    }
+
+    private byte[] next() {
+        byte[] packet = mPackets[mIndex];
+        if (++mIndex == mPackets.length) {
+            mIndex = 0;
+        }
+        return packet;
+    }
+}
@@ -0,0 +1,245 @@
+package com.newchar.debug.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试使用的包语料，每个元素是一个从 IP 头开始的完整包。
+ *
+ * "recorded" 读取 -Ddebugnet.corpus 指定的 pcap / pcapng 文件（例如插件"导出pcapng"录下的文件），
+ * 未指定时退回为其余各类语料交错混合的合成语料；其余名字是按固定种子生成的合成语料，保证每次运行一致。
+ */
+final class PacketCorpus {
+
+    static final String CORPUS_PROPERTY = "debugnet.corpus";
+    static final String[] SYNTHETIC_KINDS = {"ipv4_tcp", "ipv6_tcp", "ipv4_udp", "ipv6_udp", "http_request"};
+
+    private static final int SYNTHETIC_PACKET_COUNT = 256;
+    private static final int PCAP_MAGIC_MICROS = 0xA1B2C3D4;
+    private static final int PCAP_MAGIC_NANOS = 0xA1B23C4D;
+    private static final int PCAPNG_SECTION_HEADER = 0x0A0D0D0A;
+    private static final int PCAPNG_INTERFACE_DESCRIPTION = 1;
+    private static final int PCAPNG_ENHANCED_PACKET = 6;
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_IPV4 = 228;
+    private static final int LINKTYPE_IPV6 = 229;
+
+    private static final String[] HTTP_PATHS = {
+            "/api/v1/feed?page=2&size=20",
+            "/static/img/banner_1080x540.webp",
+            "/user/profile",
+            "/report/event?type=click&id=8812",
+            "/",
+    };
+
+    private PacketCorpus() {
+    }
+
+    static byte[][] load(String kind) throws IOException {
+        if ("recorded".equals(kind)) {
+            String path = System.getProperty(CORPUS_PROPERTY);
+            if (path != null && !path.isEmpty()) {
+                return readCapture(Files.readAllBytes(Paths.get(path)));
+            }
+            return mixed();
+        }
+        byte[][] packets = new byte[SYNTHETIC_PACKET_COUNT][];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = synthesize(kind, i);
+        }
+        return packets;
+    }
+
+    private static byte[][] mixed() {
+        byte[][] packets = new byte[SYNTHETIC_PACKET_COUNT][];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = synthesize(SYNTHETIC_KINDS[i % SYNTHETIC_KINDS.length], i);
+        }
+        return packets;
+    }
+
+    private static byte[] synthesize(String kind, int index) {
+        switch (kind) {
+            case "ipv4_tcp":
+                return ipv4(IpPacketParser.PROTOCOL_TCP, index, tcp(40000 + index, 443, filler(index, 64 + index * 5 % 1200)));
+            case "ipv6_tcp":
+                return ipv6(IpPacketParser.PROTOCOL_TCP, index, tcp(40000 + index, 443, filler(index, 64 + index * 7 % 1200)));
+            case "ipv4_udp":
+                return ipv4(IpPacketParser.PROTOCOL_UDP, index, udp(50000 + index, 53, filler(index, 32 + index % 96)));
+            case "ipv6_udp":
+                return ipv6(IpPacketParser.PROTOCOL_UDP, index, udp(50000 + index, 443, filler(index, 900 + index % 300)));
+            case "http_request":
+                String request = "GET " + HTTP_PATHS[index % HTTP_PATHS.length] + " HTTP/1.1\r\n"
+                        + "Host: api" + (index % 7) + ".example.com\r\n"
+                        + "User-Agent: okhttp/4.12.0\r\nAccept-Encoding: gzip\r\nConnection: keep-alive\r\n\r\n";
+                return ipv4(IpPacketParser.PROTOCOL_TCP, index,
+                        tcp(40000 + index, 80, request.getBytes(StandardCharsets.US_ASCII)));
+            default:
+                throw new IllegalArgumentException("unknown corpus " + kind);
+        }
+    }
+
+    private static byte[] ipv4(int protocol, int index, byte[] transport) {
+        ByteBuffer buffer = ByteBuffer.allocate(20 + transport.length);
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) buffer.capacity());
+        buffer.putShort((short) index).putShort((short) 0x4000);
+        buffer.put((byte) 64).put((byte) protocol).putShort((short) 0);
+        buffer.putInt(0x0A000002).putInt(0x8EFA0000 | (index & 0xFFFF));
+        buffer.put(transport);
+        return buffer.array();
+    }
+
+    private static byte[] ipv6(int protocol, int index, byte[] transport) {
+        ByteBuffer buffer = ByteBuffer.allocate(40 + transport.length);
+        buffer.putInt(0x60000000).putShort((short) transport.length).put((byte) protocol).put((byte) 64);
+        buffer.putLong(0xFD00000000000000L).putLong(2L);
+        buffer.putLong(0x2404680040050000L).putLong(0x200EL + index);
+        buffer.put(transport);
+        return buffer.array();
+    }
+
+    private static byte[] tcp(int sourcePort, int destinationPort, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(20 + payload.length);
+        buffer.putShort((short) sourcePort).putShort((short) destinationPort);
+        buffer.putInt(sourcePort * 7919).putInt(destinationPort * 104729);
+        buffer.put((byte) 0x50).put((byte) 0x18).putShort((short) 65535);
+        buffer.putShort((short) 0).putShort((short) 0);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    private static byte[] udp(int sourcePort, int destinationPort, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putShort((short) sourcePort).putShort((short) destinationPort);
+        buffer.putShort((short) buffer.capacity()).putShort((short) 0);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    private static byte[] filler(int seed, int length) {
+        byte[] payload = new byte[length];
+        int state = seed * 1103515245 + 12345;
+        for (int i = 0; i < length; i++) {
+            state = state * 1103515245 + 12345;
+            payload[i] = (byte) (state >>> 16);
+        }
+        return payload;
+    }
+
+    /**
+     * 读取 pcap 或 pcapng，只保留能定位到 IP 头的包。
+     */
+    private static byte[][] readCapture(byte[] file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        List<byte[]> packets = new ArrayList<>();
+        if (file.length < 24) {
+            throw new IOException("capture file too short");
+        }
+        int magic = buffer.order(ByteOrder.BIG_ENDIAN).getInt(0);
+        if (magic == PCAPNG_SECTION_HEADER) {
+            readPcapng(buffer, packets);
+        } else {
+            readPcap(buffer, packets);
+        }
+        if (packets.isEmpty()) {
+            throw new IOException("no IP packets in capture file");
+        }
+        return packets.toArray(new byte[0][]);
+    }
+
+    private static void readPcap(ByteBuffer buffer, List<byte[]> packets) throws IOException {
+        int magic = buffer.order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        if (magic != PCAP_MAGIC_MICROS && magic != PCAP_MAGIC_NANOS) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            magic = buffer.getInt(0);
+            if (magic != PCAP_MAGIC_MICROS && magic != PCAP_MAGIC_NANOS) {
+                throw new IOException("not a pcap or pcapng file");
+            }
+        }
+        int linkType = buffer.getInt(20);
+        int position = 24;
+        while (position + 16 <= buffer.limit()) {
+            int capturedLength = buffer.getInt(position + 8);
+            int dataStart = position + 16;
+            if (capturedLength < 0 || dataStart + capturedLength > buffer.limit()) {
+                break;
+            }
+            addPacket(buffer, dataStart, capturedLength, linkType, packets);
+            position = dataStart + capturedLength;
+        }
+    }
+
+    private static void readPcapng(ByteBuffer buffer, List<byte[]> packets) {
+        List<Integer> linkTypes = new ArrayList<>();
+        ByteOrder order = ByteOrder.BIG_ENDIAN;
+        int position = 0;
+        while (position + 12 <= buffer.limit()) {
+            // 节头块的类型值是回文，任意字节序读出来都一样
+            if (buffer.order(ByteOrder.BIG_ENDIAN).getInt(position) == PCAPNG_SECTION_HEADER) {
+                order = buffer.getInt(position + 8) == 0x1A2B3C4D ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+                linkTypes.clear();
+            }
+            buffer.order(order);
+            int type = buffer.getInt(position);
+            int blockLength = buffer.getInt(position + 4);
+            if (blockLength < 12 || position + blockLength > buffer.limit()) {
+                break;
+            }
+            if (type == PCAPNG_INTERFACE_DESCRIPTION) {
+                linkTypes.add(buffer.getShort(position + 8) & 0xFFFF);
+            } else if (type == PCAPNG_ENHANCED_PACKET) {
+                int interfaceId = buffer.getInt(position + 8);
+                int capturedLength = buffer.getInt(position + 20);
+                if (interfaceId >= 0 && interfaceId < linkTypes.size() && capturedLength > 0
+                        && capturedLength <= blockLength - 32) {
+                    addPacket(buffer, position + 28, capturedLength, linkTypes.get(interfaceId), packets);
+                }
+            }
+            position += blockLength;
+        }
+    }
+
+    private static void addPacket(ByteBuffer buffer, int offset, int length, int linkType, List<byte[]> packets) {
+        int skip;
+        switch (linkType) {
+            case LINKTYPE_RAW:
+            case LINKTYPE_IPV4:
+            case LINKTYPE_IPV6:
+                skip = 0;
+                break;
+            case LINKTYPE_NULL:
+                skip = 4;
+                break;
+            case LINKTYPE_LINUX_SLL:
+                skip = 16;
+                break;
+            case LINKTYPE_ETHERNET:
+                skip = 14;
+                if (length >= 18 && (buffer.get(offset + 12) & 0xFF) == 0x81 && buffer.get(offset + 13) == 0) {
+                    skip = 18;
+                }
+                break;
+            default:
+                return;
+        }
+        if (length <= skip) {
+            return;
+        }
+        int version = (buffer.get(offset + skip) >> 4) & 0x0F;
+        if (version != 4 && version != 6) {
+            return;
+        }
+        byte[] packet = new byte[length - skip];
+        System.arraycopy(buffer.array(), offset + skip, packet, 0, packet.length);
+        packets.add(packet);
+    }
+}
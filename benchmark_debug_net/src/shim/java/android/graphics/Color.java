@@ -0,0 +1,14 @@
+package android.graphics;
+
+/**
+ * 基准测试在 JVM 上运行，只提供被测代码用到的 {@link #rgb}，算法与 Android 一致。
+ */
+public final class Color {
+
+    private Color() {
+    }
+
+    public static int rgb(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+}
@@ -0,0 +1,336 @@
+package com.newchar.debug.core.traffic;
+
+import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.newchar.debug.utils.HandleWrapper;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 后台流量采样：按固定间隔在后台线程读取 TrafficStats，把速率写入定长的基本类型环形缓冲区
+ * @since 迭代版本，（以及描述）
+ *
+ * 每个采样点记录本应用 UID 的收发字节与包数、设备移动网络与全部网卡的收发字节，均换算为每秒速率。
+ * 读取 TrafficStats 只发生在采样线程；界面通过 {@link #getLatest}、{@link #getMovingAverage}、
+ * {@link #getPeak}、{@link #copySeries} 读取内存中的数据，不会在主线程做 I/O。
+ */
+public final class TrafficSampler {
+
+    public static final int METRIC_UID_RX_BYTES = 0;
+    public static final int METRIC_UID_TX_BYTES = 1;
+    public static final int METRIC_UID_RX_PACKETS = 2;
+    public static final int METRIC_UID_TX_PACKETS = 3;
+    public static final int METRIC_MOBILE_RX_BYTES = 4;
+    public static final int METRIC_MOBILE_TX_BYTES = 5;
+    public static final int METRIC_TOTAL_RX_BYTES = 6;
+    public static final int METRIC_TOTAL_TX_BYTES = 7;
+    public static final int METRIC_COUNT = 8;
+
+    private static final char[] SPARK_CHARS = {'▁', '▂', '▃', '▄', '▅', '▆', '▇', '█'};
+
+    private final int mUid;
+    private final long mIntervalMs;
+    private final int mCapacity;
+    /** 各采样点的速率，按 [slot * METRIC_COUNT + metric] 平铺。 */
+    private final long[] mRates;
+    private final long[] mTimes;
+    /** 上一次读到的累计值，只在采样线程访问。 */
+    private final long[] mLastCounters = new long[METRIC_COUNT];
+    private final long[] mCounters = new long[METRIC_COUNT];
+    private final Object mLock = new Object();
+    private int mHead;
+    private int mSize;
+    private long mLastSampleTimeMs;
+    private long mLastUidRxTotal;
+    private long mLastUidTxTotal;
+    private Handler mHandler;
+    private volatile boolean mRunning;
+
+    private TrafficSampler(Builder builder) {
+        mUid = builder.mUid;
+        mIntervalMs = builder.mIntervalMs;
+        mCapacity = builder.mCapacity;
+        mRates = new long[mCapacity * METRIC_COUNT];
+        mTimes = new long[mCapacity];
+    }
+
+    /**
+     * 开始后台采样，重复调用无副作用。
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        if (mHandler == null) {
+            mHandler = HandleWrapper.obtainAsyncHandler(null);
+        }
+        mLastSampleTimeMs = 0L;
+        mHandler.post(mSampleTask);
+    }
+
+    /**
+     * 停止采样，已有数据保留。
+     */
+    public synchronized void stop() {
+        mRunning = false;
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mSampleTask);
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 清空已采样的数据。
+     */
+    public void clear() {
+        synchronized (mLock) {
+            mHead = 0;
+            mSize = 0;
+        }
+    }
+
+    /**
+     * 获取采样间隔。
+     *
+     * @return 毫秒
+     */
+    public long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /**
+     * 获取环形缓冲区能保存的采样点数量。
+     *
+     * @return 采样点数量
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 获取已保存的采样点数量。
+     *
+     * @return 采样点数量
+     */
+    public int getSampleCount() {
+        synchronized (mLock) {
+            return mSize;
+        }
+    }
+
+    /**
+     * 最近一次采样的本应用流量，与 {@link TrafficMonitor#sample()} 的结果含义相同，尚未采样时返回 null。
+     *
+     * @return 流量采样信息
+     */
+    public TrafficInfo getLatest() {
+        synchronized (mLock) {
+            if (mSize == 0) {
+                return null;
+            }
+            int base = newestSlot() * METRIC_COUNT;
+            return new TrafficInfo(mLastUidRxTotal, mLastUidTxTotal, mRates[base + METRIC_UID_RX_BYTES],
+                    mRates[base + METRIC_UID_TX_BYTES], mTimes[newestSlot()]);
+        }
+    }
+
+    /**
+     * 最近 windowSamples 个采样点的平均速率。
+     *
+     * @param metric        METRIC_* 之一
+     * @param windowSamples 窗口大小，超过已有数量时取全部
+     * @return 每秒的平均值，没有数据时为 0
+     */
+    public long getMovingAverage(int metric, int windowSamples) {
+        checkMetric(metric);
+        synchronized (mLock) {
+            int count = Math.min(Math.max(1, windowSamples), mSize);
+            if (count == 0) {
+                return 0L;
+            }
+            long sum = 0L;
+            for (int i = 0; i < count; i++) {
+                sum += mRates[slotFromNewest(i) * METRIC_COUNT + metric];
+            }
+            return sum / count;
+        }
+    }
+
+    /**
+     * 最近 windowSamples 个采样点中的最大速率。
+     *
+     * @param metric        METRIC_* 之一
+     * @param windowSamples 窗口大小，超过已有数量时取全部
+     * @return 每秒的峰值，没有数据时为 0
+     */
+    public long getPeak(int metric, int windowSamples) {
+        checkMetric(metric);
+        synchronized (mLock) {
+            int count = Math.min(Math.max(1, windowSamples), mSize);
+            long peak = 0L;
+            for (int i = 0; i < count; i++) {
+                peak = Math.max(peak, mRates[slotFromNewest(i) * METRIC_COUNT + metric]);
+            }
+            return peak;
+        }
+    }
+
+    /**
+     * 把最近的采样值按从旧到新拷贝到 out 末尾对齐的位置，用于绘制折线/迷你图。
+     *
+     * @param metric METRIC_* 之一
+     * @param out    输出数组，长度即需要的点数
+     * @return 实际拷贝的点数，位于 out 的最后这么多个元素
+     */
+    public int copySeries(int metric, long[] out) {
+        checkMetric(metric);
+        synchronized (mLock) {
+            int count = Math.min(out.length, mSize);
+            for (int i = 0; i < count; i++) {
+                out[out.length - 1 - i] = mRates[slotFromNewest(i) * METRIC_COUNT + metric];
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 用方块字符画出最近 width 个采样点的迷你图，按窗口内峰值归一化。
+     *
+     * @param metric METRIC_* 之一
+     * @param width  字符数
+     * @return 迷你图文本，没有数据时为空字符串
+     */
+    public String buildSparkline(int metric, int width) {
+        long[] series = new long[Math.max(1, width)];
+        int count = copySeries(metric, series);
+        long peak = 0L;
+        for (int i = series.length - count; i < series.length; i++) {
+            peak = Math.max(peak, series[i]);
+        }
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = series.length - count; i < series.length; i++) {
+            int level = peak == 0L ? 0 : (int) (series[i] * (SPARK_CHARS.length - 1) / peak);
+            builder.append(SPARK_CHARS[level]);
+        }
+        return builder.toString();
+    }
+
+    private final Runnable mSampleTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            sampleOnce();
+            mHandler.postDelayed(this, mIntervalMs);
+        }
+    };
+
+    private void sampleOnce() {
+        long nowMs = SystemClock.elapsedRealtime();
+        long[] counters = mCounters;
+        counters[METRIC_UID_RX_BYTES] = TrafficStats.getUidRxBytes(mUid);
+        counters[METRIC_UID_TX_BYTES] = TrafficStats.getUidTxBytes(mUid);
+        counters[METRIC_UID_RX_PACKETS] = TrafficStats.getUidRxPackets(mUid);
+        counters[METRIC_UID_TX_PACKETS] = TrafficStats.getUidTxPackets(mUid);
+        counters[METRIC_MOBILE_RX_BYTES] = TrafficStats.getMobileRxBytes();
+        counters[METRIC_MOBILE_TX_BYTES] = TrafficStats.getMobileTxBytes();
+        counters[METRIC_TOTAL_RX_BYTES] = TrafficStats.getTotalRxBytes();
+        counters[METRIC_TOTAL_TX_BYTES] = TrafficStats.getTotalTxBytes();
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            // 不支持的统计返回 UNSUPPORTED(-1)，按 0 处理
+            counters[i] = Math.max(0L, counters[i]);
+        }
+        long previousTimeMs = mLastSampleTimeMs;
+        mLastSampleTimeMs = nowMs;
+        if (previousTimeMs == 0L) {
+            // 第一次只记录基准值
+            System.arraycopy(counters, 0, mLastCounters, 0, METRIC_COUNT);
+            return;
+        }
+        long durationMs = Math.max(1L, nowMs - previousTimeMs);
+        synchronized (mLock) {
+            int slot = mSize < mCapacity ? (mHead + mSize) % mCapacity : mHead;
+            int base = slot * METRIC_COUNT;
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                // 计数器在网卡重置等情况下可能回退，回退的这一段按 0 计
+                long delta = Math.max(0L, counters[i] - mLastCounters[i]);
+                mRates[base + i] = delta * 1000L / durationMs;
+            }
+            mTimes[slot] = nowMs;
+            if (mSize < mCapacity) {
+                mSize++;
+            } else {
+                mHead = (mHead + 1) % mCapacity;
+            }
+            mLastUidRxTotal = counters[METRIC_UID_RX_BYTES];
+            mLastUidTxTotal = counters[METRIC_UID_TX_BYTES];
+        }
+        System.arraycopy(counters, 0, mLastCounters, 0, METRIC_COUNT);
+    }
+
+    private int newestSlot() {
+        return slotFromNewest(0);
+    }
+
+    private int slotFromNewest(int index) {
+        return (mHead + mSize - 1 - index) % mCapacity;
+    }
+
+    private static void checkMetric(int metric) {
+        if (metric < 0 || metric >= METRIC_COUNT) {
+            throw new IllegalArgumentException("unknown metric " + metric);
+        }
+    }
+
+    public static final class Builder {
+
+        private int mUid = Process.myUid();
+        private long mIntervalMs = 1000L;
+        private int mCapacity = 120;
+
+        /**
+         * 设置要统计的 UID，默认为本进程。
+         *
+         * @param uid 应用 UID
+         * @return Builder
+         */
+        public Builder setUid(int uid) {
+            mUid = uid;
+            return this;
+        }
+
+        /**
+         * 设置采样间隔，最小 100 毫秒。
+         *
+         * @param intervalMs 采样间隔
+         * @return Builder
+         */
+        public Builder setIntervalMs(long intervalMs) {
+            mIntervalMs = Math.max(100L, intervalMs);
+            return this;
+        }
+
+        /**
+         * 设置保留的采样点数量。
+         *
+         * @param capacity 采样点数量，至少 2
+         * @return Builder
+         */
+        public Builder setCapacity(int capacity) {
+            mCapacity = Math.max(2, capacity);
+            return this;
+        }
+
+        public TrafficSampler build() {
+            return new TrafficSampler(this);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.newchar.debug.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 按序号排列的级别与标签列，每条日志 5 个字节，只在主线程修改；
+ * 过滤时复制一份快照交给后台线程，后台只读数组，不碰 LogStore 与文件
+ * @since 迭代版本，（以及描述）
+ */
+final class LogColumns {
+
+    static final int NO_TAG = 0;
+
+    private final Map<String, Integer> mTagIds = new HashMap<>();
+    private final ArrayList<String> mTags = new ArrayList<>();
+    private byte[] mLevels = new byte[1024];
+    private int[] mTagColumn = new int[1024];
+    /**
+     * 数组第 0 个元素对应的序号
+     */
+    private long mBaseSequence;
+    private int mSize;
+
+    LogColumns() {
+        mTags.add("");
+        mTagIds.put("", NO_TAG);
+    }
+
+    /**
+     * @param tag 标签
+     * @return 标签编号，空标签为 {@link #NO_TAG}
+     */
+    int internTag(String tag) {
+        Integer id = mTagIds.get(tag);
+        if (id == null) {
+            id = mTags.size();
+            mTags.add(tag);
+            mTagIds.put(tag, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param tag 标签
+     * @return 已有的标签编号，从未出现过时返回 -1
+     */
+    int findTag(String tag) {
+        Integer id = mTagIds.get(tag == null ? "" : tag);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 追加下一条日志的列数据
+     */
+    void add(int level, int tagId) {
+        if (mSize == mLevels.length) {
+            mLevels = Arrays.copyOf(mLevels, mSize * 2);
+            mTagColumn = Arrays.copyOf(mTagColumn, mSize * 2);
+        }
+        mLevels[mSize] = (byte) level;
+        mTagColumn[mSize] = tagId;
+        mSize++;
+    }
+
+    int getLevel(long sequence) {
+        return mLevels[(int) (sequence - mBaseSequence)];
+    }
+
+    int getTag(long sequence) {
+        return mTagColumn[(int) (sequence - mBaseSequence)];
+    }
+
+    /**
+     * 清空列数据，下一条追加的日志序号为 sequence；标签编号保留
+     */
+    void reset(long sequence) {
+        mBaseSequence = sequence;
+        mSize = 0;
+    }
+
+    /**
+     * 丢弃序号早于 firstSequence 的列数据，丢弃的部分超过一半时才整体前移
+     */
+    void discardBefore(long firstSequence) {
+        int stale = (int) Math.min(mSize, firstSequence - mBaseSequence);
+        if (stale <= 0 || stale < mSize - stale) {
+            return;
+        }
+        System.arraycopy(mLevels, stale, mLevels, 0, mSize - stale);
+        System.arraycopy(mTagColumn, stale, mTagColumn, 0, mSize - stale);
+        mSize -= stale;
+        mBaseSequence += stale;
+    }
+
+    /**
+     * 复制 [firstSequence, 末尾) 的列数据
+     */
+    Snapshot snapshot(long firstSequence) {
+        int from = (int) Math.max(0L, firstSequence - mBaseSequence);
+        return new Snapshot(mBaseSequence + from,
+                Arrays.copyOfRange(mLevels, from, mSize),
+                Arrays.copyOfRange(mTagColumn, from, mSize));
+    }
+
+    static final class Snapshot {
+
+        final long firstSequence;
+        final byte[] levels;
+        final int[] tags;
+
+        Snapshot(long firstSequence, byte[] levels, int[] tags) {
+            this.firstSequence = firstSequence;
+            this.levels = levels;
+            this.tags = tags;
+        }
+
+        long endSequence() {
+            return firstSequence + levels.length;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.newchar.debug.log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 日志列表的过滤条件：级别、标签与文本检索，三者同时满足才显示；不设置的一项不参与过滤
+ * @since 迭代版本，（以及描述）
+ */
+public final class LogFilter {
+
+    /**
+     * 按级别取位，0 表示不按级别过滤
+     */
+    private final int mLevelMask;
+    private final Set<String> mTags;
+    private final LogQuery mQuery;
+
+    private LogFilter(Builder builder) {
+        mLevelMask = builder.levelMask;
+        mTags = builder.tags.isEmpty()
+                ? Collections.<String>emptySet() : Collections.unmodifiableSet(new HashSet<>(builder.tags));
+        mQuery = builder.query;
+    }
+
+    /**
+     * @return 只显示错误日志的过滤条件
+     */
+    public static LogFilter errorsOnly() {
+        return new Builder().setLevels(LogItem.LEVEL_LOG_ERROR).build();
+    }
+
+    public boolean matchesLevel(int level) {
+        return mLevelMask == 0 || (level >= 0 && level < 32 && (mLevelMask & (1 << level)) != 0);
+    }
+
+    int getLevelMask() {
+        return mLevelMask;
+    }
+
+    public Set<String> getTags() {
+        return mTags;
+    }
+
+    public LogQuery getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * @return 没有任何过滤条件
+     */
+    public boolean isEmpty() {
+        return mLevelMask == 0 && mTags.isEmpty() && mQuery == null;
+    }
+
+    /**
+     * 只在主线程调用，文本检索复用同一个 Matcher
+     *
+     * @param item 日志
+     * @return 是否显示
+     */
+    public boolean matches(LogItem item) {
+        return matchesLevel(item.getLogLevel())
+                && (mTags.isEmpty() || mTags.contains(item.getTag()))
+                && (mQuery == null || mQuery.matches(item.getLogText()));
+    }
+
+    public static final class Builder {
+
+        private int levelMask;
+        private final Set<String> tags = new HashSet<>();
+        private LogQuery query;
+
+        public Builder() {
+        }
+
+        public Builder(LogFilter filter) {
+            levelMask = filter.mLevelMask;
+            tags.addAll(filter.mTags);
+            query = filter.mQuery;
+        }
+
+        /**
+         * 只显示这些级别，不传则不按级别过滤
+         */
+        public Builder setLevels(int... levels) {
+            levelMask = 0;
+            for (int level : levels) {
+                if (level >= 0 && level < 32) {
+                    levelMask |= 1 << level;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 只显示不低于 minLevel 的级别
+         */
+        public Builder setMinLevel(int minLevel) {
+            levelMask = minLevel <= 0 ? 0 : -1 << Math.min(31, minLevel);
+            return this;
+        }
+
+        /**
+         * 只显示这些标签，不传则不按标签过滤
+         */
+        public Builder setTags(String... tags) {
+            this.tags.clear();
+            if (tags != null) {
+                this.tags.addAll(Arrays.asList(tags));
+            }
+            return this;
+        }
+
+        public Builder setQuery(LogQuery query) {
+            this.query = query;
+            return this;
+        }
+
+        public LogFilter build() {
+            return new LogFilter(this);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.newchar.debug.log;
+
+import android.os.Handler;
+
+import com.newchar.debug.utils.HandleWrapper;
+
+import java.util.Arrays;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 在后台线程执行文本检索，再按级别与标签列快照算出过滤结果，回到主线程交给调用方一次性替换；
+ * 文本检索的结果一并交回，调用方只改级别或标签时可以沿用
+ * @since 迭代版本，（以及描述）
+ */
+final class LogFilterEngine {
+
+    interface Callback {
+
+        /**
+         * 主线程回调
+         *
+         * @param generation    提交时的编号，调用方据此丢弃过期的结果
+         * @param sequences     匹配的日志序号，升序
+         * @param size          sequences 中有效的个数
+         * @param endSequence   快照末尾的序号（不含），之后追加的日志需要调用方自行补上
+         * @param textSequences 文本检索匹配的序号，升序，截止到 endSequence；没有文本条件时为 null
+         */
+        void onFiltered(int generation, long[] sequences, int size, long endSequence, long[] textSequences);
+    }
+
+    private final Handler mWorkHandler = HandleWrapper.obtainAsyncHandler(null);
+    private final Handler mMainHandler = HandleWrapper.getMainHandler();
+
+    /**
+     * 主线程调用
+     *
+     * @param generation    本次过滤的编号
+     * @param levelMask     级别掩码，0 不按级别过滤
+     * @param tagIds        允许的标签编号，null 不按标签过滤
+     * @param textSearch    文本检索，与 snapshot 同时准备；null 不按文本过滤
+     * @param snapshot      级别与标签列的快照
+     * @param callback      结果回调
+     */
+    void submit(final int generation, final int levelMask, final int[] tagIds, final LogTextSearch textSearch,
+                final LogColumns.Snapshot snapshot, final Callback callback) {
+        mWorkHandler.post(() -> {
+            long[] textSequences = null;
+            if (textSearch != null) {
+                Result textResult = textSearch.run();
+                textSequences = Arrays.copyOf(textResult.sequences, textResult.size);
+            }
+            final long[] texts = textSequences;
+            final Result result = filter(levelMask, tagIds, texts, snapshot);
+            mMainHandler.post(() -> callback.onFiltered(generation, result.sequences, result.size,
+                    snapshot.endSequence(), texts));
+        });
+    }
+
+    /**
+     * 可在任意线程调用，只读快照
+     *
+     * @return 匹配的序号
+     */
+    static Result filter(int levelMask, int[] tagIds, long[] textSequences, LogColumns.Snapshot snapshot) {
+        boolean[] allowedTags = null;
+        if (tagIds != null) {
+            int maxTag = 0;
+            for (int tagId : tagIds) {
+                maxTag = Math.max(maxTag, tagId);
+            }
+            allowedTags = new boolean[maxTag + 1];
+            for (int tagId : tagIds) {
+                allowedTags[tagId] = true;
+            }
+        }
+        long first = snapshot.firstSequence;
+        int count = snapshot.levels.length;
+        Result result = new Result(Math.min(count, 1024));
+        if (textSequences != null) {
+            // 文本检索的结果通常远少于全部日志，只检查这些
+            for (long sequence : textSequences) {
+                long offset = sequence - first;
+                if (offset >= 0 && offset < count && accept((int) offset, levelMask, allowedTags, snapshot)) {
+                    result.add(sequence);
+                }
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                if (accept(i, levelMask, allowedTags, snapshot)) {
+                    result.add(first + i);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean accept(int offset, int levelMask, boolean[] allowedTags, LogColumns.Snapshot snapshot) {
+        int level = snapshot.levels[offset];
+        if (levelMask != 0 && (level < 0 || level >= 32 || (levelMask & (1 << level)) == 0)) {
+            return false;
+        }
+        if (allowedTags != null) {
+            int tag = snapshot.tags[offset];
+            return tag < allowedTags.length && allowedTags[tag];
+        }
+        return true;
+    }
+
+    static final class Result {
+
+        long[] sequences;
+        int size;
+
+        Result(int capacity) {
+            sequences = new long[Math.max(16, capacity)];
+        }
+
+        void add(long sequence) {
+            if (size == sequences.length) {
+                sequences = Arrays.copyOf(sequences, size * 2);
+            }
+            sequences[size++] = sequence;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.newchar.debug.log;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.newchar.debug.utils.HandleWrapper;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 日志写入通道：任意线程写入有界无锁队列，主线程按帧率上限批量合并到 {@link LogViewAdapter}
+ * @since 迭代版本，（以及描述）
+ */
+public final class LogIngestor {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_FRAME_RATE = 30;
+    /**
+     * 单次刷新最多合并的条数，积压更多时分到后续几帧，避免一次刷新卡住主线程。
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final LogRingQueue<LogItem> mQueue;
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+    private final Handler mMainHandler = HandleWrapper.getMainHandler();
+    private volatile long mFrameIntervalMs = 1000L / DEFAULT_FRAME_RATE;
+    private volatile long mLastFlushUptimeMs;
+
+    // 以下字段只在主线程访问
+    private final ArrayList<LogItem> mBatch = new ArrayList<>();
+    private LogViewAdapter mAdapter;
+    private long mReportedDroppedCount;
+
+    public LogIngestor() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 积压上限，向上取整到 2 的幂；写满后新日志被丢弃并计数
+     */
+    public LogIngestor(int capacity) {
+        mQueue = new LogRingQueue<>(capacity);
+    }
+
+    /**
+     * 主线程调用，设置接收日志的列表，传 null 暂停合并（日志继续在队列中积压）
+     *
+     * @param adapter 日志列表
+     */
+    public void attach(LogViewAdapter adapter) {
+        mAdapter = adapter;
+        if (adapter != null && mQueue.size() > 0) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * 列表每秒最多刷新几次，默认 30
+     *
+     * @param fps 帧率上限
+     */
+    public void setMaxFrameRate(int fps) {
+        mFrameIntervalMs = 1000L / Math.max(1, Math.min(60, fps));
+    }
+
+    /**
+     * 任意线程调用，不阻塞
+     *
+     * @param item 日志
+     * @return false 表示积压已满，日志被丢弃
+     */
+    public boolean offer(LogItem item) {
+        if (item == null) {
+            return false;
+        }
+        if (!mQueue.offer(item)) {
+            mDroppedCount.incrementAndGet();
+            return false;
+        }
+        scheduleFlush();
+        return true;
+    }
+
+    /**
+     * @return 积压已满而丢弃的日志总数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * @return 尚未合并到列表的日志数量（近似值）
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
+
+    public int getCapacity() {
+        return mQueue.capacity();
+    }
+
+    /**
+     * 主线程调用，丢弃尚未合并的日志
+     */
+    public void clear() {
+        while (mQueue.poll() != null) {
+            // 只是清空
+        }
+        mReportedDroppedCount = mDroppedCount.get();
+    }
+
+    /**
+     * 把刷新对齐到帧间隔：距上次刷新不足一帧时延后执行，期间写入的日志合并到同一次刷新。
+     */
+    private void scheduleFlush() {
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            long delay = mLastFlushUptimeMs + mFrameIntervalMs - SystemClock.uptimeMillis();
+            mMainHandler.postDelayed(mFlushTask, Math.max(0L, delay));
+        }
+    }
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            // 先清标记再取数据，取数据期间写入的日志会重新安排一次刷新
+            mFlushScheduled.set(false);
+            mLastFlushUptimeMs = SystemClock.uptimeMillis();
+            LogViewAdapter adapter = mAdapter;
+            if (adapter == null) {
+                return;
+            }
+            mQueue.drainTo(mBatch, MAX_BATCH_SIZE);
+            long dropped = mDroppedCount.get();
+            if (dropped > mReportedDroppedCount) {
+                mBatch.add(LogViewAdapter.createLogItem(LogItem.UI_CONFIG_WARNING_LOG,
+                        "日志写入过快，积压超过 " + mQueue.capacity() + " 条，已丢弃 "
+                                + (dropped - mReportedDroppedCount) + " 条"));
+                mReportedDroppedCount = dropped;
+            }
+            if (!mBatch.isEmpty()) {
+                adapter.addLogItems(mBatch);
+                mBatch.clear();
+            }
+            if (mQueue.size() > 0) {
+                scheduleFlush();
+            }
+        }
+    };
+}
@@ -8,9 +8,12 @@ import com.newchar.debug.utils.DebugUtils;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
 
 /**
@@ -30,8 +33,17 @@ public final class LogItem {
     public static final LogUIConfig UI_CONFIG_WARNING_LOG = new LogUIConfig(Color.YELLOW, Color.BLACK);
     public static final LogUIConfig UI_CONFIG_INFO_LOG = new LogUIConfig(Color.GREEN, Color.WHITE);
 
-    //    private int mLogLevel = LEVEL_LOG_DEFAULT;
+    private int mLogLevel = LEVEL_LOG_DEFAULT;
     private LogUIConfig mLogUIConfig = UI_CONFIG_ERROR_LOG;
+    private String mTag = "";
+    /**
+     * 创建日志的线程，日志可能在任意线程创建，入队后才切到主线程
+     */
+    private String mThreadName = Thread.currentThread().getName();
+    /**
+     * 附带的键值字段，按添加顺序展示；没有字段时为 null
+     */
+    private Map<String, String> mFields;
 
     private List<Bitmap> mThumbnailImage;
     private WeakHashMap<Bitmap, Long> mImageLogRef = null;
@@ -39,8 +51,22 @@ public final class LogItem {
 
 //    private byte mLogType = TYPE_LOG_TEXT;
 
+    /**
+     * 对象头与字段的粗略开销，用于 {@link #estimateBytes()}
+     */
+    private static final int ITEM_OVERHEAD_BYTES = 96;
+    /**
+     * SimpleDateFormat 不是线程安全的，日志可能在任意线程创建与格式化，按线程各持有一个，不再每条日志一个
+     */
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        }
+    };
+
     private long mLogSystemStamp = System.currentTimeMillis();
-    private final SimpleDateFormat mDataFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private int mReleasedImageCount;
 
     public LogItem() {
     }
@@ -79,6 +105,115 @@ public final class LogItem {
         }
     }
 
+    public int getLogLevel() {
+        return mLogLevel;
+    }
+
+    /**
+     * 设置级别，不改变展示样式；按级别取默认样式见 {@link #uiConfigOf(int)}
+     *
+     * @param logLevel {@link #LEVEL_LOG_INFO}、{@link #LEVEL_LOG_WARN}、{@link #LEVEL_LOG_ERROR}
+     */
+    public void setLogLevel(int logLevel) {
+        this.mLogLevel = logLevel;
+    }
+
+    public String getTag() {
+        return mTag;
+    }
+
+    public void setTag(String tag) {
+        this.mTag = tag == null ? "" : tag;
+    }
+
+    public String getThreadName() {
+        return mThreadName;
+    }
+
+    public void setThreadName(String threadName) {
+        this.mThreadName = threadName == null ? "" : threadName;
+    }
+
+    /**
+     * 添加一个键值字段，同名覆盖
+     *
+     * @param key   字段名
+     * @param value 字段值
+     */
+    public void putField(String key, String value) {
+        if (key == null) {
+            return;
+        }
+        if (mFields == null) {
+            mFields = new LinkedHashMap<>();
+        }
+        mFields.put(key, value == null ? "" : value);
+    }
+
+    /**
+     * @return 只读的键值字段，没有时为空
+     */
+    public Map<String, String> getFields() {
+        return mFields == null ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(mFields);
+    }
+
+    /**
+     * 列表中展示的文本：标签、正文与键值字段
+     *
+     * @return 展示文本
+     */
+    public String getDisplayText() {
+        if (mTag.isEmpty() && mFields == null) {
+            return mLogText;
+        }
+        StringBuilder builder = new StringBuilder();
+        if (!mTag.isEmpty()) {
+            builder.append(mTag).append(": ");
+        }
+        builder.append(mLogText);
+        if (mFields != null) {
+            builder.append(" {");
+            boolean first = true;
+            for (Map.Entry<String, String> field : mFields.entrySet()) {
+                if (!first) {
+                    builder.append(", ");
+                }
+                builder.append(field.getKey()).append('=').append(field.getValue());
+                first = false;
+            }
+            builder.append('}');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param config 展示样式
+     * @return 内置样式对应的级别，自定义样式返回 0
+     */
+    public static int levelOf(LogUIConfig config) {
+        if (config == UI_CONFIG_ERROR_LOG) {
+            return LEVEL_LOG_ERROR;
+        } else if (config == UI_CONFIG_WARNING_LOG) {
+            return LEVEL_LOG_WARN;
+        } else if (config == UI_CONFIG_INFO_LOG) {
+            return LEVEL_LOG_INFO;
+        }
+        return 0;
+    }
+
+    /**
+     * @param level 级别
+     * @return 级别对应的内置样式，未知级别按错误展示
+     */
+    public static LogUIConfig uiConfigOf(int level) {
+        if (level == LEVEL_LOG_INFO) {
+            return UI_CONFIG_INFO_LOG;
+        } else if (level == LEVEL_LOG_WARN) {
+            return UI_CONFIG_WARNING_LOG;
+        }
+        return UI_CONFIG_ERROR_LOG;
+    }
+
     public LogUIConfig getLogUIConfig() {
         return mLogUIConfig;
     }
@@ -88,7 +223,11 @@ public final class LogItem {
     }
 
     public String getLogTimeStamp() {
-        return mDataFormat.format(new Date(mLogSystemStamp));
+        return DATE_FORMAT.get().format(new Date(mLogSystemStamp));
+    }
+
+    public long getLogSystemStamp() {
+        return mLogSystemStamp;
     }
 
     public void setLogTimeStamp(long logSystemStamp) {
@@ -132,6 +271,70 @@ public final class LogItem {
         return mImageLogRef.keySet();
     }
 
+    /**
+     * 估算本条日志占用的堆内存：文本按 UTF-16 计，缩略图按实际分配的像素内存计。
+     * 原图只以弱引用持有，不计入。
+     *
+     * @return 字节数
+     */
+    public int estimateBytes() {
+        int bytes = ITEM_OVERHEAD_BYTES + (mLogText == null ? 0 : mLogText.length() * 2)
+                + (mTag.length() + mThreadName.length()) * 2;
+        if (mFields != null) {
+            for (Map.Entry<String, String> field : mFields.entrySet()) {
+                bytes += ITEM_OVERHEAD_BYTES / 2 + (field.getKey().length() + field.getValue().length()) * 2;
+            }
+        }
+        final List<Bitmap> thumbnailImage = mThumbnailImage;
+        if (thumbnailImage != null) {
+            for (Bitmap bitmap : thumbnailImage) {
+                if (bitmap != null && !bitmap.isRecycled()) {
+                    bytes += bitmap.getAllocationByteCount();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 释放缩略图。压缩时可能直接复用了调用方传入的原图，这种缩略图只断开引用，不回收。
+     */
+    public void releaseImages() {
+        final List<Bitmap> thumbnailImage = mThumbnailImage;
+        mThumbnailImage = null;
+        final WeakHashMap<Bitmap, Long> originImages = mImageLogRef;
+        mImageLogRef = null;
+        if (thumbnailImage == null) {
+            return;
+        }
+        mReleasedImageCount = thumbnailImage.size();
+        for (Bitmap bitmap : thumbnailImage) {
+            if (bitmap == null || bitmap.isRecycled()
+                    || (originImages != null && originImages.containsKey(bitmap))) {
+                continue;
+            }
+            try {
+                bitmap.recycle();
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return 被 {@link #releaseImages()} 释放的缩略图数量
+     */
+    public int getReleasedImageCount() {
+        return mReleasedImageCount;
+    }
+
+    /**
+     * @return 附带的图片数量，含已释放的
+     */
+    public int getImageCount() {
+        final List<Bitmap> thumbnailImage = mThumbnailImage;
+        return thumbnailImage != null ? thumbnailImage.size() : mReleasedImageCount;
+    }
+
     public static final class LogUIConfig {
 
         int itemBgColor = Color.RED;
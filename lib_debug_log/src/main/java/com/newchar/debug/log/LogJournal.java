@@ -0,0 +1,627 @@
+package com.newchar.debug.log;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 日志的持久化存储：每条日志（级别、标签、线程、时间戳、文本、键值字段、图片数）编码为紧凑的二进制记录，追加写入内存映射的分段文件，
+ * 内存中只保留每条记录的偏移索引，按序号随机读回；写入即落到页缓存，进程被杀后重新打开仍可读回。
+ * 创建与映射新分段、删除旧分段都交给后台线程：总是预先建好下一个空分段，写满当前分段时直接换上
+ * @since 迭代版本，（以及描述）
+ */
+final class LogJournal {
+
+    private static final String TAG = "LogJournal";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    /**
+     * 分段文件头：魔数与版本号
+     */
+    private static final int SEGMENT_MAGIC = 0x444C4F47;
+    /**
+     * 2：记录中增加标签、线程名与键值字段；旧版本的分段打开时直接删除
+     */
+    private static final int SEGMENT_VERSION = 2;
+    private static final int SEGMENT_HEADER_BYTES = 4 + 4;
+    /**
+     * 记录长度前缀，整条记录写完后最后写入；为 0 表示分段到此为止，写到一半被杀的记录也就不会被读到
+     */
+    private static final int LENGTH_PREFIX_BYTES = 4;
+    /**
+     * 时间戳、级别、背景色、文字色、图片数、文本长度、附加信息长度；附加信息为标签、线程名与键值字段，跟在文本后面
+     */
+    private static final int RECORD_HEADER_BYTES = 8 + 1 + 4 + 4 + 2 + 4 + 4;
+    private static final int TEXT_LENGTH_OFFSET = 19;
+    private static final int EXTRA_LENGTH_OFFSET = 23;
+    /**
+     * 标签与线程名超出时截断，正常不会这么长
+     */
+    private static final int MAX_NAME_LENGTH = 256;
+    private static final int MIN_SEGMENT_BYTES = 64 * 1024;
+
+    private final File mDirectory;
+    private final int mSegmentBytes;
+    private final int mMaxSegmentCount;
+    private final ArrayList<Segment> mSegments = new ArrayList<>();
+    /**
+     * 分段文件的创建与删除在这个线程上进行，为 null 时直接在调用线程完成
+     */
+    private final Handler mIoHandler;
+    /**
+     * 后台预先建好的下一个分段，由后台线程写入，主线程取走
+     */
+    private volatile Segment mSpare;
+    private boolean mSparePending;
+    /**
+     * 主线程等着的预建分段编号，后台交来的分段编号对不上就是已作废的那个，不能接着用
+     */
+    private int mSpareId = -1;
+    private int mCount;
+    /**
+     * 第一条保留记录的绝对序号，删除最早的分段时增加，供调用方按绝对序号缓存读回的日志
+     */
+    private long mFirstSequence;
+    private int mNextSegmentId;
+
+    /**
+     * 打开目录中已有的分段并重建索引。打开要映射并扫描全部分段，应在 ioHandler 的线程上创建，之后只在主线程使用
+     *
+     * @param directory    分段文件所在目录
+     * @param segmentBytes 单个分段的大小
+     * @param maxBytes     全部分段的大小上限，超出时删除最早的分段
+     * @param ioHandler    创建与删除分段的后台线程，null 时直接在调用线程完成
+     * @throws IOException 目录不可用或分段无法映射
+     */
+    LogJournal(File directory, int segmentBytes, long maxBytes, Handler ioHandler) throws IOException {
+        mDirectory = directory;
+        mSegmentBytes = Math.max(MIN_SEGMENT_BYTES, segmentBytes);
+        mMaxSegmentCount = (int) Math.max(2L, maxBytes / mSegmentBytes);
+        mIoHandler = ioHandler;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("mkdirs failed: " + directory);
+        }
+        open();
+        prepareSpare();
+    }
+
+    /**
+     * @return 保留的记录数
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    /**
+     * 追加一条日志，图片只记录数量；只有一个分段大小的超长日志截断文本
+     *
+     * @param item 日志
+     * @throws IOException 新分段无法创建或映射
+     */
+    void append(LogItem item) throws IOException {
+        byte[] text = item.getLogText().getBytes(StandardCharsets.UTF_8);
+        int maxBodyBytes = mSegmentBytes - SEGMENT_HEADER_BYTES - LENGTH_PREFIX_BYTES - RECORD_HEADER_BYTES;
+        byte[] extra = encodeExtra(item, true);
+        if (extra.length > maxBodyBytes / 2) {
+            // 字段过大时舍弃字段，保证正文能写下
+            extra = encodeExtra(item, false);
+        }
+        int textLength = Math.min(text.length, maxBodyBytes - extra.length);
+        int recordBytes = LENGTH_PREFIX_BYTES + RECORD_HEADER_BYTES + textLength + extra.length;
+
+        Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+        if (segment == null || segment.writePosition + recordBytes > mSegmentBytes) {
+            segment = nextSegment();
+        }
+        LogItem.LogUIConfig config = item.getLogUIConfig();
+        MappedByteBuffer buffer = segment.buffer;
+        int position = segment.writePosition;
+        int payload = position + LENGTH_PREFIX_BYTES;
+        buffer.putLong(payload, item.getLogSystemStamp());
+        buffer.put(payload + 8, (byte) item.getLogLevel());
+        buffer.putInt(payload + 9, config.getItemBgColor());
+        buffer.putInt(payload + 13, config.getItemTextColor());
+        buffer.putShort(payload + 17, (short) Math.min(Short.MAX_VALUE, item.getImageCount()));
+        buffer.putInt(payload + TEXT_LENGTH_OFFSET, textLength);
+        buffer.putInt(payload + EXTRA_LENGTH_OFFSET, extra.length);
+        buffer.position(payload + RECORD_HEADER_BYTES);
+        buffer.put(text, 0, textLength);
+        buffer.put(extra);
+        buffer.putInt(position, recordBytes - LENGTH_PREFIX_BYTES);
+        segment.addRecord(position);
+        segment.writePosition = position + recordBytes;
+        mCount++;
+    }
+
+    /**
+     * 按序号读回一条日志
+     *
+     * @param index 序号，0 为保留的最早一条
+     * @return 日志，不含图片，文本末尾注明图片数量
+     */
+    LogItem read(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index " + index + ", count " + mCount);
+        }
+        for (int i = 0; i < mSegments.size(); i++) {
+            Segment segment = mSegments.get(i);
+            if (index < segment.count) {
+                return decode(segment.buffer, segment.offsets[index]);
+            }
+            index -= segment.count;
+        }
+        throw new IllegalStateException("index out of segments");
+    }
+
+    /**
+     * 只读回文本，检索时逐条比较用，不创建 LogItem
+     *
+     * @param index 序号，0 为保留的最早一条
+     * @return 日志文本
+     */
+    String readText(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index " + index + ", count " + mCount);
+        }
+        for (int i = 0; i < mSegments.size(); i++) {
+            Segment segment = mSegments.get(i);
+            if (index < segment.count) {
+                return decodeText(segment.buffer, segment.offsets[index]);
+            }
+            index -= segment.count;
+        }
+        throw new IllegalStateException("index out of segments");
+    }
+
+    /**
+     * 主线程调用，取当前全部记录的只读游标，交给后台线程读文本。
+     * 记录写入后不再改动，删除分段也不会解除映射，游标一直可读；之后追加的记录游标看不到
+     *
+     * @return 游标
+     */
+    Cursor openCursor() {
+        int size = mSegments.size();
+        ByteBuffer[] buffers = new ByteBuffer[size];
+        int[][] offsets = new int[size][];
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            Segment segment = mSegments.get(i);
+            // 各自的 position，不与主线程的读写互相干扰
+            buffers[i] = segment.buffer.asReadOnlyBuffer();
+            offsets[i] = segment.offsets;
+            counts[i] = segment.count;
+        }
+        return new Cursor(mFirstSequence, buffers, offsets, counts);
+    }
+
+    /**
+     * 按顺序把全部记录的级别与标签追加到 columns，打开已有日志后重建过滤用的列数据
+     *
+     * @param columns 列数据
+     */
+    void readColumns(LogColumns columns) {
+        byte[] lastTag = new byte[0];
+        int lastTagId = LogColumns.NO_TAG;
+        for (int i = 0; i < mSegments.size(); i++) {
+            Segment segment = mSegments.get(i);
+            MappedByteBuffer buffer = segment.buffer;
+            for (int j = 0; j < segment.count; j++) {
+                int payload = segment.offsets[j] + LENGTH_PREFIX_BYTES;
+                int tagPosition = payload + RECORD_HEADER_BYTES + buffer.getInt(payload + TEXT_LENGTH_OFFSET);
+                int tagLength = buffer.getInt(tagPosition);
+                // 相邻日志大多是同一个标签，字节相同就不再解码
+                if (!equalsBytes(buffer, tagPosition + 4, tagLength, lastTag)) {
+                    lastTag = new byte[tagLength];
+                    buffer.position(tagPosition + 4);
+                    buffer.get(lastTag);
+                    lastTagId = columns.internTag(new String(lastTag, StandardCharsets.UTF_8));
+                }
+                columns.add(buffer.get(payload + 8), lastTagId);
+            }
+        }
+    }
+
+    /**
+     * 删除全部分段
+     */
+    void clear() {
+        mFirstSequence += mCount;
+        for (int i = 0; i < mSegments.size(); i++) {
+            deleteSegment(mSegments.get(i));
+        }
+        mSegments.clear();
+        mCount = 0;
+    }
+
+    private void open() throws IOException {
+        File[] files = mDirectory.listFiles();
+        List<Integer> ids = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                int id = parseSegmentId(file.getName());
+                if (id >= 0) {
+                    ids.add(id);
+                }
+            }
+        }
+        int[] sorted = new int[ids.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ids.get(i);
+        }
+        Arrays.sort(sorted);
+        Segment empty = null;
+        for (int id : sorted) {
+            File file = segmentFile(id);
+            mNextSegmentId = id + 1;
+            if (file.length() != mSegmentBytes) {
+                // 分段大小改过或文件不完整，旧数据不再可信
+                deleteFile(file);
+                continue;
+            }
+            Segment segment = new Segment(file, map(file));
+            if (!segment.scan()) {
+                deleteFile(file);
+                continue;
+            }
+            if (empty != null) {
+                deleteFile(empty.file);
+                empty = null;
+            }
+            if (segment.count == 0) {
+                // 上次预建还没用上的分段，留作下一个分段，不必每次打开都另占一个
+                empty = segment;
+                mSpareId = id;
+                continue;
+            }
+            mSegments.add(segment);
+            mCount += segment.count;
+        }
+        mSpare = empty;
+        mSparePending = empty != null;
+        trim();
+    }
+
+    /**
+     * 换上新的分段。后台预建的分段没准备好时就地创建，并作废还在路上的那个：它的编号更小，重新打开时会排到前面；
+     * 作废的分段在后台删掉之前还可能挂在 mSpare 上，按编号认出来，不能再拿来用
+     */
+    private Segment nextSegment() throws IOException {
+        Segment segment = mSpare;
+        if (segment != null && segment.file.equals(segmentFile(mSpareId))) {
+            mSpare = null;
+            mSparePending = false;
+            mSpareId = -1;
+        } else {
+            if (mSparePending) {
+                mSparePending = false;
+                mSpareId = -1;
+                mIoHandler.post(mDropSpareTask);
+            }
+            segment = createSegment(mNextSegmentId++);
+        }
+        mSegments.add(segment);
+        trim();
+        prepareSpare();
+        return segment;
+    }
+
+    /**
+     * 在后台线程建好下一个空分段
+     */
+    private void prepareSpare() {
+        if (mIoHandler == null || mSparePending) {
+            return;
+        }
+        mSparePending = true;
+        final int id = mNextSegmentId++;
+        mSpareId = id;
+        mIoHandler.post(() -> {
+            try {
+                mSpare = createSegment(id);
+            } catch (IOException e) {
+                // 建不成就等写满时在主线程再试
+                Log.e(TAG, "prepare segment failed: " + segmentFile(id), e);
+            }
+        });
+    }
+
+    private final Runnable mDropSpareTask = () -> {
+        Segment stale = mSpare;
+        mSpare = null;
+        if (stale != null) {
+            deleteFile(stale.file);
+        }
+    };
+
+    private Segment createSegment(int id) throws IOException {
+        File file = segmentFile(id);
+        Segment segment = new Segment(file, map(file));
+        segment.buffer.putInt(0, SEGMENT_MAGIC);
+        segment.buffer.putInt(4, SEGMENT_VERSION);
+        return segment;
+    }
+
+    /**
+     * 分段数超出上限时删除最早的分段，当前写入的分段总会保留
+     */
+    private void trim() {
+        while (mSegments.size() > mMaxSegmentCount) {
+            Segment oldest = mSegments.remove(0);
+            mCount -= oldest.count;
+            mFirstSequence += oldest.count;
+            deleteSegment(oldest);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        final File file = segment.file;
+        if (mIoHandler == null) {
+            deleteFile(file);
+        } else {
+            mIoHandler.post(() -> deleteFile(file));
+        }
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        // 映射在通道关闭后仍然有效，不必一直持有文件句柄
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            if (access.length() != mSegmentBytes) {
+                access.setLength(mSegmentBytes);
+            }
+            return access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentBytes);
+        }
+    }
+
+    private File segmentFile(int id) {
+        return new File(mDirectory, id + SEGMENT_SUFFIX);
+    }
+
+    private static int parseSegmentId(String name) {
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, "delete segment failed: " + file);
+        }
+    }
+
+    private static boolean equalsBytes(MappedByteBuffer buffer, int position, int length, byte[] bytes) {
+        if (length != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encodeExtra(LogItem item, boolean withFields) {
+        byte[] tag = truncate(item.getTag()).getBytes(StandardCharsets.UTF_8);
+        byte[] thread = truncate(item.getThreadName()).getBytes(StandardCharsets.UTF_8);
+        Map<String, String> fields = withFields ? item.getFields() : Collections.<String, String>emptyMap();
+        byte[][] fieldBytes = new byte[fields.size() * 2][];
+        int size = 4 + tag.length + 4 + thread.length + 4;
+        int index = 0;
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            fieldBytes[index] = field.getKey().getBytes(StandardCharsets.UTF_8);
+            fieldBytes[index + 1] = field.getValue().getBytes(StandardCharsets.UTF_8);
+            size += 4 + fieldBytes[index].length + 4 + fieldBytes[index + 1].length;
+            index += 2;
+        }
+        ByteBuffer extra = ByteBuffer.allocate(size);
+        extra.putInt(tag.length).put(tag);
+        extra.putInt(thread.length).put(thread);
+        extra.putInt(fields.size());
+        for (byte[] bytes : fieldBytes) {
+            extra.putInt(bytes.length).put(bytes);
+        }
+        return extra.array();
+    }
+
+    private static String truncate(String name) {
+        return name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name;
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static LogItem decode(MappedByteBuffer buffer, int position) {
+        int payload = position + LENGTH_PREFIX_BYTES;
+        long stamp = buffer.getLong(payload);
+        int level = buffer.get(payload + 8);
+        int bgColor = buffer.getInt(payload + 9);
+        int textColor = buffer.getInt(payload + 13);
+        int imageCount = buffer.getShort(payload + 17);
+        String logText = decodeText(buffer, position);
+        if (imageCount > 0) {
+            logText = logText + " [" + imageCount + " 张图片未保存]";
+        }
+        LogItem item = LogViewAdapter.createLogItem(resolveConfig(level, bgColor, textColor), logText);
+        item.setLogTimeStamp(stamp);
+        item.setLogLevel(level);
+        // decodeText 之后 position 正好在附加信息开头
+        item.setTag(readString(buffer));
+        item.setThreadName(readString(buffer));
+        int fieldCount = buffer.getInt();
+        for (int i = 0; i < fieldCount; i++) {
+            item.putField(readString(buffer), readString(buffer));
+        }
+        return item;
+    }
+
+    private static String decodeText(ByteBuffer buffer, int position) {
+        int payload = position + LENGTH_PREFIX_BYTES;
+        byte[] text = new byte[buffer.getInt(payload + TEXT_LENGTH_OFFSET)];
+        buffer.position(payload + RECORD_HEADER_BYTES);
+        buffer.get(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    private static LogItem.LogUIConfig resolveConfig(int level, int bgColor, int textColor) {
+        LogItem.LogUIConfig known;
+        if (level == LogItem.LEVEL_LOG_ERROR) {
+            known = LogItem.UI_CONFIG_ERROR_LOG;
+        } else if (level == LogItem.LEVEL_LOG_WARN) {
+            known = LogItem.UI_CONFIG_WARNING_LOG;
+        } else if (level == LogItem.LEVEL_LOG_INFO) {
+            known = LogItem.UI_CONFIG_INFO_LOG;
+        } else {
+            known = null;
+        }
+        if (known != null && known.getItemBgColor() == bgColor && known.getItemTextColor() == textColor) {
+            return known;
+        }
+        return new LogItem.LogUIConfig(bgColor, textColor);
+    }
+
+    /**
+     * 某一时刻全部记录的只读视图，只在一个线程上使用
+     */
+    static final class Cursor {
+
+        private final long mFirstSequence;
+        private final ByteBuffer[] mBuffers;
+        private final int[][] mOffsets;
+        private final int[] mCounts;
+        private final long mEndSequence;
+
+        private Cursor(long firstSequence, ByteBuffer[] buffers, int[][] offsets, int[] counts) {
+            mFirstSequence = firstSequence;
+            mBuffers = buffers;
+            mOffsets = offsets;
+            mCounts = counts;
+            long count = 0;
+            for (int segmentCount : counts) {
+                count += segmentCount;
+            }
+            mEndSequence = firstSequence + count;
+        }
+
+        long getFirstSequence() {
+            return mFirstSequence;
+        }
+
+        long getEndSequence() {
+            return mEndSequence;
+        }
+
+        /**
+         * @param sequence 序号，在 [firstSequence, endSequence) 之内
+         * @return 日志文本
+         */
+        String readText(long sequence) {
+            long index = sequence - mFirstSequence;
+            for (int i = 0; i < mBuffers.length; i++) {
+                if (index < mCounts[i]) {
+                    return decodeText(mBuffers[i], mOffsets[i][(int) index]);
+                }
+                index -= mCounts[i];
+            }
+            throw new IndexOutOfBoundsException("sequence " + sequence + ", end " + mEndSequence);
+        }
+    }
+
+    private static final class Segment {
+
+        final File file;
+        final MappedByteBuffer buffer;
+        /**
+         * 每条记录长度前缀的位置
+         */
+        int[] offsets = new int[256];
+        int count;
+        int writePosition = SEGMENT_HEADER_BYTES;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        void addRecord(int position) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = position;
+        }
+
+        /**
+         * 从头扫描记录重建索引，遇到长度为 0 或越界的记录即停止，之后从那里继续追加
+         *
+         * @return false 表示不是本格式的分段
+         */
+        boolean scan() {
+            try {
+                if (buffer.getInt(0) != SEGMENT_MAGIC || buffer.getInt(4) != SEGMENT_VERSION) {
+                    return false;
+                }
+                int limit = buffer.capacity();
+                int position = SEGMENT_HEADER_BYTES;
+                while (position + LENGTH_PREFIX_BYTES <= limit) {
+                    int length = buffer.getInt(position);
+                    int payload = position + LENGTH_PREFIX_BYTES;
+                    if (length < RECORD_HEADER_BYTES || length > limit - payload
+                            || (long) buffer.getInt(payload + TEXT_LENGTH_OFFSET)
+                            + buffer.getInt(payload + EXTRA_LENGTH_OFFSET) != length - RECORD_HEADER_BYTES) {
+                        break;
+                    }
+                    addRecord(position);
+                    position += LENGTH_PREFIX_BYTES + length;
+                }
+                writePosition = position;
+                clearTornRecord(position, limit);
+                return true;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                Log.e(TAG, "scan segment failed: " + file, e);
+                return false;
+            }
+        }
+
+        /**
+         * 上次进程在写某条记录时被杀，长度前缀还是 0，正文却可能已写了一部分。
+         * 新记录从这里覆盖写入后，残留的正文会跟在新记录后面，下次扫描可能被当成记录，所以先按记录头里的长度清零。
+         */
+        private void clearTornRecord(int position, int limit) {
+            int payload = position + LENGTH_PREFIX_BYTES;
+            if (payload + RECORD_HEADER_BYTES > limit) {
+                return;
+            }
+            long end = (long) payload + RECORD_HEADER_BYTES
+                    + Math.max(0, buffer.getInt(payload + TEXT_LENGTH_OFFSET))
+                    + Math.max(0, buffer.getInt(payload + EXTRA_LENGTH_OFFSET));
+            for (int i = position; i < Math.min(end, limit); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.newchar.debug.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 日志检索条件：子串或正则；同时给出匹配必须包含的字面量，供 {@link LogSearchIndex} 缩小候选范围
+ * @since 迭代版本，（以及描述）
+ */
+public final class LogQuery {
+
+    /**
+     * 不带参数的转义：字符类、边界与控制字符，视为断开字面量
+     */
+    private static final String SIMPLE_ESCAPES = "dDwWsSbBAzZGhHvVRXntrfea";
+
+    private final String mText;
+    private final boolean mIgnoreCase;
+    private final Matcher mMatcher;
+    /**
+     * 匹配的日志一定包含的字面量，已转成小写；为空时索引帮不上忙，只能逐条比较
+     */
+    private final List<String> mRequiredLiterals;
+
+    private LogQuery(String text, boolean ignoreCase, Pattern pattern, List<String> requiredLiterals) {
+        mText = text;
+        mIgnoreCase = ignoreCase;
+        mMatcher = pattern == null ? null : pattern.matcher("");
+        mRequiredLiterals = requiredLiterals;
+    }
+
+    /**
+     * 子串检索
+     *
+     * @param text       要查找的文本
+     * @param ignoreCase 是否忽略大小写
+     * @return 检索条件
+     */
+    public static LogQuery substring(String text, boolean ignoreCase) {
+        String lower = toLowerCase(text);
+        List<String> literals = lower.isEmpty()
+                ? Collections.<String>emptyList() : Collections.singletonList(lower);
+        return new LogQuery(ignoreCase ? lower : text, ignoreCase, null, literals);
+    }
+
+    /**
+     * 正则检索，只要日志中有一处匹配即可
+     *
+     * @param regex      正则表达式
+     * @param ignoreCase 是否忽略大小写
+     * @return 检索条件
+     * @throws PatternSyntaxException 正则写错
+     */
+    public static LogQuery regex(String regex, boolean ignoreCase) {
+        Pattern pattern = Pattern.compile(regex, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+        return new LogQuery(regex, ignoreCase, pattern, extractLiterals(regex));
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public boolean isRegex() {
+        return mMatcher != null;
+    }
+
+    /**
+     * 复用同一个 Matcher，一个对象只在一个线程上调用，其他线程用 {@link #copy()}
+     *
+     * @param logText 日志文本
+     * @return 是否匹配
+     */
+    public boolean matches(String logText) {
+        if (logText == null) {
+            return false;
+        }
+        if (mMatcher != null) {
+            return mMatcher.reset(logText).find();
+        }
+        if (!mIgnoreCase) {
+            return logText.contains(mText);
+        }
+        int length = mText.length();
+        for (int i = 0; i + length <= logText.length(); i++) {
+            if (logText.regionMatches(true, i, mText, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 条件相同、持有自己 Matcher 的副本，交给后台线程检索
+     */
+    LogQuery copy() {
+        return new LogQuery(mText, mIgnoreCase, mMatcher == null ? null : mMatcher.pattern(), mRequiredLiterals);
+    }
+
+    List<String> getRequiredLiterals() {
+        return mRequiredLiterals;
+    }
+
+    /**
+     * 与 {@link LogSearchIndex} 建索引时一致，逐字符转小写
+     */
+    static String toLowerCase(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 保守地取出正则中一定要出现的字面量片段：含 | 或内联标志时整体放弃；分组、字符类、元字符都视为断开；
+     * 后面跟着 ? * {} 的字符可有可无，从片段中去掉；后面跟着 + 的字符必须出现，但片段到此为止。
+     */
+    private static List<String> extractLiterals(String regex) {
+        List<String> literals = new ArrayList<>();
+        if (regex.indexOf('|') >= 0 || regex.contains("(?")) {
+            // 内联标志可能改变字面量的含义（如 (?x) 忽略空白），一并放弃
+            return literals;
+        }
+        StringBuilder current = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (inClass) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == ']') {
+                    inClass = false;
+                }
+                continue;
+            }
+            char literal = 0;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(++i);
+                if (!Character.isLetterOrDigit(escaped)) {
+                    literal = escaped;
+                } else if (escaped == 'Q') {
+                    int end = regex.indexOf("\\E", i + 1);
+                    String quoted = regex.substring(i + 1, end < 0 ? regex.length() : end);
+                    i = end < 0 ? regex.length() : end + 1;
+                    if (quoted.isEmpty()) {
+                        continue;
+                    }
+                    // 最后一个字符可能带量词，交给下面统一处理
+                    if (depth == 0) {
+                        current.append(quoted, 0, quoted.length() - 1);
+                    }
+                    literal = quoted.charAt(quoted.length() - 1);
+                } else if (SIMPLE_ESCAPES.indexOf(escaped) < 0) {
+                    // \x41、\p{L}、反向引用等带参数的转义，不逐个解析，直接放弃
+                    return Collections.emptyList();
+                }
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '{') {
+                // 跳过 {m,n} 量词里的数字
+                int end = regex.indexOf('}', i);
+                i = end < 0 ? regex.length() : end;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth = Math.max(0, depth - 1);
+            } else if (".^$*+?{}".indexOf(c) < 0) {
+                literal = c;
+            }
+            if (literal == 0 || depth > 0) {
+                flushLiteral(current, literals);
+                continue;
+            }
+            char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            if (next == '?' || next == '*' || next == '{') {
+                flushLiteral(current, literals);
+            } else if (next == '+') {
+                current.append(literal);
+                flushLiteral(current, literals);
+            } else {
+                current.append(literal);
+            }
+        }
+        flushLiteral(current, literals);
+        return literals;
+    }
+
+    private static void flushLiteral(StringBuilder current, List<String> literals) {
+        if (current.length() >= LogSearchIndex.GRAM_LENGTH) {
+            literals.add(toLowerCase(current.toString()));
+        }
+        current.setLength(0);
+    }
+}
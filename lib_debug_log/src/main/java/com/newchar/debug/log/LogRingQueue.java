@@ -0,0 +1,112 @@
+package com.newchar.debug.log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 有界无锁多生产者单消费者队列，任意线程写入日志，主线程批量取出
+ * @since 迭代版本，（以及描述）
+ */
+final class LogRingQueue<T> {
+
+    private final int mMask;
+    private final AtomicReferenceArray<T> mItems;
+    /**
+     * 每个槽位的序号：等于 tail 时可写，等于 head + 1 时可读。
+     */
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong();
+    /**
+     * 只有消费线程修改，volatile 只为让生产者读到近似的长度。
+     */
+    private volatile long mHead;
+
+    /**
+     * @param capacity 容量，向上取整到 2 的幂
+     */
+    LogRingQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 30)) - 1) << 1;
+        mMask = size - 1;
+        mItems = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * 近似的当前元素数量
+     *
+     * @return 元素数量
+     */
+    int size() {
+        long size = mTail.get() - mHead;
+        return (int) Math.max(0L, Math.min(size, capacity()));
+    }
+
+    /**
+     * 任意线程调用，队列已满时直接返回，不阻塞
+     *
+     * @param item 元素
+     * @return false 表示队列已满
+     */
+    boolean offer(T item) {
+        while (true) {
+            long tail = mTail.get();
+            int index = (int) tail & mMask;
+            long difference = mSequences.get(index) - tail;
+            if (difference == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mItems.lazySet(index, item);
+                    mSequences.set(index, tail + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 只能在消费线程调用
+     *
+     * @return 队首元素，队列为空或队首尚未写完时返回 null
+     */
+    T poll() {
+        long head = mHead;
+        int index = (int) head & mMask;
+        if (mSequences.get(index) != head + 1) {
+            return null;
+        }
+        T item = mItems.get(index);
+        mItems.lazySet(index, null);
+        mSequences.set(index, head + mMask + 1);
+        mHead = head + 1;
+        return item;
+    }
+
+    /**
+     * 只能在消费线程调用，最多取出 maxCount 个元素追加到 target
+     *
+     * @param target   取出的元素
+     * @param maxCount 最多取出的数量
+     * @return 取出的数量
+     */
+    int drainTo(List<T> target, int maxCount) {
+        int count = 0;
+        T item;
+        while (count < maxCount && (item = poll()) != null) {
+            target.add(item);
+            count++;
+        }
+        return count;
+    }
+}
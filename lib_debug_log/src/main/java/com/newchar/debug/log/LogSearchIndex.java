@@ -0,0 +1,332 @@
+package com.newchar.debug.log;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 日志文本的三元组倒排索引，随日志追加增量更新，只在主线程使用。
+ * 索引粒度是连续 {@link #BLOCK_SIZE} 条日志组成的块：每个三元组只记录出现过它的块号，按差值变长编码，
+ * 百万行日志的索引也只占几 MB；检索时复制用得到的几个倒排表交给后台线程求交集，只逐条比较候选块中的日志
+ * @since 迭代版本，（以及描述）
+ */
+final class LogSearchIndex {
+
+    static final int GRAM_LENGTH = 3;
+    static final int BLOCK_SIZE = 64;
+
+    private long[] mKeys = new long[1024];
+    private Postings[] mValues = new Postings[1024];
+    private int mSize;
+    /**
+     * 已建索引的日志序号上界（不含），按序号顺序追加
+     */
+    private long mIndexedEnd;
+    /**
+     * 块号小于它的记录已经从倒排表中清理掉
+     */
+    private int mCompactedBlock;
+
+    long getIndexedEnd() {
+        return mIndexedEnd;
+    }
+
+    /**
+     * 丢弃全部索引，从 sequence 开始重新建立
+     *
+     * @param sequence 下一条要建索引的日志序号
+     */
+    void reset(long sequence) {
+        Arrays.fill(mKeys, 0L);
+        Arrays.fill(mValues, null);
+        mSize = 0;
+        mIndexedEnd = sequence;
+        mCompactedBlock = blockOf(sequence);
+    }
+
+    /**
+     * 追加一条日志的索引，序号必须等于 {@link #getIndexedEnd()}
+     *
+     * @param sequence 日志序号
+     * @param text     日志文本
+     */
+    void add(long sequence, String text) {
+        int block = blockOf(sequence);
+        mIndexedEnd = sequence + 1;
+        if (text == null || text.length() < GRAM_LENGTH) {
+            return;
+        }
+        char c0 = Character.toLowerCase(text.charAt(0));
+        char c1 = Character.toLowerCase(text.charAt(1));
+        for (int i = GRAM_LENGTH - 1; i < text.length(); i++) {
+            char c2 = Character.toLowerCase(text.charAt(i));
+            Postings postings = getOrCreate(gramKey(c0, c1, c2));
+            if (postings.lastBlock != block) {
+                postings.append(block);
+            }
+            c0 = c1;
+            c1 = c2;
+        }
+    }
+
+    /**
+     * 更早的日志已被删除，序号在 firstSequence 之前的索引不再有用；
+     * 攒到比仍有效的部分还多时才整体清理一次，均摊下来每条日志只重编码常数次
+     *
+     * @param firstSequence 仍保留的第一条日志序号
+     */
+    void discardBefore(long firstSequence) {
+        if (firstSequence > mIndexedEnd) {
+            // 没来得及建索引的日志已经被删掉了，直接跳过
+            reset(firstSequence);
+            return;
+        }
+        int firstBlock = blockOf(firstSequence);
+        long staleBlocks = firstBlock - mCompactedBlock;
+        long liveBlocks = blockOf(mIndexedEnd) - firstBlock + 1;
+        if (staleBlocks <= liveBlocks) {
+            return;
+        }
+        long[] oldKeys = mKeys;
+        Postings[] oldValues = mValues;
+        mKeys = new long[oldKeys.length];
+        mValues = new Postings[oldValues.length];
+        mSize = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            Postings postings = oldValues[i];
+            if (postings == null) {
+                continue;
+            }
+            Postings live = postings.copyFrom(firstBlock);
+            if (live.count > 0) {
+                put(oldKeys[i], live);
+            }
+        }
+        mCompactedBlock = firstBlock;
+    }
+
+    /**
+     * 复制求候选块用得到的倒排表
+     *
+     * @param query 检索条件
+     * @return 可交给后台线程的快照；null 表示条件里没有可用的字面量，需要逐条比较
+     */
+    Candidates snapshotCandidates(LogQuery query) {
+        List<String> literals = query.getRequiredLiterals();
+        long[] grams = new long[0];
+        int gramCount = 0;
+        for (String literal : literals) {
+            for (int i = 0; i + GRAM_LENGTH <= literal.length(); i++) {
+                if (gramCount == grams.length) {
+                    grams = Arrays.copyOf(grams, Math.max(8, gramCount * 2));
+                }
+                grams[gramCount++] = gramKey(literal.charAt(i), literal.charAt(i + 1), literal.charAt(i + 2));
+            }
+        }
+        if (gramCount == 0) {
+            return null;
+        }
+        Postings[] lists = new Postings[gramCount];
+        int listCount = 0;
+        Arrays.sort(grams, 0, gramCount);
+        for (int i = 0; i < gramCount; i++) {
+            if (i > 0 && grams[i] == grams[i - 1]) {
+                continue;
+            }
+            Postings postings = get(grams[i]);
+            if (postings == null) {
+                return new Candidates(new Postings[0]);
+            }
+            lists[listCount++] = postings.copy();
+        }
+        return new Candidates(Arrays.copyOf(lists, listCount));
+    }
+
+    static int blockOf(long sequence) {
+        return (int) (sequence / BLOCK_SIZE);
+    }
+
+    private static long gramKey(char c0, char c1, char c2) {
+        // 加 1 让 key 不为 0，0 留给空槽位
+        return (((long) c0 << 32) | ((long) c1 << 16) | c2) + 1;
+    }
+
+    private Postings get(long key) {
+        int mask = mKeys.length - 1;
+        for (int index = mix(key) & mask; mKeys[index] != 0L; index = (index + 1) & mask) {
+            if (mKeys[index] == key) {
+                return mValues[index];
+            }
+        }
+        return null;
+    }
+
+    private Postings getOrCreate(long key) {
+        Postings postings = get(key);
+        if (postings == null) {
+            postings = new Postings();
+            put(key, postings);
+        }
+        return postings;
+    }
+
+    private void put(long key, Postings postings) {
+        if ((mSize + 1) * 2 > mKeys.length) {
+            grow();
+        }
+        int mask = mKeys.length - 1;
+        int index = mix(key) & mask;
+        while (mKeys[index] != 0L) {
+            index = (index + 1) & mask;
+        }
+        mKeys[index] = key;
+        mValues[index] = postings;
+        mSize++;
+    }
+
+    private void grow() {
+        long[] oldKeys = mKeys;
+        Postings[] oldValues = mValues;
+        mKeys = new long[oldKeys.length * 2];
+        mValues = new Postings[oldValues.length * 2];
+        mSize = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0L) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 一次检索用到的倒排表副本，可在任意线程求交集
+     */
+    static final class Candidates {
+
+        /**
+         * 为空表示某个三元组从未出现过，已建索引的部分没有匹配
+         */
+        private final Postings[] mLists;
+
+        private Candidates(Postings[] lists) {
+            mLists = lists;
+        }
+
+        /**
+         * @return 升序的候选块号
+         */
+        int[] blocks() {
+            if (mLists.length == 0) {
+                return new int[0];
+            }
+            // 从最短的倒排表开始求交集，候选集合只会越来越小
+            Postings[] lists = mLists.clone();
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.count, b.count));
+            int[] blocks = lists[0].decode();
+            int blockCount = blocks.length;
+            for (int i = 1; i < lists.length && blockCount > 0; i++) {
+                blockCount = lists[i].retainAll(blocks, blockCount);
+            }
+            return blockCount == blocks.length ? blocks : Arrays.copyOf(blocks, blockCount);
+        }
+    }
+
+    /**
+     * 升序块号的差值变长编码
+     */
+    private static final class Postings {
+
+        byte[] data = new byte[4];
+        int length;
+        int count;
+        int lastBlock = -1;
+
+        void append(int block) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int delta = block - lastBlock;
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            lastBlock = block;
+            count++;
+        }
+
+        int[] decode() {
+            int[] blocks = new int[count];
+            int block = -1;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                block += delta;
+                blocks[i] = block;
+            }
+            return blocks;
+        }
+
+        /**
+         * 只保留 blocks 前 size 个元素中也出现在本表里的块号
+         *
+         * @return 保留下来的数量
+         */
+        int retainAll(int[] blocks, int size) {
+            int kept = 0;
+            int candidate = 0;
+            int block = -1;
+            int position = 0;
+            for (int i = 0; i < count && candidate < size; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                block += delta;
+                while (candidate < size && blocks[candidate] < block) {
+                    candidate++;
+                }
+                if (candidate < size && blocks[candidate] == block) {
+                    blocks[kept++] = block;
+                    candidate++;
+                }
+            }
+            return kept;
+        }
+
+        Postings copy() {
+            Postings copy = new Postings();
+            copy.data = Arrays.copyOf(data, length);
+            copy.length = length;
+            copy.count = count;
+            copy.lastBlock = lastBlock;
+            return copy;
+        }
+
+        Postings copyFrom(int firstBlock) {
+            Postings live = new Postings();
+            for (int block : decode()) {
+                if (block >= firstBlock) {
+                    live.append(block);
+                }
+            }
+            return live;
+        }
+    }
+}
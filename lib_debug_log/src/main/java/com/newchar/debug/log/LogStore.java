@@ -0,0 +1,511 @@
+package com.newchar.debug.log;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.newchar.debug.utils.HandleWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 日志的有界存储：内存中是固定容量的环形缓冲区，同时受条数与字节预算约束，超出时淘汰最早的日志并释放其缩略图；
+ * 配置了持久化目录时每条日志同时追加到 {@link LogJournal}，被淘汰的以及上次进程留下的日志按位置从文件读回；
+ * 开启检索索引时由 {@link LogSearchIndex} 在主线程空闲时分批建立索引，检索只比较候选日志，可交给后台线程执行；
+ * 每条日志的级别与标签另存一份列数据（{@link LogColumns}），按级别、标签过滤时不必读文件；
+ * 持久化文件在后台线程打开并读出列数据，打开期间的日志只在内存中，打开后补写进文件，再通知 {@link #setOnJournalAttachedListener}
+ * @since 迭代版本，（以及描述）
+ */
+public final class LogStore {
+
+    public static final int DEFAULT_MAX_COUNT = 5000;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final int DEFAULT_JOURNAL_SEGMENT_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_JOURNAL_MAX_BYTES = 64L * 1024 * 1024;
+    private static final String TAG = "LogStore";
+    /**
+     * 从文件读回的日志缓存条数，大致是几屏的量，滚动时不必反复解码
+     */
+    private static final int JOURNAL_CACHE_SIZE = 128;
+    /**
+     * 每次主线程消息最多建索引的条数，补建上次进程留下的大量日志时分到多帧完成
+     */
+    private static final int INDEX_BATCH_SIZE = 2000;
+
+    private final LogItem[] mItems;
+    private final int[] mItemBytes;
+    private final long mMaxBytes;
+    /**
+     * 按绝对序号缓存，删除最早的分段后位置整体前移，缓存仍然有效
+     */
+    private final Map<Long, LogItem> mJournalCache = new LinkedHashMap<Long, LogItem>(
+            JOURNAL_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, LogItem> eldest) {
+            return size() > JOURNAL_CACHE_SIZE;
+        }
+    };
+    private final LogSearchIndex mSearchIndex;
+    private LogColumns mColumns = new LogColumns();
+    private final Handler mMainHandler = HandleWrapper.getMainHandler();
+    private boolean mIndexScheduled;
+    private LogJournal mJournal;
+    /**
+     * 持久化文件还在后台打开
+     */
+    private boolean mJournalOpening;
+    /**
+     * 打开期间调用过 {@link #clear()}，打开后连同文件中的日志一起清掉
+     */
+    private boolean mClearedWhileOpening;
+    private Runnable mJournalAttachedListener;
+    /**
+     * 没有持久化文件时内存中第一条日志的序号；序号随追加递增，不因淘汰而改变
+     */
+    private long mMemoryFirstSequence;
+    private int mHead;
+    private int mSize;
+    private long mBytes;
+    private long mDiscardedCount;
+
+    private LogStore(Builder builder) {
+        mItems = new LogItem[builder.maxCount];
+        mItemBytes = new int[builder.maxCount];
+        mMaxBytes = builder.maxBytes;
+        mColumns.reset(getFirstSequence());
+        mSearchIndex = builder.searchIndexEnabled ? new LogSearchIndex() : null;
+        if (mSearchIndex != null) {
+            mSearchIndex.reset(getFirstSequence());
+        }
+        if (builder.journalDir != null) {
+            openJournal(builder);
+        }
+    }
+
+    /**
+     * 映射并扫描全部分段、读出列数据都在后台线程完成，之后回到主线程接上
+     */
+    private void openJournal(final Builder builder) {
+        mJournalOpening = true;
+        final Handler ioHandler = HandleWrapper.obtainAsyncHandler(null);
+        ioHandler.post(() -> {
+            LogJournal journal = null;
+            LogColumns columns = new LogColumns();
+            try {
+                journal = new LogJournal(builder.journalDir, builder.journalSegmentBytes, builder.journalMaxBytes,
+                        ioHandler);
+                columns.reset(journal.getFirstSequence());
+                journal.readColumns(columns);
+            } catch (IOException e) {
+                Log.e(TAG, "open log journal failed: " + builder.journalDir, e);
+            }
+            final LogJournal opened = journal;
+            mMainHandler.post(() -> attachJournal(opened, columns));
+        });
+    }
+
+    private void attachJournal(LogJournal journal, LogColumns columns) {
+        mJournalOpening = false;
+        if (journal == null) {
+            return;
+        }
+        if (mClearedWhileOpening) {
+            mClearedWhileOpening = false;
+            journal.clear();
+            columns.reset(journal.getFirstSequence());
+        }
+        try {
+            // 打开期间追加的日志排在上次进程留下的日志之后
+            for (int i = 0; i < mSize; i++) {
+                LogItem item = mItems[(mHead + i) % mItems.length];
+                journal.append(item);
+                columns.add(item.getLogLevel(), columns.internTag(item.getTag()));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "append log journal failed", e);
+            // 已写进去的只是内存日志的前一段，留着会在下次打开时当作完整记录读回
+            journal.clear();
+            return;
+        }
+        mJournal = journal;
+        mJournalCache.clear();
+        mColumns = columns;
+        if (mSearchIndex != null) {
+            mSearchIndex.reset(getFirstSequence());
+            scheduleIndex();
+        }
+        if (mJournalAttachedListener != null) {
+            mJournalAttachedListener.run();
+        }
+    }
+
+    /**
+     * 持久化文件打开后，全部日志的位置与序号都会改变，监听方需要整体刷新
+     *
+     * @param listener 主线程回调
+     */
+    public void setOnJournalAttachedListener(Runnable listener) {
+        mJournalAttachedListener = listener;
+    }
+
+    /**
+     * 主线程调用，追加一条日志，必要时淘汰最早的日志
+     *
+     * @param item 日志
+     */
+    public void add(LogItem item) {
+        if (mJournal != null) {
+            try {
+                mJournal.append(item);
+            } catch (IOException e) {
+                // 写不了文件时退化为只保留内存中的日志
+                Log.e(TAG, "append log journal failed", e);
+                closeJournal();
+            }
+        }
+        int bytes = item.estimateBytes();
+        while (mSize > 0 && (mSize == mItems.length || mBytes + bytes > mMaxBytes)) {
+            evictOldest();
+        }
+        int index = (mHead + mSize) % mItems.length;
+        mItems[index] = item;
+        mItemBytes[index] = bytes;
+        mBytes += bytes;
+        mSize++;
+        mColumns.add(item.getLogLevel(), mColumns.internTag(item.getTag()));
+        mColumns.discardBefore(getFirstSequence());
+        if (mSearchIndex != null) {
+            scheduleIndex();
+        }
+    }
+
+    public void addAll(List<LogItem> items) {
+        for (int i = 0; i < items.size(); i++) {
+            add(items.get(i));
+        }
+    }
+
+    /**
+     * @return 可浏览的日志总数：有持久化文件时为文件中保留的条数，否则为内存中的条数
+     */
+    public int getCount() {
+        return mJournal != null ? mJournal.getCount() : mSize;
+    }
+
+    /**
+     * 按位置取日志，0 为最早的一条
+     *
+     * @param position 位置
+     * @return 日志；最近的日志直接取内存中的对象，更早的返回从文件读回的副本，不含图片
+     */
+    public LogItem get(int position) {
+        int count = getCount();
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("position " + position + ", count " + count);
+        }
+        // 内存中的日志总是最新的 mSize 条，对应末尾的位置
+        int offset = position - (count - mSize);
+        if (offset >= 0) {
+            return mItems[(mHead + offset) % mItems.length];
+        }
+        long sequence = mJournal.getFirstSequence() + position;
+        LogItem item = mJournalCache.get(sequence);
+        if (item == null) {
+            item = mJournal.read(position);
+            mJournalCache.put(sequence, item);
+        }
+        return item;
+    }
+
+    public boolean isEmpty() {
+        return getCount() == 0;
+    }
+
+    /**
+     * 只取文本，不创建或缓存 LogItem
+     *
+     * @param position 位置
+     * @return 日志文本
+     */
+    public String getText(int position) {
+        int count = getCount();
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("position " + position + ", count " + count);
+        }
+        int offset = position - (count - mSize);
+        if (offset >= 0) {
+            return mItems[(mHead + offset) % mItems.length].getLogText();
+        }
+        return mJournal.readText(position);
+    }
+
+    /**
+     * 主线程调用，同步检索全部日志
+     *
+     * @param query 检索条件
+     * @return 匹配的位置，升序
+     */
+    public int[] search(LogQuery query) {
+        long first = getFirstSequence();
+        LogFilterEngine.Result result = prepareSearch(query, null, 0L).run();
+        int[] positions = new int[result.size];
+        for (int i = 0; i < result.size; i++) {
+            positions[i] = (int) (result.sequences[i] - first);
+        }
+        return positions;
+    }
+
+    /**
+     * 主线程调用，准备一次可在后台线程执行的检索：已建索引的部分只比较候选块中的日志，尚未建索引的最新日志逐条比较
+     *
+     * @param query       检索条件
+     * @param previous    同一条件上次检索的结果，null 表示没有
+     * @param previousEnd 上次检索范围末尾的序号（不含），从这里接着检索
+     * @return 检索任务
+     */
+    LogTextSearch prepareSearch(LogQuery query, long[] previous, long previousEnd) {
+        long first = getFirstSequence();
+        long end = first + getCount();
+        long from = first;
+        if (previous != null && previousEnd >= first && previousEnd <= end) {
+            from = previousEnd;
+        } else {
+            previous = null;
+        }
+        LogSearchIndex.Candidates candidates = null;
+        long indexedEnd = first;
+        if (mSearchIndex != null) {
+            mSearchIndex.discardBefore(first);
+            indexedEnd = Math.max(first, Math.min(end, mSearchIndex.getIndexedEnd()));
+            if (from < indexedEnd) {
+                candidates = mSearchIndex.snapshotCandidates(query);
+            }
+        }
+        if (mJournal != null) {
+            return new LogTextSearch(query.copy(), candidates, indexedEnd, from, end, mJournal.openCursor(),
+                    null, 0L, previous);
+        }
+        String[] texts = new String[mSize];
+        for (int i = 0; i < mSize; i++) {
+            texts[i] = mItems[(mHead + i) % mItems.length].getLogText();
+        }
+        return new LogTextSearch(query.copy(), candidates, indexedEnd, from, end, null, texts, mMemoryFirstSequence,
+                previous);
+    }
+
+    /**
+     * 第一条日志的序号。序号随追加递增，删除更早的日志不影响后面日志的序号，
+     * 位置 = 序号 - 第一条的序号
+     *
+     * @return 序号
+     */
+    long getFirstSequence() {
+        return mJournal != null ? mJournal.getFirstSequence() : mMemoryFirstSequence;
+    }
+
+    /**
+     * @param sequence 序号，需仍在保留范围内
+     * @return 日志级别，不读文件
+     */
+    int getLevelAt(long sequence) {
+        return mColumns.getLevel(sequence);
+    }
+
+    /**
+     * @param sequence 序号，需仍在保留范围内
+     * @return 标签编号，不读文件
+     */
+    int getTagAt(long sequence) {
+        return mColumns.getTag(sequence);
+    }
+
+    /**
+     * @param tag 标签
+     * @return 标签编号，从未出现过时返回 -1
+     */
+    int findTag(String tag) {
+        return mColumns.findTag(tag);
+    }
+
+    /**
+     * @return 全部保留日志的级别与标签快照，可交给后台线程
+     */
+    LogColumns.Snapshot snapshotColumns() {
+        return mColumns.snapshot(getFirstSequence());
+    }
+
+    /**
+     * @return 内存中的日志条数
+     */
+    public int getMemoryCount() {
+        return mSize;
+    }
+
+    /**
+     * @return 内存中日志的估算字节数
+     */
+    public long getMemoryBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return 持久化文件是否可用
+     */
+    public boolean isPersistent() {
+        return mJournal != null;
+    }
+
+    /**
+     * @return 没有持久化文件时被直接丢弃的日志数
+     */
+    public long getDiscardedCount() {
+        return mDiscardedCount;
+    }
+
+    /**
+     * 清空内存与持久化文件中的全部日志，并释放缩略图
+     */
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            int index = (mHead + i) % mItems.length;
+            mItems[index].releaseImages();
+            mItems[index] = null;
+        }
+        mHead = 0;
+        mMemoryFirstSequence += mSize;
+        mSize = 0;
+        mBytes = 0L;
+        mJournalCache.clear();
+        if (mJournal != null) {
+            mJournal.clear();
+        } else if (mJournalOpening) {
+            mClearedWhileOpening = true;
+        }
+        mColumns.reset(getFirstSequence());
+        if (mSearchIndex != null) {
+            mSearchIndex.reset(getFirstSequence());
+        }
+    }
+
+    private void evictOldest() {
+        LogItem item = mItems[mHead];
+        mBytes -= mItemBytes[mHead];
+        mItems[mHead] = null;
+        mHead = (mHead + 1) % mItems.length;
+        mSize--;
+        mMemoryFirstSequence++;
+        item.releaseImages();
+        if (mJournal == null) {
+            mDiscardedCount++;
+        }
+    }
+
+    private void closeJournal() {
+        // 内存中的日志不一定都写进了文件，之后只按内存浏览；序号接着文件中的继续，已有的索引仍然有效
+        mMemoryFirstSequence = mJournal.getFirstSequence() + mJournal.getCount() - mSize;
+        mJournal = null;
+        mJournalCache.clear();
+    }
+
+    private void scheduleIndex() {
+        if (!mIndexScheduled) {
+            mIndexScheduled = true;
+            mMainHandler.post(mIndexTask);
+        }
+    }
+
+    /**
+     * 为尚未建索引的日志建索引
+     *
+     * @param maxCount 最多处理的条数
+     * @return 是否还有没建索引的日志
+     */
+    boolean indexPending(int maxCount) {
+        long first = getFirstSequence();
+        long end = first + getCount();
+        mSearchIndex.discardBefore(first);
+        long sequence = mSearchIndex.getIndexedEnd();
+        long stop = Math.min(end, sequence + maxCount);
+        for (; sequence < stop; sequence++) {
+            mSearchIndex.add(sequence, getText((int) (sequence - first)));
+        }
+        return stop < end;
+    }
+
+    private final Runnable mIndexTask = new Runnable() {
+        @Override
+        public void run() {
+            mIndexScheduled = false;
+            if (indexPending(INDEX_BATCH_SIZE)) {
+                scheduleIndex();
+            }
+        }
+    };
+
+    public static final class Builder {
+
+        private int maxCount = DEFAULT_MAX_COUNT;
+        private long maxBytes = DEFAULT_MAX_BYTES;
+        private File journalDir;
+        private int journalSegmentBytes = DEFAULT_JOURNAL_SEGMENT_BYTES;
+        private long journalMaxBytes = DEFAULT_JOURNAL_MAX_BYTES;
+        private boolean searchIndexEnabled;
+
+        /**
+         * 内存中最多保留的条数
+         */
+        public Builder setMaxCount(int maxCount) {
+            this.maxCount = Math.max(1, maxCount);
+            return this;
+        }
+
+        /**
+         * 内存中日志的字节预算，含文本与缩略图
+         */
+        public Builder setMaxBytes(long maxBytes) {
+            this.maxBytes = Math.max(1L, maxBytes);
+            return this;
+        }
+
+        /**
+         * 持久化目录，每条日志追加写入其中的分段文件，目录中已有的日志在创建时读回；不设置时淘汰的日志直接丢弃
+         */
+        public Builder setJournalDir(File journalDir) {
+            this.journalDir = journalDir;
+            return this;
+        }
+
+        /**
+         * 单个分段文件的大小，整段映射到内存
+         */
+        public Builder setJournalSegmentBytes(int journalSegmentBytes) {
+            this.journalSegmentBytes = journalSegmentBytes;
+            return this;
+        }
+
+        /**
+         * 持久化文件的总大小上限，超出时删除最早的分段
+         */
+        public Builder setJournalMaxBytes(long journalMaxBytes) {
+            this.journalMaxBytes = journalMaxBytes;
+            return this;
+        }
+
+        /**
+         * 是否为日志文本建检索索引，不开启时检索逐条比较
+         */
+        public Builder setSearchIndexEnabled(boolean searchIndexEnabled) {
+            this.searchIndexEnabled = searchIndexEnabled;
+            return this;
+        }
+
+        public LogStore build() {
+            return new LogStore(this);
+        }
+    }
+}
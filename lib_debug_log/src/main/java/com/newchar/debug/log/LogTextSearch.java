@@ -0,0 +1,85 @@
+package com.newchar.debug.log;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 一次文本检索所需的全部只读数据：条件副本、索引中用到的倒排表副本、持久化文件的只读游标或内存日志文本的副本，
+ * 在主线程由 {@link LogStore#prepareSearch} 准备好，之后可在任意一个线程执行，不再碰 LogStore；
+ * 上次检索到某个序号为止的结果可以直接沿用，只检索之后追加的日志
+ * @since 迭代版本，（以及描述）
+ */
+final class LogTextSearch {
+
+    private final LogQuery mQuery;
+    private final LogSearchIndex.Candidates mCandidates;
+    /**
+     * 已建索引的序号上界（不含），之后的日志逐条比较
+     */
+    private final long mIndexedEnd;
+    private final long mFrom;
+    private final long mEnd;
+    private final LogJournal.Cursor mCursor;
+    private final String[] mMemoryTexts;
+    private final long mMemoryFirstSequence;
+    private final long[] mPrevious;
+
+    LogTextSearch(LogQuery query, LogSearchIndex.Candidates candidates, long indexedEnd, long from, long end,
+                  LogJournal.Cursor cursor, String[] memoryTexts, long memoryFirstSequence, long[] previous) {
+        mQuery = query;
+        mCandidates = candidates;
+        mIndexedEnd = indexedEnd;
+        mFrom = from;
+        mEnd = end;
+        mCursor = cursor;
+        mMemoryTexts = memoryTexts;
+        mMemoryFirstSequence = memoryFirstSequence;
+        mPrevious = previous;
+    }
+
+    /**
+     * @return 检索范围末尾的序号（不含）
+     */
+    long getEndSequence() {
+        return mEnd;
+    }
+
+    /**
+     * 可在任意线程调用，同一个对象只执行一次
+     *
+     * @return 匹配的序号，升序，含沿用的上次结果
+     */
+    LogFilterEngine.Result run() {
+        LogFilterEngine.Result result = new LogFilterEngine.Result(mPrevious == null ? 0 : mPrevious.length);
+        if (mPrevious != null) {
+            for (long sequence : mPrevious) {
+                result.add(sequence);
+            }
+        }
+        long scanFrom = mFrom;
+        if (mCandidates != null) {
+            for (int block : mCandidates.blocks()) {
+                long from = Math.max(mFrom, (long) block * LogSearchIndex.BLOCK_SIZE);
+                long to = Math.min(mIndexedEnd, (long) (block + 1) * LogSearchIndex.BLOCK_SIZE);
+                scan(from, to, result);
+            }
+            scanFrom = Math.max(mFrom, mIndexedEnd);
+        }
+        scan(scanFrom, mEnd, result);
+        return result;
+    }
+
+    private void scan(long from, long to, LogFilterEngine.Result result) {
+        for (long sequence = from; sequence < to; sequence++) {
+            if (mQuery.matches(textAt(sequence))) {
+                result.add(sequence);
+            }
+        }
+    }
+
+    private String textAt(long sequence) {
+        if (mCursor != null) {
+            return mCursor.readText(sequence);
+        }
+        return mMemoryTexts[(int) (sequence - mMemoryFirstSequence)];
+    }
+}
@@ -25,7 +25,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -37,11 +37,35 @@ import java.util.List;
  */
 public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollListener {
 
-    private final List<LogItem> mLogListData;
+    private final LogStore mLogStore;
     /**
      * 是否折叠，0 不折叠
      */
     private int mShowLimit = 0;
+    /**
+     * 生效中的过滤条件，null 表示不过滤
+     */
+    private LogFilter mFilter;
+    /**
+     * 最近一次设置的过滤条件，后台结果回来之前与 mFilter 不同
+     */
+    private LogFilter mRequestedFilter;
+    /**
+     * 每次设置过滤条件加一，后台算完的结果编号不一致时丢弃
+     */
+    private int mFilterGeneration;
+    private LogFilterEngine mFilterEngine;
+    /**
+     * 匹配日志的序号，升序；序号早于存储中第一条的已被删除，计数时跳过
+     */
+    private long[] mFilterSequences = new long[0];
+    private int mFilterSize;
+    /**
+     * 上次文本检索的条件与结果，只改级别或标签时沿用，只检索之后追加的日志
+     */
+    private LogQuery mTextQuery;
+    private long[] mTextSequences;
+    private long mTextEndSequence;
 
     //    public static final int VIEW_ID_COPY_ITEM = View.generateViewId();
     public static final int VIEW_ID_IMAGE_ITEM = View.generateViewId();
@@ -60,22 +84,36 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
     private int mVisibleItemCount = 0;
 
     public LogViewAdapter() {
-        this.mLogListData = new ArrayList<>();
+        this(new LogStore.Builder().build());
+    }
+
+    /**
+     * @param logStore 日志存储，决定内存上限与是否持久化
+     */
+    public LogViewAdapter(LogStore logStore) {
+        this.mLogStore = logStore;
+        // 历史日志接上后序号整体改变，旧的过滤结果不再可用，按最近的条件重新过滤
+        logStore.setOnJournalAttachedListener(() -> {
+            mTextQuery = null;
+            mTextSequences = null;
+            mFilter = null;
+            mFilterSize = 0;
+            setFilter(mRequestedFilter);
+        });
+    }
+
+    public LogStore getLogStore() {
+        return mLogStore;
     }
 
     @Override
     public int getCount() {
-        return isFold() ? Math.min(mShowLimit, mLogListData.size()) : mLogListData.size();
+        return isFold() ? Math.min(mShowLimit, getVisibleCount()) : getVisibleCount();
     }
 
     @Override
     public Object getItem(int position) {
-        if (isFold()) {
-            if (mLogListData.size() >= mShowLimit) {
-                position = mLogListData.size() - mShowLimit + position;
-            }
-        }
-        return mLogListData.get(position);
+        return mLogStore.get(toStorePosition(position));
     }
 
     @Override
@@ -87,12 +125,7 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
     public View getView(int position, View convertView, ViewGroup parent) {
         BaseLogViewHolder logViewHolder;
 
-        if (isFold()) {
-            if (mLogListData.size() >= mShowLimit) {
-                position = mLogListData.size() - mShowLimit + position;
-            }
-        }
-        LogItem realItemData = mLogListData.get(position);
+        LogItem realItemData = mLogStore.get(toStorePosition(position));
 
         if (convertView == null) {
             convertView = generateItemView(parent.getContext());
@@ -106,23 +139,161 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
     }
 
     public void notifyDataAddChanged(LogItem logItem) {
-        mLogListData.add(logItem);
+        long sequence = mLogStore.getFirstSequence() + mLogStore.getCount();
+        mLogStore.add(logItem);
+        appendIfMatched(logItem, sequence);
         super.notifyDataSetChanged();
     }
 
+    /**
+     * 主线程调用，一次追加多条并只刷新一次列表
+     *
+     * @param logItems 追加的日志
+     */
+    public void addLogItems(List<LogItem> logItems) {
+        if (DebugUtils.hasData(logItems)) {
+            // 每追加一条序号加一，淘汰与删除分段不改变后面日志的序号
+            long sequence = mLogStore.getFirstSequence() + mLogStore.getCount();
+            mLogStore.addAll(logItems);
+            for (int i = 0; i < logItems.size(); i++) {
+                appendIfMatched(logItems.get(i), sequence + i);
+            }
+            super.notifyDataSetChanged();
+        }
+    }
+
     public void notifyDataSetChanged(List<LogItem> logItem) {
-        mLogListData.clear();
-        mLogListData.addAll(logItem);
+        mLogStore.clear();
+        mLogStore.addAll(logItem);
+        mFilterSize = 0;
         super.notifyDataSetChanged();
+        // 后台可能还在算刚设置的条件，按最近一次设置的重新过滤
+        setFilter(mRequestedFilter);
     }
 
     public void clearListData() {
-        if (DebugUtils.hasData(mLogListData)) {
-            mLogListData.clear();
+        if (!mLogStore.isEmpty()) {
+            mLogStore.clear();
+            mFilterSize = 0;
             super.notifyDataSetChanged();
         }
     }
 
+    /**
+     * 主线程调用，只显示匹配的日志。文本检索、级别与标签都在后台线程计算，算完回到主线程一次性替换，
+     * 计算期间列表保持原样；之后追加的日志逐条比较，匹配的实时加入
+     *
+     * @param filter 过滤条件，null 或空条件取消过滤
+     */
+    public void setFilter(final LogFilter filter) {
+        final int generation = ++mFilterGeneration;
+        mRequestedFilter = filter;
+        if (filter == null || filter.isEmpty()) {
+            mFilter = null;
+            mFilterSequences = new long[0];
+            mFilterSize = 0;
+            super.notifyDataSetChanged();
+            return;
+        }
+        LogTextSearch textSearch = null;
+        if (filter.getQuery() != null) {
+            // 这里只复制倒排表并取只读游标，逐条比较交给后台线程；条件没变时接着上次的结果检索
+            boolean sameQuery = filter.getQuery() == mTextQuery;
+            textSearch = mLogStore.prepareSearch(filter.getQuery(), sameQuery ? mTextSequences : null,
+                    mTextEndSequence);
+        }
+        int[] tagIds = null;
+        if (!filter.getTags().isEmpty()) {
+            tagIds = new int[filter.getTags().size()];
+            int count = 0;
+            for (String tag : filter.getTags()) {
+                int tagId = mLogStore.findTag(tag);
+                if (tagId >= 0) {
+                    tagIds[count++] = tagId;
+                }
+            }
+            tagIds = Arrays.copyOf(tagIds, count);
+        }
+        if (mFilterEngine == null) {
+            mFilterEngine = new LogFilterEngine();
+        }
+        mFilterEngine.submit(generation, filter.getLevelMask(), tagIds, textSearch, mLogStore.snapshotColumns(),
+                (resultGeneration, sequences, size, endSequence, textSequences) -> {
+                    if (resultGeneration != mFilterGeneration) {
+                        // 已经换了新的条件
+                        return;
+                    }
+                    if (textSequences != null) {
+                        mTextQuery = filter.getQuery();
+                        mTextSequences = textSequences;
+                        mTextEndSequence = endSequence;
+                    }
+                    mFilter = filter;
+                    mFilterSequences = sequences;
+                    mFilterSize = size;
+                    // 补上快照之后追加的日志，这些都是最新的，基本都还在内存中
+                    long storeFirst = mLogStore.getFirstSequence();
+                    long storeEnd = storeFirst + mLogStore.getCount();
+                    for (long sequence = Math.max(endSequence, storeFirst); sequence < storeEnd; sequence++) {
+                        appendIfMatched(mLogStore.get((int) (sequence - storeFirst)), sequence);
+                    }
+                    LogViewAdapter.super.notifyDataSetChanged();
+                });
+    }
+
+    /**
+     * @return 当前生效的过滤条件，没有过滤时为 null
+     */
+    public LogFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * @return 过滤时为匹配且仍保留的日志数，否则为全部日志数
+     */
+    public int getVisibleCount() {
+        if (mFilter == null) {
+            return mLogStore.getCount();
+        }
+        return mFilterSize - firstLiveFilterIndex();
+    }
+
+    private void appendIfMatched(LogItem logItem, long sequence) {
+        if (mFilter == null || !mFilter.matches(logItem)) {
+            return;
+        }
+        if (mFilterSize == mFilterSequences.length) {
+            mFilterSequences = Arrays.copyOf(mFilterSequences, Math.max(16, mFilterSize * 2));
+        }
+        mFilterSequences[mFilterSize++] = sequence;
+    }
+
+    /**
+     * 已被删除的最早几条匹配日志之后的第一个下标
+     */
+    private int firstLiveFilterIndex() {
+        long first = mLogStore.getFirstSequence();
+        int index = Arrays.binarySearch(mFilterSequences, 0, mFilterSize, first);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * 列表位置换算成存储中的位置，依次考虑过滤与折叠
+     */
+    private int toStorePosition(int position) {
+        if (isFold()) {
+            int visibleCount = getVisibleCount();
+            if (visibleCount >= mShowLimit) {
+                position = visibleCount - mShowLimit + position;
+            }
+        }
+        if (mFilter == null) {
+            return position;
+        }
+        long sequence = mFilterSequences[firstLiveFilterIndex() + position];
+        return (int) (sequence - mLogStore.getFirstSequence());
+    }
+
     private View generateItemView(Context context) {
         LinearLayout itemView = new LinearLayout(context);
         itemView.setOrientation(LinearLayout.VERTICAL);
@@ -187,16 +358,34 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
 
     public void setShowLimit(int mShowLimit) {
         this.mShowLimit = mShowLimit;
-        if (mLogListData.size() >= mShowLimit) {
+        if (mLogStore.getCount() >= mShowLimit) {
             notifyDataSetChanged();
         }
     }
 
-    // 添加item改为异步， 有图片加载
+    /**
+     * 主线程调用；其他线程写日志请通过 {@link LogIngestor}
+     */
     public void addLogItem(LogItem.LogUIConfig config, String log, Bitmap... image) {
+        notifyDataAddChanged(createLogItem(config, log, image));
+    }
+
+    /**
+     * 创建日志条目，可在任意线程调用；图片在调用线程压缩成缩略图
+     *
+     * @param config 展示样式，null 使用默认样式
+     * @param log    日志文本
+     * @param image  附带的图片
+     * @return 日志条目
+     */
+    public static LogItem createLogItem(LogItem.LogUIConfig config, String log, Bitmap... image) {
         final LogItem logItem = new LogItem();
         if (config != null) {
             logItem.setLogUIConfig(config);
+            int level = LogItem.levelOf(config);
+            if (level != 0) {
+                logItem.setLogLevel(level);
+            }
         }
 
         if (!TextUtils.isEmpty(log)) {
@@ -205,13 +394,27 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
             Log.e("LogView", "此次添加LogItem，无文本信息 ");
         }
 
+        // 纯文本日志是常态，不再为缺少图片逐条打印 logcat
         if (image != null && image.length > 0) {
             logItem.setLogImage(image);
-        } else {
-            Log.e("LogView", "此次添加LogItem，无图片信息, 日志信息: "+ log);
         }
+        return logItem;
+    }
 
-        notifyDataAddChanged(logItem);
+    /**
+     * 创建结构化日志条目，可在任意线程调用
+     *
+     * @param level 级别，决定展示样式
+     * @param tag   标签，可为 null
+     * @param log   日志文本
+     * @param image 附带的图片
+     * @return 日志条目
+     */
+    public static LogItem createLogItem(int level, String tag, String log, Bitmap... image) {
+        LogItem logItem = createLogItem(LogItem.uiConfigOf(level), log, image);
+        logItem.setLogLevel(level);
+        logItem.setTag(tag);
+        return logItem;
     }
 
     public void addLogItem(Bitmap image) {
@@ -223,7 +426,7 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
     }
 
     public void saveLogListViewAllLog(String path) {
-        if (mLogListData.isEmpty()) {
+        if (mLogStore.isEmpty()) {
             return;
         }
         @SuppressLint("SimpleDateFormat") final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
@@ -232,11 +435,12 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
         if (logFilePath.exists() || logFilePath.mkdirs()) {
             File logFile = new File(logFilePath, System.currentTimeMillis() + ".log");
             try (Writer writer = new BufferedWriter(new FileWriter(logFile))) {
-                // mLogListData copy 一份数据，进行本地序列化
-                for (LogItem logListData : mLogListData) {
+                // 包括只保存在持久化文件中的历史日志
+                for (int i = 0; i < mLogStore.getCount(); i++) {
+                    LogItem logListData = mLogStore.get(i);
                     writer.write(logListData.getLogTimeStamp());
                     writer.write(' ');
-                    writer.write(logListData.getLogText());
+                    writer.write(logListData.getDisplayText());
                     writer.write(System.lineSeparator());
                 }
                 writer.flush();
@@ -253,13 +457,13 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
      * @param position 要复制数据是第几条的；
      */
     public void copyLogItemLogText(Context context, int position) {
-        if (mLogListData.isEmpty()) {
+        if (mLogStore.isEmpty()) {
             Toast.makeText(context, "复制失败，没有Log可供复制" + System.lineSeparator()
                     , Toast.LENGTH_SHORT).show();
             return;
         }
-        if (mLogListData.size() > position) {
-            if (DebugUtils.copy(context, mLogListData.get(position).getLogText())) {
+        if (getCount() > position) {
+            if (DebugUtils.copy(context, mLogStore.getText(toStorePosition(position)))) {
                 Toast.makeText(context, "复制成功", Toast.LENGTH_SHORT).show();
             } else {
                 Toast.makeText(context, "复制失败", Toast.LENGTH_SHORT).show();
@@ -268,7 +472,7 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
     }
 
     public void copyLogListViewAllLog(Context context) {
-        if (mLogListData.isEmpty()) {
+        if (mLogStore.isEmpty()) {
             Toast.makeText(context, "复制失败，没有Log可供复制"
                     , Toast.LENGTH_SHORT).show();
             return;
@@ -276,10 +480,10 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
 
         StringBuilder stringBuilder = new StringBuilder();
         LogItem logListDatum;
-        for (int i = 0; i < mLogListData.size(); i++) {
-            logListDatum = mLogListData.get(i);
+        for (int i = 0; i < mLogStore.getCount(); i++) {
+            logListDatum = mLogStore.get(i);
             stringBuilder.append(logListDatum.getLogTimeStamp()).append(':');
-            stringBuilder.append(logListDatum.getLogText());
+            stringBuilder.append(logListDatum.getDisplayText());
             stringBuilder.append(System.lineSeparator());
         }
 
@@ -296,7 +500,7 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
 //        isViewScroll = scrollState != AbsListView.OnScrollListener.SCROLL_STATE_IDLE;
         switch (scrollState) {
             case AbsListView.OnScrollListener.SCROLL_STATE_IDLE:
-                postLoadImage(view, mLogListData);
+                postLoadImage(view);
                 break;
 //            case AbsListView.OnScrollListener.SCROLL_STATE_FLING:
 //            case AbsListView.OnScrollListener.SCROLL_STATE_TOUCH_SCROLL:
@@ -315,14 +519,16 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
     /*
      *
      * @param view 列表View
-     * @param listData  列表数据
      */
-    private void postLoadImage(AbsListView view, List<LogItem> listData) {
+    private void postLoadImage(AbsListView view) {
         for (int i = 0; i < mVisibleItemCount; i++) {
             int operateItemIndex = mFirstVisibleIndex + i;
             View visibleChild = view.getChildAt(operateItemIndex);
+            if (operateItemIndex >= getCount()) {
+                return;
+            }
             // 找到需要更新的View，去更新View，以及bean数据。（一般这时会检测bean数据，选择性质更新）
-            LogItem logItem = listData.get(operateItemIndex);
+            LogItem logItem = (LogItem) getItem(operateItemIndex);
             if (visibleChild == null || logItem == null) {
                 return;
             }
@@ -380,7 +586,7 @@ public class LogViewAdapter extends BaseAdapter implements AbsListView.OnScrollL
 //                mFoldIconView.setText("∧");
                 mLogTextView.setMaxLines(Integer.MAX_VALUE);
             }
-            mLogTextView.setText(logItem.getLogText());
+            mLogTextView.setText(logItem.getDisplayText());
             mLogTextView.setTextColor(logUIConfig.itemTextColor);
 
             final List<Bitmap> thumbnailImage = logItem.getThumbnailImage();
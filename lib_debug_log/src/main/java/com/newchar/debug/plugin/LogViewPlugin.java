@@ -7,15 +7,28 @@ import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.ListView;
+import android.widget.Toast;
 
 import com.newchar.debug.utils.ViewUtils;
 import com.newchar.debug.lifecycle.AppLifecycleManager;
 import com.newchar.debug.api.PluginContext;
 import com.newchar.debug.api.ScreenDisplayPlugin;
+import com.newchar.debug.log.LogFilter;
+import com.newchar.debug.log.LogIngestor;
 import com.newchar.debug.log.LogItem;
+import com.newchar.debug.log.LogQuery;
+import com.newchar.debug.log.LogStore;
 import com.newchar.debug.log.LogViewAdapter;
 
+import java.io.File;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
 /**
  * @author newChar
  * date 2024/11/30
@@ -26,9 +39,34 @@ public class LogViewPlugin extends ScreenDisplayPlugin {
 
     public static final String TAG_PLUGIN = "LOG_VIEW";
 
+    /**
+     * 内存中最多保留的日志条数与字节预算，超出的日志释放图片，列表仍可从持久化文件向上翻看
+     */
+    private static final int MAX_MEMORY_LOG_COUNT = 5000;
+    private static final long MAX_MEMORY_LOG_BYTES = 16L * 1024 * 1024;
+    /**
+     * 日志持久化目录，放在 files 目录下，不会被系统清理缓存时删掉；进程重启后上次的日志仍可浏览
+     */
+    private static final String JOURNAL_DIR_PATH = "debug_log" + File.separator + "journal";
+    private static final long MAX_JOURNAL_BYTES = 64L * 1024 * 1024;
+
+    private LinearLayout mRootView;
+    private EditText mFilterInput;
+    private CheckBox mFilterRegexCheckBox;
+    private CheckBox mErrorsOnlyCheckBox;
     private ListView mDebugLogView;
     private LogViewAdapter mLogViewAdapter;
     private boolean mLog2Logcat;
+    /**
+     * 任意线程写入的日志先进入这里，插件加载前写入的日志也会在加载后补上
+     */
+    private final LogIngestor mLogIngestor = new LogIngestor();
+    /**
+     * 过滤条件由文本、级别、标签三部分组合；列表创建前设置的在创建后生效
+     */
+    private LogQuery mFilterQuery;
+    private int[] mFilterLevels = new int[0];
+    private String[] mFilterTags = new String[0];
 
     @Override
     public String id() {
@@ -42,7 +80,7 @@ public class LogViewPlugin extends ScreenDisplayPlugin {
 
     protected View getView(Context context) {
         generateDataView(context);
-        return mDebugLogView;
+        return mRootView;
     }
 
 
@@ -55,13 +93,13 @@ public class LogViewPlugin extends ScreenDisplayPlugin {
         if (mLogViewAdapter != null) {
             mLogViewAdapter.notifyDataSetChanged();
         }
-        ViewUtils.setVisibility(mDebugLogView, View.VISIBLE);
+        ViewUtils.setVisibility(mRootView, View.VISIBLE);
         Log.e(id(), "onShow " + hashCode());
     }
 
     @Override
     public void onHide() {
-        ViewUtils.setVisibility(mDebugLogView, View.INVISIBLE);
+        ViewUtils.setVisibility(mRootView, View.INVISIBLE);
         Log.e(id(), "onHide " + hashCode());
     }
 
@@ -90,20 +128,157 @@ public class LogViewPlugin extends ScreenDisplayPlugin {
         log(LogItem.UI_CONFIG_ERROR_LOG, log, bitmaps);
     }
 
+    /**
+     * 可在任意线程调用，日志按帧率上限批量刷新到列表；积压超过上限时丢弃并计数
+     */
     public void log(LogItem.LogUIConfig config, String log, Bitmap... bitmaps) {
-        if (mLogViewAdapter != null) {
-            mLogViewAdapter.addLogItem(config, log, bitmaps);
-        }
+        mLogIngestor.offer(LogViewAdapter.createLogItem(config, log, bitmaps));
         if (mLog2Logcat) {
             Log.e(AppLifecycleManager.getInstance().getLastActivity().getClass().getSimpleName(),
                     log);
         }
     }
 
+    /**
+     * 结构化日志，可在任意线程调用；线程名取调用线程
+     *
+     * @param level   级别，如 {@link LogItem#LEVEL_LOG_ERROR}
+     * @param tag     标签，可为 null
+     * @param log     日志文本
+     * @param fields  附带的键值字段，可为 null
+     * @param bitmaps 附带的图片
+     */
+    public void log(int level, String tag, String log, Map<String, String> fields, Bitmap... bitmaps) {
+        LogItem logItem = LogViewAdapter.createLogItem(level, tag, log, bitmaps);
+        if (fields != null) {
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                logItem.putField(field.getKey(), field.getValue());
+            }
+        }
+        mLogIngestor.offer(logItem);
+        if (mLog2Logcat) {
+            Log.e(tag == null ? AppLifecycleManager.getInstance().getLastActivity().getClass().getSimpleName() : tag,
+                    logItem.getDisplayText());
+        }
+    }
+
     public void setLog2Logcat(boolean print) {
         mLog2Logcat = print;
     }
 
+    /**
+     * 列表刷新频率上限（次/秒），默认 30
+     */
+    public void setUiRefreshRate(int hz) {
+        mLogIngestor.setMaxFrameRate(hz);
+    }
+
+    /**
+     * @return 写入过快、积压已满而丢弃的日志总数
+     */
+    public long getDroppedLogCount() {
+        return mLogIngestor.getDroppedCount();
+    }
+
+    /**
+     * 主线程调用，只显示匹配的日志，之后写入的日志匹配时实时显示；忽略大小写。与级别、标签过滤同时生效
+     *
+     * @param text  过滤文本，空则取消文本过滤
+     * @param regex true 按正则匹配，否则按子串匹配
+     * @throws PatternSyntaxException 正则写错
+     */
+    public void setFilter(String text, boolean regex) {
+        if (text == null || text.isEmpty()) {
+            mFilterQuery = null;
+        } else {
+            mFilterQuery = regex ? LogQuery.regex(text, true) : LogQuery.substring(text, true);
+        }
+        applyFilter();
+    }
+
+    /**
+     * 主线程调用，只显示这些级别的日志
+     *
+     * @param levels 级别，不传取消级别过滤
+     */
+    public void setLevelFilter(int... levels) {
+        mFilterLevels = levels == null ? new int[0] : levels.clone();
+        applyFilter();
+    }
+
+    /**
+     * 主线程调用，只显示这些标签的日志
+     *
+     * @param tags 标签，不传取消标签过滤
+     */
+    public void setTagFilter(String... tags) {
+        mFilterTags = tags == null ? new String[0] : tags.clone();
+        applyFilter();
+    }
+
+    public void clearFilter() {
+        mFilterQuery = null;
+        mFilterLevels = new int[0];
+        mFilterTags = new String[0];
+        applyFilter();
+    }
+
+    private void applyFilter() {
+        if (mLogViewAdapter != null) {
+            mLogViewAdapter.setFilter(new LogFilter.Builder()
+                    .setQuery(mFilterQuery)
+                    .setLevels(mFilterLevels)
+                    .setTags(mFilterTags)
+                    .build());
+        }
+    }
+
+    private void applyFilterInput() {
+        CharSequence text = mFilterInput.getText();
+        try {
+            setFilter(text == null ? null : text.toString(), mFilterRegexCheckBox.isChecked());
+        } catch (PatternSyntaxException e) {
+            Toast.makeText(mFilterInput.getContext(), "正则有误：" + e.getDescription(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private LinearLayout generateFilterBar(Context context) {
+        LinearLayout filterBar = new LinearLayout(context);
+        filterBar.setOrientation(LinearLayout.HORIZONTAL);
+        filterBar.setBackgroundColor(Color.WHITE);
+
+        mFilterInput = new EditText(context);
+        mFilterInput.setHint("过滤日志，留空显示全部");
+        mFilterInput.setTextSize(14f);
+        mFilterInput.setSingleLine();
+        filterBar.addView(mFilterInput, new LinearLayout.LayoutParams(
+                0, ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+
+        mFilterRegexCheckBox = new CheckBox(context);
+        mFilterRegexCheckBox.setText("正则");
+        filterBar.addView(mFilterRegexCheckBox, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+        mErrorsOnlyCheckBox = new CheckBox(context);
+        mErrorsOnlyCheckBox.setText("仅错误");
+        mErrorsOnlyCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                setLevelFilter(LogItem.LEVEL_LOG_ERROR);
+            } else {
+                setLevelFilter();
+            }
+        });
+        filterBar.addView(mErrorsOnlyCheckBox, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+        Button filterButton = new Button(context);
+        filterButton.setText("过滤");
+        filterButton.setOnClickListener(v -> applyFilterInput());
+        filterBar.addView(filterButton, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        return filterBar;
+    }
+
     private void initLogItemClickListener() {
         AdapterView.OnItemClickListener onLogItemClick
                 = (parent, view, position, id) -> {
@@ -119,17 +294,31 @@ public class LogViewPlugin extends ScreenDisplayPlugin {
     }
 
     private void generateDataView(Context context) {
-        if (mDebugLogView == null) {
+        if (mRootView == null) {
+            mRootView = new LinearLayout(context);
+            mRootView.setOrientation(LinearLayout.VERTICAL);
+            mRootView.addView(generateFilterBar(context), new LinearLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
             mDebugLogView = new ListView(context);
             // 新加入到不做滚动处理，一直保持当前UI，如果是最后一条 一直保持最后一条的位置。
             mDebugLogView.setTranscriptMode(ListView.TRANSCRIPT_MODE_NORMAL);
+            mRootView.addView(mDebugLogView, new LinearLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, 0, 1f));
         }
         if (mLogViewAdapter == null) {
-            mLogViewAdapter = new LogViewAdapter();
+            mLogViewAdapter = new LogViewAdapter(new LogStore.Builder()
+                    .setMaxCount(MAX_MEMORY_LOG_COUNT)
+                    .setMaxBytes(MAX_MEMORY_LOG_BYTES)
+                    .setJournalDir(new File(context.getFilesDir(), JOURNAL_DIR_PATH))
+                    .setJournalMaxBytes(MAX_JOURNAL_BYTES)
+                    .setSearchIndexEnabled(true)
+                    .build());
+            applyFilter();
         }
         if (mDebugLogView.getAdapter() == null) {
             mDebugLogView.setAdapter(mLogViewAdapter);
         }
+        mLogIngestor.attach(mLogViewAdapter);
         initLogItemClickListener();
     }
 
@@ -0,0 +1,151 @@
+package com.newchar.debug.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class LogJournalTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("log-journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void reopenReadsBackRecordsAndColumns() throws IOException {
+        LogJournal journal = open(4L * SEGMENT_BYTES);
+        journal.append(item(LogItem.LEVEL_LOG_INFO, "net", "first"));
+        journal.append(item(LogItem.LEVEL_LOG_ERROR, "db", "second"));
+        journal.append(item(LogItem.LEVEL_LOG_ERROR, "db", "third"));
+
+        LogJournal reopened = open(4L * SEGMENT_BYTES);
+        assertEquals(3, reopened.getCount());
+        assertEquals(0L, reopened.getFirstSequence());
+        assertEquals("first", reopened.readText(0));
+        LogItem second = reopened.read(1);
+        assertEquals("second", second.getLogText());
+        assertEquals(LogItem.LEVEL_LOG_ERROR, second.getLogLevel());
+        assertEquals("db", second.getTag());
+
+        LogColumns columns = new LogColumns();
+        columns.reset(reopened.getFirstSequence());
+        reopened.readColumns(columns);
+        assertEquals(LogItem.LEVEL_LOG_INFO, columns.getLevel(0));
+        assertEquals(columns.findTag("db"), columns.getTag(1));
+        assertEquals(columns.getTag(1), columns.getTag(2));
+
+        // 重新打开后接着上次的分段追加
+        reopened.append(item(LogItem.LEVEL_LOG_WARN, "ui", "fourth"));
+        assertEquals(4, open(4L * SEGMENT_BYTES).getCount());
+        assertEquals(1, segmentFileCount());
+    }
+
+    @Test
+    public void trimDropsOldestSegmentsAndKeepsSequences() throws IOException {
+        LogJournal journal = open(2L * SEGMENT_BYTES);
+        String text = repeat('x', 1000);
+        int written = 0;
+        while (journal.getFirstSequence() == 0L) {
+            journal.append(item(LogItem.LEVEL_LOG_INFO, "t", written + ":" + text));
+            written++;
+        }
+        assertTrue(segmentFileCount() <= 2);
+        long first = journal.getFirstSequence();
+        assertEquals(written, first + journal.getCount());
+        assertEquals(first + ":" + text, journal.readText(0));
+
+        LogJournal reopened = open(2L * SEGMENT_BYTES);
+        assertEquals(journal.getCount(), reopened.getCount());
+        assertEquals(first + ":" + text, reopened.readText(0));
+        assertEquals((written - 1) + ":" + text, reopened.readText(reopened.getCount() - 1));
+    }
+
+    @Test
+    public void reopenWithSmallerLimitTrims() throws IOException {
+        LogJournal journal = open(8L * SEGMENT_BYTES);
+        String text = repeat('y', 4000);
+        for (int i = 0; i < 60; i++) {
+            journal.append(item(LogItem.LEVEL_LOG_INFO, "t", i + ":" + text));
+        }
+        assertEquals(4, segmentFileCount());
+
+        LogJournal reopened = open(2L * SEGMENT_BYTES);
+        assertEquals(2, segmentFileCount());
+        assertTrue(reopened.getCount() < 60);
+        assertEquals(59 + ":" + text, reopened.readText(reopened.getCount() - 1));
+    }
+
+    @Test
+    public void cursorKeepsItsRangeWhileJournalGrows() throws IOException {
+        LogJournal journal = open(4L * SEGMENT_BYTES);
+        journal.append(item(LogItem.LEVEL_LOG_INFO, "t", "a"));
+        journal.append(item(LogItem.LEVEL_LOG_INFO, "t", "b"));
+        LogJournal.Cursor cursor = journal.openCursor();
+        String text = repeat('z', 2000);
+        for (int i = 0; i < 100; i++) {
+            journal.append(item(LogItem.LEVEL_LOG_INFO, "t", text));
+        }
+        assertEquals(0L, cursor.getFirstSequence());
+        assertEquals(2L, cursor.getEndSequence());
+        assertEquals("a", cursor.readText(0L));
+        assertEquals("b", cursor.readText(1L));
+        assertEquals(text, journal.openCursor().readText(101L));
+    }
+
+    @Test
+    public void clearDeletesSegments() throws IOException {
+        LogJournal journal = open(4L * SEGMENT_BYTES);
+        journal.append(item(LogItem.LEVEL_LOG_INFO, "t", "gone"));
+        journal.clear();
+        assertEquals(0, journal.getCount());
+        assertEquals(1L, journal.getFirstSequence());
+        assertEquals(0, open(4L * SEGMENT_BYTES).getCount());
+    }
+
+    private LogJournal open(long maxBytes) throws IOException {
+        return new LogJournal(mDirectory, SEGMENT_BYTES, maxBytes, null);
+    }
+
+    private int segmentFileCount() {
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(".seg"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static LogItem item(int level, String tag, String text) {
+        LogItem item = new LogItem();
+        item.setLogText(text);
+        item.setLogLevel(level);
+        item.setTag(tag);
+        return item;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
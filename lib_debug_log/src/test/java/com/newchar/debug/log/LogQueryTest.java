@@ -0,0 +1,96 @@
+package com.newchar.debug.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class LogQueryTest {
+
+    @Test
+    public void plusKeepsCharacterButEndsLiteral() {
+        assertLiterals("abc+def", "abc", "def");
+        // a+b：a 至少出现一次，但 ab 之间可能有多个 a，片段不足三个字符时不参与索引
+        assertLiterals("a+b");
+        assertLiterals("xa+bcd", "bcd");
+        assertMatchesContainLiterals("abc+def", "abcccdef");
+    }
+
+    @Test
+    public void optionalCharactersAreDropped() {
+        assertLiterals("abc?def", "def");
+        assertLiterals("abcd*ef", "abc");
+        assertLiterals("abcd?", "abc");
+        assertMatchesContainLiterals("abc?def", "abdef");
+    }
+
+    @Test
+    public void braceQuantifierIsSkipped() {
+        // x{2}y：x 后面跟着量词，从片段中去掉，量词里的数字不当成字面量
+        assertLiterals("x{2}y");
+        assertLiterals("abcx{2}yzw", "abc", "yzw");
+        assertLiterals("abcd{0,3}efg", "abc", "efg");
+        assertMatchesContainLiterals("abcd{0,3}efg", "abcefg");
+    }
+
+    @Test
+    public void quotedSectionIsLiteral() {
+        assertLiterals("\\Qa.b*c\\E", "a.b*c");
+        assertLiterals("id=\\Q[42]\\E!", "id=[42]!");
+        // 引用段最后一个字符后面的量词同样生效
+        assertLiterals("\\Qabcd\\E?", "abc");
+        assertLiterals("\\Qabc", "abc");
+        assertLiterals("\\Q\\Eabc", "abc");
+        assertMatchesContainLiterals("\\Qabcd\\E?", "abc");
+    }
+
+    @Test
+    public void alternationAndInlineFlagsGiveUp() {
+        assertLiterals("timeout|refused");
+        assertLiterals("error (a|b) occurred");
+        assertLiterals("[|]abcdef");
+        assertLiterals("(?i)abcdef");
+        assertLiterals("(?:abc)def");
+    }
+
+    @Test
+    public void metaCharactersAndGroupsBreakLiterals() {
+        assertLiterals("^abc.def$", "abc", "def");
+        assertLiterals("abc[xyz]def", "abc", "def");
+        assertLiterals("abc(def)ghi", "abc", "ghi");
+        assertLiterals("abc\\d+def", "abc", "def");
+        assertLiterals("a\\.bcd", "a.bcd");
+        // 带参数的转义与反向引用不逐个解析，整体放弃
+        assertLiterals("abc\\x41def");
+        assertLiterals("(abc)\\1def");
+    }
+
+    @Test
+    public void literalsAreLowerCase() {
+        assertLiterals("HTTP/1.1 500", "http/1", "1 500");
+        assertEquals(Collections.singletonList("timeout"),
+                LogQuery.substring("TimeOut", false).getRequiredLiterals());
+        assertTrue(LogQuery.substring("", true).getRequiredLiterals().isEmpty());
+    }
+
+    private static void assertLiterals(String regex, String... expected) {
+        assertEquals(regex, Arrays.asList(expected), LogQuery.regex(regex, false).getRequiredLiterals());
+    }
+
+    /**
+     * 索引只是缩小范围：匹配的文本必须包含每个字面量，否则会漏掉结果
+     */
+    private static void assertMatchesContainLiterals(String regex, String text) {
+        LogQuery query = LogQuery.regex(regex, false);
+        assertTrue(regex + " should match " + text, query.matches(text));
+        List<String> literals = query.getRequiredLiterals();
+        String lower = LogQuery.toLowerCase(text);
+        for (String literal : literals) {
+            assertTrue(literal + " missing from " + text, lower.contains(literal));
+        }
+    }
+}
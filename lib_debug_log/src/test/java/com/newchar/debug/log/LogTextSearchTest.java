@@ -0,0 +1,73 @@
+package com.newchar.debug.log;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class LogTextSearchTest {
+
+    private static final int COUNT = 1000;
+
+    @Test
+    public void indexedSearchMatchesFullScan() {
+        String[] texts = texts(COUNT);
+        LogSearchIndex index = new LogSearchIndex();
+        index.reset(0L);
+        // 最后 100 条还没建索引，要逐条比较
+        for (int i = 0; i < COUNT - 100; i++) {
+            index.add(i, texts[i]);
+        }
+        for (String pattern : new String[]{"timeout", "req-12\\d", "missing-text", "id=7"}) {
+            LogQuery query = LogQuery.regex(pattern, true);
+            LogTextSearch search = new LogTextSearch(query.copy(), index.snapshotCandidates(query),
+                    index.getIndexedEnd(), 0L, COUNT, null, texts, 0L, null);
+            assertArrayEquals(pattern, scan(query, texts, 0, COUNT), toArray(search.run()));
+        }
+    }
+
+    @Test
+    public void continuesFromPreviousResult() {
+        String[] texts = texts(COUNT);
+        LogQuery query = LogQuery.substring("timeout", true);
+        long[] previous = scan(query, texts, 0, 600);
+        LogTextSearch search = new LogTextSearch(query.copy(), null, 0L, 600L, COUNT, null, texts, 0L, previous);
+        assertArrayEquals(scan(query, texts, 0, COUNT), toArray(search.run()));
+    }
+
+    @Test
+    public void missingGramHasNoIndexedCandidates() {
+        String[] texts = texts(COUNT);
+        LogSearchIndex index = new LogSearchIndex();
+        index.reset(0L);
+        for (int i = 0; i < COUNT; i++) {
+            index.add(i, texts[i]);
+        }
+        LogQuery query = LogQuery.substring("zzz", false);
+        assertArrayEquals(new int[0], index.snapshotCandidates(query).blocks());
+    }
+
+    private static String[] texts(int count) {
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            texts[i] = (i % 37 == 0 ? "Connect TIMEOUT " : "ok ") + "req-" + i + " id=" + (i % 10);
+        }
+        return texts;
+    }
+
+    private static long[] scan(LogQuery query, String[] texts, int from, int to) {
+        long[] result = new long[to - from];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            if (query.matches(texts[i])) {
+                result[size++] = i;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static long[] toArray(LogFilterEngine.Result result) {
+        return Arrays.copyOf(result.sequences, result.size);
+    }
+}
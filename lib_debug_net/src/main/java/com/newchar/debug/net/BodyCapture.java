@@ -0,0 +1,90 @@
+package com.newchar.debug.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import okio.Buffer;
+
+/**
+ * 边传输边保存 body 前缀：最多保留 maxBytes，超出部分只计数不保存，与 {@link HttpStreamParser} 的截断方式一致。
+ * 请求 body 在 OkHttp 线程写入，响应 body 在读取方线程写入，读取结果时已不再写入，方法加锁只为保证可见性。
+ */
+final class BodyCapture extends OutputStream {
+
+    private final int mMaxBytes;
+    private byte[] mData;
+    private int mLength;
+    private long mTotal;
+
+    BodyCapture(int maxBytes) {
+        mMaxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * 记录 buffer 中从 offset 开始、刚经过的 byteCount 个字节，不改变 buffer 内容。
+     */
+    synchronized void capture(Buffer buffer, long offset, long byteCount) throws IOException {
+        if (byteCount <= 0) {
+            return;
+        }
+        mTotal += byteCount;
+        int room = mMaxBytes - mLength;
+        if (room > 0) {
+            buffer.copyTo(this, offset, Math.min(room, byteCount));
+        }
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        ensureCapacity(1);
+        mData[mLength++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, mData, mLength, length);
+        mLength += length;
+    }
+
+    /**
+     * 丢弃已保存的内容，重新开始；缓冲区留着复用
+     */
+    synchronized void reset() {
+        mLength = 0;
+        mTotal = 0L;
+    }
+
+    synchronized long getTotalBytes() {
+        return mTotal;
+    }
+
+    /**
+     * body 文本。压缩过的 body 只显示编码和长度，超出上限的部分标注截断字节数。
+     */
+    synchronized String toText(String contentEncoding) {
+        if (mTotal == 0) {
+            return "";
+        }
+        if (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding)) {
+            return "[" + contentEncoding + " " + mTotal + "B]";
+        }
+        String text = new String(mData, 0, mLength, StandardCharsets.UTF_8);
+        if (mTotal > mLength) {
+            return text + "\n...[truncated " + (mTotal - mLength) + "B]";
+        }
+        return text;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mData == null || mLength + extra > mData.length) {
+            int capacity = Math.min(mMaxBytes, Math.max(mData == null ? 1024 : mData.length * 2, mLength + extra));
+            byte[] grown = new byte[Math.max(capacity, mLength + extra)];
+            if (mData != null) {
+                System.arraycopy(mData, 0, grown, 0, mLength);
+            }
+            mData = grown;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.newchar.debug.net;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 抓包处理流水线：解析包头、累计连接统计，按配置做 TCP 重组与 HTTP 解析，然后交给 {@link DebugNetMonitor} 分发。
+ *
+ * 默认只为解析出 HTTP 信息的包创建 event，其余包只计入 {@link FlowTable}，连接统计按节流频率下发；
+ * 开启 {@link DebugNetConfig#isPacketEventsEnabled()} 后恢复逐包 event。只在捕获线程调用。
+ *
+ * 每条 TCP 连接的第一个上行载荷会被当作 TLS ClientHello 扫描一次，SNI/ALPN 缓存在 {@link FlowTable} 中，
+ * 同一连接后续的 event 直接继承主机名，不再解析。没有 SNI/Host 的连接用嗅探 DNS 应答得到的 {@link DnsCache} 打标签。
+ */
+final class CapturePipeline implements TcpReassembler.EventSource {
+
+    static final long FLOW_DISPATCH_INTERVAL_MS = 500L;
+    /** 跨分段的 ClientHello 最多缓存这么多条连接，超出时丢弃最早的。 */
+    private static final int MAX_PENDING_HELLOS = 64;
+    /** 只拼接一个最大长度的 TLS 记录。 */
+    private static final int MAX_HELLO_BYTES = 5 + 16 * 1024;
+
+    private final PacketHeader mHeader = new PacketHeader();
+    private final TcpReassembler mReassembler = new TcpReassembler();
+    private final FlowTable mFlowTable = new FlowTable();
+    private final DnsCache mDnsCache = DebugNetMonitor.getDnsCache();
+    private final TlsClientHelloScanner.Result mTlsResult = new TlsClientHelloScanner.Result();
+    private final Map<Long, PendingHello> mPendingHellos = new LinkedHashMap<Long, PendingHello>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PendingHello> eldest) {
+            return size() > MAX_PENDING_HELLOS;
+        }
+    };
+    private long mLastFlowDispatchMillis;
+    private TrafficDirection mDirection;
+    private long mTimeMillis;
+    private DebugNetEvent mEvent;
+
+    void onPacket(byte[] packet, int length, TrafficDirection direction, long timeMillis) {
+        DebugNetConfig config = DebugNetMonitor.getConfig();
+        if (!applyCaptureFilter(config.getCaptureFilter(), packet, length, direction, mHeader, mDnsCache,
+                timeMillis)) {
+            return;
+        }
+        if (!IpPacketParser.parseHeader(packet, length, mHeader)) {
+            DebugNetMonitor.dispatch(IpPacketParser.buildUnknownEvent(mHeader, length, direction));
+            return;
+        }
+        mDirection = direction;
+        mTimeMillis = timeMillis;
+        mEvent = null;
+        int slot = mFlowTable.update(mHeader, direction, timeMillis);
+        if (mHeader.isUdp() && direction == TrafficDirection.DOWNLOAD
+                && mHeader.sourcePort == DnsResponseParser.DNS_PORT && mHeader.payloadLength > 0) {
+            DnsResponseParser.parse(packet, mHeader.payloadOffset, mHeader.payloadLength, mDnsCache, timeMillis);
+        }
+        if (slot >= 0 && mFlowTable.getHost(slot) == null) {
+            labelFromDns(slot, direction, timeMillis);
+        }
+        if (mHeader.isTcp() && direction != TrafficDirection.DOWNLOAD && mHeader.payloadLength > 0
+                && !mFlowTable.isTlsScanned(slot)) {
+            scanClientHello(slot, packet);
+        }
+        if (config.isHttpDecodeEnabled()) {
+            String host = mReassembler.onPacket(mHeader, packet, direction, this, config.getMaxPayloadBytes(),
+                    timeMillis);
+            mFlowTable.setHost(slot, host);
+        } else if (mHeader.isTcp() && mHeader.payloadLength > 0) {
+            IpPacketParser.applyHttpPathGuess(packet, mHeader, this);
+        }
+        if (config.isPacketEventsEnabled()) {
+            obtainEvent();
+        }
+        DebugNetEvent event = mEvent;
+        mEvent = null;
+        if (event != null) {
+            String host = mFlowTable.getHost(slot);
+            if (host != null) {
+                event.setHost(host);
+            }
+            String alpn = mFlowTable.getAlpn(slot);
+            if (alpn != null) {
+                event.setAlpn(alpn);
+            }
+            DebugNetMonitor.dispatch(event);
+        }
+        dispatchFlowsIfDue(timeMillis);
+    }
+
+    /**
+     * 过滤在解析头部之前进行，未命中的包不进入连接统计，也不产生任何对象。
+     * 未命中的 DNS 应答仍要写入 {@link DnsCache}：{@code host 域名} 条件靠它把地址解析成域名，
+     * 丢掉应答会让这类条件永远匹配不上。
+     *
+     * @return 包是否命中过滤条件；header 只在嗅探 DNS 时被改写
+     */
+    static boolean applyCaptureFilter(PacketFilter filter, byte[] packet, int length, TrafficDirection direction,
+            PacketHeader header, DnsCache dnsCache, long timeMillis) {
+        if (filter == null || filter.matches(packet, length)) {
+            return true;
+        }
+        if (direction == TrafficDirection.DOWNLOAD && IpPacketParser.parseHeader(packet, length, header)
+                && header.isUdp() && header.sourcePort == DnsResponseParser.DNS_PORT && header.payloadLength > 0) {
+            DnsResponseParser.parse(packet, header.payloadOffset, header.payloadLength, dnsCache, timeMillis);
+        }
+        return false;
+    }
+
+    @Override
+    public DebugNetEvent obtainEvent() {
+        if (mEvent == null) {
+            mEvent = IpPacketParser.createEvent(mHeader, mDirection, mTimeMillis);
+        }
+        return mEvent;
+    }
+
+    /**
+     * 转发引擎终结 TLS 后解密出的明文：按 HTTP/1.1 解析，结果以 {@link DebugNetEvent#isDecrypted()} 的 event 分发。
+     * 对应的密文包已经各自经过 {@link #onPacket}，这里不再计入连接统计。
+     */
+    void onDecrypted(MitmTlsSession session, boolean upload, byte[] data, int offset, int length, long timeMillis) {
+        fillDecryptedHeader(session, upload, length, timeMillis);
+        session.http.onPlaintext(upload, data, offset, length, this,
+                DebugNetMonitor.getConfig().getMaxPayloadBytes(), timeMillis);
+        DebugNetEvent event = mEvent;
+        mEvent = null;
+        if (event != null) {
+            event.setHost(session.host);
+            event.setHttps(true);
+            event.setDecrypted(true);
+            DebugNetMonitor.dispatch(event);
+        }
+    }
+
+    /**
+     * HTTPS 解密失败（App 不信任证书或上游握手失败），以带失败原因的 event 告知。
+     */
+    void onDecryptFailed(MitmTlsSession session, String reason, long timeMillis) {
+        fillDecryptedHeader(session, true, 0, timeMillis);
+        DebugNetEvent event = obtainEvent();
+        mEvent = null;
+        event.setHost(session.host);
+        event.setFailureReason(reason);
+        DebugNetMonitor.dispatch(event);
+    }
+
+    private void fillDecryptedHeader(MitmTlsSession session, boolean upload, int length, long timeMillis) {
+        PacketHeader header = mHeader;
+        header.reset();
+        header.version = session.ipv6 ? 6 : 4;
+        header.protocol = IpPacketParser.PROTOCOL_TCP;
+        header.ipv6 = session.ipv6;
+        header.sourceHigh = upload ? session.appHigh : session.remoteHigh;
+        header.sourceLow = upload ? session.appLow : session.remoteLow;
+        header.sourcePort = upload ? session.appPort : session.remotePort;
+        header.destinationHigh = upload ? session.remoteHigh : session.appHigh;
+        header.destinationLow = upload ? session.remoteLow : session.appLow;
+        header.destinationPort = upload ? session.remotePort : session.appPort;
+        header.length = length;
+        mDirection = upload ? TrafficDirection.UPLOAD : TrafficDirection.DOWNLOAD;
+        mTimeMillis = timeMillis;
+        mEvent = null;
+    }
+
+    void release() {
+        List<DebugNetFlow> updates = mFlowTable.collectUpdates(System.currentTimeMillis());
+        if (updates != null) {
+            DebugNetMonitor.dispatchFlows(updates);
+        }
+        mFlowTable.clear();
+        mReassembler.clear();
+        mPendingHellos.clear();
+    }
+
+    private void labelFromDns(int slot, TrafficDirection direction, long nowMillis) {
+        PacketHeader header = mHeader;
+        boolean upload = direction != TrafficDirection.DOWNLOAD;
+        String host = mDnsCache.lookup(header.ipv6,
+                upload ? header.destinationHigh : header.sourceHigh,
+                upload ? header.destinationLow : header.sourceLow, nowMillis);
+        if (host != null) {
+            mFlowTable.setHost(slot, host);
+        }
+    }
+
+    private void scanClientHello(int slot, byte[] packet) {
+        PacketHeader header = mHeader;
+        long flowId = mFlowTable.getFlowId(slot);
+        PendingHello pending = mPendingHellos.remove(flowId);
+        byte[] data;
+        int status;
+        if (pending == null) {
+            data = packet;
+            status = TlsClientHelloScanner.scan(packet, header.payloadOffset,
+                    header.payloadOffset + header.payloadLength, mTlsResult);
+            int required = mTlsResult.requiredLength;
+            if (status == TlsClientHelloScanner.STATUS_NEED_MORE
+                    && required > header.payloadLength && required <= MAX_HELLO_BYTES) {
+                pending = new PendingHello(required, header.tcpSequence);
+                pending.append(packet, header.payloadOffset, header.payloadLength);
+                mPendingHellos.put(flowId, pending);
+                return;
+            }
+        } else {
+            // 只拼接按序到达的分段；乱序或重传时用已收到的部分给出结果
+            boolean inOrder = header.tcpSequence == pending.nextSequence;
+            if (inOrder) {
+                pending.append(packet, header.payloadOffset, header.payloadLength);
+            }
+            data = pending.data;
+            status = TlsClientHelloScanner.scan(data, 0, pending.length, mTlsResult);
+            if (status == TlsClientHelloScanner.STATUS_NEED_MORE && inOrder && pending.length < data.length) {
+                mPendingHellos.put(flowId, pending);
+                return;
+            }
+        }
+        mFlowTable.markTlsScanned(slot);
+        TlsClientHelloScanner.Result result = mTlsResult;
+        if (status == TlsClientHelloScanner.STATUS_NOT_TLS || !result.hasSni()) {
+            return;
+        }
+        mFlowTable.setHost(slot, new String(data, result.sniOffset, result.sniLength, StandardCharsets.US_ASCII));
+        if (result.hasAlpn()) {
+            mFlowTable.setAlpn(slot, new String(data, result.alpnOffset, result.alpnLength,
+                    StandardCharsets.US_ASCII));
+        }
+        // 握手开始相当于一次 HTTPS 请求，为它生成 event
+        obtainEvent();
+    }
+
+    /**
+     * 跨多个 TCP 段的 ClientHello，按序拼接到完整记录长度为止。
+     */
+    private static final class PendingHello {
+
+        final byte[] data;
+        int length;
+        int nextSequence;
+
+        PendingHello(int capacity, int sequence) {
+            data = new byte[capacity];
+            nextSequence = sequence;
+        }
+
+        void append(byte[] packet, int offset, int count) {
+            int copy = Math.min(count, data.length - length);
+            System.arraycopy(packet, offset, data, length, copy);
+            length += copy;
+            nextSequence += count;
+        }
+    }
+
+    private void dispatchFlowsIfDue(long nowMillis) {
+        if (nowMillis - mLastFlowDispatchMillis < FLOW_DISPATCH_INTERVAL_MS) {
+            return;
+        }
+        mLastFlowDispatchMillis = nowMillis;
+        List<DebugNetFlow> updates = mFlowTable.collectUpdates(nowMillis);
+        if (updates != null) {
+            DebugNetMonitor.dispatchFlows(updates);
+        }
+    }
+}
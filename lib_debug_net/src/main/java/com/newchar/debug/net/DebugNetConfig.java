@@ -9,6 +9,7 @@ public final class DebugNetConfig {
 
     public static final String KEYSTORE_TYPE_PKCS12 = "PKCS12";
     public static final String KEYSTORE_TYPE_BKS = "BKS";
+    public static final int DEFAULT_DISPATCH_QUEUE_CAPACITY = 4096;
 
     private final boolean httpDecodeEnabled;
     private final boolean httpsDecodeEnabled;
@@ -16,6 +17,13 @@ public final class DebugNetConfig {
     private final String certificatePassword;
     private final String keystoreType;
     private final int maxPayloadBytes;
+    private final boolean packetEventsEnabled;
+    private final int dispatchQueueCapacity;
+    private final DebugNetOverflowPolicy overflowPolicy;
+    private final String captureFilterExpression;
+    private final PacketFilter captureFilter;
+    private final String captureFilterError;
+    private final DebugNetNetworkCondition networkCondition;
 
     private DebugNetConfig(Builder builder) {
         this.httpDecodeEnabled = builder.httpDecodeEnabled;
@@ -24,6 +32,22 @@ public final class DebugNetConfig {
         this.certificatePassword = builder.certificatePassword == null ? "" : builder.certificatePassword;
         this.keystoreType = normalizeKeystoreType(builder.keystoreType);
         this.maxPayloadBytes = builder.maxPayloadBytes > 0 ? builder.maxPayloadBytes : 64 * 1024;
+        this.packetEventsEnabled = builder.packetEventsEnabled;
+        this.dispatchQueueCapacity = builder.dispatchQueueCapacity > 0
+                ? builder.dispatchQueueCapacity : DEFAULT_DISPATCH_QUEUE_CAPACITY;
+        this.overflowPolicy = builder.overflowPolicy != null
+                ? builder.overflowPolicy : DebugNetOverflowPolicy.DROP_OLDEST;
+        this.captureFilterExpression = safeTrim(builder.captureFilter);
+        PacketFilter filter = null;
+        String filterError = null;
+        try {
+            filter = PacketFilter.compile(captureFilterExpression);
+        } catch (IllegalArgumentException e) {
+            filterError = e.getMessage();
+        }
+        this.captureFilter = filter;
+        this.captureFilterError = filterError;
+        this.networkCondition = builder.networkCondition;
     }
 
     public static DebugNetConfig defaultConfig() {
@@ -37,7 +61,12 @@ public final class DebugNetConfig {
                 .setCertificatePath(certificatePath)
                 .setCertificatePassword(certificatePassword)
                 .setKeystoreType(keystoreType)
-                .setMaxPayloadBytes(maxPayloadBytes);
+                .setMaxPayloadBytes(maxPayloadBytes)
+                .setPacketEventsEnabled(packetEventsEnabled)
+                .setDispatchQueueCapacity(dispatchQueueCapacity)
+                .setOverflowPolicy(overflowPolicy)
+                .setCaptureFilter(captureFilterExpression)
+                .setNetworkCondition(networkCondition);
     }
 
     public boolean isHttpDecodeEnabled() {
@@ -64,10 +93,65 @@ public final class DebugNetConfig {
         return maxPayloadBytes;
     }
 
+    /**
+     * 是否为每个包都分发 event。关闭时只分发带 HTTP 信息的 event，其余包只计入连接统计。
+     */
+    public boolean isPacketEventsEnabled() {
+        return packetEventsEnabled;
+    }
+
+    /**
+     * 分发队列容量，向上取整到 2 的幂。
+     */
+    public int getDispatchQueueCapacity() {
+        return dispatchQueueCapacity;
+    }
+
+    /**
+     * 分发队列写满时的处理策略。
+     */
+    public DebugNetOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * 抓包过滤表达式原文，未设置时为空字符串。
+     */
+    public String getCaptureFilterExpression() {
+        return captureFilterExpression;
+    }
+
+    /**
+     * 编译后的抓包过滤器，未设置或表达式有误时为 null（不过滤）。
+     */
+    public PacketFilter getCaptureFilter() {
+        return captureFilter;
+    }
+
+    /**
+     * 过滤表达式的编译错误，没有错误时为 null。
+     */
+    public String getCaptureFilterError() {
+        return captureFilterError;
+    }
+
+    /**
+     * 弱网模拟参数，未设置时为 null。
+     */
+    public DebugNetNetworkCondition getNetworkCondition() {
+        return networkCondition;
+    }
+
     /**
      * 返回 null 表示配置有效。
      */
     public String validateForStart() {
+        if (captureFilterError != null) {
+            return captureFilterError;
+        }
+        if (networkCondition != null && networkCondition.getFilterError() != null) {
+            return "弱网模拟范围有误: " + networkCondition.getFilterError();
+        }
         if (!httpsDecodeEnabled) {
             return null;
         }
@@ -104,12 +188,21 @@ public final class DebugNetConfig {
         private String certificatePassword = "";
         private String keystoreType = KEYSTORE_TYPE_PKCS12;
         private int maxPayloadBytes = 64 * 1024;
+        private boolean packetEventsEnabled;
+        private int dispatchQueueCapacity = DEFAULT_DISPATCH_QUEUE_CAPACITY;
+        private DebugNetOverflowPolicy overflowPolicy = DebugNetOverflowPolicy.DROP_OLDEST;
+        private String captureFilter = "";
+        private DebugNetNetworkCondition networkCondition;
 
         public Builder setHttpDecodeEnabled(boolean enabled) {
             this.httpDecodeEnabled = enabled;
             return this;
         }
 
+        /**
+         * 开启后 443 端口的连接由本地 CA 签发的证书终结 TLS 并解密，CA 来自 {@link #setCertificatePath}。
+         * App 需要信任该 CA（安装为用户证书，且 network-security-config 信任用户证书）；不信任的主机自动改为透传。
+         */
         public Builder setHttpsDecodeEnabled(boolean enabled) {
             this.httpsDecodeEnabled = enabled;
             return this;
@@ -135,6 +228,37 @@ public final class DebugNetConfig {
             return this;
         }
 
+        public Builder setPacketEventsEnabled(boolean enabled) {
+            this.packetEventsEnabled = enabled;
+            return this;
+        }
+
+        public Builder setDispatchQueueCapacity(int capacity) {
+            this.dispatchQueueCapacity = capacity > 0 ? capacity : DEFAULT_DISPATCH_QUEUE_CAPACITY;
+            return this;
+        }
+
+        public Builder setOverflowPolicy(DebugNetOverflowPolicy policy) {
+            this.overflowPolicy = policy != null ? policy : DebugNetOverflowPolicy.DROP_OLDEST;
+            return this;
+        }
+
+        /**
+         * 抓包过滤表达式，如 "tcp and port 443 and host 10.0.0.5"，语法见 {@link PacketFilter}。为空表示不过滤。
+         */
+        public Builder setCaptureFilter(String expression) {
+            this.captureFilter = expression != null ? expression : "";
+            return this;
+        }
+
+        /**
+         * 弱网模拟，只对经过 VPN 转发的流量生效。传 null 或各项均为 0 时不模拟。
+         */
+        public Builder setNetworkCondition(DebugNetNetworkCondition condition) {
+            this.networkCondition = condition;
+            return this;
+        }
+
         public DebugNetConfig build() {
             return new DebugNetConfig(this);
         }
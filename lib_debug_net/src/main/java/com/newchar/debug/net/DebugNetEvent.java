@@ -8,6 +8,9 @@ import java.util.Locale;
 
 /**
  * 一次网络通信记录，允许 listener 修改展示样式。
+ *
+ * 抓包路径创建的 event 以原始整数保存地址与协议号，地址字符串、summary/display 文本都在首次读取时才生成，
+ * 绝大多数从未被列表绑定的 event 不会产生任何字符串分配。
  */
 public final class DebugNetEvent {
 
@@ -18,45 +21,122 @@ public final class DebugNetEvent {
         }
     };
 
+    private static final int COLOR_DOWNLOAD = Color.rgb(0, 96, 160);
+    private static final int COLOR_UPLOAD = Color.rgb(80, 80, 80);
+
+    private static final int ADDRESS_TEXT = 0;
+    private static final int ADDRESS_IPV4 = 4;
+    private static final int ADDRESS_IPV6 = 6;
+
     private final long timeMillis;
     private final TrafficDirection direction;
-    private final String protocol;
-    private final String sourceAddress;
+    private final int protocolNumber;
+    private final int addressFamily;
+    private final long sourceHigh;
+    private final long sourceLow;
     private final int sourcePort;
-    private final String destinationAddress;
+    private final long destinationHigh;
+    private final long destinationLow;
     private final int destinationPort;
     private final int byteCount;
+    private String protocol;
+    private String sourceAddress;
+    private String destinationAddress;
     private long requestTimeMillis;
     private int statusCode = -1;
     private boolean https;
     private boolean decrypted;
-    private String host = "";
+    private String host;
+    private String alpn;
     private String requestPath = "";
     private String requestHeadersText = "";
     private String responseHeadersText = "";
     private String requestBodyText = "";
     private String responseBodyText = "";
     private String failureReason = "";
+    private long ttfbMillis = -1L;
+    private long durationMillis = -1L;
+    private long requestBytes = -1L;
+    private long responseBytes = -1L;
+    private long dnsMillis = -1L;
+    private long connectMillis = -1L;
+    private long tlsMillis = -1L;
     private String summaryText;
     private String displayText;
     private int textColor;
     private boolean summaryCustomized;
     private boolean displayCustomized;
+    /**
+     * 字段变化时递增；缓存的文本版本与之不同即视为过期。
+     */
+    private volatile int textsVersion;
+    /**
+     * 生成好的默认文本，整体构建完成后一次写入，读线程不会看到一半的结果。
+     */
+    private volatile Texts texts;
 
     public DebugNetEvent(TrafficDirection direction, String protocol, String sourceAddress, int sourcePort,
             String destinationAddress, int destinationPort, int byteCount) {
         this.timeMillis = System.currentTimeMillis();
         this.direction = direction;
+        this.protocolNumber = -1;
         this.protocol = protocol;
+        this.addressFamily = ADDRESS_TEXT;
+        this.sourceHigh = 0L;
+        this.sourceLow = 0L;
         this.sourceAddress = sourceAddress;
         this.sourcePort = sourcePort;
+        this.destinationHigh = 0L;
+        this.destinationLow = 0L;
         this.destinationAddress = destinationAddress;
         this.destinationPort = destinationPort;
         this.byteCount = byteCount;
         this.requestTimeMillis = timeMillis;
-        this.host = destinationAddress == null ? "" : destinationAddress;
-        this.textColor = direction == TrafficDirection.DOWNLOAD ? Color.rgb(0, 96, 160) : Color.rgb(80, 80, 80);
-        refreshTexts();
+        this.textColor = direction == TrafficDirection.DOWNLOAD ? COLOR_DOWNLOAD : COLOR_UPLOAD;
+    }
+
+    /**
+     * 抓包热路径使用的紧凑构造：IPv4 地址放在 low 的低 32 位，IPv6 地址拆成高低两个 long。
+     */
+    DebugNetEvent(long timeMillis, TrafficDirection direction, int protocolNumber, boolean ipv6,
+            long sourceHigh, long sourceLow, int sourcePort,
+            long destinationHigh, long destinationLow, int destinationPort, int byteCount) {
+        this.timeMillis = timeMillis;
+        this.direction = direction;
+        this.protocolNumber = protocolNumber;
+        this.addressFamily = ipv6 ? ADDRESS_IPV6 : ADDRESS_IPV4;
+        this.sourceHigh = sourceHigh;
+        this.sourceLow = sourceLow;
+        this.sourcePort = sourcePort;
+        this.destinationHigh = destinationHigh;
+        this.destinationLow = destinationLow;
+        this.destinationPort = destinationPort;
+        this.byteCount = byteCount;
+        this.requestTimeMillis = timeMillis;
+        this.textColor = direction == TrafficDirection.DOWNLOAD ? COLOR_DOWNLOAD : COLOR_UPLOAD;
+    }
+
+    /**
+     * 从会话存储恢复 event：地址以文本形式恢复，协议号小于 0 表示原 event 由字符串构造。
+     */
+    DebugNetEvent(long timeMillis, TrafficDirection direction, int protocolNumber, String protocol, boolean ipv6,
+            String sourceAddress, int sourcePort, String destinationAddress, int destinationPort, int byteCount) {
+        this.timeMillis = timeMillis;
+        this.direction = direction;
+        this.protocolNumber = protocolNumber;
+        this.protocol = protocol;
+        this.addressFamily = protocolNumber < 0 ? ADDRESS_TEXT : (ipv6 ? ADDRESS_IPV6 : ADDRESS_IPV4);
+        this.sourceHigh = 0L;
+        this.sourceLow = 0L;
+        this.sourceAddress = sourceAddress;
+        this.sourcePort = sourcePort;
+        this.destinationHigh = 0L;
+        this.destinationLow = 0L;
+        this.destinationAddress = destinationAddress;
+        this.destinationPort = destinationPort;
+        this.byteCount = byteCount;
+        this.requestTimeMillis = timeMillis;
+        this.textColor = direction == TrafficDirection.DOWNLOAD ? COLOR_DOWNLOAD : COLOR_UPLOAD;
     }
 
     public long getTimeMillis() {
@@ -68,10 +148,27 @@ public final class DebugNetEvent {
     }
 
     public String getProtocol() {
+        if (protocol == null) {
+            protocol = IpPacketParser.protocolName(protocolNumber);
+        }
         return protocol;
     }
 
+    /**
+     * IP 层协议号，通过字符串构造的 event 返回 -1。
+     */
+    public int getProtocolNumber() {
+        return protocolNumber;
+    }
+
+    public boolean isIpv6() {
+        return addressFamily == ADDRESS_IPV6;
+    }
+
     public String getSourceAddress() {
+        if (sourceAddress == null) {
+            sourceAddress = formatAddress(sourceHigh, sourceLow);
+        }
         return sourceAddress;
     }
 
@@ -80,6 +177,9 @@ public final class DebugNetEvent {
     }
 
     public String getDestinationAddress() {
+        if (destinationAddress == null) {
+            destinationAddress = formatAddress(destinationHigh, destinationLow);
+        }
         return destinationAddress;
     }
 
@@ -130,6 +230,10 @@ public final class DebugNetEvent {
     }
 
     public String getHost() {
+        if (host == null) {
+            String destination = getDestinationAddress();
+            return destination == null ? "" : destination;
+        }
         return host;
     }
 
@@ -138,6 +242,18 @@ public final class DebugNetEvent {
         refreshTexts();
     }
 
+    /**
+     * TLS ClientHello 中客户端首选的 ALPN 协议，未识别时为 null。
+     */
+    public String getAlpn() {
+        return alpn;
+    }
+
+    public void setAlpn(String alpn) {
+        this.alpn = alpn == null || alpn.isEmpty() ? null : alpn;
+        refreshTexts();
+    }
+
     public String getRequestPath() {
         return requestPath;
     }
@@ -188,25 +304,96 @@ public final class DebugNetEvent {
         refreshTexts();
     }
 
+    /**
+     * 是否为一次完整 HTTP 请求/响应的结束 event，只有这种 event 带有耗时与字节数统计。
+     */
+    public boolean isExchangeComplete() {
+        return durationMillis >= 0;
+    }
+
+    /**
+     * 首字节耗时：请求头发出到响应头到达，未完成时为 -1。
+     */
+    public long getTtfbMillis() {
+        return ttfbMillis;
+    }
+
+    /**
+     * 总耗时：请求头发出到响应 body 接收完，未完成时为 -1。
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * 请求头与 body 的字节数，未完成时为 -1。
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * 响应头与 body 的字节数（body 为解码 chunked 之后的长度），未完成时为 -1。
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    void setExchangeMetrics(long ttfbMillis, long durationMillis, long requestBytes, long responseBytes) {
+        this.ttfbMillis = ttfbMillis;
+        this.durationMillis = durationMillis;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+    }
+
+    /**
+     * DNS 解析耗时，只有 OkHttp 抓包模式且本次请求新建了连接时才有，否则为 -1。
+     */
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    /**
+     * TCP 建连耗时（含 TLS 握手），只有 OkHttp 抓包模式且本次请求新建了连接时才有，否则为 -1。
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * TLS 握手耗时，只有 OkHttp 抓包模式且本次请求新建了 HTTPS 连接时才有，否则为 -1。
+     */
+    public long getTlsMillis() {
+        return tlsMillis;
+    }
+
+    void setPhaseTimings(long dnsMillis, long connectMillis, long tlsMillis) {
+        this.dnsMillis = dnsMillis;
+        this.connectMillis = connectMillis;
+        this.tlsMillis = tlsMillis;
+    }
+
     public String getSummaryText() {
-        return summaryText;
+        return ensureTexts().summary;
     }
 
     public void setSummaryText(String summaryText) {
         if (summaryText != null && !summaryText.isEmpty()) {
             this.summaryText = summaryText;
             this.summaryCustomized = true;
+            refreshTexts();
         }
     }
 
     public String getDisplayText() {
-        return displayText;
+        return ensureTexts().display;
     }
 
     public void setDisplayText(String displayText) {
         if (displayText != null && !displayText.isEmpty()) {
             this.displayText = displayText;
             this.displayCustomized = true;
+            refreshTexts();
         }
     }
 
@@ -218,13 +405,27 @@ public final class DebugNetEvent {
         this.textColor = textColor;
     }
 
+    /**
+     * 标记默认文本需要重新生成，真正的拼接延迟到下一次读取 summary/display 时进行。
+     */
     public void refreshTexts() {
-        if (!summaryCustomized) {
-            summaryText = buildSummaryText();
-        }
-        if (!displayCustomized) {
-            displayText = buildDefaultDisplayText();
+        textsVersion++;
+    }
+
+    /**
+     * 可能与修改字段的线程并发调用：先读版本号再构建，构建期间字段又变化时版本号不一致，下一次读取会重新生成。
+     */
+    private Texts ensureTexts() {
+        int version = textsVersion;
+        Texts current = texts;
+        if (current != null && current.version == version) {
+            return current;
         }
+        String summary = summaryCustomized ? summaryText : buildSummaryText();
+        String display = displayCustomized ? displayText : buildDefaultDisplayText(summary);
+        current = new Texts(version, summary, display);
+        texts = current;
+        return current;
     }
 
     private String buildSummaryText() {
@@ -243,24 +444,39 @@ public final class DebugNetEvent {
         return builder.toString();
     }
 
-    private String buildDefaultDisplayText() {
+    private String buildDefaultDisplayText(String summary) {
         StringBuilder builder = new StringBuilder();
-        builder.append(summaryText == null ? buildSummaryText() : summaryText);
+        builder.append(summary);
         builder.append(" | ");
         builder.append(direction == TrafficDirection.DOWNLOAD ? "DOWN" : "UP");
         builder.append(' ');
-        builder.append(protocol);
+        builder.append(getProtocol());
         builder.append(https ? "/HTTPS" : "");
+        if (alpn != null) {
+            builder.append('(').append(alpn).append(')');
+        }
         builder.append(' ');
-        builder.append(formatEndpoint(sourceAddress, sourcePort));
+        builder.append(formatEndpoint(getSourceAddress(), sourcePort));
         builder.append(" -> ");
-        builder.append(formatEndpoint(destinationAddress, destinationPort));
+        builder.append(formatEndpoint(getDestinationAddress(), destinationPort));
         builder.append(' ');
         builder.append(byteCount);
         builder.append('B');
         if (decrypted) {
             builder.append(" DECRYPTED");
         }
+        if (dnsMillis >= 0) {
+            builder.append(" dns ").append(dnsMillis).append("ms");
+        }
+        if (connectMillis >= 0) {
+            builder.append(" connect ").append(connectMillis).append("ms");
+        }
+        if (tlsMillis >= 0) {
+            builder.append(" tls ").append(tlsMillis).append("ms");
+        }
+        if (ttfbMillis >= 0) {
+            builder.append(" ttfb ").append(ttfbMillis).append("ms");
+        }
         return builder.toString();
     }
 
@@ -268,13 +484,25 @@ public final class DebugNetEvent {
         if (requestPath != null && !requestPath.isEmpty()) {
             return requestPath;
         }
-        if (host != null && !host.isEmpty()) {
-            return host;
+        String resolvedHost = getHost();
+        if (!resolvedHost.isEmpty()) {
+            return resolvedHost;
         }
-        if (destinationAddress != null && !destinationAddress.isEmpty()) {
-            return formatEndpoint(destinationAddress, destinationPort);
+        String destination = getDestinationAddress();
+        if (destination != null && !destination.isEmpty()) {
+            return formatEndpoint(destination, destinationPort);
         }
-        return formatEndpoint(sourceAddress, sourcePort);
+        return formatEndpoint(getSourceAddress(), sourcePort);
+    }
+
+    private String formatAddress(long high, long low) {
+        if (addressFamily == ADDRESS_IPV6) {
+            return IpPacketParser.ipv6ToString(high, low);
+        }
+        if (addressFamily == ADDRESS_IPV4) {
+            return IpPacketParser.ipv4ToString((int) low);
+        }
+        return "";
     }
 
     private static String formatTime(long timestamp) {
@@ -288,4 +516,17 @@ public final class DebugNetEvent {
         }
         return (address == null ? "" : address) + ':' + port;
     }
+
+    private static final class Texts {
+
+        final int version;
+        final String summary;
+        final String display;
+
+        Texts(int version, String summary, String display) {
+            this.version = version;
+            this.summary = summary;
+            this.display = display;
+        }
+    }
 }
@@ -0,0 +1,199 @@
+package com.newchar.debug.net;
+
+import android.graphics.Color;
+
+/**
+ * 一条连接（5 元组）的聚合统计快照，由 {@link DebugNetFlowListener} 按节流频率收到。
+ *
+ * 快照创建后不再变化；同一连接的后续更新会以相同 {@link #getFlowId()} 的新快照下发。
+ */
+public final class DebugNetFlow {
+
+    private static final int COLOR_ACTIVE = Color.rgb(0, 96, 160);
+    private static final int COLOR_CLOSED = Color.rgb(128, 128, 128);
+
+    private final long flowId;
+    private final int protocolNumber;
+    private final boolean ipv6;
+    private final long localHigh;
+    private final long localLow;
+    private final int localPort;
+    private final long remoteHigh;
+    private final long remoteLow;
+    private final int remotePort;
+    private final String host;
+    private final String alpn;
+    private final long packetCount;
+    private final long bytesUp;
+    private final long bytesDown;
+    private final long firstTimeMillis;
+    private final long lastTimeMillis;
+    private final int rttMillis;
+    private final boolean closed;
+    private String localAddress;
+    private String remoteAddress;
+    private String summaryText;
+
+    DebugNetFlow(long flowId, int protocolNumber, boolean ipv6, long localHigh, long localLow, int localPort,
+            long remoteHigh, long remoteLow, int remotePort, String host, String alpn, long packetCount, long bytesUp,
+            long bytesDown, long firstTimeMillis, long lastTimeMillis, int rttMillis, boolean closed) {
+        this.flowId = flowId;
+        this.protocolNumber = protocolNumber;
+        this.ipv6 = ipv6;
+        this.localHigh = localHigh;
+        this.localLow = localLow;
+        this.localPort = localPort;
+        this.remoteHigh = remoteHigh;
+        this.remoteLow = remoteLow;
+        this.remotePort = remotePort;
+        this.host = host;
+        this.alpn = alpn;
+        this.packetCount = packetCount;
+        this.bytesUp = bytesUp;
+        this.bytesDown = bytesDown;
+        this.firstTimeMillis = firstTimeMillis;
+        this.lastTimeMillis = lastTimeMillis;
+        this.rttMillis = rttMillis;
+        this.closed = closed;
+    }
+
+    /**
+     * 连接 id，在一次抓包会话内唯一且稳定。
+     */
+    public long getFlowId() {
+        return flowId;
+    }
+
+    public String getProtocol() {
+        return IpPacketParser.protocolName(protocolNumber);
+    }
+
+    int getProtocolNumber() {
+        return protocolNumber;
+    }
+
+    public boolean isIpv6() {
+        return ipv6;
+    }
+
+    public String getLocalAddress() {
+        if (localAddress == null) {
+            localAddress = formatAddress(localHigh, localLow);
+        }
+        return localAddress;
+    }
+
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    public String getRemoteAddress() {
+        if (remoteAddress == null) {
+            remoteAddress = formatAddress(remoteHigh, remoteLow);
+        }
+        return remoteAddress;
+    }
+
+    public int getRemotePort() {
+        return remotePort;
+    }
+
+    /**
+     * 从 HTTP Host、TLS SNI 或 DNS 应答识别出的主机名，未识别时返回远端地址。
+     */
+    public String getHost() {
+        return host == null || host.isEmpty() ? getRemoteAddress() : host;
+    }
+
+    /**
+     * TLS ClientHello 中客户端首选的 ALPN 协议（如 h2、http/1.1），未识别时为 null。
+     */
+    public String getAlpn() {
+        return alpn;
+    }
+
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    public long getBytesUp() {
+        return bytesUp;
+    }
+
+    public long getBytesDown() {
+        return bytesDown;
+    }
+
+    public long getFirstTimeMillis() {
+        return firstTimeMillis;
+    }
+
+    public long getLastTimeMillis() {
+        return lastTimeMillis;
+    }
+
+    /**
+     * 平滑 RTT 估计（毫秒），没有样本时为 0。需要能看到下行 ACK 才会有样本。
+     */
+    public int getRttMillis() {
+        return rttMillis;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getTextColor() {
+        return closed ? COLOR_CLOSED : COLOR_ACTIVE;
+    }
+
+    public String getSummaryText() {
+        if (summaryText == null) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(getProtocol()).append(' ');
+            builder.append(getHost()).append(':').append(remotePort);
+            if (alpn != null) {
+                builder.append(' ').append(alpn);
+            }
+            builder.append(" | ").append(packetCount).append("包");
+            builder.append(" ↑").append(bytesUp).append('B');
+            builder.append(" ↓").append(bytesDown).append('B');
+            if (rttMillis > 0) {
+                builder.append(" RTT ").append(rttMillis).append("ms");
+            }
+            builder.append(" | ").append(Math.max(0L, lastTimeMillis - firstTimeMillis)).append("ms");
+            if (closed) {
+                builder.append(" CLOSED");
+            }
+            summaryText = builder.toString();
+        }
+        return summaryText;
+    }
+
+    long getLocalHigh() {
+        return localHigh;
+    }
+
+    long getLocalLow() {
+        return localLow;
+    }
+
+    long getRemoteHigh() {
+        return remoteHigh;
+    }
+
+    long getRemoteLow() {
+        return remoteLow;
+    }
+
+    /**
+     * 识别出的主机名原值，未识别时为 null 或空串。
+     */
+    String getResolvedHost() {
+        return host;
+    }
+
+    private String formatAddress(long high, long low) {
+        return ipv6 ? IpPacketParser.ipv6ToString(high, low) : IpPacketParser.ipv4ToString((int) low);
+    }
+}
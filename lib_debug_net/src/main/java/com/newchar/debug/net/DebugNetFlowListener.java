@@ -0,0 +1,14 @@
+package com.newchar.debug.net;
+
+import java.util.List;
+
+/**
+ * 连接级聚合统计监听器，在分发线程按节流频率回调。
+ */
+public interface DebugNetFlowListener {
+
+    /**
+     * 自上次回调以来有变化的连接快照；已关闭或超时移除的连接会以 {@link DebugNetFlow#isClosed()} 为 true 最后上报一次。
+     */
+    void onFlowsUpdated(List<DebugNetFlow> flows);
+}
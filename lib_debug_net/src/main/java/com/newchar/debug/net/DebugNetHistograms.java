@@ -0,0 +1,479 @@
+package com.newchar.debug.net;
+
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 按主机和请求路径聚合 HTTP 请求的首字节耗时、总耗时、请求/响应字节数与状态码分布，用来在设备上定位后端回退。
+ *
+ * 作为 {@link DebugNetTrafficListener} 挂到 {@link DebugNetMonitor} 上，只统计
+ * {@link DebugNetEvent#isExchangeComplete()} 的 event。每个统计项是几个固定大小的 {@link LogHistogram}，
+ * 记录样本不分配内存，只有出现新的主机或路径时才创建统计项；主机数与每个主机的路径数都有上限，
+ * 超出上限的路径并入该主机的 "(其他)"，超出上限的主机只计入丢弃数。
+ *
+ * 路径会去掉 query 并把纯数字、长十六进制或 UUID 段归一为 {id}，避免同一接口被拆成无数条。
+ */
+public final class DebugNetHistograms implements DebugNetTrafficListener {
+
+    public static final int METRIC_TTFB = 0;
+    public static final int METRIC_DURATION = 1;
+    public static final int METRIC_REQUEST_BYTES = 2;
+    public static final int METRIC_RESPONSE_BYTES = 3;
+    static final int METRIC_COUNT = 4;
+
+    private static final String[] METRIC_NAMES = {"ttfbMillis", "durationMillis", "requestBytes", "responseBytes"};
+    private static final String OTHER_PATH = "(其他)";
+    private static final String ID_SEGMENT = "{id}";
+
+    private final int mMaxHosts;
+    private final int mMaxPathsPerHost;
+    private final Map<String, HostStats> mHosts = new HashMap<>();
+    private long mDroppedSampleCount;
+    /**
+     * 每记录一个样本或清空一次递增，调用方据此跳过没有变化的刷新。
+     */
+    private long mVersion;
+
+    public DebugNetHistograms() {
+        this(64, 32);
+    }
+
+    public DebugNetHistograms(int maxHosts, int maxPathsPerHost) {
+        mMaxHosts = Math.max(1, maxHosts);
+        mMaxPathsPerHost = Math.max(1, maxPathsPerHost);
+    }
+
+    @Override
+    public boolean onTrafficEvent(DebugNetEvent event) {
+        if (event.isExchangeComplete()) {
+            synchronized (this) {
+                record(event);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void onTrafficEvents(List<DebugNetEvent> events) {
+        synchronized (this) {
+            for (int i = 0; i < events.size(); i++) {
+                DebugNetEvent event = events.get(i);
+                if (event.isExchangeComplete()) {
+                    record(event);
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空所有统计。
+     */
+    public synchronized void reset() {
+        mHosts.clear();
+        mDroppedSampleCount = 0;
+        mVersion++;
+    }
+
+    /**
+     * 统计的版本号，与上次取到的相同说明统计没有变化。
+     */
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * 主机数超过上限而未计入的样本数。
+     */
+    public synchronized long getDroppedSampleCount() {
+        return mDroppedSampleCount;
+    }
+
+    /**
+     * 所有路径的统计快照，按 metric 的 percentile 分位值从大到小排序，即"最慢的接口"在前。
+     */
+    public List<Snapshot> snapshotEndpoints(int sortMetric, double percentile) {
+        return snapshotEndpoints(sortMetric, percentile, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 排序后前 limit 个路径的统计快照。排序键在锁内每项只算一次，排在 limit 之后的项不复制直方图，
+     * 持锁时间和分配量只与 limit 有关，不会因为路径很多而长时间阻塞记录样本的线程。
+     */
+    public List<Snapshot> snapshotEndpoints(int sortMetric, double percentile, int limit) {
+        synchronized (this) {
+            int count = 0;
+            for (HostStats host : mHosts.values()) {
+                count += host.paths.size();
+            }
+            Ranked[] ranked = new Ranked[count];
+            int index = 0;
+            for (HostStats host : mHosts.values()) {
+                for (Map.Entry<String, Stats> entry : host.paths.entrySet()) {
+                    ranked[index++] = new Ranked(host.host, entry.getKey(), entry.getValue(), sortMetric, percentile);
+                }
+            }
+            return copyTop(ranked, limit);
+        }
+    }
+
+    /**
+     * 按主机汇总的统计快照，排序方式同 {@link #snapshotEndpoints}。
+     */
+    public List<Snapshot> snapshotHosts(int sortMetric, double percentile) {
+        synchronized (this) {
+            Ranked[] ranked = new Ranked[mHosts.size()];
+            int index = 0;
+            for (HostStats host : mHosts.values()) {
+                ranked[index++] = new Ranked(host.host, "", host.total, sortMetric, percentile);
+            }
+            return copyTop(ranked, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 导出为 JSON：每个主机的汇总与各路径统计，每项给出次数、状态码分布和各指标的 min/mean/p50/p90/p99/max。
+     */
+    public String toJson() {
+        List<Snapshot> hosts = snapshotHosts(METRIC_DURATION, 90);
+        List<Snapshot> endpoints = snapshotEndpoints(METRIC_DURATION, 90);
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"generatedAtMillis\":").append(System.currentTimeMillis());
+        sb.append(",\"droppedSamples\":").append(getDroppedSampleCount());
+        sb.append(",\"hosts\":[");
+        for (int i = 0; i < hosts.size(); i++) {
+            Snapshot host = hosts.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('{');
+            appendStatsJson(sb, host);
+            sb.append(",\"paths\":[");
+            boolean first = true;
+            for (Snapshot endpoint : endpoints) {
+                if (!endpoint.host.equals(host.host)) {
+                    continue;
+                }
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append('{');
+                appendStatsJson(sb, endpoint);
+                sb.append('}');
+            }
+            sb.append("]}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private void record(DebugNetEvent event) {
+        String hostName = event.getHost();
+        HostStats host = mHosts.get(hostName);
+        if (host == null) {
+            if (mHosts.size() >= mMaxHosts) {
+                mDroppedSampleCount++;
+                return;
+            }
+            host = new HostStats(hostName);
+            mHosts.put(hostName, host);
+        }
+        mVersion++;
+        host.total.record(event);
+        String path = normalizePath(event.getRequestPath());
+        Stats stats = host.paths.get(path);
+        if (stats == null) {
+            if (host.paths.size() >= mMaxPathsPerHost) {
+                path = OTHER_PATH;
+                stats = host.paths.get(path);
+            }
+            if (stats == null) {
+                stats = new Stats();
+                host.paths.put(path, stats);
+            }
+        }
+        stats.record(event);
+    }
+
+    /**
+     * 去掉 query/fragment，并把像 id 的路径段替换为 {id}；路径本身无需改动时直接返回原字符串，不分配。
+     */
+    static String normalizePath(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        int end = path.length();
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        StringBuilder builder = null;
+        int segmentStart = 0;
+        for (int i = 0; i <= end; i++) {
+            if (i < end && path.charAt(i) != '/') {
+                continue;
+            }
+            if (i > segmentStart && isIdSegment(path, segmentStart, i)) {
+                if (builder == null) {
+                    builder = new StringBuilder(end);
+                    builder.append(path, 0, segmentStart);
+                }
+                builder.append(ID_SEGMENT);
+            } else if (builder != null) {
+                builder.append(path, segmentStart, i);
+            }
+            if (i < end && builder != null) {
+                builder.append('/');
+            }
+            segmentStart = i + 1;
+        }
+        if (builder != null) {
+            return builder.toString();
+        }
+        return end == path.length() ? path : path.substring(0, end);
+    }
+
+    private static boolean isIdSegment(String path, int start, int end) {
+        boolean allDigits = true;
+        int hexOrDash = 0;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            boolean hex = digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+            allDigits &= digit;
+            if (hex || c == '-') {
+                hexOrDash++;
+            }
+        }
+        // 纯数字，或长度不小于 16 的十六进制/UUID
+        return allDigits || (end - start >= 16 && hexOrDash == end - start);
+    }
+
+    /**
+     * 调用方持锁：按排序键从大到小排序，只复制前 limit 项。
+     */
+    private static List<Snapshot> copyTop(Ranked[] ranked, int limit) {
+        Arrays.sort(ranked, (a, b) -> Long.compare(b.sortKey, a.sortKey));
+        int count = Math.min(limit, ranked.length);
+        List<Snapshot> snapshots = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Ranked item = ranked[i];
+            snapshots.add(new Snapshot(item.host, item.path, item.stats));
+        }
+        return snapshots;
+    }
+
+    private static void appendStatsJson(StringBuilder sb, Snapshot snapshot) {
+        sb.append("\"host\":\"").append(escapeJson(snapshot.host)).append('"');
+        if (!snapshot.path.isEmpty()) {
+            sb.append(",\"path\":\"").append(escapeJson(snapshot.path)).append('"');
+        }
+        sb.append(",\"count\":").append(snapshot.getCount());
+        sb.append(",\"status\":{");
+        for (int statusClass = 1; statusClass <= 5; statusClass++) {
+            sb.append('"').append(statusClass).append("xx\":").append(snapshot.getStatusClassCount(statusClass))
+                    .append(',');
+        }
+        sb.append("\"other\":").append(snapshot.getStatusClassCount(0)).append('}');
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            LogHistogram histogram = snapshot.histograms[metric];
+            sb.append(",\"").append(METRIC_NAMES[metric]).append("\":{");
+            sb.append("\"min\":").append(histogram.getMin());
+            sb.append(",\"mean\":").append(Math.round(histogram.getMean()));
+            sb.append(",\"p50\":").append(histogram.getValueAtPercentile(50));
+            sb.append(",\"p90\":").append(histogram.getValueAtPercentile(90));
+            sb.append(",\"p99\":").append(histogram.getValueAtPercentile(99));
+            sb.append(",\"max\":").append(histogram.getMax());
+            sb.append('}');
+        }
+    }
+
+    private static String escapeJson(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes >= 1024 * 1024) {
+            return String.format(Locale.US, "%.1fMB", bytes / 1024d / 1024d);
+        }
+        if (bytes >= 1024) {
+            return String.format(Locale.US, "%.1fKB", bytes / 1024d);
+        }
+        return bytes + "B";
+    }
+
+    /**
+     * 一组请求的统计：4 个指标的直方图加状态码分类计数（下标 1~5 对应 1xx~5xx，0 为其他）。
+     */
+    private static final class Stats {
+
+        final LogHistogram[] histograms = new LogHistogram[METRIC_COUNT];
+        final long[] statusClasses = new long[6];
+
+        Stats() {
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                histograms[i] = new LogHistogram();
+            }
+        }
+
+        void record(DebugNetEvent event) {
+            histograms[METRIC_TTFB].record(event.getTtfbMillis());
+            histograms[METRIC_DURATION].record(event.getDurationMillis());
+            histograms[METRIC_REQUEST_BYTES].record(event.getRequestBytes());
+            histograms[METRIC_RESPONSE_BYTES].record(event.getResponseBytes());
+            int statusClass = event.getStatusCode() / 100;
+            statusClasses[statusClass >= 1 && statusClass <= 5 ? statusClass : 0]++;
+        }
+    }
+
+    /**
+     * 排序用的引用与预先算好的排序键，不复制统计数据。
+     */
+    private static final class Ranked {
+
+        final String host;
+        final String path;
+        final Stats stats;
+        final long sortKey;
+
+        Ranked(String host, String path, Stats stats, int sortMetric, double percentile) {
+            this.host = host;
+            this.path = path;
+            this.stats = stats;
+            this.sortKey = stats.histograms[sortMetric].getValueAtPercentile(percentile);
+        }
+    }
+
+    private static final class HostStats {
+
+        final String host;
+        final Stats total = new Stats();
+        final Map<String, Stats> paths = new HashMap<>();
+
+        HostStats(String host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * 某个主机或路径在快照时刻的统计，创建后不再变化。
+     */
+    public static final class Snapshot {
+
+        private static final int COLOR_NORMAL = Color.rgb(0, 96, 160);
+        private static final int COLOR_ERROR = Color.rgb(192, 48, 48);
+
+        private final String host;
+        private final String path;
+        private final LogHistogram[] histograms = new LogHistogram[METRIC_COUNT];
+        private final long[] statusClasses;
+        private String summaryText;
+
+        Snapshot(String host, String path, Stats stats) {
+            this.host = host;
+            this.path = path;
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                histograms[i] = stats.histograms[i].copy();
+            }
+            this.statusClasses = stats.statusClasses.clone();
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * 归一化后的路径，主机汇总快照为空字符串。
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getCount() {
+            return histograms[METRIC_DURATION].getTotalCount();
+        }
+
+        /**
+         * metric 的百分位值（0~100），耗时单位毫秒、字节数单位字节。
+         */
+        public long getValueAtPercentile(int metric, double percentile) {
+            return histograms[metric].getValueAtPercentile(percentile);
+        }
+
+        public double getMean(int metric) {
+            return histograms[metric].getMean();
+        }
+
+        public long getMax(int metric) {
+            return histograms[metric].getMax();
+        }
+
+        /**
+         * 状态码分类计数，statusClass 取 1~5 对应 1xx~5xx，0 为其他（含无状态码）。
+         */
+        public long getStatusClassCount(int statusClass) {
+            return statusClass >= 0 && statusClass < statusClasses.length ? statusClasses[statusClass] : 0;
+        }
+
+        public int getTextColor() {
+            return statusClasses[5] > 0 ? COLOR_ERROR : COLOR_NORMAL;
+        }
+
+        public String getSummaryText() {
+            if (summaryText == null) {
+                StringBuilder builder = new StringBuilder();
+                builder.append(host).append(path);
+                builder.append(" | ").append(getCount()).append("次");
+                builder.append(" 耗时P50/P95 ").append(getValueAtPercentile(METRIC_DURATION, 50))
+                        .append('/').append(getValueAtPercentile(METRIC_DURATION, 95)).append("ms");
+                builder.append(" 首字节P95 ").append(getValueAtPercentile(METRIC_TTFB, 95)).append("ms");
+                builder.append(" ↓P95 ").append(formatBytes(getValueAtPercentile(METRIC_RESPONSE_BYTES, 95)));
+                if (statusClasses[4] > 0) {
+                    builder.append(" 4xx ").append(statusClasses[4]);
+                }
+                if (statusClasses[5] > 0) {
+                    builder.append(" 5xx ").append(statusClasses[5]);
+                }
+                summaryText = builder.toString();
+            }
+            return summaryText;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.newchar.debug.utils.HandleWrapper;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Debug 网络监控入口。
@@ -21,10 +22,18 @@ public final class DebugNetMonitor {
     public static final int START_FAILED = 3;
 
     private static final List<DebugNetTrafficListener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final List<DebugNetFlowListener> FLOW_LISTENERS = new CopyOnWriteArrayList<>();
     private static final Handler WORK_HANDLER = HandleWrapper.obtainAsyncHandler(null);
     private static volatile boolean sRunning;
     private static volatile DebugNetConfig sConfig = DebugNetConfig.defaultConfig();
-    private static volatile DebugNetPostProcessor sPostProcessor;
+    private static final PostProcessorChain POST_PROCESSORS = new PostProcessorChain();
+    private static final AtomicLong DROPPED_EVENT_COUNT = new AtomicLong();
+    private static final AtomicLong CONDITIONED_PACKET_COUNT = new AtomicLong();
+    private static final AtomicLong CONDITIONED_DROP_COUNT = new AtomicLong();
+    private static volatile DebugNetPcapSink sPcapSink;
+    private static volatile DebugNetSessionStore sSessionStore;
+    private static final DnsCache DNS_CACHE = new DnsCache();
+    private static volatile EventDispatcher sDispatcher = createDispatcher(sConfig);
 
     private DebugNetMonitor() {
     }
@@ -80,6 +89,19 @@ public final class DebugNetMonitor {
 
     public static void clearListeners() {
         LISTENERS.clear();
+        FLOW_LISTENERS.clear();
+    }
+
+    public static void addFlowListener(DebugNetFlowListener listener) {
+        if (listener != null && !FLOW_LISTENERS.contains(listener)) {
+            FLOW_LISTENERS.add(listener);
+        }
+    }
+
+    public static void removeFlowListener(DebugNetFlowListener listener) {
+        if (listener != null) {
+            FLOW_LISTENERS.remove(listener);
+        }
     }
 
     public static boolean isRunning() {
@@ -87,19 +109,125 @@ public final class DebugNetMonitor {
     }
 
     public static void setConfig(DebugNetConfig config) {
-        sConfig = config == null ? DebugNetConfig.defaultConfig() : config;
+        DebugNetConfig newConfig = config == null ? DebugNetConfig.defaultConfig() : config;
+        sConfig = newConfig;
+        EventDispatcher dispatcher = sDispatcher;
+        if (DispatchRingBuffer.roundCapacity(newConfig.getDispatchQueueCapacity()) != dispatcher.getCapacity()) {
+            // 旧队列里剩余的 event 由它已投递的 drain 任务处理完
+            sDispatcher = createDispatcher(newConfig);
+        } else {
+            dispatcher.setOverflowPolicy(newConfig.getOverflowPolicy());
+        }
     }
 
     public static DebugNetConfig getConfig() {
         return sConfig;
     }
 
+    /**
+     * 用单个处理器替换整条后处理链。
+     */
     public static void setPostProcessor(DebugNetPostProcessor processor) {
-        sPostProcessor = processor;
+        POST_PROCESSORS.set(processor);
+    }
+
+    /**
+     * 追加到后处理链末尾，按添加顺序执行。
+     */
+    public static void addPostProcessor(DebugNetPostProcessor processor) {
+        POST_PROCESSORS.add(processor);
+    }
+
+    public static void removePostProcessor(DebugNetPostProcessor processor) {
+        POST_PROCESSORS.remove(processor);
     }
 
     public static void clearPostProcessor() {
-        sPostProcessor = null;
+        setPostProcessor(null);
+    }
+
+    /**
+     * 后处理链上每个处理器的耗时统计，按链上顺序。
+     */
+    public static List<DebugNetPostProcessorStats> getPostProcessorStats() {
+        return POST_PROCESSORS.snapshotStats();
+    }
+
+    /**
+     * 分发队列写满而被溢出策略丢弃的 event 总数。
+     */
+    public static long getDroppedEventCount() {
+        return DROPPED_EVENT_COUNT.get();
+    }
+
+    /**
+     * 弱网模拟延后放行的包总数。
+     */
+    public static long getConditionedPacketCount() {
+        return CONDITIONED_PACKET_COUNT.get();
+    }
+
+    /**
+     * 弱网模拟丢弃的包总数，含随机丢包与限速队列溢出。
+     */
+    public static long getConditionedDropCount() {
+        return CONDITIONED_DROP_COUNT.get();
+    }
+
+    /**
+     * 分发队列中尚未交给 listener 的 event 数量（近似值）。
+     */
+    public static int getPendingEventCount() {
+        return sDispatcher.getPendingCount();
+    }
+
+    /**
+     * 设置抓包导出 sink，传 null 停止导出。sink 的启停由调用方负责。
+     */
+    public static void setPcapSink(DebugNetPcapSink sink) {
+        sPcapSink = sink;
+    }
+
+    public static DebugNetPcapSink getPcapSink() {
+        return sPcapSink;
+    }
+
+    /**
+     * 设置会话存储，传 null 停止持久化。store 以 listener 身份挂在已有 listener 之后，启停由调用方负责。
+     */
+    public static synchronized void setSessionStore(DebugNetSessionStore store) {
+        DebugNetSessionStore previous = sSessionStore;
+        if (previous != null) {
+            removeListener(previous);
+            removeFlowListener(previous);
+        }
+        sSessionStore = store;
+        if (store != null) {
+            addListener(store);
+            addFlowListener(store);
+        }
+    }
+
+    public static DebugNetSessionStore getSessionStore() {
+        return sSessionStore;
+    }
+
+    /**
+     * TUN 读包缓冲池，可读取池大小与命中/未命中计数。
+     */
+    public static PacketBufferPool getPacketBufferPool() {
+        return DebugNetVpnService.PACKET_BUFFER_POOL;
+    }
+
+    /**
+     * 嗅探 DNS 应答得到的 IP -> 主机名缓存，所有抓包流水线共享。
+     */
+    static DnsCache getDnsCache() {
+        return DNS_CACHE;
+    }
+
+    static NetworkConditioner createNetworkConditioner(PacketBufferPool bufferPool, long nowNanos) {
+        return new NetworkConditioner(bufferPool, CONDITIONED_PACKET_COUNT, CONDITIONED_DROP_COUNT, nowNanos);
     }
 
     static void setRunning(boolean running) {
@@ -113,37 +241,27 @@ public final class DebugNetMonitor {
         enqueueDispatch(event);
     }
 
+    static void dispatchFlows(List<DebugNetFlow> flows) {
+        if (flows == null || flows.isEmpty() || FLOW_LISTENERS.isEmpty()) {
+            return;
+        }
+        WORK_HANDLER.post(() -> {
+            for (DebugNetFlowListener listener : FLOW_LISTENERS) {
+                try {
+                    listener.onFlowsUpdated(flows);
+                } catch (Throwable ignored) {
+                }
+            }
+        });
+    }
+
     private static void enqueueDispatch(DebugNetEvent event) {
-        WORK_HANDLER.post(() -> dispatchOnWorker(event));
+        sDispatcher.dispatch(event);
     }
 
-    private static void dispatchOnWorker(DebugNetEvent event) {
-        DebugNetEvent finalEvent = event;
-        try {
-            DebugNetPostProcessor processor = sPostProcessor;
-            if (processor != null) {
-                DebugNetPayload payload = processor.process(new DebugNetPayload(event));
-                if (payload != null && payload.getEvent() != null) {
-                    finalEvent = payload.getEvent();
-                }
-            }
-        } catch (Throwable throwable) {
-            finalEvent.setFailureReason(throwable.getMessage());
-        }
-        finalEvent.refreshTexts();
-        for (DebugNetTrafficListener listener : LISTENERS) {
-            if (listener == null) {
-                continue;
-            }
-            boolean next = true;
-            try {
-                next = listener.onTrafficEvent(finalEvent);
-            } catch (Throwable ignored) {
-            }
-            if (!next) {
-                return;
-            }
-        }
+    private static EventDispatcher createDispatcher(DebugNetConfig config) {
+        return new EventDispatcher(WORK_HANDLER::post, WORK_HANDLER::postDelayed, POST_PROCESSORS, LISTENERS,
+                config.getDispatchQueueCapacity(), config.getOverflowPolicy(), DROPPED_EVENT_COUNT);
     }
 
     private static DebugNetEvent buildConfigErrorEvent(String message) {
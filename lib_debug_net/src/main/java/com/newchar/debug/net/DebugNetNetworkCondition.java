@@ -0,0 +1,208 @@
+package com.newchar.debug.net;
+
+import java.util.Locale;
+
+/**
+ * 弱网模拟参数，通过 {@link DebugNetConfig.Builder#setNetworkCondition} 生效，VPN 运行中修改配置立即生效。
+ *
+ * 延迟与抖动按每个方向各加一次，所以往返时间增加约 2 倍延迟；带宽为 0 表示不限速；作用范围用
+ * {@link PacketFilter} 表达式选出连接或主机（如 "host api.example.com"、"tcp port 443"），留空对所有流量生效。
+ * 默认所有命中的连接共享同一个令牌桶，相当于一条限速链路；{@link Builder#setPerFlowBandwidth} 改为每个连接各自限速。
+ */
+public final class DebugNetNetworkCondition {
+
+    public static final int MAX_DELAY_MILLIS = 10_000;
+
+    private final int delayMillis;
+    private final int jitterMillis;
+    private final int downloadKbps;
+    private final int uploadKbps;
+    private final float lossPercent;
+    private final boolean perFlowBandwidth;
+    private final String filterExpression;
+    private final PacketFilter filter;
+    private final String filterError;
+
+    private DebugNetNetworkCondition(Builder builder) {
+        this.delayMillis = builder.delayMillis;
+        this.jitterMillis = builder.jitterMillis;
+        this.downloadKbps = builder.downloadKbps;
+        this.uploadKbps = builder.uploadKbps;
+        this.lossPercent = builder.lossPercent;
+        this.perFlowBandwidth = builder.perFlowBandwidth;
+        this.filterExpression = builder.filter == null ? "" : builder.filter.trim();
+        PacketFilter compiled = null;
+        String error = null;
+        try {
+            compiled = PacketFilter.compile(filterExpression);
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage();
+        }
+        this.filter = compiled;
+        this.filterError = error;
+    }
+
+    public Builder buildUpon() {
+        return new Builder()
+                .setDelayMillis(delayMillis)
+                .setJitterMillis(jitterMillis)
+                .setDownloadKbps(downloadKbps)
+                .setUploadKbps(uploadKbps)
+                .setLossPercent(lossPercent)
+                .setPerFlowBandwidth(perFlowBandwidth)
+                .setFilter(filterExpression);
+    }
+
+    /**
+     * 单方向的固定延迟（毫秒）。
+     */
+    public int getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * 在固定延迟上均匀浮动的范围（毫秒），同一连接同一方向的包不会因抖动乱序。
+     */
+    public int getJitterMillis() {
+        return jitterMillis;
+    }
+
+    /**
+     * 下行带宽（kbit/s），0 表示不限速。
+     */
+    public int getDownloadKbps() {
+        return downloadKbps;
+    }
+
+    /**
+     * 上行带宽（kbit/s），0 表示不限速。
+     */
+    public int getUploadKbps() {
+        return uploadKbps;
+    }
+
+    /**
+     * 丢包率（百分比，0~100）。
+     */
+    public float getLossPercent() {
+        return lossPercent;
+    }
+
+    public boolean isPerFlowBandwidth() {
+        return perFlowBandwidth;
+    }
+
+    /**
+     * 作用范围表达式原文，未设置时为空字符串。
+     */
+    public String getFilterExpression() {
+        return filterExpression;
+    }
+
+    /**
+     * 编译后的作用范围，未设置时为 null（对所有流量生效）。
+     */
+    public PacketFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * 作用范围表达式的编译错误，没有错误时为 null。有错误时整个模拟不生效。
+     */
+    public String getFilterError() {
+        return filterError;
+    }
+
+    /**
+     * 是否有任何一项会影响流量，且作用范围有效。
+     */
+    public boolean isEnabled() {
+        return filterError == null
+                && (delayMillis > 0 || jitterMillis > 0 || downloadKbps > 0 || uploadKbps > 0 || lossPercent > 0);
+    }
+
+    public String getSummaryText() {
+        StringBuilder builder = new StringBuilder("弱网 ");
+        builder.append(delayMillis);
+        if (jitterMillis > 0) {
+            builder.append('±').append(jitterMillis);
+        }
+        builder.append("ms");
+        builder.append(" ↓").append(downloadKbps > 0 ? downloadKbps + "kbps" : "不限");
+        builder.append(" ↑").append(uploadKbps > 0 ? uploadKbps + "kbps" : "不限");
+        if (perFlowBandwidth) {
+            builder.append("(每连接)");
+        }
+        if (lossPercent > 0) {
+            builder.append(" 丢包").append(String.format(Locale.US, "%.1f", lossPercent)).append('%');
+        }
+        if (filterError != null) {
+            builder.append(" | ").append(filterError);
+        } else if (filter != null) {
+            builder.append(" | 范围 ").append(filterExpression);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSummaryText();
+    }
+
+    public static final class Builder {
+
+        private int delayMillis;
+        private int jitterMillis;
+        private int downloadKbps;
+        private int uploadKbps;
+        private float lossPercent;
+        private boolean perFlowBandwidth;
+        private String filter = "";
+
+        public Builder setDelayMillis(int millis) {
+            this.delayMillis = clamp(millis, MAX_DELAY_MILLIS);
+            return this;
+        }
+
+        public Builder setJitterMillis(int millis) {
+            this.jitterMillis = clamp(millis, MAX_DELAY_MILLIS);
+            return this;
+        }
+
+        public Builder setDownloadKbps(int kbps) {
+            this.downloadKbps = Math.max(0, kbps);
+            return this;
+        }
+
+        public Builder setUploadKbps(int kbps) {
+            this.uploadKbps = Math.max(0, kbps);
+            return this;
+        }
+
+        public Builder setLossPercent(float percent) {
+            this.lossPercent = percent > 0 ? Math.min(percent, 100f) : 0f;
+            return this;
+        }
+
+        public Builder setPerFlowBandwidth(boolean perFlow) {
+            this.perFlowBandwidth = perFlow;
+            return this;
+        }
+
+        /**
+         * 作用范围，语法见 {@link PacketFilter}。为空表示对所有流量生效。
+         */
+        public Builder setFilter(String expression) {
+            this.filter = expression != null ? expression : "";
+            return this;
+        }
+
+        public DebugNetNetworkCondition build() {
+            return new DebugNetNetworkCondition(this);
+        }
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
@@ -0,0 +1,505 @@
+package com.newchar.debug.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * OkHttp 抓包模式：不需要 VPN 授权，也不解析原始包，直接从 OkHttp 的回调拿到解码后的请求与各阶段耗时。
+ * 宿主需要同时安装监听器工厂和应用拦截器：
+ * <pre>
+ * new OkHttpClient.Builder()
+ *         .eventListenerFactory(DebugNetOkHttpCapture.eventListenerFactory(null))
+ *         .addInterceptor(DebugNetOkHttpCapture.interceptor())
+ *         .build();
+ * </pre>
+ * 监听器记录 DNS、建连、TLS、首字节等时间点和网络层的头部与字节数；拦截器把请求与响应 body 换成边传输边保存前缀的包装，
+ * 保存上限为 {@link DebugNetConfig#getMaxPayloadBytes()}，不会为了抓包额外缓冲整个 body。
+ * 请求结束（callEnd / callFailed）且响应 body 已读到末尾或被关闭时生成一个完整的 event 交给 {@link DebugNetMonitor} 的分发队列，
+ * 与 VPN 模式的 event 走同一套后处理器、监听器和统计。OkHttp 在读到最后一块数据的 read 里就回调 callEnd，
+ * 那时最后一块还没经过包装，所以要等包装的 read 返回后再生成 event。
+ *
+ * 响应 body 在读取方读完或关闭后才算结束，读取方不关闭 body 时不会产生 event。
+ * 需要和 {@link DebugNetOkHttpTagging} 同时使用时，把它的工厂作为 delegate 传入。
+ * 本模块以 compileOnly 依赖 OkHttp，宿主没有引入 OkHttp 时不要调用本类。
+ */
+public final class DebugNetOkHttpCapture {
+
+    static final String PROTOCOL_NAME = "OKHTTP";
+
+    private static volatile boolean sEnabled;
+    /**
+     * 只供拦截器按 Call 找到工厂为它创建的监听器，采集状态都在监听器里；
+     * 用弱引用作键，从未执行或收不到 callEnd / callFailed 的 Call 连同它的 body 缓冲随 Call 一起回收
+     */
+    private static final Map<Call, CaptureListener> CALLS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private DebugNetOkHttpCapture() {
+    }
+
+    /**
+     * 接收采集完成的 event
+     */
+    interface EventSink {
+
+        void onEvent(DebugNetEvent event);
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @param delegate 宿主原有的工厂，可以为 null
+     */
+    public static EventListener.Factory eventListenerFactory(EventListener.Factory delegate) {
+        return eventListenerFactory(delegate, null, DebugNetMonitor::dispatch);
+    }
+
+    /**
+     * @param maxBodyBytes body 保存上限，null 时取 {@link DebugNetConfig#getMaxPayloadBytes()}
+     * @param sink         event 的去处
+     */
+    static EventListener.Factory eventListenerFactory(EventListener.Factory delegate, Integer maxBodyBytes,
+                                                      EventSink sink) {
+        return call -> {
+            EventListener downstream = delegate == null ? EventListener.NONE : delegate.create(call);
+            if (!sEnabled) {
+                return downstream;
+            }
+            CaptureListener listener = new CaptureListener(downstream, maxBodyBytes != null
+                    ? maxBodyBytes : DebugNetMonitor.getConfig().getMaxPayloadBytes(), sink);
+            CALLS.put(call, listener);
+            return listener;
+        };
+    }
+
+    public static Interceptor interceptor() {
+        return CAPTURE_INTERCEPTOR;
+    }
+
+    private static final Interceptor CAPTURE_INTERCEPTOR = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            CaptureListener listener = CALLS.get(chain.call());
+            Request request = chain.request();
+            if (listener == null) {
+                return chain.proceed(request);
+            }
+            RequestBody requestBody = request.body();
+            if (requestBody != null && !requestBody.isDuplex()) {
+                // 双工 body 没有明确的结束点，只统计字节数
+                request = request.newBuilder()
+                        .method(request.method(), new CapturingRequestBody(requestBody, listener.mRequestBody))
+                        .build();
+            }
+            Response response = chain.proceed(request);
+            ResponseBody responseBody = response.body();
+            if (responseBody == null) {
+                return response;
+            }
+            // 应用拦截器拿到的是 OkHttp 透明解压之后的 body，只有调用方自己声明了编码时才保持压缩
+            listener.mResponseEncoding = response.header("Content-Encoding");
+            listener.onResponseBodyWrapped();
+            return response.newBuilder()
+                    .body(new CapturingResponseBody(responseBody, listener))
+                    .build();
+        }
+    };
+
+    private static final class CapturingRequestBody extends RequestBody {
+
+        private final RequestBody mDelegate;
+        private final BodyCapture mCapture;
+
+        CapturingRequestBody(RequestBody delegate, BodyCapture capture) {
+            mDelegate = delegate;
+            mCapture = capture;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return mDelegate.isOneShot();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            // 重试、重定向时 OkHttp 会再写一遍，只保留最后一次
+            mCapture.reset();
+            BufferedSink tee = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    mCapture.capture(source, 0L, byteCount);
+                    super.write(source, byteCount);
+                }
+            });
+            mDelegate.writeTo(tee);
+            // 只推给下层，是否 flush 由 OkHttp 决定
+            tee.emit();
+        }
+    }
+
+    private static final class CapturingResponseBody extends ResponseBody {
+
+        private final ResponseBody mDelegate;
+        private final CaptureListener mListener;
+        private BufferedSource mSource;
+
+        CapturingResponseBody(ResponseBody delegate, CaptureListener listener) {
+            mDelegate = delegate;
+            mListener = listener;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            if (mSource == null) {
+                mSource = Okio.buffer(new ForwardingSource(mDelegate.source()) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long read;
+                        try {
+                            read = super.read(sink, byteCount);
+                        } catch (IOException e) {
+                            // 读失败时 OkHttp 已回调 callFailed，之后不会再有数据
+                            mListener.onResponseBodyRead(true);
+                            throw e;
+                        }
+                        if (read > 0) {
+                            mListener.mResponseBody.capture(sink, sink.size() - read, read);
+                        }
+                        mListener.onResponseBodyRead(read < 0);
+                        return read;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            mListener.onResponseBodyRead(true);
+                        }
+                    }
+                });
+            }
+            return mSource;
+        }
+    }
+
+    /**
+     * 一次调用的采集状态。回调可能来自 OkHttp 线程和读取 body 的线程，方法都以自身为锁。
+     */
+    private static final class CaptureListener extends ForwardingEventListener {
+
+        final BodyCapture mRequestBody;
+        final BodyCapture mResponseBody;
+        volatile String mResponseEncoding;
+        private final EventSink mSink;
+        private long mCallStartMillis;
+        private long mDnsStartNanos;
+        private long mDnsEndNanos;
+        private long mConnectStartNanos;
+        private long mConnectEndNanos;
+        private long mTlsStartNanos;
+        private long mTlsEndNanos;
+        private long mRequestStartNanos;
+        private long mResponseStartNanos;
+        private long mRequestHeaderBytes;
+        private long mRequestBodyBytes;
+        private long mResponseHeaderBytes;
+        private long mResponseBodyBytes;
+        private String mRequestHeadersText = "";
+        private String mResponseHeadersText = "";
+        private int mStatusCode = -1;
+        private Protocol mProtocol;
+        private String mLocalAddress = "";
+        private int mLocalPort;
+        private String mRemoteAddress;
+        private int mRemotePort;
+        /**
+         * 响应 body 已换成包装，还没读到末尾或关闭
+         */
+        private boolean mResponseBodyOpen;
+        private Call mEndedCall;
+        private IOException mFailure;
+        private boolean mEmitted;
+
+        CaptureListener(EventListener delegate, int maxBodyBytes, EventSink sink) {
+            super(delegate);
+            mRequestBody = new BodyCapture(maxBodyBytes);
+            mResponseBody = new BodyCapture(maxBodyBytes);
+            mSink = sink;
+        }
+
+        synchronized void onResponseBodyWrapped() {
+            mResponseBodyOpen = true;
+        }
+
+        /**
+         * 包装的 read 已把这次读到的数据保存下来。callEnd 已经到了说明 body 已读完，不必等下一次 read 返回 -1
+         *
+         * @param finished 读到末尾或已关闭
+         */
+        void onResponseBodyRead(boolean finished) {
+            synchronized (this) {
+                if (!finished && mEndedCall == null) {
+                    return;
+                }
+                mResponseBodyOpen = false;
+            }
+            emit();
+        }
+
+        @Override
+        public synchronized void callStart(Call call) {
+            mCallStartMillis = System.currentTimeMillis();
+            super.callStart(call);
+        }
+
+        @Override
+        public synchronized void dnsStart(Call call, String domainName) {
+            mDnsStartNanos = System.nanoTime();
+            super.dnsStart(call, domainName);
+        }
+
+        @Override
+        public synchronized void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            mDnsEndNanos = System.nanoTime();
+            super.dnsEnd(call, domainName, inetAddressList);
+        }
+
+        @Override
+        public synchronized void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            mConnectStartNanos = System.nanoTime();
+            super.connectStart(call, inetSocketAddress, proxy);
+        }
+
+        @Override
+        public synchronized void secureConnectStart(Call call) {
+            mTlsStartNanos = System.nanoTime();
+            super.secureConnectStart(call);
+        }
+
+        @Override
+        public synchronized void secureConnectEnd(Call call, Handshake handshake) {
+            mTlsEndNanos = System.nanoTime();
+            super.secureConnectEnd(call, handshake);
+        }
+
+        @Override
+        public synchronized void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                Protocol protocol) {
+            mConnectEndNanos = System.nanoTime();
+            super.connectEnd(call, inetSocketAddress, proxy, protocol);
+        }
+
+        @Override
+        public synchronized void connectionAcquired(Call call, Connection connection) {
+            mProtocol = connection.protocol();
+            InetSocketAddress remote = connection.route().socketAddress();
+            if (remote != null) {
+                InetAddress address = remote.getAddress();
+                mRemoteAddress = address != null ? address.getHostAddress() : remote.getHostString();
+                mRemotePort = remote.getPort();
+            }
+            Socket socket = connection.socket();
+            if (socket != null && socket.getLocalAddress() != null) {
+                mLocalAddress = socket.getLocalAddress().getHostAddress();
+                mLocalPort = socket.getLocalPort();
+            }
+            super.connectionAcquired(call, connection);
+        }
+
+        @Override
+        public synchronized void requestHeadersStart(Call call) {
+            // 重定向和重试会再次发送请求，耗时以最后一次为准
+            mRequestStartNanos = System.nanoTime();
+            mResponseStartNanos = 0L;
+            super.requestHeadersStart(call);
+        }
+
+        @Override
+        public synchronized void requestHeadersEnd(Call call, Request request) {
+            Headers headers = request.headers();
+            mRequestHeaderBytes += headers.byteCount();
+            mRequestHeadersText = request.method() + ' ' + pathOf(request.url()) + ' ' + protocolLabel(mProtocol)
+                    + '\n' + headersText(headers);
+            super.requestHeadersEnd(call, request);
+        }
+
+        @Override
+        public synchronized void requestBodyEnd(Call call, long byteCount) {
+            mRequestBodyBytes += byteCount;
+            super.requestBodyEnd(call, byteCount);
+        }
+
+        @Override
+        public synchronized void responseHeadersStart(Call call) {
+            mResponseStartNanos = System.nanoTime();
+            super.responseHeadersStart(call);
+        }
+
+        @Override
+        public synchronized void responseHeadersEnd(Call call, Response response) {
+            Headers headers = response.headers();
+            mResponseHeaderBytes += headers.byteCount();
+            mStatusCode = response.code();
+            mResponseHeadersText = protocolLabel(response.protocol()) + ' ' + response.code() + ' '
+                    + response.message() + '\n' + headersText(headers);
+            super.responseHeadersEnd(call, response);
+        }
+
+        @Override
+        public synchronized void responseBodyEnd(Call call, long byteCount) {
+            mResponseBodyBytes += byteCount;
+            super.responseBodyEnd(call, byteCount);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            onCallEnded(call, null);
+            super.callEnd(call);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            onCallEnded(call, ioe);
+            super.callFailed(call, ioe);
+        }
+
+        private void onCallEnded(Call call, IOException failure) {
+            CALLS.remove(call);
+            synchronized (this) {
+                if (mEndedCall != null) {
+                    return;
+                }
+                mEndedCall = call;
+                mFailure = failure;
+            }
+            emit();
+        }
+
+        /**
+         * 调用已结束且响应 body 不再有数据经过包装时生成 event，只生成一次
+         */
+        private void emit() {
+            DebugNetEvent event;
+            synchronized (this) {
+                if (mEmitted || mEndedCall == null || mResponseBodyOpen) {
+                    return;
+                }
+                mEmitted = true;
+                event = buildEvent(mEndedCall.request(), mFailure, System.nanoTime());
+            }
+            mSink.onEvent(event);
+        }
+
+        private DebugNetEvent buildEvent(Request request, IOException failure, long endNanos) {
+            HttpUrl url = request.url();
+            long requestBytes = mRequestHeaderBytes + mRequestBodyBytes;
+            long responseBytes = mResponseHeaderBytes + mResponseBodyBytes;
+            String remoteAddress = mRemoteAddress != null ? mRemoteAddress : url.host();
+            int remotePort = mRemoteAddress != null ? mRemotePort : url.port();
+            DebugNetEvent event = new DebugNetEvent(TrafficDirection.DOWNLOAD, PROTOCOL_NAME, mLocalAddress,
+                    mLocalPort, remoteAddress, remotePort, (int) Math.min(Integer.MAX_VALUE, requestBytes + responseBytes));
+            event.setRequestTimeMillis(mCallStartMillis > 0 ? mCallStartMillis : event.getTimeMillis());
+            event.setHost(url.host());
+            event.setHttps(url.isHttps());
+            if (url.isHttps() && mProtocol != null) {
+                event.setAlpn(mProtocol.toString());
+            }
+            event.setRequestPath(pathOf(url));
+            event.setRequestHeadersText(mRequestHeadersText);
+            event.setRequestBodyText(mRequestBody.toText(request.header("Content-Encoding")));
+            event.setResponseHeadersText(mResponseHeadersText);
+            event.setResponseBodyText(mResponseBody.toText(mResponseEncoding));
+            if (failure != null) {
+                event.setFailureReason(failure.toString());
+            }
+            event.setPhaseTimings(elapsedMillis(mDnsStartNanos, mDnsEndNanos),
+                    elapsedMillis(mConnectStartNanos, mConnectEndNanos), elapsedMillis(mTlsStartNanos, mTlsEndNanos));
+            if (mStatusCode > 0) {
+                event.setStatusCode(mStatusCode);
+                event.setExchangeMetrics(elapsedMillis(mRequestStartNanos, mResponseStartNanos),
+                        elapsedMillis(mRequestStartNanos, endNanos), requestBytes, responseBytes);
+            }
+            return event;
+        }
+    }
+
+    private static long elapsedMillis(long startNanos, long endNanos) {
+        if (startNanos == 0L || endNanos == 0L || endNanos < startNanos) {
+            return -1L;
+        }
+        return (endNanos - startNanos) / 1_000_000L;
+    }
+
+    private static String pathOf(HttpUrl url) {
+        String query = url.encodedQuery();
+        return query == null ? url.encodedPath() : url.encodedPath() + '?' + query;
+    }
+
+    private static String protocolLabel(Protocol protocol) {
+        if (protocol == Protocol.HTTP_2 || protocol == Protocol.H2_PRIOR_KNOWLEDGE) {
+            return "HTTP/2";
+        }
+        return protocol == Protocol.HTTP_1_0 ? "HTTP/1.0" : "HTTP/1.1";
+    }
+
+    private static String headersText(Headers headers) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0, size = headers.size(); i < size; i++) {
+            builder.append(headers.name(i)).append(": ").append(headers.value(i)).append('\n');
+        }
+        return builder.toString();
+    }
+}
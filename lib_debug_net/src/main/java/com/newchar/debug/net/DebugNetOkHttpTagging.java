@@ -0,0 +1,128 @@
+package com.newchar.debug.net;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * OkHttp 接入流量归因。宿主需要同时安装监听器工厂和应用拦截器：
+ * <pre>
+ * new OkHttpClient.Builder()
+ *         .eventListenerFactory(DebugNetOkHttpTagging.eventListenerFactory(null))
+ *         .addInterceptor(DebugNetOkHttpTagging.interceptor())
+ *         .build();
+ * </pre>
+ * 工厂在 newCall 的线程上确定请求的 tag：线程上已有 {@link DebugNetTrafficTags} 设置的 tag 时沿用，否则取调用栈中
+ * 第一个业务帧的包名；监听器按该 tag 累计请求和响应的头部与 body 字节数。拦截器在请求执行期间给线程打上同一个 tag，
+ * 使这次请求新建的 socket 在系统统计中也归到该 tag；复用连接池里的连接时，系统统计仍记在建立连接的 tag 下。
+ *
+ * 本模块以 compileOnly 依赖 OkHttp，宿主没有引入 OkHttp 时不要调用本类。
+ */
+public final class DebugNetOkHttpTagging {
+
+    /**
+     * 拦截器只拿得到 Call，拿不到工厂为它创建的监听器，只能按 Call 查 tag；
+     * 用弱引用作键，newCall 之后从未执行、被取消等收不到 callEnd 的 Call 也不会一直留在表里
+     */
+    private static final Map<Call, Integer> CALL_TAGS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private DebugNetOkHttpTagging() {
+    }
+
+    /**
+     * @param delegate 宿主原有的工厂，可以为 null
+     */
+    public static EventListener.Factory eventListenerFactory(EventListener.Factory delegate) {
+        return call -> {
+            EventListener downstream = delegate == null ? EventListener.NONE : delegate.create(call);
+            if (!DebugNetTrafficTags.isEnabled()) {
+                return downstream;
+            }
+            int tag = DebugNetTrafficTags.currentThreadTag();
+            if (tag == 0) {
+                tag = DebugNetTrafficTags.tagOf(DebugNetTrafficTags.callSiteOf(new Throwable().getStackTrace()));
+            }
+            CALL_TAGS.put(call, tag);
+            return new TaggingEventListener(downstream, tag);
+        };
+    }
+
+    public static Interceptor interceptor() {
+        return TAGGING_INTERCEPTOR;
+    }
+
+    private static final Interceptor TAGGING_INTERCEPTOR = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Integer tag = CALL_TAGS.get(chain.call());
+            if (tag == null) {
+                return chain.proceed(chain.request());
+            }
+            int previous = DebugNetTrafficTags.beginThreadTag(DebugNetTrafficTags.nameOf(tag));
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                DebugNetTrafficTags.endThreadTag(previous);
+            }
+        }
+    };
+
+    private static final class TaggingEventListener extends ForwardingEventListener {
+
+        private final int mTag;
+
+        TaggingEventListener(EventListener delegate, int tag) {
+            super(delegate);
+            mTag = tag;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            DebugNetTrafficTags.record(mTag, 0L, 0L, 1L);
+            super.callStart(call);
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            DebugNetTrafficTags.record(mTag, 0L, request.headers().byteCount(), 0L);
+            super.requestHeadersEnd(call, request);
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            DebugNetTrafficTags.record(mTag, 0L, byteCount, 0L);
+            super.requestBodyEnd(call, byteCount);
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            DebugNetTrafficTags.record(mTag, response.headers().byteCount(), 0L, 0L);
+            super.responseHeadersEnd(call, response);
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            DebugNetTrafficTags.record(mTag, byteCount, 0L, 0L);
+            super.responseBodyEnd(call, byteCount);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            CALL_TAGS.remove(call);
+            super.callEnd(call);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            CALL_TAGS.remove(call);
+            super.callFailed(call, ioe);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.newchar.debug.net;
+
+/**
+ * 分发队列写满（或接近写满）时的处理策略。
+ */
+public enum DebugNetOverflowPolicy {
+    /**
+     * 丢弃队列中最旧的 event，保证最新的流量可见。
+     */
+    DROP_OLDEST,
+    /**
+     * 丢弃新到的 event，保留队列中已有的。
+     */
+    DROP_NEWEST,
+    /**
+     * 队列超过一半后按比例抽样，越满抽样越稀疏；写满时丢弃新到的 event。
+     */
+    SAMPLE
+}
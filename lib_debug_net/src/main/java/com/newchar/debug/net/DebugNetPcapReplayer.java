@@ -0,0 +1,332 @@
+package com.newchar.debug.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 离线回放 pcap / pcapng 文件：逐包送入与 VPN 捕获相同的 {@link CapturePipeline}，
+ * 解析结果照常分发给已注册的 listener，可用于复现问题或压测解析链路。
+ *
+ * 支持 RAW、IPv4、IPv6、Ethernet、Linux cooked (SLL) 与 BSD loopback 链路类型，其余链路类型的包会被跳过。
+ * 回放在调用线程同步执行，不要在主线程调用。
+ */
+public final class DebugNetPcapReplayer {
+
+    private static final int PCAP_MAGIC_MICROS = 0xA1B2C3D4;
+    private static final int PCAP_MAGIC_NANOS = 0xA1B23C4D;
+
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_IPV4 = 228;
+    private static final int LINKTYPE_IPV6 = 229;
+
+    private static final int ETHER_TYPE_VLAN = 0x8100;
+    private static final int MAX_INTERFACES = 16;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final CapturePipeline mPipeline = new CapturePipeline();
+    private final int[] mLinkTypes = new int[MAX_INTERFACES];
+    private final long[] mTimeUnitsPerSecond = new long[MAX_INTERFACES];
+    private byte[] mScratch = new byte[PcapngWriter.SNAP_LENGTH];
+    private int mInterfaceCount;
+    private long mPacketCount;
+    private long mByteCount;
+    private long mSkippedCount;
+
+    private DebugNetPcapReplayer(FileChannel channel) {
+        mChannel = channel;
+        mBuffer.limit(0);
+    }
+
+    /**
+     * 回放整个文件，返回回放统计。
+     */
+    public static Result replay(File file) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file);
+             FileChannel channel = inputStream.getChannel()) {
+            DebugNetPcapReplayer replayer = new DebugNetPcapReplayer(channel);
+            long startNanos = System.nanoTime();
+            try {
+                replayer.run();
+            } finally {
+                replayer.mPipeline.release();
+            }
+            return new Result(replayer.mPacketCount, replayer.mByteCount, replayer.mSkippedCount,
+                    System.nanoTime() - startNanos);
+        }
+    }
+
+    private void run() throws IOException {
+        if (!fill(4)) {
+            return;
+        }
+        int magic = mBuffer.getInt(mBuffer.position());
+        if (magic == PcapngWriter.BLOCK_SECTION_HEADER) {
+            readPcapng();
+            return;
+        }
+        readPcap();
+    }
+
+    private void readPcap() throws IOException {
+        if (!fill(24)) {
+            throw new IOException("truncated pcap header");
+        }
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+        int magic = mBuffer.getInt(mBuffer.position());
+        if (Integer.reverseBytes(magic) == PCAP_MAGIC_MICROS || Integer.reverseBytes(magic) == PCAP_MAGIC_NANOS) {
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            magic = Integer.reverseBytes(magic);
+        }
+        if (magic != PCAP_MAGIC_MICROS && magic != PCAP_MAGIC_NANOS) {
+            throw new IOException("not a pcap/pcapng file");
+        }
+        long unitsPerSecond = magic == PCAP_MAGIC_NANOS ? 1_000_000_000L : 1_000_000L;
+        int linkType = mBuffer.getInt(mBuffer.position() + 20) & 0xFFFF;
+        skip(24);
+        while (fill(16)) {
+            int base = mBuffer.position();
+            long seconds = mBuffer.getInt(base) & 0xFFFFFFFFL;
+            long fraction = mBuffer.getInt(base + 4) & 0xFFFFFFFFL;
+            int captured = mBuffer.getInt(base + 8);
+            if (captured < 0 || captured > mBuffer.capacity() - 16) {
+                throw new IOException("bad record length " + captured);
+            }
+            if (!fill(16 + captured)) {
+                break;
+            }
+            long timeMillis = seconds * 1000L + fraction * 1000L / unitsPerSecond;
+            deliver(linkType, base + 16, captured, TrafficDirection.UPLOAD, timeMillis);
+            skip(16 + captured);
+        }
+    }
+
+    private void readPcapng() throws IOException {
+        while (fill(12)) {
+            int base = mBuffer.position();
+            int type = mBuffer.getInt(base);
+            if (type == PcapngWriter.BLOCK_SECTION_HEADER) {
+                // 每个 section 重新判断字节序，接口编号也从 0 开始
+                mBuffer.order(ByteOrder.BIG_ENDIAN);
+                if (mBuffer.getInt(base + 8) != PcapngWriter.BYTE_ORDER_MAGIC) {
+                    mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+                }
+                mInterfaceCount = 0;
+            }
+            int totalLength = mBuffer.getInt(base + 4);
+            if (totalLength < 12 || (totalLength & 3) != 0 || totalLength > mBuffer.capacity()) {
+                throw new IOException("bad block length " + totalLength);
+            }
+            if (!fill(totalLength)) {
+                break;
+            }
+            switch (type) {
+                case PcapngWriter.BLOCK_INTERFACE_DESCRIPTION:
+                    readInterface(base, totalLength);
+                    break;
+                case PcapngWriter.BLOCK_ENHANCED_PACKET:
+                    readEnhancedPacket(base, totalLength);
+                    break;
+                case PcapngWriter.BLOCK_SIMPLE_PACKET:
+                    readSimplePacket(base, totalLength);
+                    break;
+                default:
+                    break;
+            }
+            skip(totalLength);
+        }
+    }
+
+    private void readInterface(int base, int totalLength) {
+        if (mInterfaceCount >= MAX_INTERFACES) {
+            return;
+        }
+        int index = mInterfaceCount++;
+        mLinkTypes[index] = mBuffer.getShort(base + 8) & 0xFFFF;
+        mTimeUnitsPerSecond[index] = 1_000_000L;
+        int offset = base + 16;
+        int end = base + totalLength - 4;
+        while (offset + 4 <= end) {
+            int code = mBuffer.getShort(offset) & 0xFFFF;
+            int length = mBuffer.getShort(offset + 2) & 0xFFFF;
+            if (code == 0) {
+                break;
+            }
+            // if_tsresol：最高位为 0 表示 10 的负 n 次方秒，为 1 表示 2 的负 n 次方秒
+            if (code == 9 && length >= 1) {
+                int resolution = mBuffer.get(offset + 4) & 0xFF;
+                int exponent = Math.min(resolution & 0x7F, 62);
+                long units = 1L;
+                for (int i = 0; i < exponent && units <= Long.MAX_VALUE / 10; i++) {
+                    units = (resolution & 0x80) != 0 ? units << 1 : units * 10;
+                }
+                mTimeUnitsPerSecond[index] = units;
+            }
+            offset += 4 + PcapngWriter.align4(length);
+        }
+    }
+
+    private void readEnhancedPacket(int base, int totalLength) {
+        int interfaceId = mBuffer.getInt(base + 8);
+        int captured = mBuffer.getInt(base + 20);
+        if (interfaceId < 0 || interfaceId >= mInterfaceCount || captured < 0 || 28 + captured > totalLength - 4) {
+            mSkippedCount++;
+            return;
+        }
+        long timestamp = ((mBuffer.getInt(base + 12) & 0xFFFFFFFFL) << 32) | (mBuffer.getInt(base + 16) & 0xFFFFFFFFL);
+        TrafficDirection direction = TrafficDirection.UPLOAD;
+        int offset = base + 28 + PcapngWriter.align4(captured);
+        int end = base + totalLength - 4;
+        while (offset + 4 <= end) {
+            int code = mBuffer.getShort(offset) & 0xFFFF;
+            int length = mBuffer.getShort(offset + 2) & 0xFFFF;
+            if (code == 0) {
+                break;
+            }
+            // epb_flags 低两位：1 入站，2 出站
+            if (code == 2 && length >= 4 && (mBuffer.getInt(offset + 4) & 0x3) == 1) {
+                direction = TrafficDirection.DOWNLOAD;
+            }
+            offset += 4 + PcapngWriter.align4(length);
+        }
+        long unitsPerSecond = mTimeUnitsPerSecond[interfaceId];
+        long timeMillis = timestamp / unitsPerSecond * 1000L + timestamp % unitsPerSecond * 1000L / unitsPerSecond;
+        deliver(mLinkTypes[interfaceId], base + 28, captured, direction, timeMillis);
+    }
+
+    private void readSimplePacket(int base, int totalLength) {
+        if (mInterfaceCount == 0) {
+            mSkippedCount++;
+            return;
+        }
+        int captured = Math.min(mBuffer.getInt(base + 8), totalLength - 16);
+        deliver(mLinkTypes[0], base + 12, captured, TrafficDirection.UPLOAD, System.currentTimeMillis());
+    }
+
+    private void deliver(int linkType, int offset, int length, TrafficDirection direction, long timeMillis) {
+        int ipOffset = linkHeaderLength(linkType, offset, length);
+        if (ipOffset < 0 || ipOffset >= length) {
+            mSkippedCount++;
+            return;
+        }
+        // 解析器按下标 0 读包，把 IP 部分拷到复用的临时数组
+        byte[] packet = obtainScratch(length - ipOffset);
+        System.arraycopy(mBuffer.array(), mBuffer.arrayOffset() + offset + ipOffset, packet, 0, length - ipOffset);
+        mPipeline.onPacket(packet, length - ipOffset, direction, timeMillis);
+        mPacketCount++;
+        mByteCount += length - ipOffset;
+    }
+
+    private byte[] obtainScratch(int length) {
+        if (mScratch.length < length) {
+            mScratch = new byte[length];
+        }
+        return mScratch;
+    }
+
+    /**
+     * 返回链路层头部长度，不支持的链路类型或非 IP 帧返回 -1。
+     */
+    private int linkHeaderLength(int linkType, int offset, int length) {
+        switch (linkType) {
+            case PcapngWriter.LINKTYPE_RAW:
+            case LINKTYPE_IPV4:
+            case LINKTYPE_IPV6:
+                return 0;
+            case LINKTYPE_NULL:
+                return 4;
+            case LINKTYPE_LINUX_SLL:
+                return length >= 16 && isIpEtherType(readUnsignedShort(offset + 14)) ? 16 : -1;
+            case LINKTYPE_ETHERNET: {
+                if (length < 14) {
+                    return -1;
+                }
+                int headerLength = 14;
+                int etherType = readUnsignedShort(offset + 12);
+                while (etherType == ETHER_TYPE_VLAN && length >= headerLength + 4) {
+                    etherType = readUnsignedShort(offset + headerLength + 2);
+                    headerLength += 4;
+                }
+                return isIpEtherType(etherType) ? headerLength : -1;
+            }
+            default:
+                return -1;
+        }
+    }
+
+    private int readUnsignedShort(int index) {
+        byte[] array = mBuffer.array();
+        int base = mBuffer.arrayOffset() + index;
+        return ((array[base] & 0xFF) << 8) | (array[base + 1] & 0xFF);
+    }
+
+    private static boolean isIpEtherType(int etherType) {
+        return etherType == 0x0800 || etherType == 0x86DD;
+    }
+
+    /**
+     * 保证缓冲区当前位置起至少有 bytes 个字节可读，文件结束时返回 false。
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (mBuffer.remaining() >= bytes) {
+            return true;
+        }
+        mBuffer.compact();
+        while (mBuffer.position() < bytes) {
+            if (mChannel.read(mBuffer) < 0) {
+                mBuffer.flip();
+                return false;
+            }
+        }
+        mBuffer.flip();
+        return true;
+    }
+
+    private void skip(int bytes) {
+        mBuffer.position(mBuffer.position() + bytes);
+    }
+
+    /**
+     * 一次回放的统计结果。
+     */
+    public static final class Result {
+
+        private final long packetCount;
+        private final long byteCount;
+        private final long skippedCount;
+        private final long elapsedNanos;
+
+        Result(long packetCount, long byteCount, long skippedCount, long elapsedNanos) {
+            this.packetCount = packetCount;
+            this.byteCount = byteCount;
+            this.skippedCount = skippedCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getPacketCount() {
+            return packetCount;
+        }
+
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        /**
+         * 链路类型不支持或格式不完整而跳过的包数量。
+         */
+        public long getSkippedCount() {
+            return skippedCount;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.newchar.debug.net;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把捕获到的原始 IP 包写成可直接用 Wireshark 打开的 pcapng 文件，按大小或时长轮转。
+ *
+ * 捕获线程只把包拷进一块预分配的环形字节缓冲区，由独立的写线程取出写盘，磁盘慢时捕获线程不会被阻塞；
+ * 缓冲区写满时新包直接丢弃并计数。通过 {@link DebugNetMonitor#setPcapSink} 挂到捕获流程上。
+ */
+public final class DebugNetPcapSink {
+
+    private static final String TAG = "DebugNetPcap";
+    private static final String FILE_SUFFIX = ".pcapng";
+    /** 记录头：包长度（-1 表示回绕填充）、方向、时间戳。 */
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int RECORD_WRAP = -1;
+    private static final long IDLE_PARK_NANOS = 2_000_000L;
+    private static final long FLUSH_INTERVAL_NANOS = 500_000_000L;
+
+    private final File mDirectory;
+    private final String mFilePrefix;
+    private final long mMaxFileBytes;
+    private final long mMaxFileDurationMillis;
+    private final int mMaxFileCount;
+
+    private final byte[] mRing;
+    private final int mRingMask;
+    private final ByteBuffer mProducerView;
+    private final ByteBuffer mConsumerView;
+    private final AtomicLong mWriteIndex = new AtomicLong();
+    private final AtomicLong mReadIndex = new AtomicLong();
+    private final Object mProducerLock = new Object();
+
+    private final AtomicLong mWrittenPacketCount = new AtomicLong();
+    private final AtomicLong mDroppedPacketCount = new AtomicLong();
+    private volatile boolean mRunning;
+    private volatile File mCurrentFile;
+    private Thread mWriterThread;
+    private int mFileSequence;
+
+    private DebugNetPcapSink(Builder builder) {
+        mDirectory = builder.directory;
+        mFilePrefix = builder.filePrefix;
+        mMaxFileBytes = builder.maxFileBytes;
+        mMaxFileDurationMillis = builder.maxFileDurationMillis;
+        mMaxFileCount = builder.maxFileCount;
+        int ringSize = DispatchRingBuffer.roundCapacity(builder.bufferBytes);
+        mRing = new byte[ringSize];
+        mRingMask = ringSize - 1;
+        mProducerView = ByteBuffer.wrap(mRing).order(ByteOrder.nativeOrder());
+        mConsumerView = ByteBuffer.wrap(mRing).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * 启动写线程。重复调用无效果。
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mWriterThread = new Thread(this::writeLoop, "DebugNetPcapWriter");
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+    }
+
+    /**
+     * 停止写线程，缓冲区中剩余的包会先写完再关闭文件。
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        Thread thread = mWriterThread;
+        mWriterThread = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(2000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 正在写入的文件，尚未开始写入时为 null。
+     */
+    public File getCurrentFile() {
+        return mCurrentFile;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public long getWrittenPacketCount() {
+        return mWrittenPacketCount.get();
+    }
+
+    /**
+     * 缓冲区已满或包超过缓冲区大小而被丢弃的包数量。
+     */
+    public long getDroppedPacketCount() {
+        return mDroppedPacketCount.get();
+    }
+
+    /**
+     * 捕获侧调用，只做一次内存拷贝，不做磁盘 IO。未命中抓包过滤器的包不写入。返回 false 表示包未写入。
+     */
+    boolean offer(byte[] packet, int length, TrafficDirection direction, long timeMillis) {
+        if (!mRunning || packet == null || length <= 0) {
+            return false;
+        }
+        PacketFilter filter = DebugNetMonitor.getConfig().getCaptureFilter();
+        if (filter != null && !filter.matches(packet, length)) {
+            return false;
+        }
+        int recordSize = align8(RECORD_HEADER_SIZE + length);
+        if (recordSize > mRing.length) {
+            mDroppedPacketCount.incrementAndGet();
+            return false;
+        }
+        synchronized (mProducerLock) {
+            long write = mWriteIndex.get();
+            int offset = (int) (write & mRingMask);
+            int tailRoom = mRing.length - offset;
+            int needed = recordSize > tailRoom ? recordSize + tailRoom : recordSize;
+            if (mRing.length - (write - mReadIndex.get()) < needed) {
+                mDroppedPacketCount.incrementAndGet();
+                return false;
+            }
+            if (recordSize > tailRoom) {
+                // 尾部放不下整条记录时写回绕标记，从缓冲区头部开始
+                mProducerView.putInt(offset, RECORD_WRAP);
+                write += tailRoom;
+                offset = 0;
+            }
+            mProducerView.putInt(offset, length);
+            mProducerView.putInt(offset + 4, direction == TrafficDirection.DOWNLOAD ? 1 : 0);
+            mProducerView.putLong(offset + 8, timeMillis);
+            System.arraycopy(packet, 0, mRing, offset + RECORD_HEADER_SIZE, length);
+            mWriteIndex.set(write + recordSize);
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        PcapngWriter writer = null;
+        long fileStartMillis = 0L;
+        long lastFlushNanos = System.nanoTime();
+        try {
+            while (true) {
+                long read = mReadIndex.get();
+                long write = mWriteIndex.get();
+                if (read == write) {
+                    if (!mRunning) {
+                        break;
+                    }
+                    if (writer != null && System.nanoTime() - lastFlushNanos >= FLUSH_INTERVAL_NANOS) {
+                        writer.flush();
+                        lastFlushNanos = System.nanoTime();
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                int offset = (int) (read & mRingMask);
+                int length = mConsumerView.getInt(offset);
+                if (length == RECORD_WRAP) {
+                    mReadIndex.set(read + (mRing.length - offset));
+                    continue;
+                }
+                boolean download = mConsumerView.getInt(offset + 4) == 1;
+                long timeMillis = mConsumerView.getLong(offset + 8);
+                if (writer == null || shouldRotate(writer, fileStartMillis, timeMillis)) {
+                    closeQuietly(writer);
+                    writer = openNextFile();
+                    fileStartMillis = timeMillis;
+                }
+                writer.writePacket(mRing, offset + RECORD_HEADER_SIZE, length, download, timeMillis * 1000L);
+                mReadIndex.set(read + align8(RECORD_HEADER_SIZE + length));
+                mWrittenPacketCount.incrementAndGet();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "writeLoop failed", e);
+            mRunning = false;
+        } finally {
+            closeQuietly(writer);
+            mReadIndex.set(mWriteIndex.get());
+        }
+    }
+
+    private boolean shouldRotate(PcapngWriter writer, long fileStartMillis, long timeMillis) {
+        if (mMaxFileBytes > 0 && writer.getWrittenBytes() >= mMaxFileBytes) {
+            return true;
+        }
+        return mMaxFileDurationMillis > 0 && timeMillis - fileStartMillis >= mMaxFileDurationMillis;
+    }
+
+    private PcapngWriter openNextFile() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("cannot create " + mDirectory);
+        }
+        String time = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.US).format(new Date());
+        File file = new File(mDirectory, String.format(Locale.US, "%s_%s_%03d%s", mFilePrefix, time,
+                mFileSequence++ % 1000, FILE_SUFFIX));
+        PcapngWriter writer = new PcapngWriter(file);
+        mCurrentFile = file;
+        deleteExpiredFiles();
+        return writer;
+    }
+
+    /**
+     * 只保留最近的 maxFileCount 个文件（文件名带时间戳，按名称排序即按时间排序）。
+     */
+    private void deleteExpiredFiles() {
+        if (mMaxFileCount <= 0) {
+            return;
+        }
+        File[] files = mDirectory.listFiles((dir, name) -> name.startsWith(mFilePrefix + "_")
+                && name.endsWith(FILE_SUFFIX));
+        if (files == null || files.length <= mMaxFileCount) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        for (int i = 0; i < files.length - mMaxFileCount; i++) {
+            if (!files[i].delete()) {
+                Log.w(TAG, "delete failed: " + files[i]);
+            }
+        }
+    }
+
+    private static void closeQuietly(PcapngWriter writer) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close failed", e);
+        }
+    }
+
+    private static int align8(int value) {
+        return (value + 7) & ~7;
+    }
+
+    public static final class Builder {
+
+        private final File directory;
+        private String filePrefix = "debugnet";
+        private long maxFileBytes = 32L * 1024 * 1024;
+        private long maxFileDurationMillis = 10L * 60 * 1000;
+        private int maxFileCount = 8;
+        private int bufferBytes = 4 * 1024 * 1024;
+
+        public Builder(File directory) {
+            if (directory == null) {
+                throw new IllegalArgumentException("directory == null");
+            }
+            this.directory = directory;
+        }
+
+        public Builder setFilePrefix(String prefix) {
+            this.filePrefix = prefix == null || prefix.trim().isEmpty() ? "debugnet" : prefix.trim();
+            return this;
+        }
+
+        /**
+         * 单个文件达到该大小后轮转，小于等于 0 表示不按大小轮转。
+         */
+        public Builder setMaxFileBytes(long bytes) {
+            this.maxFileBytes = bytes;
+            return this;
+        }
+
+        /**
+         * 单个文件覆盖的抓包时长达到该值后轮转，小于等于 0 表示不按时间轮转。
+         */
+        public Builder setMaxFileDurationMillis(long millis) {
+            this.maxFileDurationMillis = millis;
+            return this;
+        }
+
+        /**
+         * 最多保留的文件数，小于等于 0 表示不清理旧文件。
+         */
+        public Builder setMaxFileCount(int count) {
+            this.maxFileCount = count;
+            return this;
+        }
+
+        /**
+         * 捕获线程与写线程之间的缓冲区大小，向上取整到 2 的幂。
+         */
+        public Builder setBufferBytes(int bytes) {
+            this.bufferBytes = bytes > 64 * 1024 ? bytes : 64 * 1024;
+            return this;
+        }
+
+        public DebugNetPcapSink build() {
+            return new DebugNetPcapSink(this);
+        }
+    }
+}
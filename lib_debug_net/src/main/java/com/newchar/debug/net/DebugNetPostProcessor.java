@@ -2,11 +2,40 @@ package com.newchar.debug.net;
 
 /**
  * 对已解码的网络数据进行全局后处理。
+ *
+ * 多个处理器按添加顺序组成一条链，前一个的结果交给后一个。同步处理器直接在分发线程执行，应当足够快；
+ * 耗时的处理（格式化大 body、脱敏等）应声明 {@link #isAsync()}，在独立的有界线程池执行，
+ * 超过 {@link #getTimeoutMillis()} 仍未完成时该 event 放弃这一步及之后的处理，沿用之前的结果继续分发。
  */
 public interface DebugNetPostProcessor {
 
+    long DEFAULT_TIMEOUT_MILLIS = 200L;
+
     /**
      * 返回处理后的对象；返回 null 时沿用原始 payload。
      */
     DebugNetPayload process(DebugNetPayload payload);
+
+    /**
+     * 是否在后处理线程池中执行，默认在分发线程同步执行。
+     */
+    default boolean isAsync() {
+        return false;
+    }
+
+    /**
+     * 异步处理的超时时间，只对 {@link #isAsync()} 为 true 的处理器生效。超时后仍在运行的处理若原地修改 event，
+     * 修改可能在 event 已交付之后才发生，因此异步处理器应优先返回新的 event。
+     */
+    default long getTimeoutMillis() {
+        return DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * 统计与状态栏中显示的名称，默认为类名。
+     */
+    default String getName() {
+        String name = getClass().getSimpleName();
+        return name.isEmpty() ? getClass().getName() : name;
+    }
 }
@@ -0,0 +1,105 @@
+package com.newchar.debug.net;
+
+import java.util.Locale;
+
+/**
+ * 单个后处理器的耗时统计快照，耗时单位为微秒。
+ */
+public final class DebugNetPostProcessorStats {
+
+    /** 同步处理器 p99 超过该值即视为拖慢了分发线程。 */
+    public static final long SLOW_SYNC_P99_MICROS = 10_000L;
+
+    private final String name;
+    private final boolean async;
+    private final long timeoutMillis;
+    private final long invocationCount;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+    private final long timeoutCount;
+    private final long failureCount;
+    private final long rejectedCount;
+
+    DebugNetPostProcessorStats(String name, boolean async, long timeoutMillis, LogHistogram latency,
+            long timeoutCount, long failureCount, long rejectedCount) {
+        this.name = name;
+        this.async = async;
+        this.timeoutMillis = timeoutMillis;
+        this.invocationCount = latency.getTotalCount();
+        this.p50Micros = latency.getValueAtPercentile(50);
+        this.p99Micros = latency.getValueAtPercentile(99);
+        this.maxMicros = latency.getMax();
+        this.timeoutCount = timeoutCount;
+        this.failureCount = failureCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * 已完成的调用次数，不含超时后才结束的调用。
+     */
+    public long getInvocationCount() {
+        return invocationCount;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * 超时后沿用未处理 payload 的次数。
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * 后处理线程池排满而跳过的次数。
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * 同步处理器 p99 超过 {@link #SLOW_SYNC_P99_MICROS}，或异步处理器出现超时、被拒绝、p99 超过超时时间的一半。
+     */
+    public boolean isSlow() {
+        if (!async) {
+            return p99Micros >= SLOW_SYNC_P99_MICROS;
+        }
+        return timeoutCount > 0 || rejectedCount > 0 || p99Micros >= timeoutMillis * 1000 / 2;
+    }
+
+    public String getSummaryText() {
+        StringBuilder builder = new StringBuilder(name)
+                .append(async ? "(异步)" : "")
+                .append(String.format(Locale.US, " p99 %.1fms", p99Micros / 1000d));
+        if (timeoutCount > 0) {
+            builder.append(" 超时").append(timeoutCount);
+        }
+        if (rejectedCount > 0) {
+            builder.append(" 跳过").append(rejectedCount);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.newchar.debug.net;
+
+/**
+ * {@link DebugNetSessionStore} 的历史查询条件，结果按时间从新到旧分页返回。
+ *
+ * 下一页的查询由 {@link DebugNetSessionStore.Page#nextQuery()} 给出，调用方不需要自己维护游标。
+ */
+public final class DebugNetSessionQuery {
+
+    /** 游标初值：从最新一条记录开始。 */
+    static final long CURSOR_NEWEST = Long.MAX_VALUE;
+
+    private final String host;
+    private final int port;
+    private final long fromMillis;
+    private final long toMillis;
+    private final int limit;
+    private final long cursor;
+
+    private DebugNetSessionQuery(Builder builder) {
+        this.host = builder.host;
+        this.port = builder.port;
+        this.fromMillis = builder.fromMillis;
+        this.toMillis = builder.toMillis;
+        this.limit = builder.limit;
+        this.cursor = builder.cursor;
+    }
+
+    public Builder buildUpon() {
+        Builder builder = new Builder()
+                .setHost(host)
+                .setPort(port)
+                .setTimeRange(fromMillis, toMillis)
+                .setLimit(limit);
+        builder.cursor = cursor;
+        return builder;
+    }
+
+    /**
+     * 主机名（不区分大小写，精确匹配），为空字符串表示不限。
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * 远端端口，0 表示不限。
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public long getFromMillis() {
+        return fromMillis;
+    }
+
+    public long getToMillis() {
+        return toMillis;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    long getCursor() {
+        return cursor;
+    }
+
+    DebugNetSessionQuery withCursor(long newCursor) {
+        Builder builder = buildUpon();
+        builder.cursor = newCursor;
+        return builder.build();
+    }
+
+    public static final class Builder {
+
+        private String host = "";
+        private int port;
+        private long fromMillis;
+        private long toMillis = Long.MAX_VALUE;
+        private int limit = 50;
+        private long cursor = CURSOR_NEWEST;
+
+        public Builder setHost(String host) {
+            this.host = host == null ? "" : host.trim();
+            return this;
+        }
+
+        public Builder setPort(int port) {
+            this.port = port > 0 && port <= 0xFFFF ? port : 0;
+            return this;
+        }
+
+        /**
+         * 时间范围（毫秒，闭区间），event 按捕获时间、连接按最后活跃时间比较。
+         */
+        public Builder setTimeRange(long fromMillis, long toMillis) {
+            this.fromMillis = Math.max(0L, fromMillis);
+            this.toMillis = toMillis > 0 ? toMillis : Long.MAX_VALUE;
+            return this;
+        }
+
+        /**
+         * 每页条数，取值 1~500。
+         */
+        public Builder setLimit(int limit) {
+            this.limit = Math.max(1, Math.min(500, limit));
+            return this;
+        }
+
+        public DebugNetSessionQuery build() {
+            return new DebugNetSessionQuery(this);
+        }
+    }
+}
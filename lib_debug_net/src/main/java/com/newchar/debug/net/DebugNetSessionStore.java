@@ -0,0 +1,460 @@
+package com.newchar.debug.net;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把 event 与连接统计持久化到磁盘的会话存储，进程重启后仍可按主机/端口/时间翻页查询历史。
+ *
+ * 存储是只追加的分段二进制日志：分发线程只把记录编码成字节数组放进有界队列，由独立写线程批量写盘，
+ * 写满一个分段后封存并写出索引文件（格式见 {@link SessionRecordCodec}、{@link SessionSegment}）。
+ * 磁盘占用由总大小与保留时长共同限制，超出时整段删除最旧的分段。
+ *
+ * 连接只在关闭（或超时移除）时写入最后一次快照，运行中的连接以内存中的实时列表为准。
+ * 通过 {@link DebugNetMonitor#setSessionStore} 挂到分发流程上，启停由调用方负责。
+ */
+public final class DebugNetSessionStore implements DebugNetTrafficListener, DebugNetFlowListener {
+
+    private static final String TAG = "DebugNetSession";
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 20_000_000L;
+    private static final long RETENTION_CHECK_INTERVAL_MILLIS = 60_000L;
+
+    private final File mDirectory;
+    private final long mMaxSegmentBytes;
+    private final long mMaxTotalBytes;
+    private final long mMaxAgeMillis;
+    private final DispatchRingBuffer<byte[]> mQueue;
+
+    /** 按 id 升序排列，最后一个可能是正在写入的分段。 */
+    private final List<SessionSegment> mSegments = new ArrayList<>();
+    private final AtomicLong mWrittenRecordCount = new AtomicLong();
+    private final AtomicLong mDroppedRecordCount = new AtomicLong();
+    private volatile boolean mRunning;
+    private Thread mWriterThread;
+    private SessionSegment mActiveSegment;
+    private long mNextSegmentId;
+
+    private DebugNetSessionStore(Builder builder) {
+        mDirectory = builder.directory;
+        mMaxSegmentBytes = builder.maxSegmentBytes;
+        mMaxTotalBytes = builder.maxTotalBytes;
+        mMaxAgeMillis = builder.maxAgeMillis;
+        mQueue = new DispatchRingBuffer<>(builder.queueCapacity);
+    }
+
+    /**
+     * 启动写线程，已有分段在写线程上加载，加载完成前的查询只能看到部分历史。重复调用无效果。
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mWriterThread = new Thread(this::writeLoop, "DebugNetSessionWriter");
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+    }
+
+    /**
+     * 停止写线程，队列中剩余的记录会先写完再封存当前分段。
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        Thread thread = mWriterThread;
+        mWriterThread = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(2000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public long getWrittenRecordCount() {
+        return mWrittenRecordCount.get();
+    }
+
+    /**
+     * 写入队列已满而被丢弃的记录数量。
+     */
+    public long getDroppedRecordCount() {
+        return mDroppedRecordCount.get();
+    }
+
+    /**
+     * 所有分段占用的磁盘字节数（不含索引文件）。
+     */
+    public long getTotalBytes() {
+        long total = 0L;
+        synchronized (mSegments) {
+            for (SessionSegment segment : mSegments) {
+                total += segment.getLength();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public boolean onTrafficEvent(DebugNetEvent event) {
+        if (mRunning) {
+            offer(SessionRecordCodec.encodeEvent(event));
+        }
+        return true;
+    }
+
+    @Override
+    public void onTrafficEvents(List<DebugNetEvent> events) {
+        if (!mRunning) {
+            return;
+        }
+        for (int i = 0; i < events.size(); i++) {
+            offer(SessionRecordCodec.encodeEvent(events.get(i)));
+        }
+    }
+
+    @Override
+    public void onFlowsUpdated(List<DebugNetFlow> flows) {
+        if (!mRunning) {
+            return;
+        }
+        for (int i = 0; i < flows.size(); i++) {
+            DebugNetFlow flow = flows.get(i);
+            if (flow.isClosed()) {
+                offer(SessionRecordCodec.encodeFlow(flow));
+            }
+        }
+    }
+
+    /**
+     * 查询历史 event，按捕获时间从新到旧。会读盘，不要在主线程调用。
+     */
+    public Page<DebugNetEvent> queryEvents(DebugNetSessionQuery query) {
+        return query(SessionRecordCodec.TYPE_EVENT, query);
+    }
+
+    /**
+     * 查询已关闭连接的最后一次快照，按最后活跃时间从新到旧。会读盘，不要在主线程调用。
+     */
+    public Page<DebugNetFlow> queryFlows(DebugNetSessionQuery query) {
+        return query(SessionRecordCodec.TYPE_FLOW, query);
+    }
+
+    private void offer(byte[] record) {
+        if (!mRunning) {
+            return;
+        }
+        if (!mQueue.offer(record)) {
+            mDroppedRecordCount.incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Page<T> query(int type, DebugNetSessionQuery query) {
+        List<SessionSegment> segments;
+        synchronized (mSegments) {
+            segments = new ArrayList<>(mSegments);
+        }
+        String host = query.getHost();
+        int hostHash = host.isEmpty() ? 0 : SessionRecordCodec.hostHash(host);
+        int port = query.getPort();
+        long from = query.getFromMillis();
+        long to = query.getToMillis();
+        long cursor = query.getCursor();
+        long cursorSegmentId = cursor >>> 32;
+        int cursorIndex = (int) cursor;
+        List<T> items = new ArrayList<>(Math.min(query.getLimit(), 64));
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            SessionSegment segment = segments.get(s);
+            if (segment.getId() > cursorSegmentId || !segment.mayContain(hostHash, port, from, to)) {
+                continue;
+            }
+            SessionSegment.View view = segment.view();
+            int end = segment.getId() == cursorSegmentId ? Math.min(cursorIndex, view.count) : view.count;
+            RandomAccessFile file = null;
+            try {
+                for (int i = end - 1; i >= 0; i--) {
+                    if (!view.matches(i, type, hostHash, port, from, to)) {
+                        continue;
+                    }
+                    if (file == null) {
+                        file = segment.openForRead();
+                    }
+                    ByteBuffer payload = SessionSegment.readPayload(file, view.offsets[i]);
+                    Object item;
+                    String itemHost;
+                    if (type == SessionRecordCodec.TYPE_EVENT) {
+                        DebugNetEvent event = SessionRecordCodec.decodeEvent(payload, view.times[i]);
+                        item = event;
+                        itemHost = event.getHost();
+                    } else {
+                        DebugNetFlow flow = SessionRecordCodec.decodeFlow(payload);
+                        item = flow;
+                        itemHost = flow.getHost();
+                    }
+                    // 索引只比较哈希，这里排除哈希碰撞
+                    if (hostHash != 0 && !host.equalsIgnoreCase(itemHost)) {
+                        continue;
+                    }
+                    items.add((T) item);
+                    if (items.size() >= query.getLimit()) {
+                        long next = (segment.getId() << 32) | i;
+                        return new Page<>(items, query.withCursor(next));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // 分段可能刚被保留策略删除，或记录损坏，跳过该分段
+                Log.w(TAG, "query segment " + segment.getId() + " failed", e);
+            } finally {
+                closeQuietly(file);
+            }
+        }
+        return new Page<>(items, null);
+    }
+
+    private void writeLoop() {
+        loadSegments();
+        List<byte[]> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        long lastRetentionMillis = System.currentTimeMillis();
+        try {
+            while (true) {
+                batch.clear();
+                mQueue.drainTo(batch, MAX_BATCH_SIZE);
+                if (batch.isEmpty()) {
+                    if (!mRunning) {
+                        break;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastRetentionMillis >= RETENTION_CHECK_INTERVAL_MILLIS) {
+                        lastRetentionMillis = now;
+                        enforceRetention(now);
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    byte[] record = batch.get(i);
+                    SessionSegment segment = mActiveSegment;
+                    if (segment == null || segment.isFullFor(record.length, mMaxSegmentBytes)) {
+                        segment = rotate();
+                    }
+                    segment.append(record);
+                }
+                mActiveSegment.flush();
+                mWrittenRecordCount.addAndGet(batch.size());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "writeLoop failed", e);
+            mRunning = false;
+        } finally {
+            sealQuietly(mActiveSegment);
+            mActiveSegment = null;
+            batch.clear();
+            mQueue.drainTo(batch, Integer.MAX_VALUE);
+        }
+    }
+
+    private void loadSegments() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "cannot create " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles((dir, name) -> SessionSegment.parseId(name) >= 0);
+        long[] ids = new long[files == null ? 0 : files.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = SessionSegment.parseId(files[i].getName());
+        }
+        Arrays.sort(ids);
+        List<SessionSegment> loaded = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            try {
+                SessionSegment segment = SessionSegment.open(mDirectory, id);
+                if (segment.getCount() == 0) {
+                    segment.delete();
+                } else {
+                    loaded.add(segment);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "drop unreadable segment " + id, e);
+                new File(mDirectory, SessionSegment.fileName(id, SessionSegment.SEGMENT_SUFFIX)).delete();
+                new File(mDirectory, SessionSegment.fileName(id, SessionSegment.INDEX_SUFFIX)).delete();
+            }
+            mNextSegmentId = id + 1;
+        }
+        synchronized (mSegments) {
+            mSegments.clear();
+            mSegments.addAll(loaded);
+        }
+        enforceRetention(System.currentTimeMillis());
+    }
+
+    private SessionSegment rotate() throws IOException {
+        SessionSegment previous = mActiveSegment;
+        if (previous != null) {
+            previous.seal();
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("cannot create " + mDirectory);
+        }
+        SessionSegment segment = SessionSegment.create(mDirectory, mNextSegmentId++);
+        synchronized (mSegments) {
+            mSegments.add(segment);
+        }
+        mActiveSegment = segment;
+        enforceRetention(System.currentTimeMillis());
+        return segment;
+    }
+
+    /**
+     * 从最旧的分段开始整段删除，直到总大小与保留时长都满足限制；正在写入的分段不删除。
+     */
+    private void enforceRetention(long now) {
+        List<SessionSegment> expired = new ArrayList<>();
+        synchronized (mSegments) {
+            long total = 0L;
+            for (SessionSegment segment : mSegments) {
+                total += segment.getLength();
+            }
+            while (!mSegments.isEmpty() && mSegments.get(0) != mActiveSegment) {
+                SessionSegment oldest = mSegments.get(0);
+                boolean overSize = mMaxTotalBytes > 0 && total > mMaxTotalBytes;
+                boolean overAge = mMaxAgeMillis > 0 && oldest.getMaxTimeMillis() < now - mMaxAgeMillis;
+                if (!overSize && !overAge) {
+                    break;
+                }
+                mSegments.remove(0);
+                total -= oldest.getLength();
+                expired.add(oldest);
+            }
+        }
+        for (SessionSegment segment : expired) {
+            segment.delete();
+        }
+    }
+
+    private static void sealQuietly(SessionSegment segment) {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.seal();
+        } catch (IOException e) {
+            Log.e(TAG, "seal failed", e);
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException ignored) {
+            // 只读文件关闭失败无需处理
+        }
+    }
+
+    /**
+     * 一页查询结果。
+     */
+    public static final class Page<T> {
+
+        private final List<T> items;
+        private final DebugNetSessionQuery nextQuery;
+
+        Page(List<T> items, DebugNetSessionQuery nextQuery) {
+            this.items = Collections.unmodifiableList(items);
+            this.nextQuery = nextQuery;
+        }
+
+        public List<T> getItems() {
+            return items;
+        }
+
+        public boolean hasMore() {
+            return nextQuery != null;
+        }
+
+        /**
+         * 下一页的查询条件，没有更多结果时为 null。
+         */
+        public DebugNetSessionQuery nextQuery() {
+            return nextQuery;
+        }
+    }
+
+    public static final class Builder {
+
+        private final File directory;
+        private long maxSegmentBytes = 4L * 1024 * 1024;
+        private long maxTotalBytes = 64L * 1024 * 1024;
+        private long maxAgeMillis = 7L * 24 * 60 * 60 * 1000;
+        private int queueCapacity = 4096;
+
+        public Builder(File directory) {
+            if (directory == null) {
+                throw new IllegalArgumentException("directory == null");
+            }
+            this.directory = directory;
+        }
+
+        /**
+         * 单个分段的大小上限，写满后封存并开始新分段。
+         */
+        public Builder setMaxSegmentBytes(long bytes) {
+            this.maxSegmentBytes = bytes > 64 * 1024 ? bytes : 64 * 1024;
+            return this;
+        }
+
+        /**
+         * 所有分段的总大小上限，超出时删除最旧的分段，小于等于 0 表示不按大小清理。
+         */
+        public Builder setMaxTotalBytes(long bytes) {
+            this.maxTotalBytes = bytes;
+            return this;
+        }
+
+        /**
+         * 分段的最长保留时长，分段内最新记录早于该时长时删除，小于等于 0 表示不按时间清理。
+         */
+        public Builder setMaxAgeMillis(long millis) {
+            this.maxAgeMillis = millis;
+            return this;
+        }
+
+        /**
+         * 分发线程与写线程之间的队列容量（记录条数），向上取整到 2 的幂。
+         */
+        public Builder setQueueCapacity(int capacity) {
+            this.queueCapacity = capacity > 0 ? capacity : 4096;
+            return this;
+        }
+
+        public DebugNetSessionStore build() {
+            return new DebugNetSessionStore(this);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.newchar.debug.net;
+
+import java.util.Locale;
+
+/**
+ * 一个流量 tag 的累计收发字节快照。
+ */
+public final class DebugNetTagStats {
+
+    private final int tag;
+    private final String name;
+    private final long rxBytes;
+    private final long txBytes;
+    private final long callCount;
+
+    DebugNetTagStats(int tag, String name, long rxBytes, long txBytes, long callCount) {
+        this.tag = tag;
+        this.name = name;
+        this.rxBytes = rxBytes;
+        this.txBytes = txBytes;
+        this.callCount = callCount;
+    }
+
+    /**
+     * 传给 TrafficStats.setThreadStatsTag 的 tag 值。
+     */
+    public int getTag() {
+        return tag;
+    }
+
+    /**
+     * 注册 tag 时使用的名字，通常是调用方的包名或业务名。
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getRxBytes() {
+        return rxBytes;
+    }
+
+    public long getTxBytes() {
+        return txBytes;
+    }
+
+    public long getTotalBytes() {
+        return rxBytes + txBytes;
+    }
+
+    /**
+     * 以该 tag 发起的请求数，只统计通过 OkHttp 接入或主动上报的调用。
+     */
+    public long getCallCount() {
+        return callCount;
+    }
+
+    public String getSummaryText() {
+        return String.format(Locale.US, "%s  ↓%s ↑%s  %d次", name, formatBytes(rxBytes), formatBytes(txBytes),
+                callCount);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes >= 1024L * 1024L) {
+            return String.format(Locale.US, "%.1fMB", bytes / 1024d / 1024d);
+        }
+        if (bytes >= 1024L) {
+            return String.format(Locale.US, "%.1fKB", bytes / 1024d);
+        }
+        return bytes + "B";
+    }
+}
@@ -1,5 +1,8 @@
 package com.newchar.debug.net;
 
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * 网络事件监听器。返回 false 可中断后续 listener；默认实现应直接返回 true。
  */
@@ -9,4 +12,20 @@ public interface DebugNetTrafficListener {
      * 处理一次网络事件。listener 可以修改 event 的 displayText/textColor 影响后续展示。
      */
     boolean onTrafficEvent(DebugNetEvent event);
+
+    /**
+     * 批量处理一组网络事件，在分发线程回调。从 events 中移除的 event 不再交给后续 listener，
+     * 与 {@link #onTrafficEvent} 返回 false 的含义一致。
+     *
+     * 默认实现逐个调用 {@link #onTrafficEvent}；需要批量处理的 listener 可以覆盖本方法，
+     * 但不要在回调之外持有 events 本身，它会被分发线程复用。
+     */
+    default void onTrafficEvents(List<DebugNetEvent> events) {
+        Iterator<DebugNetEvent> iterator = events.iterator();
+        while (iterator.hasNext()) {
+            if (!onTrafficEvent(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
 }
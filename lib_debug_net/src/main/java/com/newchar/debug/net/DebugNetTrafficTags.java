@@ -0,0 +1,202 @@
+package com.newchar.debug.net;
+
+import android.net.TrafficStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按调用方归因流量：给线程打上 TrafficStats 的 socket tag，并按 tag 汇总收发字节，用于找出后台流量大户。
+ *
+ * 默认关闭，需要 {@link #setEnabled} 打开。线程 tag 会在 socket 建立连接时由系统记录，可在系统的网络统计中按 tag 查看；
+ * 本类的计数来自 {@link DebugNetOkHttpTagging} 或调用方通过 {@link #record} 主动上报的字节数，
+ * 系统不提供按 tag 实时读取计数的公开接口。
+ */
+public final class DebugNetTrafficTags {
+
+    /** 自动分配的 tag 起点，避开系统保留的 0xFFFFFF00 以上区间和常见的小数值 tag。 */
+    private static final int FIRST_TAG = 0x0DB60000;
+    private static final int UNTAGGED = -1;
+    private static final String OWN_PACKAGE_PREFIX = "com.newchar.debug.net.";
+
+    private static volatile boolean sEnabled;
+    private static final ConcurrentHashMap<String, Integer> TAGS_BY_NAME = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, String> NAMES_BY_TAG = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_TAG = new AtomicInteger(FIRST_TAG);
+    private static final TagCounterTable COUNTERS = new TagCounterTable();
+    private static final TagCounterTable.TagNameResolver NAME_RESOLVER = DebugNetTrafficTags::nameOf;
+
+    private DebugNetTrafficTags() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * 取名字对应的 tag，首次出现时分配一个新值。同一进程内同名总是得到同一个 tag。
+     */
+    public static int tagOf(String name) {
+        String key = name == null || name.isEmpty() ? "unknown" : name;
+        Integer tag = TAGS_BY_NAME.get(key);
+        if (tag != null) {
+            return tag;
+        }
+        synchronized (TAGS_BY_NAME) {
+            tag = TAGS_BY_NAME.get(key);
+            if (tag == null) {
+                tag = NEXT_TAG.getAndIncrement();
+                NAMES_BY_TAG.put(tag, key);
+                TAGS_BY_NAME.put(key, tag);
+            }
+            return tag;
+        }
+    }
+
+    /**
+     * tag 对应的名字，不是本类分配的 tag 时返回十六进制值。
+     */
+    public static String nameOf(int tag) {
+        String name = NAMES_BY_TAG.get(tag);
+        return name != null ? name : "0x" + Integer.toHexString(tag);
+    }
+
+    /**
+     * 当前线程上由本类设置的 tag，没有时返回 0。
+     */
+    public static int currentThreadTag() {
+        int tag = TrafficStats.getThreadStatsTag();
+        return NAMES_BY_TAG.containsKey(tag) ? tag : 0;
+    }
+
+    /**
+     * 给当前线程打上 name 对应的 tag，之后在该线程建立的 socket 都记在这个 tag 下。未开启时不做任何事。
+     *
+     * @return 原来的线程 tag，交给 {@link #endThreadTag} 恢复
+     */
+    public static int beginThreadTag(String name) {
+        int previous = TrafficStats.getThreadStatsTag();
+        if (sEnabled) {
+            TrafficStats.setThreadStatsTag(tagOf(name));
+        }
+        return previous;
+    }
+
+    public static void endThreadTag(int previousTag) {
+        if (previousTag == UNTAGGED) {
+            TrafficStats.clearThreadStatsTag();
+        } else {
+            TrafficStats.setThreadStatsTag(previousTag);
+        }
+    }
+
+    /**
+     * 在 name 对应的 tag 下执行 task，结束后恢复原来的线程 tag。
+     */
+    public static void runTagged(String name, Runnable task) {
+        int previous = beginThreadTag(name);
+        try {
+            task.run();
+        } finally {
+            endThreadTag(previous);
+        }
+    }
+
+    /**
+     * 上报一段已知归属的流量。未开启或 tag 为 0 时忽略。
+     */
+    public static void record(int tag, long rxBytes, long txBytes) {
+        record(tag, rxBytes, txBytes, 0L);
+    }
+
+    public static void record(String name, long rxBytes, long txBytes) {
+        if (sEnabled) {
+            record(tagOf(name), rxBytes, txBytes, 0L);
+        }
+    }
+
+    static void record(int tag, long rxBytes, long txBytes, long calls) {
+        if (sEnabled && tag != 0) {
+            COUNTERS.add(tag, Math.max(0L, rxBytes), Math.max(0L, txBytes), calls);
+        }
+    }
+
+    /**
+     * 按收发总量降序取前 limit 个 tag。
+     */
+    public static List<DebugNetTagStats> getTopTalkers(int limit) {
+        List<DebugNetTagStats> stats = COUNTERS.snapshot(NAME_RESOLVER);
+        sortByTotalBytes(stats);
+        return stats.size() > limit ? new ArrayList<>(stats.subList(0, Math.max(0, limit))) : stats;
+    }
+
+    /**
+     * 增量读取：把 sinceVersion 之后变化过的 tag 加入 out，供界面只合并变化的部分。
+     * 首次传 0；{@link #reset} 之后返回的版本号会变化，但已清空的 tag 不会出现在 out 中，调用方需要自行清空。
+     *
+     * @return 新的版本号
+     */
+    public static long collectChanges(long sinceVersion, List<DebugNetTagStats> out) {
+        return COUNTERS.collectSince(sinceVersion, NAME_RESOLVER, out);
+    }
+
+    public static long getVersion() {
+        return COUNTERS.getVersion();
+    }
+
+    /**
+     * 清空计数，已分配的 tag 保持不变。
+     */
+    public static void reset() {
+        COUNTERS.clear();
+    }
+
+    public static void sortByTotalBytes(List<DebugNetTagStats> stats) {
+        Collections.sort(stats, (left, right) -> Long.compare(right.getTotalBytes(), left.getTotalBytes()));
+    }
+
+    /**
+     * 从调用栈里找出第一个不属于网络库、系统库和本模块的帧，取其包名前三段作为调用方名字，例如 com.foo.sdk。
+     */
+    static String callSiteOf(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+            if (isFrameworkClass(className)) {
+                continue;
+            }
+            int end = -1;
+            for (int i = 0; i < 3; i++) {
+                int dot = className.indexOf('.', end + 1);
+                if (dot < 0) {
+                    break;
+                }
+                end = dot;
+            }
+            return end > 0 ? className.substring(0, end) : className;
+        }
+        return "unknown";
+    }
+
+    private static boolean isFrameworkClass(String className) {
+        return className.startsWith("okhttp3.")
+                || className.startsWith("okio.")
+                || className.startsWith("retrofit2.")
+                || className.startsWith("java.")
+                || className.startsWith("javax.")
+                || className.startsWith("kotlin.")
+                || className.startsWith("kotlinx.")
+                || className.startsWith("android.")
+                || className.startsWith("androidx.")
+                || className.startsWith("dalvik.")
+                || className.startsWith("com.android.")
+                || className.startsWith("sun.")
+                || className.startsWith(OWN_PACKAGE_PREFIX);
+    }
+}
@@ -11,14 +11,19 @@ import android.util.Log;
 import com.newchar.debug.utils.HandleWrapper;
 
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.net.DatagramSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 基于 VpnService 的当前 App 流量捕获服务。
  *
- * 注意：当前实现只负责从 TUN 捕获并解析包头，用于调试展示；未实现完整 TCP/IP 转发栈。
+ * 捕获线程只负责从 TUN 读包，之后交给 {@link ForwardingEngine} 通过 protect 过的 socket 转发出去并把响应写回 TUN，
+ * 上下行包都在转发线程进入解析流水线。
  */
 public class DebugNetVpnService extends VpnService {
 
@@ -28,6 +33,10 @@ public class DebugNetVpnService extends VpnService {
     private static final String TAG = "DebugNetVpn";
     private static final int VPN_MTU = 1500;
     private static final int BUFFER_SIZE = 32767;
+    /** 读出的包要在转发线程处理完才归还，池比同步解析时大一些。 */
+    private static final int BUFFER_POOL_SIZE = 64;
+
+    static final PacketBufferPool PACKET_BUFFER_POOL = new PacketBufferPool(BUFFER_POOL_SIZE, BUFFER_SIZE);
 
     private final AtomicBoolean mRunning = new AtomicBoolean(false);
     private ParcelFileDescriptor mTunInterface;
@@ -88,27 +97,57 @@ public class DebugNetVpnService extends VpnService {
     }
 
     private void captureLoop() {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        try (FileInputStream inputStream = new FileInputStream(mTunInterface.getFileDescriptor())) {
-            while (mRunning.get()) {
-                int length = inputStream.read(buffer);
-                if (length <= 0) {
-                    continue;
+        ForwardingEngine engine = null;
+        try (FileInputStream inputStream = new FileInputStream(mTunInterface.getFileDescriptor());
+             FileChannel channel = inputStream.getChannel();
+             FileOutputStream outputStream = new FileOutputStream(mTunInterface.getFileDescriptor());
+             FileChannel tunOutput = outputStream.getChannel()) {
+            engine = new ForwardingEngine(PACKET_BUFFER_POOL, tunOutput, mSocketProtector, VPN_MTU);
+            engine.start();
+            while (mRunning.get() && engine.isRunning()) {
+                ByteBuffer buffer = PACKET_BUFFER_POOL.acquire();
+                boolean handedOff = false;
+                try {
+                    int length = channel.read(buffer);
+                    if (length <= 0) {
+                        continue;
+                    }
+                    DebugNetPcapSink pcapSink = DebugNetMonitor.getPcapSink();
+                    if (pcapSink != null) {
+                        pcapSink.offer(buffer.array(), length, TrafficDirection.UPLOAD, System.currentTimeMillis());
+                    }
+                    // 缓冲区交给转发线程解析与转发，由它处理完后归还。
+                    handedOff = engine.offerUplink(buffer);
+                } finally {
+                    if (!handedOff) {
+                        PACKET_BUFFER_POOL.release(buffer);
+                    }
                 }
-                byte[] packet = Arrays.copyOf(buffer, length);
-                DebugNetEvent event = IpPacketParser.parse(packet, length, TrafficDirection.UPLOAD);
-                // 当前实现仅解析包头；后续可在此接入会话重组/HTTP 解析/TLS 解密并填充 event 的 path/status 等字段。
-                DebugNetMonitor.dispatch(event);
             }
         } catch (IOException e) {
             if (mRunning.get()) {
                 Log.e(TAG, "captureLoop failed", e);
             }
         } finally {
+            if (engine != null) {
+                engine.stop();
+            }
             stopCapture();
         }
     }
 
+    private final ForwardingEngine.SocketProtector mSocketProtector = new ForwardingEngine.SocketProtector() {
+        @Override
+        public boolean protect(Socket socket) {
+            return DebugNetVpnService.this.protect(socket);
+        }
+
+        @Override
+        public boolean protect(DatagramSocket socket) {
+            return DebugNetVpnService.this.protect(socket);
+        }
+    };
+
     private void stopCapture() {
         if (!mRunning.getAndSet(false)) {
             closeTunInterface();
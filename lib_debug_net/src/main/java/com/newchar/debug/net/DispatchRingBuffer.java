@@ -0,0 +1,104 @@
+package com.newchar.debug.net;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁环形队列（按槽位序号协调的 Vyukov 队列），多个生产者并发写入，分发线程批量取出。
+ *
+ * 取出操作同样是无锁的，因此 DROP_OLDEST 策略下生产者可以直接弹出最旧的元素腾出位置。
+ */
+final class DispatchRingBuffer<T> {
+
+    private final int mMask;
+    private final AtomicReferenceArray<T> mItems;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+
+    DispatchRingBuffer(int capacity) {
+        int size = roundCapacity(capacity);
+        mMask = size - 1;
+        mItems = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * 实际容量为不小于 capacity 的 2 的幂。
+     */
+    static int roundCapacity(int capacity) {
+        return Integer.highestOneBit(Math.max(1, Math.min(capacity, 1 << 30) - 1)) << 1;
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * 近似的当前元素数量，仅用于统计与采样判断。
+     */
+    int size() {
+        long size = mTail.get() - mHead.get();
+        return (int) Math.max(0L, Math.min(size, capacity()));
+    }
+
+    boolean isEmpty() {
+        return mTail.get() == mHead.get();
+    }
+
+    /**
+     * 队列已满时返回 false，不阻塞。
+     */
+    boolean offer(T item) {
+        while (true) {
+            long tail = mTail.get();
+            int index = (int) tail & mMask;
+            long difference = mSequences.get(index) - tail;
+            if (difference == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mItems.lazySet(index, item);
+                    mSequences.set(index, tail + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    T poll() {
+        while (true) {
+            long head = mHead.get();
+            int index = (int) head & mMask;
+            long difference = mSequences.get(index) - (head + 1);
+            if (difference == 0) {
+                if (mHead.compareAndSet(head, head + 1)) {
+                    T item = mItems.get(index);
+                    mItems.lazySet(index, null);
+                    mSequences.set(index, head + mMask + 1);
+                    return item;
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 最多取出 maxCount 个元素追加到 target，返回取出的数量。
+     */
+    int drainTo(List<T> target, int maxCount) {
+        int count = 0;
+        T item;
+        while (count < maxCount && (item = poll()) != null) {
+            target.add(item);
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,143 @@
+package com.newchar.debug.net;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * IP -> 主机名缓存，数据来自 TUN 上嗅探到的 DNS 应答，用于给只有 IP 的连接打标签。
+ *
+ * 8 路组相联：地址哈希到一组 8 个槽位，读者只扫描这一组并读取不可变的 entry，不加锁；
+ * 写入在组内优先复用同地址、空闲或已过期的槽位，否则按二次机会近似 LRU 淘汰。容量固定，不会增长。
+ */
+final class DnsCache {
+
+    static final int DEFAULT_CAPACITY = 4096;
+    /** 应答 TTL 往往很短，而 App 建连会晚于解析，按至少 60 秒保留。 */
+    static final long MIN_TTL_MILLIS = 60_000L;
+    static final long MAX_TTL_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int WAYS = 8;
+
+    private final AtomicReferenceArray<Entry> mEntries;
+    private final int mSetMask;
+
+    DnsCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    DnsCache(int capacity) {
+        int size = DispatchRingBuffer.roundCapacity(Math.max(WAYS, capacity));
+        mEntries = new AtomicReferenceArray<>(size);
+        mSetMask = (size - 1) & ~(WAYS - 1);
+    }
+
+    int capacity() {
+        return mEntries.length();
+    }
+
+    /**
+     * 任意线程可调用，无锁。未命中或已过期返回 null。
+     */
+    String lookup(boolean ipv6, long high, long low, long nowMillis) {
+        int base = setIndex(ipv6, high, low);
+        for (int i = 0; i < WAYS; i++) {
+            Entry entry = mEntries.get(base + i);
+            if (entry != null && entry.matches(ipv6, high, low)) {
+                if (entry.expiresAtMillis <= nowMillis) {
+                    return null;
+                }
+                entry.referenced = true;
+                return entry.host;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 写入一条记录，ttlMillis 会被限制在 [MIN_TTL_MILLIS, MAX_TTL_MILLIS]。写者之间串行。
+     */
+    synchronized void put(boolean ipv6, long high, long low, String host, long ttlMillis, long nowMillis) {
+        if (host == null || host.isEmpty()) {
+            return;
+        }
+        long ttl = Math.max(MIN_TTL_MILLIS, Math.min(ttlMillis, MAX_TTL_MILLIS));
+        Entry replacement = new Entry(ipv6, high, low, host, nowMillis, nowMillis + ttl);
+        int base = setIndex(ipv6, high, low);
+        int victim = -1;
+        for (int i = 0; i < WAYS; i++) {
+            Entry entry = mEntries.get(base + i);
+            if (entry == null || entry.matches(ipv6, high, low)) {
+                victim = base + i;
+                break;
+            }
+            if (victim < 0 && entry.expiresAtMillis <= nowMillis) {
+                victim = base + i;
+            }
+        }
+        if (victim < 0) {
+            victim = clockVictim(base);
+        }
+        mEntries.set(victim, replacement);
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < mEntries.length(); i++) {
+            mEntries.set(i, null);
+        }
+    }
+
+    /**
+     * 二次机会：在最近未被读到的 entry 里淘汰最早写入的；全部被读过时清掉引用位，淘汰组内最早写入的。
+     */
+    private int clockVictim(int base) {
+        int oldest = -1;
+        int oldestUnreferenced = -1;
+        for (int i = base; i < base + WAYS; i++) {
+            Entry entry = mEntries.get(i);
+            if (!entry.referenced && (oldestUnreferenced < 0
+                    || entry.createdAtMillis < mEntries.get(oldestUnreferenced).createdAtMillis)) {
+                oldestUnreferenced = i;
+            }
+            if (oldest < 0 || entry.createdAtMillis < mEntries.get(oldest).createdAtMillis) {
+                oldest = i;
+            }
+        }
+        if (oldestUnreferenced >= 0) {
+            return oldestUnreferenced;
+        }
+        for (int i = base; i < base + WAYS; i++) {
+            mEntries.get(i).referenced = false;
+        }
+        return oldest;
+    }
+
+    private int setIndex(boolean ipv6, long high, long low) {
+        long h = low * 0x9E3779B97F4A7C15L ^ (high + (ipv6 ? 1 : 0)) * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 31;
+        return (int) (h ^ (h >>> 32)) & mSetMask;
+    }
+
+    private static final class Entry {
+
+        final boolean ipv6;
+        final long high;
+        final long low;
+        final String host;
+        final long createdAtMillis;
+        final long expiresAtMillis;
+        /** 读者命中时置位，写者淘汰时清除；竞争下丢失一次置位只影响淘汰精度。 */
+        volatile boolean referenced;
+
+        Entry(boolean ipv6, long high, long low, String host, long createdAtMillis, long expiresAtMillis) {
+            this.ipv6 = ipv6;
+            this.high = high;
+            this.low = low;
+            this.host = host;
+            this.createdAtMillis = createdAtMillis;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        boolean matches(boolean ipv6, long high, long low) {
+            return this.low == low && this.high == high && this.ipv6 == ipv6;
+        }
+    }
+}
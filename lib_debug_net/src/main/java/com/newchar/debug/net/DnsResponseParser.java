@@ -0,0 +1,137 @@
+package com.newchar.debug.net;
+
+/**
+ * 解析 UDP/53 的 DNS 应答，把 A/AAAA 记录写入 {@link DnsCache}。
+ *
+ * 标签使用查询名（第一个 question），而不是 CNAME 链末端的 CDN 域名，这样连接上显示的是 App 实际请求的主机。
+ */
+final class DnsResponseParser {
+
+    static final int DNS_PORT = 53;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int TYPE_A = 1;
+    private static final int TYPE_AAAA = 28;
+    private static final int CLASS_IN = 1;
+    private static final int MAX_NAME_LENGTH = 255;
+    /** 压缩指针最多跟随的次数，防止恶意或损坏的报文造成死循环。 */
+    private static final int MAX_POINTER_JUMPS = 16;
+
+    private DnsResponseParser() {
+    }
+
+    /**
+     * @return 写入缓存的地址记录数
+     */
+    static int parse(byte[] packet, int offset, int length, DnsCache cache, long nowMillis) {
+        int end = offset + length;
+        if (length < HEADER_SIZE) {
+            return 0;
+        }
+        int flags = readUnsignedShort(packet, offset + 2);
+        // 必须是应答（QR=1）且 RCODE=0
+        if ((flags & 0x8000) == 0 || (flags & 0x000F) != 0) {
+            return 0;
+        }
+        int questionCount = readUnsignedShort(packet, offset + 4);
+        int answerCount = readUnsignedShort(packet, offset + 6);
+        if (questionCount == 0 || answerCount == 0) {
+            return 0;
+        }
+        int cursor = offset + HEADER_SIZE;
+        String queryName = readName(packet, offset, cursor, end);
+        if (queryName == null) {
+            return 0;
+        }
+        for (int i = 0; i < questionCount; i++) {
+            cursor = skipName(packet, cursor, end);
+            if (cursor < 0 || cursor + 4 > end) {
+                return 0;
+            }
+            cursor += 4;
+        }
+        int stored = 0;
+        for (int i = 0; i < answerCount; i++) {
+            cursor = skipName(packet, cursor, end);
+            if (cursor < 0 || cursor + 10 > end) {
+                return stored;
+            }
+            int type = readUnsignedShort(packet, cursor);
+            int recordClass = readUnsignedShort(packet, cursor + 2);
+            long ttlSeconds = IpPacketParser.readInt(packet, cursor + 4) & 0xFFFFFFFFL;
+            int dataLength = readUnsignedShort(packet, cursor + 8);
+            int data = cursor + 10;
+            if (data + dataLength > end) {
+                return stored;
+            }
+            if (recordClass == CLASS_IN && type == TYPE_A && dataLength == 4) {
+                cache.put(false, 0L, IpPacketParser.readInt(packet, data) & 0xFFFFFFFFL, queryName,
+                        ttlSeconds * 1000L, nowMillis);
+                stored++;
+            } else if (recordClass == CLASS_IN && type == TYPE_AAAA && dataLength == 16) {
+                cache.put(true, IpPacketParser.readLong(packet, data), IpPacketParser.readLong(packet, data + 8),
+                        queryName, ttlSeconds * 1000L, nowMillis);
+                stored++;
+            }
+            cursor = data + dataLength;
+        }
+        return stored;
+    }
+
+    /**
+     * 跳过一个可能以压缩指针结尾的名字，返回其后的位置；格式错误返回 -1。
+     */
+    private static int skipName(byte[] packet, int cursor, int end) {
+        while (cursor < end) {
+            int labelLength = packet[cursor] & 0xFF;
+            if (labelLength == 0) {
+                return cursor + 1;
+            }
+            if ((labelLength & 0xC0) == 0xC0) {
+                return cursor + 2 <= end ? cursor + 2 : -1;
+            }
+            if ((labelLength & 0xC0) != 0) {
+                return -1;
+            }
+            cursor += 1 + labelLength;
+        }
+        return -1;
+    }
+
+    /**
+     * 读出名字文本（跟随压缩指针，指针相对于 DNS 报文起点 messageOffset）。格式错误返回 null。
+     */
+    private static String readName(byte[] packet, int messageOffset, int cursor, int end) {
+        StringBuilder builder = new StringBuilder(32);
+        int jumps = 0;
+        while (cursor < end) {
+            int labelLength = packet[cursor] & 0xFF;
+            if (labelLength == 0) {
+                return builder.length() == 0 ? null : builder.toString();
+            }
+            if ((labelLength & 0xC0) == 0xC0) {
+                if (cursor + 2 > end || ++jumps > MAX_POINTER_JUMPS) {
+                    return null;
+                }
+                cursor = messageOffset + (readUnsignedShort(packet, cursor) & 0x3FFF);
+                continue;
+            }
+            if ((labelLength & 0xC0) != 0 || cursor + 1 + labelLength > end
+                    || builder.length() + labelLength + 1 > MAX_NAME_LENGTH) {
+                return null;
+            }
+            if (builder.length() > 0) {
+                builder.append('.');
+            }
+            for (int i = cursor + 1; i <= cursor + labelLength; i++) {
+                builder.append((char) (packet[i] & 0xFF));
+            }
+            cursor += 1 + labelLength;
+        }
+        return null;
+    }
+
+    private static int readUnsignedShort(byte[] packet, int offset) {
+        return ((packet[offset] & 0xFF) << 8) | (packet[offset + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,230 @@
+package com.newchar.debug.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界、批量的 event 分发器。捕获线程只把 event 写入环形队列，由 executor 上的单个 drain 任务批量取出，
+ * 依次做后处理并以批量方式回调 listener。同一时刻最多只有一个 drain 任务在排队，不再每个包投递一次。
+ *
+ * 后处理由 {@link PostProcessorChain} 执行。带异步处理器时 event 先进入按到达顺序排列的在途队列，
+ * 队头完成或超时后才交付，listener 仍然只在 drain 任务中按原顺序收到 event；在途数量有上限，
+ * 达到上限后暂停从环形队列取数，由溢出策略处理积压。
+ */
+final class EventDispatcher {
+
+    /**
+     * 延迟执行，用于在队头异步处理超时时唤醒 drain。
+     */
+    interface Scheduler {
+
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    /** 单批最多处理的 event 数量。 */
+    static final int MAX_BATCH_SIZE = 256;
+    /** 单次 drain 最多处理的批次数，超过后重新投递，给 worker 上的其他任务让出时间。 */
+    private static final int MAX_BATCHES_PER_DRAIN = 8;
+    /** 等待异步后处理的 event 上限。 */
+    static final int MAX_IN_FLIGHT = 1024;
+
+    private final DispatchRingBuffer<DebugNetEvent> mQueue;
+    private final Executor mExecutor;
+    private final Scheduler mScheduler;
+    private final PostProcessorChain mChain;
+    private final List<DebugNetTrafficListener> mListeners;
+    private final AtomicLong mDroppedCount;
+    private final AtomicLong mSampleCounter = new AtomicLong();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final ArrayList<DebugNetEvent> mBatch = new ArrayList<>(MAX_BATCH_SIZE);
+    private final ArrayList<DebugNetEvent> mIncoming = new ArrayList<>(MAX_BATCH_SIZE);
+    /** 只在 drain 任务中访问。 */
+    private final ArrayDeque<PostProcessorChain.Run> mInFlight = new ArrayDeque<>();
+    private final AtomicBoolean mTimeoutCheckScheduled = new AtomicBoolean();
+    private final Runnable mDrainTask = this::drain;
+    private final Runnable mScheduleDrainTask = this::scheduleDrain;
+    private final Runnable mTimeoutCheckTask = () -> {
+        mTimeoutCheckScheduled.set(false);
+        scheduleDrain();
+    };
+    private volatile DebugNetOverflowPolicy mPolicy;
+
+    /**
+     * @param droppedCount 丢弃计数，可在多个 dispatcher 之间共享，以便替换队列后计数不归零
+     */
+    EventDispatcher(Executor executor, Scheduler scheduler, PostProcessorChain chain,
+                    List<DebugNetTrafficListener> listeners, int capacity,
+                    DebugNetOverflowPolicy policy, AtomicLong droppedCount) {
+        mQueue = new DispatchRingBuffer<>(capacity);
+        mExecutor = executor;
+        mScheduler = scheduler;
+        mChain = chain;
+        mListeners = listeners;
+        mPolicy = policy != null ? policy : DebugNetOverflowPolicy.DROP_OLDEST;
+        mDroppedCount = droppedCount != null ? droppedCount : new AtomicLong();
+    }
+
+    int getCapacity() {
+        return mQueue.capacity();
+    }
+
+    int getPendingCount() {
+        return mQueue.size();
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    void setOverflowPolicy(DebugNetOverflowPolicy policy) {
+        mPolicy = policy != null ? policy : DebugNetOverflowPolicy.DROP_OLDEST;
+    }
+
+    /**
+     * 可在任意线程调用，不阻塞。返回 false 表示 event 被溢出策略丢弃。
+     */
+    boolean dispatch(DebugNetEvent event) {
+        if (event == null) {
+            return false;
+        }
+        if (!enqueue(event)) {
+            mDroppedCount.incrementAndGet();
+            return false;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    private boolean enqueue(DebugNetEvent event) {
+        DebugNetOverflowPolicy policy = mPolicy;
+        if (policy == DebugNetOverflowPolicy.SAMPLE && !shouldSample()) {
+            return false;
+        }
+        if (mQueue.offer(event)) {
+            return true;
+        }
+        if (policy != DebugNetOverflowPolicy.DROP_OLDEST) {
+            return false;
+        }
+        // 队列满时弹出最旧的腾位置；与其他生产者竞争失败几次后放弃新 event
+        for (int i = 0; i < 4; i++) {
+            if (mQueue.poll() != null) {
+                mDroppedCount.incrementAndGet();
+            }
+            if (mQueue.offer(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 队列过半后 1/4 抽样，过 3/4 后 1/16 抽样。
+     */
+    private boolean shouldSample() {
+        int size = mQueue.size();
+        int capacity = mQueue.capacity();
+        int mask;
+        if (size >= capacity - (capacity >> 2)) {
+            mask = 15;
+        } else if (size >= capacity >> 1) {
+            mask = 3;
+        } else {
+            return true;
+        }
+        return (mSampleCounter.getAndIncrement() & mask) == 0;
+    }
+
+    private void scheduleDrain() {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    private void drain() {
+        ArrayList<DebugNetEvent> batch = mBatch;
+        for (int i = 0; i < MAX_BATCHES_PER_DRAIN; i++) {
+            batch.clear();
+            int polled;
+            if (mInFlight.isEmpty() && mChain.isEmpty()) {
+                // 没有后处理也没有在途 event 时直接交付，不创建 Run
+                polled = mQueue.drainTo(batch, MAX_BATCH_SIZE);
+            } else {
+                polled = startPostProcessing();
+                collectFinished(batch);
+            }
+            if (batch.isEmpty()) {
+                if (polled == 0) {
+                    break;
+                }
+                continue;
+            }
+            deliver(batch);
+        }
+        batch.clear();
+        mDrainScheduled.set(false);
+        // 置位之后再检查一次，避免生产者在置位前写入却没有触发新的 drain
+        PostProcessorChain.Run head = mInFlight.peekFirst();
+        if ((!mQueue.isEmpty() && mInFlight.size() < MAX_IN_FLIGHT) || (head != null && head.isFinished())) {
+            scheduleDrain();
+        } else if (head != null && mTimeoutCheckScheduled.compareAndSet(false, true)) {
+            long delayNanos = head.deadlineNanos - System.nanoTime();
+            mScheduler.schedule(mTimeoutCheckTask, Math.max(1L, TimeUnit.NANOSECONDS.toMillis(delayNanos) + 1));
+        }
+    }
+
+    /**
+     * 从环形队列取一批 event 开始后处理，同步部分在此完成，带异步处理器的留在在途队列中。
+     */
+    private int startPostProcessing() {
+        int room = Math.min(MAX_BATCH_SIZE, MAX_IN_FLIGHT - mInFlight.size());
+        if (room <= 0) {
+            return 0;
+        }
+        ArrayList<DebugNetEvent> incoming = mIncoming;
+        int polled = mQueue.drainTo(incoming, room);
+        for (int i = 0; i < polled; i++) {
+            mInFlight.addLast(mChain.start(incoming.get(i), mScheduleDrainTask));
+        }
+        incoming.clear();
+        return polled;
+    }
+
+    /**
+     * 按到达顺序取出已完成或已超时的 event，遇到仍在处理且未超时的队头即停止。
+     */
+    private void collectFinished(ArrayList<DebugNetEvent> batch) {
+        long now = System.nanoTime();
+        PostProcessorChain.Run run;
+        while (batch.size() < MAX_BATCH_SIZE && (run = mInFlight.peekFirst()) != null) {
+            if (!run.isFinished() && !mChain.expire(run, now)) {
+                return;
+            }
+            mInFlight.pollFirst();
+            batch.add(run.current);
+        }
+    }
+
+    private void deliver(ArrayList<DebugNetEvent> batch) {
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            batch.get(i).refreshTexts();
+        }
+        for (DebugNetTrafficListener listener : mListeners) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (listener == null) {
+                continue;
+            }
+            try {
+                listener.onTrafficEvents(batch);
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.newchar.debug.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 5 元组聚合包统计的连接表。开放寻址 + 线性探测，键值都放在原始类型数组里，更新一个包不分配对象。
+ *
+ * 键以 (本地端, 远端) 区分：上行包的源地址为本地端，下行包的目的地址为本地端。只在捕获线程使用。
+ */
+final class FlowTable {
+
+    static final int DEFAULT_CAPACITY = 4096;
+    static final long IDLE_TIMEOUT_MS = 120_000L;
+    static final long CLOSED_LINGER_MS = 5_000L;
+
+    private static final int STATE_USED = 1;
+    private static final int STATE_IPV6 = 1 << 1;
+    private static final int STATE_DIRTY = 1 << 2;
+    private static final int STATE_CLOSED = 1 << 3;
+    private static final int STATE_RTT_PENDING = 1 << 4;
+    private static final int STATE_TLS_SCANNED = 1 << 5;
+
+    private final int mMask;
+    private final int mMaxSize;
+    private final int[] mState;
+    private final int[] mProtocol;
+    private final long[] mLocalHigh;
+    private final long[] mLocalLow;
+    private final long[] mRemoteHigh;
+    private final long[] mRemoteLow;
+    private final int[] mPorts;
+    private final long[] mFlowId;
+    private final long[] mPackets;
+    private final long[] mBytesUp;
+    private final long[] mBytesDown;
+    private final long[] mFirstMillis;
+    private final long[] mLastMillis;
+    private final int[] mSmoothedRttMillis;
+    private final int[] mRttPendingSequence;
+    private final long[] mRttPendingMillis;
+    private final String[] mHosts;
+    private final String[] mAlpns;
+    private int mSize;
+    private long mNextFlowId = 1;
+    /**
+     * 表满时被淘汰的连接，以 closed 状态随下一次 {@link #collectUpdates(long)} 上报。
+     */
+    private List<DebugNetFlow> mEvicted;
+
+    FlowTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    FlowTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        mMask = size - 1;
+        mMaxSize = size * 3 / 4;
+        mState = new int[size];
+        mProtocol = new int[size];
+        mLocalHigh = new long[size];
+        mLocalLow = new long[size];
+        mRemoteHigh = new long[size];
+        mRemoteLow = new long[size];
+        mPorts = new int[size];
+        mFlowId = new long[size];
+        mPackets = new long[size];
+        mBytesUp = new long[size];
+        mBytesDown = new long[size];
+        mFirstMillis = new long[size];
+        mLastMillis = new long[size];
+        mSmoothedRttMillis = new int[size];
+        mRttPendingSequence = new int[size];
+        mRttPendingMillis = new long[size];
+        mHosts = new String[size];
+        mAlpns = new String[size];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * 把一个包计入所属连接，返回连接所在槽位；表满且无法淘汰时返回 -1。
+     */
+    int update(PacketHeader header, TrafficDirection direction, long nowMillis) {
+        boolean upload = direction != TrafficDirection.DOWNLOAD;
+        long localHigh = upload ? header.sourceHigh : header.destinationHigh;
+        long localLow = upload ? header.sourceLow : header.destinationLow;
+        long remoteHigh = upload ? header.destinationHigh : header.sourceHigh;
+        long remoteLow = upload ? header.destinationLow : header.sourceLow;
+        int localPort = upload ? header.sourcePort : header.destinationPort;
+        int remotePort = upload ? header.destinationPort : header.sourcePort;
+        int ports = (localPort << 16) | (remotePort & 0xFFFF);
+        int slot = find(header.protocol, header.ipv6, localHigh, localLow, remoteHigh, remoteLow, ports);
+        if (slot < 0) {
+            if (mSize >= mMaxSize) {
+                evictOldest();
+            }
+            if (mSize >= mMaxSize) {
+                return -1;
+            }
+            slot = insert(header.protocol, header.ipv6, localHigh, localLow, remoteHigh, remoteLow, ports,
+                    nowMillis);
+        }
+        mPackets[slot]++;
+        if (upload) {
+            mBytesUp[slot] += header.length;
+        } else {
+            mBytesDown[slot] += header.length;
+        }
+        mLastMillis[slot] = nowMillis;
+        mState[slot] |= STATE_DIRTY;
+        if (header.isTcp()) {
+            updateTcp(slot, header, upload, nowMillis);
+        }
+        return slot;
+    }
+
+    void setHost(int slot, String host) {
+        if (slot >= 0 && host != null && !host.isEmpty() && !host.equals(mHosts[slot])) {
+            mHosts[slot] = host;
+            mState[slot] |= STATE_DIRTY;
+        }
+    }
+
+    String getHost(int slot) {
+        return slot < 0 ? null : mHosts[slot];
+    }
+
+    void setAlpn(int slot, String alpn) {
+        if (slot >= 0 && alpn != null && !alpn.isEmpty() && !alpn.equals(mAlpns[slot])) {
+            mAlpns[slot] = alpn;
+            mState[slot] |= STATE_DIRTY;
+        }
+    }
+
+    String getAlpn(int slot) {
+        return slot < 0 ? null : mAlpns[slot];
+    }
+
+    /**
+     * ClientHello 是否已经识别完（或确认不是 TLS），之后同一连接的包不再扫描。
+     */
+    boolean isTlsScanned(int slot) {
+        return slot < 0 || (mState[slot] & STATE_TLS_SCANNED) != 0;
+    }
+
+    void markTlsScanned(int slot) {
+        if (slot >= 0) {
+            mState[slot] |= STATE_TLS_SCANNED;
+        }
+    }
+
+    long getFlowId(int slot) {
+        return slot < 0 ? 0L : mFlowId[slot];
+    }
+
+    /**
+     * 收集自上次调用以来有变化的连接快照，并移除已关闭或空闲超时的连接（移除前会以 closed 状态再上报一次）；
+     * 表满时被淘汰的连接同样以 closed 状态上报。
+     */
+    List<DebugNetFlow> collectUpdates(long nowMillis) {
+        List<DebugNetFlow> updates = mEvicted;
+        mEvicted = null;
+        for (int slot = 0; slot <= mMask; slot++) {
+            int state = mState[slot];
+            if ((state & STATE_USED) == 0) {
+                continue;
+            }
+            boolean expired = nowMillis - mLastMillis[slot] > IDLE_TIMEOUT_MS
+                    || ((state & STATE_CLOSED) != 0 && nowMillis - mLastMillis[slot] > CLOSED_LINGER_MS);
+            if ((state & STATE_DIRTY) == 0 && !expired) {
+                continue;
+            }
+            if (updates == null) {
+                updates = new ArrayList<>();
+            }
+            updates.add(snapshot(slot, expired));
+            mState[slot] = state & ~STATE_DIRTY;
+            if (expired) {
+                remove(slot);
+                // 后移删除可能把后面的元素挪到当前槽位，需要重新检查这个槽位。
+                slot--;
+            }
+        }
+        return updates;
+    }
+
+    void clear() {
+        for (int slot = 0; slot <= mMask; slot++) {
+            mState[slot] = 0;
+            mHosts[slot] = null;
+            mAlpns[slot] = null;
+        }
+        mSize = 0;
+        mEvicted = null;
+    }
+
+    private void updateTcp(int slot, PacketHeader header, boolean upload, long nowMillis) {
+        if (header.hasTcpFlag(PacketHeader.TCP_FIN) || header.hasTcpFlag(PacketHeader.TCP_RST)) {
+            mState[slot] |= STATE_CLOSED;
+        }
+        // 以 "上行数据段 -> 覆盖它的下行 ACK" 的间隔估算 RTT，每次只跟踪一个样本，平滑方式与 RFC 6298 一致。
+        if (upload) {
+            int advance = header.payloadLength + (header.hasTcpFlag(PacketHeader.TCP_SYN) ? 1 : 0);
+            if (advance > 0 && (mState[slot] & STATE_RTT_PENDING) == 0) {
+                mRttPendingSequence[slot] = header.tcpSequence + advance;
+                mRttPendingMillis[slot] = nowMillis;
+                mState[slot] |= STATE_RTT_PENDING;
+            }
+        } else if ((mState[slot] & STATE_RTT_PENDING) != 0 && header.hasTcpFlag(PacketHeader.TCP_ACK)
+                && header.tcpAcknowledgement - mRttPendingSequence[slot] >= 0) {
+            int sample = (int) Math.max(0L, nowMillis - mRttPendingMillis[slot]);
+            int smoothed = mSmoothedRttMillis[slot];
+            mSmoothedRttMillis[slot] = smoothed == 0 ? Math.max(1, sample) : (smoothed * 7 + sample) / 8;
+            mState[slot] &= ~STATE_RTT_PENDING;
+        }
+    }
+
+    private DebugNetFlow snapshot(int slot, boolean closed) {
+        int ports = mPorts[slot];
+        return new DebugNetFlow(mFlowId[slot], mProtocol[slot], (mState[slot] & STATE_IPV6) != 0,
+                mLocalHigh[slot], mLocalLow[slot], ports >>> 16,
+                mRemoteHigh[slot], mRemoteLow[slot], ports & 0xFFFF,
+                mHosts[slot], mAlpns[slot], mPackets[slot], mBytesUp[slot], mBytesDown[slot],
+                mFirstMillis[slot], mLastMillis[slot], mSmoothedRttMillis[slot],
+                closed || (mState[slot] & STATE_CLOSED) != 0);
+    }
+
+    private int find(int protocol, boolean ipv6, long localHigh, long localLow, long remoteHigh, long remoteLow,
+            int ports) {
+        int slot = hash(protocol, localHigh, localLow, remoteHigh, remoteLow, ports) & mMask;
+        while ((mState[slot] & STATE_USED) != 0) {
+            if (mPorts[slot] == ports && mLocalLow[slot] == localLow && mRemoteLow[slot] == remoteLow
+                    && mLocalHigh[slot] == localHigh && mRemoteHigh[slot] == remoteHigh
+                    && mProtocol[slot] == protocol && ((mState[slot] & STATE_IPV6) != 0) == ipv6) {
+                return slot;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return -1;
+    }
+
+    private int insert(int protocol, boolean ipv6, long localHigh, long localLow, long remoteHigh, long remoteLow,
+            int ports, long nowMillis) {
+        int slot = hash(protocol, localHigh, localLow, remoteHigh, remoteLow, ports) & mMask;
+        while ((mState[slot] & STATE_USED) != 0) {
+            slot = (slot + 1) & mMask;
+        }
+        mState[slot] = STATE_USED | (ipv6 ? STATE_IPV6 : 0);
+        mProtocol[slot] = protocol;
+        mLocalHigh[slot] = localHigh;
+        mLocalLow[slot] = localLow;
+        mRemoteHigh[slot] = remoteHigh;
+        mRemoteLow[slot] = remoteLow;
+        mPorts[slot] = ports;
+        mFlowId[slot] = mNextFlowId++;
+        mPackets[slot] = 0L;
+        mBytesUp[slot] = 0L;
+        mBytesDown[slot] = 0L;
+        mFirstMillis[slot] = nowMillis;
+        mLastMillis[slot] = nowMillis;
+        mSmoothedRttMillis[slot] = 0;
+        mHosts[slot] = null;
+        mAlpns[slot] = null;
+        mSize++;
+        return slot;
+    }
+
+    /**
+     * 线性探测的后移删除：把同一探测链上后面的元素前移，避免留下墓碑。
+     */
+    private void remove(int slot) {
+        mSize--;
+        int hole = slot;
+        int next = (hole + 1) & mMask;
+        while ((mState[next] & STATE_USED) != 0) {
+            int home = hash(mProtocol[next], mLocalHigh[next], mLocalLow[next], mRemoteHigh[next],
+                    mRemoteLow[next], mPorts[next]) & mMask;
+            // home 不在 (hole, next] 区间内时，元素可以前移到 hole。
+            if (((next - home) & mMask) >= ((next - hole) & mMask)) {
+                moveSlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mMask;
+        }
+        mState[hole] = 0;
+        mHosts[hole] = null;
+        mAlpns[hole] = null;
+    }
+
+    private void moveSlot(int from, int to) {
+        mState[to] = mState[from];
+        mProtocol[to] = mProtocol[from];
+        mLocalHigh[to] = mLocalHigh[from];
+        mLocalLow[to] = mLocalLow[from];
+        mRemoteHigh[to] = mRemoteHigh[from];
+        mRemoteLow[to] = mRemoteLow[from];
+        mPorts[to] = mPorts[from];
+        mFlowId[to] = mFlowId[from];
+        mPackets[to] = mPackets[from];
+        mBytesUp[to] = mBytesUp[from];
+        mBytesDown[to] = mBytesDown[from];
+        mFirstMillis[to] = mFirstMillis[from];
+        mLastMillis[to] = mLastMillis[from];
+        mSmoothedRttMillis[to] = mSmoothedRttMillis[from];
+        mRttPendingSequence[to] = mRttPendingSequence[from];
+        mRttPendingMillis[to] = mRttPendingMillis[from];
+        mHosts[to] = mHosts[from];
+        mAlpns[to] = mAlpns[from];
+    }
+
+    /**
+     * 表满时淘汰最久未活动的连接，淘汰前记下 closed 快照。只在极端情况下触发，线性扫描即可。
+     */
+    private void evictOldest() {
+        int oldest = -1;
+        for (int slot = 0; slot <= mMask; slot++) {
+            if ((mState[slot] & STATE_USED) == 0) {
+                continue;
+            }
+            if (oldest < 0 || mLastMillis[slot] < mLastMillis[oldest]) {
+                oldest = slot;
+            }
+        }
+        if (oldest >= 0) {
+            if (mEvicted == null) {
+                mEvicted = new ArrayList<>();
+            }
+            mEvicted.add(snapshot(oldest, true));
+            remove(oldest);
+        }
+    }
+
+    private static int hash(int protocol, long localHigh, long localLow, long remoteHigh, long remoteLow,
+            int ports) {
+        long h = localLow * 0x9E3779B97F4A7C15L;
+        h ^= remoteLow * 0xC2B2AE3D27D4EB4FL;
+        h ^= (localHigh ^ Long.rotateLeft(remoteHigh, 17)) * 0x165667B19E3779F9L;
+        h ^= ((long) ports << 8 | protocol) * 0x27D4EB2F165667C5L;
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32));
+    }
+}
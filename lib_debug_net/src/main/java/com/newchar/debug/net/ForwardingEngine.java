@@ -0,0 +1,1037 @@
+package com.newchar.debug.net;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+
+/**
+ * 用户态 TCP/UDP 转发：把 App 发进 TUN 的连接通过 protect 过的真实 socket 转发出去，再把响应构造成 IP 包写回 TUN。
+ *
+ * 所有连接由一个 Selector 线程处理。捕获线程只把读到的池化缓冲区交过来，解析、转发、写回 TUN 以及
+ * {@link CapturePipeline} 的上下行处理都在本线程完成，流水线仍然是单线程使用。
+ *
+ * TCP 部分是面向本机 TUN 的最小实现：TUN 不丢包，所以不做重传与拥塞控制，只按 App 通告的窗口限速；
+ * 不协商窗口缩放与 SACK。ICMP 等其他协议只记录不转发。
+ *
+ * 开启 HTTPS 解码且 CA 证书可用时，443 端口的连接先缓存 App 的 ClientHello 取得 SNI，证书就绪后由
+ * {@link MitmTlsSession} 终结 TLS，明文交给 {@link CapturePipeline#onDecrypted}。证书在签发线程异步生成，
+ * 完成后唤醒本线程继续握手；没有 SNI、签发失败或 App 曾拒绝过证书的主机按原样透传。
+ *
+ * 配置了弱网模拟时，上行包在解析转发前、下行包在写回 TUN 前先经过 {@link NetworkConditioner}，
+ * 排队中的包由 select 的超时按时放行。
+ */
+final class ForwardingEngine {
+
+    /**
+     * 给转发 socket 绕过 VPN，由 VpnService.protect 实现。
+     */
+    interface SocketProtector {
+
+        boolean protect(Socket socket);
+
+        boolean protect(DatagramSocket socket);
+    }
+
+    private static final String TAG = "DebugNetForward";
+    private static final int UPLINK_QUEUE_CAPACITY = 512;
+    private static final long SELECT_TIMEOUT_MS = 1000L;
+    private static final long SWEEP_INTERVAL_MS = 5000L;
+    private static final long TCP_IDLE_TIMEOUT_MS = 120_000L;
+    private static final long UDP_IDLE_TIMEOUT_MS = 60_000L;
+    private static final long DNS_IDLE_TIMEOUT_MS = 10_000L;
+    private static final int MAX_PENDING_UPLOAD_BYTES = 64 * 1024;
+    private static final int MAX_PACKET_SIZE = 65535;
+    private static final int TCP_READ_BUFFER_SIZE = 16 * 1024;
+    private static final int HTTPS_PORT = 443;
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_SYN_RECEIVED = 1;
+    private static final int STATE_ESTABLISHED = 2;
+
+    private final PacketBufferPool mBufferPool;
+    private final FileChannel mTunOutput;
+    private final SocketProtector mProtector;
+    private final int mMtu;
+    private final DispatchRingBuffer<ByteBuffer> mUplinkQueue = new DispatchRingBuffer<>(UPLINK_QUEUE_CAPACITY);
+    private final AtomicBoolean mWakeupPending = new AtomicBoolean();
+    private final AtomicLong mDroppedUplinkCount = new AtomicLong();
+    /** 签发线程完成一次签发后置位，转发线程据此恢复等待证书的连接。 */
+    private final AtomicBoolean mMintCompleted = new AtomicBoolean();
+    private final Selector mSelector;
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    // 以下字段只在转发线程访问
+    private final CapturePipeline mPipeline = new CapturePipeline();
+    private final PacketHeader mHeader = new PacketHeader();
+    private final PacketBuilder mBuilder = new PacketBuilder();
+    private final TcpReassembler.FlowKey mLookupKey = new TcpReassembler.FlowKey();
+    private final Map<TcpReassembler.FlowKey, TcpSession> mTcpSessions = new HashMap<>();
+    private final Map<TcpReassembler.FlowKey, UdpSession> mUdpSessions = new HashMap<>();
+    private final byte[] mOutPacket = new byte[MAX_PACKET_SIZE];
+    private final ByteBuffer mOutBuffer = ByteBuffer.wrap(mOutPacket);
+    private final ByteBuffer mTcpReadBuffer = ByteBuffer.allocate(TCP_READ_BUFFER_SIZE);
+    private final ByteBuffer mUdpReadBuffer =
+            ByteBuffer.allocate(MAX_PACKET_SIZE - PacketBuilder.IPV6_HEADER_SIZE - PacketBuilder.UDP_HEADER_SIZE);
+    private final Random mRandom = new Random();
+    private final TlsClientHelloScanner.Result mHelloResult = new TlsClientHelloScanner.Result();
+    private long mNowMillis;
+    private long mNowNanos;
+    private long mLastSweepMillis;
+    private final NetworkConditioner mConditioner;
+    private final NetworkConditioner.Output mConditionerOutput = new NetworkConditioner.Output() {
+        @Override
+        public void deliverUplink(ByteBuffer buffer) {
+            handleUplinkAndRelease(buffer);
+        }
+
+        @Override
+        public void deliverDownlink(ByteBuffer buffer) {
+            int length = buffer.position();
+            buffer.flip();
+            try {
+                writeToTun(buffer, buffer.array(), length);
+            } catch (IOException e) {
+                Log.w(TAG, "write delayed packet failed", e);
+            } finally {
+                mBufferPool.release(buffer);
+            }
+        }
+    };
+    private final MitmTlsSession.PlaintextListener mPlaintextListener = (tls, upload, data, offset, length) ->
+            mPipeline.onDecrypted(tls, upload, data, offset, length, mNowMillis);
+    private final Runnable mMintCallback = new Runnable() {
+        @Override
+        public void run() {
+            mMintCompleted.set(true);
+            mSelector.wakeup();
+        }
+    };
+    private DebugNetConfig mAuthorityConfig;
+    private MitmCertificateAuthority mAuthority;
+
+    ForwardingEngine(PacketBufferPool bufferPool, FileChannel tunOutput, SocketProtector protector, int mtu)
+            throws IOException {
+        mBufferPool = bufferPool;
+        mTunOutput = tunOutput;
+        mProtector = protector;
+        mMtu = mtu;
+        mSelector = Selector.open();
+        mConditioner = DebugNetMonitor.createNetworkConditioner(bufferPool, System.nanoTime());
+    }
+
+    synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this::selectLoop, "DebugNetForwarder");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mSelector.wakeup();
+        Thread thread = mThread;
+        mThread = null;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(2000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 转发队列写满而丢弃的上行包数量，TCP 会由 App 自行重传。
+     */
+    long getDroppedUplinkCount() {
+        return mDroppedUplinkCount.get();
+    }
+
+    /**
+     * 捕获线程调用：把 position 为包长度的池化缓冲区交给转发线程，返回 true 后缓冲区由本类负责归还。
+     */
+    boolean offerUplink(ByteBuffer buffer) {
+        if (!mRunning || !mUplinkQueue.offer(buffer)) {
+            mDroppedUplinkCount.incrementAndGet();
+            return false;
+        }
+        if (mWakeupPending.compareAndSet(false, true)) {
+            mSelector.wakeup();
+        }
+        return true;
+    }
+
+    private void selectLoop() {
+        try {
+            while (mRunning) {
+                mSelector.select(selectTimeoutMillis());
+                mWakeupPending.set(false);
+                mNowMillis = System.currentTimeMillis();
+                mNowNanos = System.nanoTime();
+                mConditioner.setCondition(DebugNetMonitor.getConfig().getNetworkCondition(), mConditionerOutput);
+                mConditioner.expire(mNowNanos, mConditionerOutput);
+                drainUplink();
+                if (mMintCompleted.getAndSet(false)) {
+                    resumeMintingSessions();
+                }
+                Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    handleSelected(key);
+                }
+                if (mNowMillis - mLastSweepMillis >= SWEEP_INTERVAL_MS) {
+                    mLastSweepMillis = mNowMillis;
+                    sweepIdleSessions();
+                }
+            }
+        } catch (Throwable throwable) {
+            Log.e(TAG, "selectLoop failed", throwable);
+        } finally {
+            mRunning = false;
+            closeAll();
+        }
+    }
+
+    /**
+     * 有排队的弱网包时把 select 超时缩短到最近一个包的放行时间。
+     */
+    private long selectTimeoutMillis() {
+        long wakeupNanos = mConditioner.nextWakeupNanos();
+        if (wakeupNanos == Long.MAX_VALUE) {
+            return SELECT_TIMEOUT_MS;
+        }
+        // select(0) 表示一直等待，最少等 1ms
+        long millis = (wakeupNanos - System.nanoTime() + 999_999L) / 1_000_000L;
+        return Math.max(1L, Math.min(SELECT_TIMEOUT_MS, millis));
+    }
+
+    private void drainUplink() {
+        ByteBuffer buffer;
+        while ((buffer = mUplinkQueue.poll()) != null) {
+            if (!mConditioner.offerUplink(buffer, mNowNanos)) {
+                handleUplinkAndRelease(buffer);
+            }
+        }
+    }
+
+    private void handleUplinkAndRelease(ByteBuffer buffer) {
+        try {
+            handleUplink(buffer);
+        } catch (Throwable throwable) {
+            Log.w(TAG, "handleUplink failed", throwable);
+        } finally {
+            mBufferPool.release(buffer);
+        }
+    }
+
+    private void handleUplink(ByteBuffer buffer) throws IOException {
+        byte[] packet = buffer.array();
+        int length = buffer.position();
+        mPipeline.onPacket(packet, length, TrafficDirection.UPLOAD, mNowMillis);
+        if (!IpPacketParser.parseHeader(packet, length, mHeader)) {
+            return;
+        }
+        if (mHeader.isTcp() && mHeader.transportOffset + PacketBuilder.TCP_HEADER_SIZE <= length) {
+            handleTcpUplink(packet);
+        } else if (mHeader.isUdp() && mHeader.payloadOffset > 0) {
+            handleUdpUplink(buffer);
+        }
+    }
+
+    private void handleSelected(SelectionKey key) {
+        Object attachment = key.attachment();
+        try {
+            if (attachment instanceof TcpSession) {
+                handleTcpSelected((TcpSession) attachment, key);
+            } else if (attachment instanceof UdpSession) {
+                handleUdpReadable((UdpSession) attachment);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (attachment instanceof TcpSession) {
+                resetTcp((TcpSession) attachment);
+            } else if (attachment instanceof UdpSession) {
+                closeUdp((UdpSession) attachment);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- TCP
+
+    private void handleTcpUplink(byte[] packet) throws IOException {
+        PacketHeader header = mHeader;
+        mLookupKey.set(header);
+        TcpSession session = mTcpSessions.get(mLookupKey);
+        if (header.hasTcpFlag(PacketHeader.TCP_RST)) {
+            if (session != null) {
+                checkTlsRejected(session);
+                closeTcp(session);
+            }
+            return;
+        }
+        if (session == null) {
+            if (header.hasTcpFlag(PacketHeader.TCP_SYN) && !header.hasTcpFlag(PacketHeader.TCP_ACK)) {
+                openTcp(header);
+            } else {
+                sendRstForUnknown(header);
+            }
+            return;
+        }
+        session.lastActiveMillis = mNowMillis;
+        if (header.hasTcpFlag(PacketHeader.TCP_SYN)) {
+            // App 重传 SYN：已回过 SYN-ACK 就再回一次
+            if (session.state == STATE_SYN_RECEIVED) {
+                writeTcp(session, session.localSequence - 1, PacketHeader.TCP_SYN | PacketHeader.TCP_ACK,
+                        mssFor(session), null, 0, 0);
+            }
+            return;
+        }
+        if (header.hasTcpFlag(PacketHeader.TCP_ACK) && !onTcpAck(session, header)) {
+            return;
+        }
+        boolean fin = header.hasTcpFlag(PacketHeader.TCP_FIN);
+        int payloadLength = header.payloadLength;
+        if (payloadLength <= 0 && !fin) {
+            return;
+        }
+        if (session.state != STATE_ESTABLISHED || header.tcpSequence != session.appNextSequence) {
+            // 重复或乱序的段：回一个当前 ACK 让 App 重传
+            sendTcpAck(session);
+            return;
+        }
+        if (payloadLength > 0) {
+            if (session.pendingUpload.remaining() < payloadLength) {
+                // 上游写不动，不确认这段数据，等 App 按通告窗口重传
+                sendTcpAck(session);
+                return;
+            }
+            session.pendingUpload.put(packet, header.payloadOffset, payloadLength);
+            session.appNextSequence += payloadLength;
+        }
+        if (fin) {
+            session.appNextSequence += 1;
+            session.appFinReceived = true;
+        }
+        flushTcpUpload(session);
+        sendTcpAck(session);
+        if (fin) {
+            // FIN 携带的最后一段密文已在上面解出，再判断 App 是否在发送数据前就关闭了连接
+            checkTlsRejected(session);
+        }
+        if (fin && isTcpFinished(session)) {
+            // 远端先关闭、App 后发 FIN：确认之后连接即已完整关闭，不必等空闲清理再回 RST
+            closeTcp(session);
+        }
+    }
+
+    /**
+     * 处理 App 的确认与窗口更新，返回 false 表示连接已关闭。
+     */
+    private boolean onTcpAck(TcpSession session, PacketHeader header) throws IOException {
+        int acknowledgement = header.tcpAcknowledgement;
+        if (session.state == STATE_SYN_RECEIVED && acknowledgement == session.localSequence) {
+            session.state = STATE_ESTABLISHED;
+        }
+        if (acknowledgement - session.appAcknowledged > 0 && acknowledgement - session.localSequence <= 0) {
+            session.appAcknowledged = acknowledgement;
+        }
+        session.appWindow = header.tcpWindow;
+        if (isTcpFinished(session)) {
+            closeTcp(session);
+            return false;
+        }
+        if (isTlsActive(session)) {
+            // App 的窗口打开后继续发送已加密、尚未送达的数据
+            return pumpTls(session);
+        }
+        updateTcpInterest(session);
+        return true;
+    }
+
+    /**
+     * 两个方向都已发出 FIN、App 确认了我们的 FIN，且 App 的数据已全部写给远端时，连接可以关闭。
+     */
+    private static boolean isTcpFinished(TcpSession session) {
+        return session.remoteFinSent && session.appFinReceived && session.appAcknowledged == session.localSequence
+                && session.pendingUpload.position() == 0;
+    }
+
+    private void openTcp(PacketHeader header) throws IOException {
+        TcpSession session = new TcpSession(mLookupKey.copy(), header);
+        session.appNextSequence = header.tcpSequence + 1;
+        session.appWindow = header.tcpWindow;
+        session.localSequence = mRandom.nextInt();
+        session.lastActiveMillis = mNowMillis;
+        SocketChannel channel = SocketChannel.open();
+        session.channel = channel;
+        try {
+            channel.configureBlocking(false);
+            if (!mProtector.protect(channel.socket())) {
+                throw new IOException("protect failed");
+            }
+            channel.socket().setTcpNoDelay(true);
+            boolean connected = channel.connect(new InetSocketAddress(
+                    toInetAddress(session.ipv6, session.remoteHigh, session.remoteLow), session.remotePort));
+            session.selectionKey = channel.register(mSelector, connected ? 0 : SelectionKey.OP_CONNECT, session);
+            mTcpSessions.put(session.key, session);
+            if (session.remotePort == HTTPS_PORT && currentAuthority() != null) {
+                session.tls = new MitmTlsSession(session.key, header);
+            }
+            if (connected) {
+                onTcpConnected(session);
+            }
+        } catch (IOException e) {
+            closeQuietly(channel);
+            sendRstForUnknown(header);
+        }
+    }
+
+    private void handleTcpSelected(TcpSession session, SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isConnectable()) {
+            if (session.channel.finishConnect()) {
+                onTcpConnected(session);
+            }
+            return;
+        }
+        if (key.isWritable()) {
+            flushTcpUpload(session);
+            if (isTcpFinished(session)) {
+                closeTcp(session);
+                return;
+            }
+        }
+        if (key.isValid() && key.isReadable()) {
+            readTcpDownload(session);
+        }
+    }
+
+    private void onTcpConnected(TcpSession session) throws IOException {
+        session.state = STATE_SYN_RECEIVED;
+        session.appAcknowledged = session.localSequence;
+        writeTcp(session, session.localSequence, PacketHeader.TCP_SYN | PacketHeader.TCP_ACK, mssFor(session),
+                null, 0, 0);
+        session.localSequence += 1;
+        updateTcpInterest(session);
+    }
+
+    private void readTcpDownload(TcpSession session) throws IOException {
+        if (isTlsActive(session)) {
+            readTlsDownload(session);
+            return;
+        }
+        int inFlight = session.localSequence - session.appAcknowledged;
+        int allowed = session.appWindow - inFlight;
+        if (allowed <= 0) {
+            updateTcpInterest(session);
+            return;
+        }
+        ByteBuffer buffer = mTcpReadBuffer;
+        buffer.clear();
+        buffer.limit(Math.min(allowed, buffer.capacity()));
+        int read = session.channel.read(buffer);
+        if (read < 0) {
+            session.remoteFinSent = true;
+            writeTcp(session, session.localSequence, PacketHeader.TCP_FIN | PacketHeader.TCP_ACK, 0, null, 0, 0);
+            session.localSequence += 1;
+            updateTcpInterest(session);
+            return;
+        }
+        session.lastActiveMillis = mNowMillis;
+        int mss = mssFor(session);
+        for (int offset = 0; offset < read; offset += mss) {
+            int length = Math.min(mss, read - offset);
+            int flags = PacketHeader.TCP_ACK | (offset + length == read ? PacketHeader.TCP_PSH : 0);
+            writeTcp(session, session.localSequence, flags, 0, buffer.array(), offset, length);
+            session.localSequence += length;
+        }
+        updateTcpInterest(session);
+    }
+
+    private void flushTcpUpload(TcpSession session) throws IOException {
+        if (session.tls != null) {
+            if (!prepareTls(session)) {
+                updateTcpInterest(session);
+                return;
+            }
+            if (session.tls != null) {
+                pumpTls(session);
+                return;
+            }
+        }
+        ByteBuffer pending = session.pendingUpload;
+        if (session.state == STATE_ESTABLISHED && pending.position() > 0) {
+            pending.flip();
+            session.channel.write(pending);
+            pending.compact();
+        }
+        if (session.appFinReceived && pending.position() == 0 && !session.outputShutdown) {
+            session.outputShutdown = true;
+            session.channel.socket().shutdownOutput();
+        }
+        updateTcpInterest(session);
+    }
+
+    private void updateTcpInterest(TcpSession session) {
+        SelectionKey key = session.selectionKey;
+        if (key == null || !key.isValid() || session.state == STATE_CONNECTING) {
+            return;
+        }
+        int ops = 0;
+        MitmTlsSession tls = session.tls;
+        if (tls != null) {
+            // 解密连接按缓冲区是否有空间读、是否有待写数据写；App 的窗口在发送 appOut 时处理
+            if (tls.state == MitmTlsSession.STATE_ACTIVE) {
+                if (session.state == STATE_ESTABLISHED && !tls.upstreamEof && tls.upstreamIn.hasRemaining()) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                if (tls.upstreamOut.position() > 0) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+            }
+        } else if (session.state == STATE_ESTABLISHED && !session.remoteFinSent
+                && session.appWindow - (session.localSequence - session.appAcknowledged) > 0) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (session.pendingUpload.position() > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    // ---------------------------------------------------------------- HTTPS 解密
+
+    private MitmCertificateAuthority currentAuthority() {
+        DebugNetConfig config = DebugNetMonitor.getConfig();
+        if (config != mAuthorityConfig) {
+            // 配置对象不变时不重复查询，加载本身由 MitmCertificateAuthority 按证书文件缓存
+            mAuthorityConfig = config;
+            mAuthority = MitmCertificateAuthority.forConfig(config);
+        }
+        return mAuthority;
+    }
+
+    private static boolean isTlsActive(TcpSession session) {
+        return session.tls != null && session.tls.state == MitmTlsSession.STATE_ACTIVE;
+    }
+
+    /**
+     * 解密连接在握手前的准备：取 SNI、等证书。返回 false 表示还要等待；返回 true 时要么已进入解密状态，
+     * 要么 {@code session.tls} 已被清空改为透传（此时 ClientHello 仍完整地留在 pendingUpload 里）。
+     */
+    private boolean prepareTls(TcpSession session) {
+        MitmTlsSession tls = session.tls;
+        if (tls.state == MitmTlsSession.STATE_ACTIVE) {
+            return true;
+        }
+        MitmCertificateAuthority authority = currentAuthority();
+        if (authority == null) {
+            session.tls = null;
+            return true;
+        }
+        if (tls.state == MitmTlsSession.STATE_SNIFFING) {
+            ByteBuffer pending = session.pendingUpload;
+            int status = TlsClientHelloScanner.scan(pending.array(), 0, pending.position(), mHelloResult);
+            if (status == TlsClientHelloScanner.STATUS_NEED_MORE && pending.hasRemaining()
+                    && !session.appFinReceived) {
+                return false;
+            }
+            if (status != TlsClientHelloScanner.STATUS_COMPLETE || !mHelloResult.hasSni()) {
+                session.tls = null;
+                return true;
+            }
+            tls.host = new String(pending.array(), mHelloResult.sniOffset, mHelloResult.sniLength,
+                    StandardCharsets.US_ASCII).toLowerCase(Locale.US);
+            if (authority.isBypassed(tls.host)) {
+                session.tls = null;
+                return true;
+            }
+            tls.state = MitmTlsSession.STATE_MINTING;
+        }
+        SSLContext context = authority.getCachedContext(tls.host);
+        if (context == null) {
+            if (!tls.mintRequested) {
+                tls.mintRequested = true;
+                authority.mintAsync(tls.host, mMintCallback);
+                return false;
+            }
+            // 先看是否仍在签发再取缓存，避免签发恰好在两次调用之间完成时被误判为失败
+            boolean minting = authority.isMinting(tls.host);
+            context = authority.getCachedContext(tls.host);
+            if (context == null) {
+                if (minting) {
+                    return false;
+                }
+                session.tls = null;
+                return true;
+            }
+        }
+        try {
+            tls.start(context);
+        } catch (SSLException | RuntimeException e) {
+            Log.w(TAG, "start TLS interception failed: " + tls.host, e);
+            session.tls = null;
+        }
+        return true;
+    }
+
+    private void resumeMintingSessions() {
+        ArrayList<TcpSession> waiting = null;
+        for (TcpSession session : mTcpSessions.values()) {
+            if (session.tls != null && session.tls.state == MitmTlsSession.STATE_MINTING) {
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                }
+                waiting.add(session);
+            }
+        }
+        if (waiting == null) {
+            return;
+        }
+        for (TcpSession session : waiting) {
+            try {
+                flushTcpUpload(session);
+            } catch (IOException | RuntimeException e) {
+                resetTcp(session);
+            }
+        }
+    }
+
+    private void readTlsDownload(TcpSession session) throws IOException {
+        MitmTlsSession tls = session.tls;
+        if (tls.upstreamIn.hasRemaining()) {
+            int read = session.channel.read(tls.upstreamIn);
+            if (read < 0) {
+                tls.upstreamEof = true;
+            } else if (read > 0) {
+                session.lastActiveMillis = mNowMillis;
+            }
+        }
+        pumpTls(session);
+    }
+
+    /**
+     * 推进两端的 TLS 并写出两个方向已加密的数据，直到没有进展。
+     *
+     * @return false 表示握手或解密失败，连接已被重置
+     */
+    private boolean pumpTls(TcpSession session) throws IOException {
+        MitmTlsSession tls = session.tls;
+        while (true) {
+            boolean progress;
+            try {
+                progress = tls.pump(session.pendingUpload, session.appFinReceived, mPlaintextListener, mNowMillis);
+            } catch (SSLException e) {
+                onTlsFailure(session, e);
+                return false;
+            }
+            progress |= writeTlsUpstream(session);
+            progress |= sendTlsDownload(session);
+            if (!progress) {
+                break;
+            }
+        }
+        if (tls.isUpstreamOutputDone() && !session.outputShutdown) {
+            session.outputShutdown = true;
+            session.channel.socket().shutdownOutput();
+        }
+        if (tls.isAppOutputDone() && !session.remoteFinSent) {
+            session.remoteFinSent = true;
+            writeTcp(session, session.localSequence, PacketHeader.TCP_FIN | PacketHeader.TCP_ACK, 0, null, 0, 0);
+            session.localSequence += 1;
+        }
+        updateTcpInterest(session);
+        return true;
+    }
+
+    private boolean writeTlsUpstream(TcpSession session) throws IOException {
+        ByteBuffer out = session.tls.upstreamOut;
+        if (out.position() == 0 || session.outputShutdown) {
+            return false;
+        }
+        out.flip();
+        int written = session.channel.write(out);
+        out.compact();
+        return written > 0;
+    }
+
+    /**
+     * 按 App 通告的窗口把 appOut 中的密文分段写回 TUN。
+     */
+    private boolean sendTlsDownload(TcpSession session) throws IOException {
+        ByteBuffer out = session.tls.appOut;
+        int allowed = session.appWindow - (session.localSequence - session.appAcknowledged);
+        if (out.position() == 0 || allowed <= 0 || session.remoteFinSent) {
+            return false;
+        }
+        out.flip();
+        int count = Math.min(allowed, out.remaining());
+        int start = out.position();
+        int mss = mssFor(session);
+        for (int offset = 0; offset < count; offset += mss) {
+            int length = Math.min(mss, count - offset);
+            int flags = PacketHeader.TCP_ACK | (offset + length == count ? PacketHeader.TCP_PSH : 0);
+            writeTcp(session, session.localSequence, flags, 0, out.array(), start + offset, length);
+            session.localSequence += length;
+        }
+        out.position(start + count);
+        out.compact();
+        session.lastActiveMillis = mNowMillis;
+        return true;
+    }
+
+    private void onTlsFailure(TcpSession session, SSLException e) {
+        MitmTlsSession tls = session.tls;
+        String reason;
+        if (tls.isAppSideFailure()) {
+            // App 拒绝了我们的证书，多半是证书锁定；之后该主机直接透传
+            mAuthority.markBypassed(tls.host);
+            reason = "HTTPS 解密失败，App 不信任证书，之后该主机不再解密";
+        } else {
+            reason = "HTTPS 解密失败: " + e.getMessage();
+        }
+        Log.w(TAG, "TLS interception failed: " + tls.host, e);
+        mPipeline.onDecryptFailed(tls, reason, mNowMillis);
+        resetTcp(session);
+    }
+
+    /**
+     * App 在解密连接握手完成后很快、发出任何应用数据前就发 FIN 或 RST，记一次嫌疑；
+     * 同一主机连续多次这样关闭才按证书锁定处理，之后该主机直接透传
+     */
+    private void checkTlsRejected(TcpSession session) {
+        MitmTlsSession tls = session.tls;
+        MitmCertificateAuthority authority = mAuthority;
+        if (tls == null || tls.state != MitmTlsSession.STATE_ACTIVE || authority == null) {
+            return;
+        }
+        int verdict = tls.onAppClosed(mNowMillis);
+        if (verdict == MitmTlsSession.CLOSE_TRUSTED) {
+            authority.clearSuspectCloses(tls.host);
+            return;
+        }
+        if (verdict != MitmTlsSession.CLOSE_SUSPECT || !authority.onSuspectClose(tls.host)) {
+            return;
+        }
+        Log.w(TAG, "TLS interception rejected after handshake: " + tls.host);
+        mPipeline.onDecryptFailed(tls, "HTTPS 解密失败，App 多次在握手后立即关闭连接（多半是证书锁定），之后该主机不再解密",
+                mNowMillis);
+    }
+
+    private void sendTcpAck(TcpSession session) throws IOException {
+        writeTcp(session, session.localSequence, PacketHeader.TCP_ACK, 0, null, 0, 0);
+    }
+
+    private void writeTcp(TcpSession session, int sequence, int flags, int mss,
+                          byte[] payload, int payloadOffset, int payloadLength) throws IOException {
+        int window = session.pendingUpload.remaining();
+        int length = mBuilder.buildTcp(mOutPacket, session.ipv6,
+                session.remoteHigh, session.remoteLow, session.remotePort,
+                session.appHigh, session.appLow, session.appPort,
+                sequence, session.appNextSequence, flags, window, mss, payload, payloadOffset, payloadLength);
+        writeToTun(length);
+    }
+
+    private void sendRstForUnknown(PacketHeader header) throws IOException {
+        int consumed = header.payloadLength
+                + (header.hasTcpFlag(PacketHeader.TCP_SYN) ? 1 : 0)
+                + (header.hasTcpFlag(PacketHeader.TCP_FIN) ? 1 : 0);
+        int sequence = header.hasTcpFlag(PacketHeader.TCP_ACK) ? header.tcpAcknowledgement : 0;
+        int length = mBuilder.buildTcp(mOutPacket, header.ipv6,
+                header.destinationHigh, header.destinationLow, header.destinationPort,
+                header.sourceHigh, header.sourceLow, header.sourcePort,
+                sequence, header.tcpSequence + consumed, PacketHeader.TCP_RST | PacketHeader.TCP_ACK, 0, 0,
+                null, 0, 0);
+        writeToTun(length);
+    }
+
+    private void resetTcp(TcpSession session) {
+        try {
+            writeTcp(session, session.localSequence, PacketHeader.TCP_RST | PacketHeader.TCP_ACK, 0, null, 0, 0);
+        } catch (IOException ignored) {
+        }
+        closeTcp(session);
+    }
+
+    private void closeTcp(TcpSession session) {
+        mTcpSessions.remove(session.key);
+        if (session.selectionKey != null) {
+            session.selectionKey.cancel();
+        }
+        closeQuietly(session.channel);
+    }
+
+    private int mssFor(TcpSession session) {
+        return mMtu - (session.ipv6 ? PacketBuilder.IPV6_HEADER_SIZE : PacketBuilder.IPV4_HEADER_SIZE)
+                - PacketBuilder.TCP_HEADER_SIZE;
+    }
+
+    // ---------------------------------------------------------------- UDP
+
+    private void handleUdpUplink(ByteBuffer buffer) throws IOException {
+        PacketHeader header = mHeader;
+        mLookupKey.set(header);
+        UdpSession session = mUdpSessions.get(mLookupKey);
+        if (session == null) {
+            session = openUdp(header);
+            if (session == null) {
+                return;
+            }
+        }
+        session.lastActiveMillis = mNowMillis;
+        // 直接在池化缓冲区上截出载荷写出，不再拷贝
+        buffer.limit(header.payloadOffset + header.payloadLength);
+        buffer.position(header.payloadOffset);
+        session.channel.write(buffer);
+    }
+
+    private UdpSession openUdp(PacketHeader header) {
+        UdpSession session = new UdpSession(mLookupKey.copy(), header);
+        DatagramChannel channel = null;
+        try {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            if (!mProtector.protect(channel.socket())) {
+                throw new IOException("protect failed");
+            }
+            channel.connect(new InetSocketAddress(
+                    toInetAddress(session.ipv6, session.remoteHigh, session.remoteLow), session.remotePort));
+            session.channel = channel;
+            session.selectionKey = channel.register(mSelector, SelectionKey.OP_READ, session);
+            mUdpSessions.put(session.key, session);
+            return session;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            return null;
+        }
+    }
+
+    private void handleUdpReadable(UdpSession session) throws IOException {
+        ByteBuffer buffer = mUdpReadBuffer;
+        while (true) {
+            buffer.clear();
+            int read = session.channel.read(buffer);
+            if (read <= 0) {
+                return;
+            }
+            session.lastActiveMillis = mNowMillis;
+            int length = mBuilder.buildUdp(mOutPacket, session.ipv6,
+                    session.remoteHigh, session.remoteLow, session.remotePort,
+                    session.appHigh, session.appLow, session.appPort,
+                    buffer.array(), 0, read);
+            writeToTun(length);
+        }
+    }
+
+    private void closeUdp(UdpSession session) {
+        mUdpSessions.remove(session.key);
+        if (session.selectionKey != null) {
+            session.selectionKey.cancel();
+        }
+        closeQuietly(session.channel);
+    }
+
+    // ---------------------------------------------------------------- 公共
+
+    /**
+     * 写回 TUN，并作为下行包交给 pcap 导出与解析流水线。
+     */
+    private void writeToTun(int length) throws IOException {
+        if (mConditioner.offerDownlink(mOutPacket, length, mNowNanos)) {
+            return;
+        }
+        mOutBuffer.clear();
+        mOutBuffer.limit(length);
+        writeToTun(mOutBuffer, mOutPacket, length);
+    }
+
+    private void writeToTun(ByteBuffer buffer, byte[] packet, int length) throws IOException {
+        while (buffer.hasRemaining()) {
+            mTunOutput.write(buffer);
+        }
+        DebugNetPcapSink pcapSink = DebugNetMonitor.getPcapSink();
+        if (pcapSink != null) {
+            pcapSink.offer(packet, length, TrafficDirection.DOWNLOAD, mNowMillis);
+        }
+        mPipeline.onPacket(packet, length, TrafficDirection.DOWNLOAD, mNowMillis);
+    }
+
+    private void sweepIdleSessions() {
+        ArrayList<TcpSession> idleTcp = null;
+        for (TcpSession session : mTcpSessions.values()) {
+            if (mNowMillis - session.lastActiveMillis >= TCP_IDLE_TIMEOUT_MS) {
+                if (idleTcp == null) {
+                    idleTcp = new ArrayList<>();
+                }
+                idleTcp.add(session);
+            }
+        }
+        if (idleTcp != null) {
+            for (TcpSession session : idleTcp) {
+                resetTcp(session);
+            }
+        }
+        ArrayList<UdpSession> idleUdp = null;
+        for (UdpSession session : mUdpSessions.values()) {
+            long timeout = session.remotePort == 53 ? DNS_IDLE_TIMEOUT_MS : UDP_IDLE_TIMEOUT_MS;
+            if (mNowMillis - session.lastActiveMillis >= timeout) {
+                if (idleUdp == null) {
+                    idleUdp = new ArrayList<>();
+                }
+                idleUdp.add(session);
+            }
+        }
+        if (idleUdp != null) {
+            for (UdpSession session : idleUdp) {
+                closeUdp(session);
+            }
+        }
+        mConditioner.sweep(mNowNanos);
+    }
+
+    private void closeAll() {
+        // 先停掉模拟，关闭连接时的 RST 直接写回 TUN
+        mConditioner.release();
+        for (TcpSession session : new ArrayList<>(mTcpSessions.values())) {
+            resetTcp(session);
+        }
+        for (UdpSession session : new ArrayList<>(mUdpSessions.values())) {
+            closeUdp(session);
+        }
+        ByteBuffer buffer;
+        while ((buffer = mUplinkQueue.poll()) != null) {
+            mBufferPool.release(buffer);
+        }
+        try {
+            mSelector.close();
+        } catch (IOException ignored) {
+        }
+        mPipeline.release();
+    }
+
+    private static InetAddress toInetAddress(boolean ipv6, long high, long low) throws IOException {
+        byte[] address;
+        if (ipv6) {
+            address = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                address[i] = (byte) (high >>> (56 - i * 8));
+                address[8 + i] = (byte) (low >>> (56 - i * 8));
+            }
+        } else {
+            address = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                address[i] = (byte) (low >>> (24 - i * 8));
+            }
+        }
+        return InetAddress.getByAddress(address);
+    }
+
+    private static void closeQuietly(SelectableChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 连接两端的地址，app 为 TUN 内的本机端，remote 为真实目标。
+     */
+    private abstract static class Session {
+
+        final TcpReassembler.FlowKey key;
+        final boolean ipv6;
+        final long appHigh;
+        final long appLow;
+        final int appPort;
+        final long remoteHigh;
+        final long remoteLow;
+        final int remotePort;
+        SelectionKey selectionKey;
+        long lastActiveMillis;
+
+        Session(TcpReassembler.FlowKey key, PacketHeader uplinkHeader) {
+            this.key = key;
+            this.ipv6 = uplinkHeader.ipv6;
+            this.appHigh = uplinkHeader.sourceHigh;
+            this.appLow = uplinkHeader.sourceLow;
+            this.appPort = uplinkHeader.sourcePort;
+            this.remoteHigh = uplinkHeader.destinationHigh;
+            this.remoteLow = uplinkHeader.destinationLow;
+            this.remotePort = uplinkHeader.destinationPort;
+        }
+    }
+
+    private static final class TcpSession extends Session {
+
+        SocketChannel channel;
+        int state = STATE_CONNECTING;
+        /** 期望 App 下一个字节的序号，即我们回给 App 的 ack。 */
+        int appNextSequence;
+        /** 我们发给 App 的下一个序号。 */
+        int localSequence;
+        /** App 已确认到的序号。 */
+        int appAcknowledged;
+        int appWindow;
+        boolean appFinReceived;
+        boolean remoteFinSent;
+        boolean outputShutdown;
+        /** HTTPS 解密状态，透传的连接为 null。 */
+        MitmTlsSession tls;
+        /** App 已确认、尚未写入上游 socket 的数据，写模式。 */
+        final ByteBuffer pendingUpload = ByteBuffer.allocate(MAX_PENDING_UPLOAD_BYTES);
+
+        TcpSession(TcpReassembler.FlowKey key, PacketHeader uplinkHeader) {
+            super(key, uplinkHeader);
+        }
+    }
+
+    private static final class UdpSession extends Session {
+
+        DatagramChannel channel;
+
+        UdpSession(TcpReassembler.FlowKey key, PacketHeader uplinkHeader) {
+            super(key, uplinkHeader);
+        }
+    }
+}
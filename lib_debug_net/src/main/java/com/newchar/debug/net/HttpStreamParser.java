@@ -0,0 +1,545 @@
+package com.newchar.debug.net;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 单方向 HTTP/1.1 流式解析器，按序喂入 TCP 重组后的字节，解析请求行/状态行、头部与截断后的 body。
+ *
+ * 每个消息的起始行、头部与 trailer 合计最多 {@link #MAX_HEAD_BYTES}，body 最多保留 maxBodyBytes，超出部分只计数不保存。
+ * 流的开头不像 HTTP（例如 TLS）时进入忽略状态，之后的字节不再解析；已经解析过消息的流遇到缺口或分帧错误时，
+ * 向后逐行查找完整的请求行/状态行重新同步，找到之前的字节全部丢弃。
+ */
+final class HttpStreamParser {
+
+    static final int MAX_HEAD_BYTES = 16 * 1024;
+
+    private static final int STATE_START = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_BODY_LENGTH = 2;
+    private static final int STATE_CHUNK_SIZE = 3;
+    private static final int STATE_CHUNK_DATA = 4;
+    private static final int STATE_CHUNK_END = 5;
+    private static final int STATE_TRAILERS = 6;
+    private static final int STATE_BODY_UNTIL_CLOSE = 7;
+    private static final int STATE_IGNORE = 8;
+    private static final int STATE_RESYNC = 9;
+
+    private static final byte[][] METHODS = {
+            ascii("GET "), ascii("POST "), ascii("PUT "), ascii("DELETE "), ascii("HEAD "),
+            ascii("OPTIONS "), ascii("PATCH "), ascii("CONNECT "), ascii("TRACE ")
+    };
+    private static final byte[] RESPONSE_PREFIX = ascii("HTTP/");
+    private static final byte[] VERSION_PREFIX = ascii("HTTP/1.");
+
+    /**
+     * 解析结果回调，均在捕获线程同步调用。
+     */
+    interface Callback {
+
+        /**
+         * @param headBytes 起始行与头部在流中的实际字节数，含换行与结尾空行
+         */
+        void onRequestHead(String method, String path, String host, String headersText, int headBytes);
+
+        void onResponseHead(int statusCode, String headersText, int headBytes);
+
+        /**
+         * 响应是否带 body，例如 HEAD 请求、1xx/204/304 响应没有 body。
+         */
+        boolean responseHasBody(int statusCode);
+
+        void onMessageComplete(boolean response, String bodyText, long bodyBytes);
+    }
+
+    private final boolean mResponse;
+    private final Callback mCallback;
+    private int mState = STATE_START;
+    private byte[] mLine = new byte[256];
+    private int mLineLength;
+    private final StringBuilder mHeaders = new StringBuilder();
+    private int mHeadBytes;
+    private long mRemaining;
+    private int mStatusCode;
+    private String mContentEncoding;
+    private String mHost;
+    private boolean mChunked;
+    private boolean mHasContentLength;
+    private byte[] mBody;
+    private int mBodyLength;
+    private long mBodyTotal;
+    private int mMaxBodyBytes;
+    /**
+     * 是否解析出过起始行，之后的分帧错误重新同步，而不是把整个流当作非 HTTP 忽略。
+     */
+    private boolean mSawMessage;
+    /**
+     * 重新同步时当前行已超出 {@link #MAX_HEAD_BYTES}，不可能是起始行，丢弃到行尾。
+     */
+    private boolean mDiscardingLine;
+
+    HttpStreamParser(boolean response, Callback callback) {
+        mResponse = response;
+        mCallback = callback;
+    }
+
+    boolean isIgnoring() {
+        return mState == STATE_IGNORE;
+    }
+
+    /**
+     * 当前仍被本解析器持有的字节数，用于全局内存预算。
+     */
+    int retainedBytes() {
+        return mLine.length + (mBody == null ? 0 : mBody.length) + mHeaders.length() * 2;
+    }
+
+    void feed(byte[] data, int offset, int length, int maxBodyBytes) {
+        mMaxBodyBytes = maxBodyBytes;
+        int position = offset;
+        int end = offset + length;
+        while (position < end && mState != STATE_IGNORE) {
+            switch (mState) {
+                case STATE_START:
+                case STATE_HEADERS:
+                case STATE_CHUNK_SIZE:
+                case STATE_CHUNK_END:
+                case STATE_TRAILERS:
+                    position = consumeLine(data, position, end);
+                    break;
+                case STATE_BODY_LENGTH:
+                case STATE_CHUNK_DATA: {
+                    int count = (int) Math.min(mRemaining, end - position);
+                    appendBody(data, position, count);
+                    position += count;
+                    mRemaining -= count;
+                    if (mRemaining == 0) {
+                        if (mState == STATE_CHUNK_DATA) {
+                            mState = STATE_CHUNK_END;
+                        } else {
+                            finishMessage();
+                        }
+                    }
+                    break;
+                }
+                case STATE_BODY_UNTIL_CLOSE:
+                    appendBody(data, position, end - position);
+                    position = end;
+                    break;
+                case STATE_RESYNC:
+                    position = scanForStartLine(data, position, end);
+                    break;
+                default:
+                    position = end;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 对端关闭连接，"读到关闭为止" 的响应在此结束。
+     */
+    void onClose() {
+        if (mState == STATE_BODY_UNTIL_CLOSE) {
+            finishMessage();
+        }
+    }
+
+    /**
+     * 出现无法补齐的数据缺口，丢弃当前消息，向后查找下一个起始行。
+     */
+    void resync() {
+        if (mState == STATE_IGNORE) {
+            return;
+        }
+        resetMessage();
+        mState = STATE_RESYNC;
+    }
+
+    /**
+     * 分帧出错：解析过消息的流重新同步，否则认为不是 HTTP。
+     */
+    private void onFramingError() {
+        resetMessage();
+        mState = mSawMessage ? STATE_RESYNC : STATE_IGNORE;
+    }
+
+    private int consumeLine(byte[] data, int position, int end) {
+        int start = position;
+        while (position < end && data[position] != '\n') {
+            position++;
+        }
+        boolean complete = position < end;
+        int count = position - start;
+        // 只有一个 '\r' 的是消息之间多余的 CRLF，交给 onLine 跳过
+        if (mState == STATE_START && mLineLength == 0 && count > 0 && data[start] != '\r'
+                && !looksLikeStart(data, start, end)) {
+            onFramingError();
+            // 重新同步时从这一行开始查找
+            return mState == STATE_RESYNC ? start : end;
+        }
+        if (!appendLine(data, start, count, complete)) {
+            onFramingError();
+            return complete ? position + 1 : end;
+        }
+        if (!complete) {
+            return end;
+        }
+        int lineLength = mLineLength;
+        if (lineLength > 0 && mLine[lineLength - 1] == '\r') {
+            lineLength--;
+        }
+        mLineLength = 0;
+        onLine(lineLength);
+        return position + 1;
+    }
+
+    private boolean appendLine(byte[] data, int offset, int count, boolean complete) {
+        if (mState == STATE_START || mState == STATE_HEADERS || mState == STATE_TRAILERS) {
+            mHeadBytes += complete ? count + 1 : count;
+            if (mHeadBytes > MAX_HEAD_BYTES) {
+                return false;
+            }
+        } else if (mLineLength + count > MAX_HEAD_BYTES) {
+            // chunk 长度行与 chunk 结尾的 CRLF 属于 body，不计入头部，只限制单行长度
+            return false;
+        }
+        copyToLine(data, offset, count);
+        return true;
+    }
+
+    private void copyToLine(byte[] data, int offset, int count) {
+        if (mLineLength + count > mLine.length) {
+            byte[] grown = new byte[Math.min(MAX_HEAD_BYTES, Math.max(mLine.length * 2, mLineLength + count))];
+            System.arraycopy(mLine, 0, grown, 0, mLineLength);
+            mLine = grown;
+        }
+        System.arraycopy(data, offset, mLine, mLineLength, count);
+        mLineLength += count;
+    }
+
+    /**
+     * 重新同步：逐行查找完整且合法的请求行/状态行，找到后按新消息继续解析，之前的字节丢弃。
+     * 缺口后的第一行通常从行中间开始，严格校验整行可以避免把 body 里的片段当成起始行。
+     *
+     * @return 已处理到的位置
+     */
+    private int scanForStartLine(byte[] data, int position, int end) {
+        while (position < end) {
+            int lineEnd = position;
+            while (lineEnd < end && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int count = lineEnd - position;
+            if (!mDiscardingLine) {
+                if (mLineLength + count > MAX_HEAD_BYTES) {
+                    mDiscardingLine = true;
+                    mLineLength = 0;
+                } else {
+                    copyToLine(data, position, count);
+                }
+            }
+            if (lineEnd == end) {
+                return end;
+            }
+            position = lineEnd + 1;
+            if (mDiscardingLine) {
+                mDiscardingLine = false;
+                continue;
+            }
+            int rawLength = mLineLength;
+            int lineLength = rawLength;
+            if (lineLength > 0 && mLine[lineLength - 1] == '\r') {
+                lineLength--;
+            }
+            mLineLength = 0;
+            if (isStartLine(lineLength) && parseStartLine(lineLength)) {
+                mHeadBytes = rawLength + 1;
+                mState = STATE_HEADERS;
+                return position;
+            }
+        }
+        return end;
+    }
+
+    private boolean isStartLine(int lineLength) {
+        if (mResponse) {
+            // HTTP/1.x NNN
+            return lineLength >= 12 && regionMatches(mLine, 0, lineLength, VERSION_PREFIX) && mLine[8] == ' '
+                    && isDigit(mLine[9]) && isDigit(mLine[10]) && isDigit(mLine[11])
+                    && (lineLength == 12 || mLine[12] == ' ');
+        }
+        // METHOD SP PATH SP HTTP/1.x
+        int versionStart = lineLength - 8;
+        if (versionStart <= 0 || mLine[versionStart - 1] != ' '
+                || !regionMatches(mLine, versionStart, lineLength, VERSION_PREFIX)) {
+            return false;
+        }
+        for (byte[] method : METHODS) {
+            if (method.length < versionStart && regionMatches(mLine, 0, lineLength, method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onLine(int lineLength) {
+        switch (mState) {
+            case STATE_START:
+                if (lineLength == 0) {
+                    // keep-alive 消息之间可能有多余的 CRLF。
+                    mHeadBytes = 0;
+                    return;
+                }
+                if (!parseStartLine(lineLength)) {
+                    onFramingError();
+                    return;
+                }
+                mState = STATE_HEADERS;
+                return;
+            case STATE_HEADERS:
+                if (lineLength == 0) {
+                    onHeadersComplete();
+                    return;
+                }
+                parseHeaderLine(lineLength);
+                return;
+            case STATE_CHUNK_SIZE:
+                long size = parseChunkSize(lineLength);
+                if (size < 0) {
+                    onFramingError();
+                } else if (size == 0) {
+                    mState = STATE_TRAILERS;
+                } else {
+                    mRemaining = size;
+                    mState = STATE_CHUNK_DATA;
+                }
+                return;
+            case STATE_CHUNK_END:
+                mState = STATE_CHUNK_SIZE;
+                return;
+            case STATE_TRAILERS:
+                if (lineLength == 0) {
+                    finishMessage();
+                }
+                return;
+            default:
+                break;
+        }
+    }
+
+    private boolean parseStartLine(int lineLength) {
+        String line = new String(mLine, 0, lineLength, StandardCharsets.ISO_8859_1);
+        mHeaders.setLength(0);
+        mHeaders.append(line).append('\n');
+        boolean valid;
+        if (mResponse) {
+            // HTTP/1.1 200 OK
+            int firstSpace = line.indexOf(' ');
+            if (firstSpace < 0 || line.length() < firstSpace + 4) {
+                return false;
+            }
+            mStatusCode = parseInt(line, firstSpace + 1, firstSpace + 4);
+            valid = mStatusCode >= 100;
+        } else {
+            // METHOD SP PATH SP HTTP/1.1
+            int firstSpace = line.indexOf(' ');
+            int secondSpace = firstSpace < 0 ? -1 : line.indexOf(' ', firstSpace + 1);
+            valid = firstSpace > 0 && secondSpace > firstSpace + 1;
+        }
+        mSawMessage |= valid;
+        return valid;
+    }
+
+    private void parseHeaderLine(int lineLength) {
+        String line = new String(mLine, 0, lineLength, StandardCharsets.ISO_8859_1);
+        mHeaders.append(line).append('\n');
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            return;
+        }
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            try {
+                mRemaining = Long.parseLong(value);
+                mHasContentLength = mRemaining >= 0;
+            } catch (NumberFormatException ignored) {
+                mHasContentLength = false;
+            }
+        } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+            mChunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+        } else if ("Content-Encoding".equalsIgnoreCase(name)) {
+            mContentEncoding = value;
+        } else if ("Host".equalsIgnoreCase(name)) {
+            mHost = value;
+        }
+    }
+
+    private void onHeadersComplete() {
+        String headersText = mHeaders.toString();
+        String startLine = headersText.substring(0, headersText.indexOf('\n'));
+        boolean hasBody;
+        if (mResponse) {
+            mCallback.onResponseHead(mStatusCode, headersText, mHeadBytes);
+            hasBody = mCallback.responseHasBody(mStatusCode);
+        } else {
+            int firstSpace = startLine.indexOf(' ');
+            int secondSpace = startLine.indexOf(' ', firstSpace + 1);
+            mCallback.onRequestHead(startLine.substring(0, firstSpace),
+                    startLine.substring(firstSpace + 1, secondSpace), mHost, headersText, mHeadBytes);
+            hasBody = mChunked || mHasContentLength;
+        }
+        mHeaders.setLength(0);
+        mHeadBytes = 0;
+        if (!hasBody) {
+            finishMessage();
+        } else if (mChunked) {
+            mState = STATE_CHUNK_SIZE;
+        } else if (mHasContentLength) {
+            if (mRemaining == 0) {
+                finishMessage();
+            } else {
+                mState = STATE_BODY_LENGTH;
+            }
+        } else {
+            mState = STATE_BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private void appendBody(byte[] data, int offset, int count) {
+        mBodyTotal += count;
+        int room = mMaxBodyBytes - mBodyLength;
+        if (room <= 0 || count <= 0) {
+            return;
+        }
+        int copy = Math.min(room, count);
+        if (mBody == null || mBodyLength + copy > mBody.length) {
+            int capacity = Math.min(mMaxBodyBytes, Math.max(mBody == null ? 1024 : mBody.length * 2,
+                    mBodyLength + copy));
+            byte[] grown = new byte[capacity];
+            if (mBody != null) {
+                System.arraycopy(mBody, 0, grown, 0, mBodyLength);
+            }
+            mBody = grown;
+        }
+        System.arraycopy(data, offset, mBody, mBodyLength, copy);
+        mBodyLength += copy;
+    }
+
+    private void finishMessage() {
+        mCallback.onMessageComplete(mResponse, buildBodyText(), mBodyTotal);
+        resetMessage();
+        mState = STATE_START;
+    }
+
+    private String buildBodyText() {
+        if (mBodyTotal == 0) {
+            return "";
+        }
+        if (mContentEncoding != null && !"identity".equalsIgnoreCase(mContentEncoding)) {
+            return "[" + mContentEncoding + " " + mBodyTotal + "B]";
+        }
+        String text = new String(mBody, 0, mBodyLength, StandardCharsets.UTF_8);
+        if (mBodyTotal > mBodyLength) {
+            return text + "\n...[truncated " + (mBodyTotal - mBodyLength) + "B]";
+        }
+        return text;
+    }
+
+    private void resetMessage() {
+        mLineLength = 0;
+        mDiscardingLine = false;
+        mHeadBytes = 0;
+        mHeaders.setLength(0);
+        mRemaining = 0;
+        mStatusCode = 0;
+        mContentEncoding = null;
+        mHost = null;
+        mChunked = false;
+        mHasContentLength = false;
+        mBody = null;
+        mBodyLength = 0;
+        mBodyTotal = 0;
+        if (mLine.length > 1024) {
+            mLine = new byte[256];
+        }
+    }
+
+    private long parseChunkSize(int lineLength) {
+        long size = 0;
+        int digits = 0;
+        for (int i = 0; i < lineLength; i++) {
+            int value = Character.digit(mLine[i], 16);
+            if (value < 0) {
+                // chunk 扩展以 ';' 开头，其余非法字符视为失步。
+                if (mLine[i] == ';' || mLine[i] == ' ') {
+                    break;
+                }
+                return -1;
+            }
+            size = (size << 4) | value;
+            if (++digits > 15) {
+                return -1;
+            }
+        }
+        return digits == 0 ? -1 : size;
+    }
+
+    private boolean looksLikeStart(byte[] data, int offset, int end) {
+        if (mResponse) {
+            return startsWith(data, offset, end, RESPONSE_PREFIX);
+        }
+        for (byte[] method : METHODS) {
+            if (startsWith(data, offset, end, method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 数据不足以判断时按前缀匹配处理，避免分段恰好切在方法名中间时误判。
+     */
+    private static boolean startsWith(byte[] data, int offset, int end, byte[] prefix) {
+        int count = Math.min(prefix.length, end - offset);
+        for (int i = 0; i < count; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(byte[] data, int offset, int end, byte[] prefix) {
+        if (end - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int parseInt(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
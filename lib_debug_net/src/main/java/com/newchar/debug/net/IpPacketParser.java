@@ -5,93 +5,149 @@ import java.net.UnknownHostException;
 
 /**
  * 解析 TUN 设备中的 IP 包头，只提取展示与过滤需要的可拷贝字段。
+ *
+ * packet 可能是复用的池化缓冲区，所有越界判断都以 length 为准，不能使用 packet.length。
  */
 final class IpPacketParser {
 
-    private static final int PROTOCOL_ICMP = 1;
-    private static final int PROTOCOL_TCP = 6;
-    private static final int PROTOCOL_UDP = 17;
-    private static final int PROTOCOL_ICMP_V6 = 58;
+    static final int PROTOCOL_ICMP = 1;
+    static final int PROTOCOL_TCP = 6;
+    static final int PROTOCOL_UDP = 17;
+    static final int PROTOCOL_ICMP_V6 = 58;
 
     private IpPacketParser() {
     }
 
     static DebugNetEvent parse(byte[] packet, int length, TrafficDirection direction) {
-        if (packet == null || length <= 0) {
+        if (packet == null || length <= 0 || length > packet.length) {
             return null;
         }
-        int version = (packet[0] >> 4) & 0x0F;
-        if (version == 4) {
-            return parseIpv4(packet, length, direction);
+        PacketHeader header = new PacketHeader();
+        if (!parseHeader(packet, length, header)) {
+            return buildUnknownEvent(header, length, direction);
         }
-        if (version == 6) {
-            return parseIpv6(packet, length, direction);
+        DebugNetEvent event = createEvent(header, direction, System.currentTimeMillis());
+        applyHttpPathGuess(packet, header, () -> event);
+        return event;
+    }
+
+    /**
+     * 只解析头部数值到 header，不创建任何对象。返回 false 表示不是可识别的 IPv4/IPv6 包。
+     */
+    static boolean parseHeader(byte[] packet, int length, PacketHeader header) {
+        header.reset();
+        if (packet == null || length <= 0 || length > packet.length) {
+            return false;
+        }
+        header.length = length;
+        header.version = (packet[0] >> 4) & 0x0F;
+        if (header.version == 4) {
+            return parseIpv4Header(packet, length, header);
+        }
+        if (header.version == 6) {
+            return parseIpv6Header(packet, length, header);
+        }
+        return false;
+    }
+
+    static DebugNetEvent createEvent(PacketHeader header, TrafficDirection direction, long timeMillis) {
+        DebugNetEvent event = new DebugNetEvent(timeMillis, direction, header.protocol, header.ipv6,
+                header.sourceHigh, header.sourceLow, header.sourcePort,
+                header.destinationHigh, header.destinationLow, header.destinationPort, header.length);
+        if (header.isTcp() && (header.destinationPort == 443 || header.sourcePort == 443)) {
+            event.setHttps(true);
         }
-        DebugNetEvent unknown = new DebugNetEvent(direction, "IP" + version, "unknown", 0, "unknown", 0, length);
+        return event;
+    }
+
+    static DebugNetEvent buildUnknownEvent(PacketHeader header, int length, TrafficDirection direction) {
+        if (header.version == 4 || header.version == 6) {
+            // 版本可识别但头部不完整，和之前一样直接丢弃。
+            return null;
+        }
+        DebugNetEvent unknown = new DebugNetEvent(direction, "IP" + header.version, "unknown", 0, "unknown", 0,
+                length);
         unknown.setRequestPath("/unknown");
         return unknown;
     }
 
-    private static DebugNetEvent parseIpv4(byte[] packet, int length, TrafficDirection direction) {
+    /**
+     * 未开启 TCP 重组时的轻量 path 猜测：HTTP 请求行通常以 "GET /path" 开头，只看单个分段，命中率有限。
+     */
+    static void applyHttpPathGuess(byte[] packet, PacketHeader header, TcpReassembler.EventSource source) {
+        if (!header.isTcp() || header.payloadLength <= 0) {
+            return;
+        }
+        String path = tryParseHttpPath(packet, header.payloadOffset, header.payloadOffset + header.payloadLength);
+        if (path != null) {
+            source.obtainEvent().setRequestPath(path);
+        }
+    }
+
+    private static boolean parseIpv4Header(byte[] packet, int length, PacketHeader header) {
         if (length < 20) {
-            return null;
+            return false;
         }
         int headerLength = (packet[0] & 0x0F) * 4;
         if (headerLength < 20 || length < headerLength) {
-            return null;
-        }
-        int protocol = packet[9] & 0xFF;
-        String source = ipv4ToString(packet, 12);
-        String destination = ipv4ToString(packet, 16);
-        int sourcePort = 0;
-        int destinationPort = 0;
-        if ((protocol == PROTOCOL_TCP || protocol == PROTOCOL_UDP) && length >= headerLength + 4) {
-            sourcePort = readUnsignedShort(packet, headerLength);
-            destinationPort = readUnsignedShort(packet, headerLength + 2);
-        }
-        DebugNetEvent event = new DebugNetEvent(direction, protocolName(protocol), source, sourcePort, destination,
-                destinationPort, length);
-        // 仅做非常轻量的 path 猜测：HTTP 请求行通常以 "GET /path" 开头，但由于当前没有 TCP 重组，命中率有限。
-        if (protocol == PROTOCOL_TCP) {
-            String path = tryParseHttpPath(packet, headerLength);
-            if (path != null) {
-                event.setRequestPath(path);
-            }
-            if (destinationPort == 443 || sourcePort == 443) {
-                event.setHttps(true);
-            }
-        }
-        return event;
+            return false;
+        }
+        int totalLength = readUnsignedShort(packet, length, 2);
+        int end = totalLength >= headerLength && totalLength <= length ? totalLength : length;
+        header.protocol = packet[9] & 0xFF;
+        header.sourceLow = readInt(packet, 12) & 0xFFFFFFFFL;
+        header.destinationLow = readInt(packet, 16) & 0xFFFFFFFFL;
+        parseTransportHeader(packet, headerLength, end, header);
+        return true;
     }
 
-    private static DebugNetEvent parseIpv6(byte[] packet, int length, TrafficDirection direction) {
+    private static boolean parseIpv6Header(byte[] packet, int length, PacketHeader header) {
         if (length < 40) {
-            return null;
-        }
-        int protocol = packet[6] & 0xFF;
-        String source = ipv6ToString(packet, 8);
-        String destination = ipv6ToString(packet, 24);
-        int sourcePort = 0;
-        int destinationPort = 0;
-        if ((protocol == PROTOCOL_TCP || protocol == PROTOCOL_UDP) && length >= 44) {
-            sourcePort = readUnsignedShort(packet, 40);
-            destinationPort = readUnsignedShort(packet, 42);
-        }
-        DebugNetEvent event = new DebugNetEvent(direction, protocolName(protocol), source, sourcePort, destination,
-                destinationPort, length);
-        if (protocol == PROTOCOL_TCP) {
-            String path = tryParseHttpPath(packet, 40);
-            if (path != null) {
-                event.setRequestPath(path);
+            return false;
+        }
+        int payloadLength = readUnsignedShort(packet, length, 4);
+        int end = payloadLength > 0 && 40 + payloadLength <= length ? 40 + payloadLength : length;
+        header.ipv6 = true;
+        header.protocol = packet[6] & 0xFF;
+        header.sourceHigh = readLong(packet, 8);
+        header.sourceLow = readLong(packet, 16);
+        header.destinationHigh = readLong(packet, 24);
+        header.destinationLow = readLong(packet, 32);
+        // 扩展头较少见，这里不展开；只处理紧跟固定头的 TCP/UDP。
+        parseTransportHeader(packet, 40, end, header);
+        return true;
+    }
+
+    private static void parseTransportHeader(byte[] packet, int offset, int end, PacketHeader header) {
+        header.transportOffset = offset;
+        if (header.protocol == PROTOCOL_TCP) {
+            if (end < offset + 20) {
+                return;
+            }
+            header.sourcePort = readUnsignedShort(packet, end, offset);
+            header.destinationPort = readUnsignedShort(packet, end, offset + 2);
+            header.tcpSequence = readInt(packet, offset + 4);
+            header.tcpAcknowledgement = readInt(packet, offset + 8);
+            int dataOffset = ((packet[offset + 12] >> 4) & 0x0F) * 4;
+            header.tcpFlags = packet[offset + 13] & 0x3F;
+            header.tcpWindow = readUnsignedShort(packet, end, offset + 14);
+            if (dataOffset < 20 || offset + dataOffset > end) {
+                return;
             }
-            if (destinationPort == 443 || sourcePort == 443) {
-                event.setHttps(true);
+            header.payloadOffset = offset + dataOffset;
+            header.payloadLength = end - header.payloadOffset;
+        } else if (header.protocol == PROTOCOL_UDP) {
+            if (end < offset + 8) {
+                return;
             }
+            header.sourcePort = readUnsignedShort(packet, end, offset);
+            header.destinationPort = readUnsignedShort(packet, end, offset + 2);
+            header.payloadOffset = offset + 8;
+            header.payloadLength = end - header.payloadOffset;
         }
-        return event;
     }
 
-    private static String protocolName(int protocol) {
+    static String protocolName(int protocol) {
         switch (protocol) {
             case PROTOCOL_ICMP:
                 return "ICMP";
@@ -106,29 +162,37 @@ final class IpPacketParser {
         }
     }
 
-    private static int readUnsignedShort(byte[] packet, int offset) {
-        if (offset < 0 || packet.length < offset + 2) {
+    static int readUnsignedShort(byte[] packet, int length, int offset) {
+        if (offset < 0 || length < offset + 2) {
             return 0;
         }
         return ((packet[offset] & 0xFF) << 8) | (packet[offset + 1] & 0xFF);
     }
 
-    private static String ipv4ToString(byte[] packet, int offset) {
-        if (packet.length < offset + 4) {
-            return "unknown";
-        }
-        return (packet[offset] & 0xFF) + "."
-                + (packet[offset + 1] & 0xFF) + "."
-                + (packet[offset + 2] & 0xFF) + "."
-                + (packet[offset + 3] & 0xFF);
+    static int readInt(byte[] packet, int offset) {
+        return ((packet[offset] & 0xFF) << 24)
+                | ((packet[offset + 1] & 0xFF) << 16)
+                | ((packet[offset + 2] & 0xFF) << 8)
+                | (packet[offset + 3] & 0xFF);
     }
 
-    private static String ipv6ToString(byte[] packet, int offset) {
-        if (packet.length < offset + 16) {
-            return "unknown";
-        }
+    static long readLong(byte[] packet, int offset) {
+        return ((long) readInt(packet, offset) << 32) | (readInt(packet, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    static String ipv4ToString(int address) {
+        return ((address >>> 24) & 0xFF) + "."
+                + ((address >>> 16) & 0xFF) + "."
+                + ((address >>> 8) & 0xFF) + "."
+                + (address & 0xFF);
+    }
+
+    static String ipv6ToString(long high, long low) {
         byte[] address = new byte[16];
-        System.arraycopy(packet, offset, address, 0, address.length);
+        for (int i = 0; i < 8; i++) {
+            address[i] = (byte) (high >>> (56 - i * 8));
+            address[8 + i] = (byte) (low >>> (56 - i * 8));
+        }
         try {
             return InetAddress.getByAddress(address).getHostAddress();
         } catch (UnknownHostException ignored) {
@@ -136,23 +200,11 @@ final class IpPacketParser {
         }
     }
 
-    private static String tryParseHttpPath(byte[] packet, int transportHeaderOffset) {
-        if (packet == null) {
-            return null;
-        }
-        int tcpHeaderMinOffset = transportHeaderOffset + 20;
-        if (packet.length < tcpHeaderMinOffset) {
-            return null;
-        }
-        int dataOffset = ((packet[transportHeaderOffset + 12] >> 4) & 0x0F) * 4;
-        if (dataOffset < 20) {
-            return null;
-        }
-        int payloadOffset = transportHeaderOffset + dataOffset;
-        if (payloadOffset < 0 || payloadOffset >= packet.length) {
+    private static String tryParseHttpPath(byte[] packet, int payloadOffset, int payloadEnd) {
+        if (packet == null || payloadOffset < 0 || payloadOffset >= payloadEnd) {
             return null;
         }
-        int limit = Math.min(packet.length, payloadOffset + 256);
+        int limit = Math.min(payloadEnd, payloadOffset + 256);
         // Request line: METHOD SP PATH SP HTTP/1.1
         int methodEnd = indexOfByte(packet, payloadOffset, limit, (byte) ' ');
         if (methodEnd <= payloadOffset) {
@@ -0,0 +1,121 @@
+package com.newchar.debug.net;
+
+import java.util.Arrays;
+
+/**
+ * 固定大小的对数分桶直方图（HDR Histogram 的简化版）。
+ *
+ * 每个 2 的幂区间再线性切成 {@link #SUB_BUCKET_COUNT} 个子桶，任意值的相对误差不超过 1/16；
+ * 小于 {@link #SUB_BUCKET_COUNT} 的值精确记录。值域为 [0, 2^{@value #MAX_EXPONENT})，更大的值计入最后一个桶。
+ * 记录只做位运算和数组自增，不分配内存；不做同步，由调用方负责。
+ */
+final class LogHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final int[] mCounts;
+    private long mTotalCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    LogHistogram() {
+        mCounts = new int[BUCKET_COUNT];
+    }
+
+    private LogHistogram(LogHistogram source) {
+        mCounts = source.mCounts.clone();
+        mTotalCount = source.mTotalCount;
+        mSum = source.mSum;
+        mMin = source.mMin;
+        mMax = source.mMax;
+    }
+
+    LogHistogram copy() {
+        return new LogHistogram(this);
+    }
+
+    void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        mCounts[bucketIndex(value)]++;
+        mTotalCount++;
+        mSum += value;
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    long getTotalCount() {
+        return mTotalCount;
+    }
+
+    long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    long getMax() {
+        return mMax;
+    }
+
+    double getMean() {
+        return mTotalCount == 0 ? 0 : (double) mSum / mTotalCount;
+    }
+
+    /**
+     * 百分位值（0~100），返回所在桶的上界，并夹在实际最小/最大值之间。
+     */
+    long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        double clamped = Math.max(0d, Math.min(100d, percentile));
+        long target = Math.max(1L, (long) Math.ceil(clamped / 100d * mTotalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.max(getMin(), Math.min(mMax, bucketUpperBound(i)));
+            }
+        }
+        return mMax;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        // 子桶编号取最高位之后的 SUB_BUCKET_BITS 位
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,444 @@
+package com.newchar.debug.net;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+/**
+ * HTTPS 解密用的本地 CA：从 {@link DebugNetConfig} 配置的 PKCS12/BKS 文件加载 CA 私钥与证书，按主机名签发叶子证书。
+ *
+ * 签发要做一次 CA 私钥签名，首次还要生成叶子密钥对，耗时不能放在转发线程：{@link #mintAsync} 在单独的线程签发，
+ * 结果按主机名放进容量为 {@link #MAX_CACHED_HOSTS} 的 LRU。所有叶子证书共用一个密钥对，只在第一次签发时生成。
+ * 证书没有依赖第三方库，TBSCertificate 按 DER 手工编码。
+ */
+final class MitmCertificateAuthority {
+
+    static final int MAX_CACHED_HOSTS = 64;
+    /** 客户端拒绝我们证书（多半是证书锁定）的主机最多记录这么多个，之后这些主机直接透传。 */
+    static final int MAX_BYPASS_HOSTS = 256;
+    /** 同一主机连续这么多次在握手后立即被 App 关闭，才认定 App 拒绝了证书；一次可能只是取消的请求。 */
+    static final int SUSPECT_CLOSE_LIMIT = 2;
+
+    private static final String TAG = "DebugNetMitm";
+    private static final long LEAF_NOT_BEFORE_SKEW_MS = 24L * 60 * 60 * 1000;
+    /** 主流客户端要求服务端证书有效期不超过 398 天。 */
+    private static final long LEAF_VALIDITY_MS = 390L * 24 * 60 * 60 * 1000;
+    private static final long MINTER_KEEP_ALIVE_SECONDS = 30L;
+
+    private static final Object sLock = new Object();
+    private static String sLoadedKey;
+    private static MitmCertificateAuthority sLoaded;
+
+    private final PrivateKey mCaKey;
+    private final X509Certificate mCaCertificate;
+    private final String mSignatureAlgorithm;
+    private final byte[] mSignatureAlgorithmDer;
+    private final SecureRandom mRandom = new SecureRandom();
+    private final ThreadPoolExecutor mMinter;
+    private final Map<String, SSLContext> mContexts = new LinkedHashMap<String, SSLContext>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SSLContext> eldest) {
+            return size() > MAX_CACHED_HOSTS;
+        }
+    };
+    private final Set<String> mMinting = new HashSet<>();
+    private final Map<String, Boolean> mBypassHosts = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_BYPASS_HOSTS;
+        }
+    };
+    /** 各主机连续的嫌疑关闭次数，与 mBypassHosts 共用锁。 */
+    private final Map<String, Integer> mSuspectCloses = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_BYPASS_HOSTS;
+        }
+    };
+    /** 只在签发线程访问。 */
+    private KeyPair mLeafKeyPair;
+
+    private MitmCertificateAuthority(PrivateKey caKey, X509Certificate caCertificate) {
+        mCaKey = caKey;
+        mCaCertificate = caCertificate;
+        if ("EC".equals(caKey.getAlgorithm())) {
+            mSignatureAlgorithm = "SHA256withECDSA";
+            // ecdsa-with-SHA256，不带参数
+            mSignatureAlgorithmDer = sequence(oid(1, 2, 840, 10045, 4, 3, 2));
+        } else {
+            mSignatureAlgorithm = "SHA256withRSA";
+            // sha256WithRSAEncryption，参数为 NULL
+            mSignatureAlgorithmDer = sequence(oid(1, 2, 840, 113549, 1, 1, 11), new byte[]{0x05, 0x00});
+        }
+        mMinter = new ThreadPoolExecutor(0, 1, MINTER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "DebugNetCertMinter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * 按配置取 CA，证书路径、密码、类型和文件修改时间都不变时复用已加载的实例（连同已签发的证书缓存）。
+     *
+     * @return HTTPS 解码未开启或证书加载失败时返回 null，同一份配置的失败只记录一次日志
+     */
+    static MitmCertificateAuthority forConfig(DebugNetConfig config) {
+        if (!config.isHttpsDecodeEnabled() || config.getCertificatePath().isEmpty()) {
+            return null;
+        }
+        File file = new File(config.getCertificatePath());
+        String key = config.getCertificatePath() + '\n' + config.getKeystoreType() + '\n'
+                + config.getCertificatePassword().hashCode() + '\n' + file.lastModified();
+        synchronized (sLock) {
+            if (key.equals(sLoadedKey)) {
+                return sLoaded;
+            }
+            sLoadedKey = key;
+            sLoaded = null;
+            try {
+                sLoaded = load(file, config.getKeystoreType(), config.getCertificatePassword().toCharArray());
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                Log.w(TAG, "load CA keystore failed: " + file, e);
+            }
+            return sLoaded;
+        }
+    }
+
+    private static MitmCertificateAuthority load(File file, String type, char[] password)
+            throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(type);
+        try (InputStream input = new FileInputStream(file)) {
+            keyStore.load(input, password);
+        }
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (!keyStore.isKeyEntry(alias)) {
+                continue;
+            }
+            Key key = keyStore.getKey(alias, password);
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (key instanceof PrivateKey && certificate instanceof X509Certificate) {
+                return new MitmCertificateAuthority((PrivateKey) key, (X509Certificate) certificate);
+            }
+        }
+        throw new GeneralSecurityException("no private key entry in " + file);
+    }
+
+    /**
+     * 已签发的服务端 SSLContext，未签发返回 null。
+     */
+    SSLContext getCachedContext(String host) {
+        synchronized (mContexts) {
+            return mContexts.get(host);
+        }
+    }
+
+    /**
+     * 在签发线程为 host 签发证书，完成（或失败）后在签发线程回调 onDone。同一主机同时只签发一次，重复请求不回调。
+     */
+    void mintAsync(String host, Runnable onDone) {
+        synchronized (mContexts) {
+            if (mContexts.containsKey(host) || !mMinting.add(host)) {
+                return;
+            }
+        }
+        mMinter.execute(() -> {
+            SSLContext context = null;
+            try {
+                context = createServerContext(host);
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                Log.w(TAG, "mint certificate failed: " + host, e);
+            }
+            synchronized (mContexts) {
+                mMinting.remove(host);
+                if (context != null) {
+                    mContexts.put(host, context);
+                }
+            }
+            onDone.run();
+        });
+    }
+
+    /**
+     * 是否正在签发。不在签发中且 {@link #getCachedContext} 仍为 null 说明签发失败，调用方应放弃解密。
+     */
+    boolean isMinting(String host) {
+        synchronized (mContexts) {
+            return mMinting.contains(host);
+        }
+    }
+
+    boolean isBypassed(String host) {
+        synchronized (mBypassHosts) {
+            return mBypassHosts.containsKey(host);
+        }
+    }
+
+    /**
+     * 客户端拒绝了签发的证书，之后该主机不再解密。
+     */
+    void markBypassed(String host) {
+        synchronized (mBypassHosts) {
+            mBypassHosts.put(host, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * App 在握手完成后很快关闭了连接、没发过应用数据，连续达到 {@link #SUSPECT_CLOSE_LIMIT} 次时不再解密该主机。
+     *
+     * @return 是否因此标记为不再解密
+     */
+    boolean onSuspectClose(String host) {
+        synchronized (mBypassHosts) {
+            Integer count = mSuspectCloses.get(host);
+            int closes = count == null ? 1 : count + 1;
+            if (closes < SUSPECT_CLOSE_LIMIT) {
+                mSuspectCloses.put(host, closes);
+                return false;
+            }
+            mSuspectCloses.remove(host);
+            mBypassHosts.put(host, Boolean.TRUE);
+            return true;
+        }
+    }
+
+    /**
+     * App 在该主机的解密连接上发过应用数据，之前的嫌疑关闭不再算连续。
+     */
+    void clearSuspectCloses(String host) {
+        synchronized (mBypassHosts) {
+            mSuspectCloses.remove(host);
+        }
+    }
+
+    private SSLContext createServerContext(String host) throws GeneralSecurityException, IOException {
+        if (mLeafKeyPair == null) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048, mRandom);
+            mLeafKeyPair = generator.generateKeyPair();
+        }
+        X509Certificate leaf = buildLeafCertificate(host, mLeafKeyPair);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(new KeyManager[]{new LeafKeyManager(mLeafKeyPair.getPrivate(),
+                new X509Certificate[]{leaf, mCaCertificate})}, null, mRandom);
+        return context;
+    }
+
+    private X509Certificate buildLeafCertificate(String host, KeyPair keyPair)
+            throws GeneralSecurityException, IOException {
+        long now = System.currentTimeMillis();
+        long notAfter = Math.min(now + LEAF_VALIDITY_MS, mCaCertificate.getNotAfter().getTime());
+        byte[] serial = new byte[16];
+        mRandom.nextBytes(serial);
+        serial[0] &= 0x7F;
+        byte[] subjectAltName = isIpLiteral(host)
+                ? tagged(0x87, ipAddressBytes(host))
+                : tagged(0x82, host.getBytes(StandardCharsets.US_ASCII));
+        byte[] extensions = sequence(
+                // subjectAltName
+                sequence(oid(2, 5, 29, 17), octetString(sequence(subjectAltName))),
+                // basicConstraints: CA=false
+                sequence(oid(2, 5, 29, 19), octetString(sequence())),
+                // keyUsage: digitalSignature | keyEncipherment，critical
+                sequence(oid(2, 5, 29, 15), new byte[]{0x01, 0x01, (byte) 0xFF},
+                        octetString(new byte[]{0x03, 0x02, 0x05, (byte) 0xA0})),
+                // extKeyUsage: serverAuth
+                sequence(oid(2, 5, 29, 37), octetString(sequence(oid(1, 3, 6, 1, 5, 5, 7, 3, 1)))));
+        byte[] tbs = sequence(
+                tagged(0xA0, integer(BigInteger.valueOf(2))),
+                integer(new BigInteger(serial)),
+                mSignatureAlgorithmDer,
+                mCaCertificate.getSubjectX500Principal().getEncoded(),
+                sequence(time(now - LEAF_NOT_BEFORE_SKEW_MS), time(notAfter)),
+                sequence(set(sequence(oid(2, 5, 4, 3), tagged(0x0C, host.getBytes(StandardCharsets.UTF_8))))),
+                keyPair.getPublic().getEncoded(),
+                tagged(0xA3, extensions));
+        Signature signer = Signature.getInstance(mSignatureAlgorithm);
+        signer.initSign(mCaKey);
+        signer.update(tbs);
+        byte[] signature = signer.sign();
+        byte[] bitString = new byte[signature.length + 1];
+        System.arraycopy(signature, 0, bitString, 1, signature.length);
+        byte[] certificate = sequence(tbs, mSignatureAlgorithmDer, tagged(0x03, bitString));
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(certificate));
+    }
+
+    private static boolean isIpLiteral(String host) {
+        return host.indexOf(':') >= 0 || host.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+    }
+
+    private static byte[] ipAddressBytes(String host) throws IOException {
+        return java.net.InetAddress.getByName(host).getAddress();
+    }
+
+    // ---------------------------------------------------------------- DER
+
+    private static byte[] sequence(byte[]... items) {
+        return tagged(0x30, concat(items));
+    }
+
+    private static byte[] set(byte[]... items) {
+        return tagged(0x31, concat(items));
+    }
+
+    private static byte[] octetString(byte[] content) {
+        return tagged(0x04, content);
+    }
+
+    private static byte[] integer(BigInteger value) {
+        return tagged(0x02, value.toByteArray());
+    }
+
+    /**
+     * 2050 年之前用 UTCTime，之后用 GeneralizedTime。
+     */
+    private static byte[] time(long millis) {
+        Date date = new Date(millis);
+        SimpleDateFormat format = new SimpleDateFormat("yyyy", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        boolean utc = Integer.parseInt(format.format(date)) < 2050;
+        format.applyPattern(utc ? "yyMMddHHmmss'Z'" : "yyyyMMddHHmmss'Z'");
+        return tagged(utc ? 0x17 : 0x18, format.format(date).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] oid(int... arcs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(arcs[0] * 40 + arcs[1]);
+        for (int i = 2; i < arcs.length; i++) {
+            int value = arcs[i];
+            int shift = 28;
+            while (shift > 0 && (value >>> shift) == 0) {
+                shift -= 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                out.write(0x80 | ((value >>> shift) & 0x7F));
+            }
+            out.write(value & 0x7F);
+        }
+        return tagged(0x06, out.toByteArray());
+    }
+
+    private static byte[] tagged(int tag, byte[] content) {
+        int length = content.length;
+        int lengthBytes = length < 0x80 ? 0 : length < 0x100 ? 1 : length < 0x10000 ? 2 : 3;
+        byte[] out = new byte[2 + lengthBytes + length];
+        out[0] = (byte) tag;
+        if (lengthBytes == 0) {
+            out[1] = (byte) length;
+        } else {
+            out[1] = (byte) (0x80 | lengthBytes);
+            for (int i = 0; i < lengthBytes; i++) {
+                out[2 + i] = (byte) (length >>> ((lengthBytes - 1 - i) * 8));
+            }
+        }
+        System.arraycopy(content, 0, out, 2 + lengthBytes, length);
+        return out;
+    }
+
+    private static byte[] concat(byte[]... items) {
+        int total = 0;
+        for (byte[] item : items) {
+            total += item.length;
+        }
+        byte[] out = new byte[total];
+        int offset = 0;
+        for (byte[] item : items) {
+            System.arraycopy(item, 0, out, offset, item.length);
+            offset += item.length;
+        }
+        return out;
+    }
+
+    /**
+     * 只提供一张叶子证书的服务端 KeyManager。
+     */
+    private static final class LeafKeyManager extends X509ExtendedKeyManager {
+
+        private static final String ALIAS = "leaf";
+
+        private final PrivateKey mKey;
+        private final X509Certificate[] mChain;
+
+        LeafKeyManager(PrivateKey key, X509Certificate[] chain) {
+            mKey = key;
+            mChain = chain;
+        }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            return chooseServerAlias(keyType, issuers, (Socket) null);
+        }
+
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            // 握手时会按各个密钥类型依次询问，只对与叶子密钥同类型的给出别名
+            return keyType != null && keyType.startsWith(mKey.getAlgorithm()) ? ALIAS : null;
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            String alias = chooseServerAlias(keyType, issuers, (Socket) null);
+            return alias == null ? null : new String[]{alias};
+        }
+
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return null;
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+            return null;
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            return mChain.clone();
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            return mKey;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.newchar.debug.net;
+
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * 一条被终结 TLS 的转发连接：面向 App 的服务端 SSLEngine 使用 {@link MitmCertificateAuthority} 签发的证书，
+ * 面向真实服务器的客户端 SSLEngine 使用系统信任库并校验主机名，两者之间搬运明文并交给监听者解析。
+ *
+ * 只在转发线程使用。所有缓冲区都处于写模式（position 为已有数据长度）：App 发来的密文由调用方的上行缓冲区提供，
+ * {@link #upstreamIn} 由调用方从 socket 读入，{@link #upstreamOut} 与 {@link #appOut} 由调用方写出。
+ * 握手的委托任务（签名等）直接在转发线程执行；耗时的证书签发已经在建立本会话之前异步完成。
+ * 不向 App 通告 ALPN，App 会退回 HTTP/1.1，明文可以直接交给 {@link HttpStreamParser}。
+ */
+final class MitmTlsSession {
+
+    /** 等待完整的 ClientHello 以取得 SNI。 */
+    static final int STATE_SNIFFING = 0;
+    /** 已取得主机名，等待证书签发。 */
+    static final int STATE_MINTING = 1;
+    static final int STATE_ACTIVE = 2;
+
+    private static final int MIN_BUFFER_SIZE = 32 * 1024;
+    /**
+     * 证书锁定在握手完成后立即校验，失败时 App 马上关闭连接；超过这个间隔才关闭的多半是预连接或闲置连接
+     */
+    static final long REJECT_WINDOW_MILLIS = 2000L;
+
+    /** App 关闭时已发过应用数据，证书被接受。 */
+    static final int CLOSE_TRUSTED = 0;
+    /** 握手未完成或关闭得较晚，看不出什么。 */
+    static final int CLOSE_UNKNOWN = 1;
+    /** 握手完成后很快关闭、没发过应用数据，可能是证书锁定。 */
+    static final int CLOSE_SUSPECT = 2;
+
+    /**
+     * 解密出的明文，按序同步回调。
+     */
+    interface PlaintextListener {
+
+        void onPlaintext(MitmTlsSession session, boolean upload, byte[] data, int offset, int length);
+    }
+
+    final TcpReassembler.TcpConnection http;
+    final boolean ipv6;
+    final long appHigh;
+    final long appLow;
+    final int appPort;
+    final long remoteHigh;
+    final long remoteLow;
+    final int remotePort;
+    int state = STATE_SNIFFING;
+    String host;
+    boolean mintRequested;
+    /** 上游 socket 已读到 EOF。 */
+    boolean upstreamEof;
+    ByteBuffer upstreamIn;
+    ByteBuffer upstreamOut;
+    ByteBuffer appOut;
+
+    private SSLEngine mServerEngine;
+    private SSLEngine mClientEngine;
+    private ByteBuffer mUploadPlain;
+    private ByteBuffer mDownloadPlain;
+    private boolean mServerHandshakeDone;
+    private boolean mAppSideFailure;
+    /** App 发来过应用数据（解出过上行明文）。 */
+    private boolean mAppDataReceived;
+    private boolean mAppClosed;
+    /** 面向 App 一侧握手完成的时间，-1 表示尚未完成。 */
+    private long mHandshakeDoneMillis = -1L;
+    private long mNowMillis;
+
+    MitmTlsSession(TcpReassembler.FlowKey key, PacketHeader uplinkHeader) {
+        http = new TcpReassembler.TcpConnection(key);
+        ipv6 = uplinkHeader.ipv6;
+        appHigh = uplinkHeader.sourceHigh;
+        appLow = uplinkHeader.sourceLow;
+        appPort = uplinkHeader.sourcePort;
+        remoteHigh = uplinkHeader.destinationHigh;
+        remoteLow = uplinkHeader.destinationLow;
+        remotePort = uplinkHeader.destinationPort;
+    }
+
+    /**
+     * 证书就绪后创建两端 SSLEngine 并进入 {@link #STATE_ACTIVE}。
+     */
+    void start(SSLContext serverContext) throws SSLException {
+        mServerEngine = serverContext.createSSLEngine();
+        mServerEngine.setUseClientMode(false);
+        try {
+            mClientEngine = SSLContext.getDefault().createSSLEngine(host, remotePort);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SSLException(e);
+        }
+        mClientEngine.setUseClientMode(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            SSLParameters parameters = mClientEngine.getSSLParameters();
+            parameters.setServerNames(Collections.singletonList(new SNIHostName(host)));
+            mClientEngine.setSSLParameters(parameters);
+        }
+        int packetSize = Math.max(mServerEngine.getSession().getPacketBufferSize(),
+                mClientEngine.getSession().getPacketBufferSize());
+        int size = Math.max(MIN_BUFFER_SIZE, packetSize * 2);
+        upstreamIn = ByteBuffer.allocate(size);
+        upstreamOut = ByteBuffer.allocate(size);
+        appOut = ByteBuffer.allocate(size);
+        mUploadPlain = ByteBuffer.allocate(size);
+        mDownloadPlain = ByteBuffer.allocate(size);
+        mServerEngine.beginHandshake();
+        mClientEngine.beginHandshake();
+        state = STATE_ACTIVE;
+    }
+
+    /**
+     * 异常是否发生在面向 App 的一侧握手中，或握手后、发应用数据前收到 App 的致命告警，
+     * 通常说明 App 不信任我们的证书（证书锁定或未安装 CA）。
+     */
+    boolean isAppSideFailure() {
+        return mAppSideFailure;
+    }
+
+    /**
+     * App 关闭了连接（FIN 或 RST），只有第一次调用会做判断。
+     * OkHttp 的 CertificatePinner 等证书锁定大多在握手完成之后才校验，失败时直接关闭或重置连接而不发告警；
+     * 但取消的请求、预连接也会这样关闭，单次关闭只算嫌疑，由调用方累计。
+     *
+     * @param nowMillis 当前时间
+     * @return {@link #CLOSE_TRUSTED}、{@link #CLOSE_UNKNOWN} 或 {@link #CLOSE_SUSPECT}
+     */
+    int onAppClosed(long nowMillis) {
+        if (mAppClosed) {
+            return CLOSE_UNKNOWN;
+        }
+        mAppClosed = true;
+        if (mAppDataReceived) {
+            return CLOSE_TRUSTED;
+        }
+        if (mHandshakeDoneMillis >= 0 && nowMillis - mHandshakeDoneMillis <= REJECT_WINDOW_MILLIS) {
+            return CLOSE_SUSPECT;
+        }
+        return CLOSE_UNKNOWN;
+    }
+
+    /**
+     * 在两端之间搬运数据直到没有进展。appIn 为 App 发来的密文，appEof 表示 App 已发 FIN。
+     *
+     * @param nowMillis 当前时间，记录握手完成的时刻
+     * @return 是否消费或产生了任何字节
+     */
+    boolean pump(ByteBuffer appIn, boolean appEof, PlaintextListener listener, long nowMillis)
+            throws SSLException {
+        mNowMillis = nowMillis;
+        boolean any = false;
+        while (true) {
+            boolean progress = unwrap(mServerEngine, appIn, mUploadPlain, listener, true);
+            progress |= wrap(mClientEngine, mUploadPlain, upstreamOut);
+            progress |= unwrap(mClientEngine, upstreamIn, mDownloadPlain, listener, false);
+            progress |= wrap(mServerEngine, mDownloadPlain, appOut);
+            if (!progress) {
+                progress = propagateClose(appEof);
+            }
+            if (!progress) {
+                return any;
+            }
+            any = true;
+        }
+    }
+
+    /**
+     * 面向 App 的一侧已发出 close_notify 且全部写给了 App，可以给 App 发 FIN。
+     */
+    boolean isAppOutputDone() {
+        return mServerEngine.isOutboundDone() && appOut.position() == 0;
+    }
+
+    /**
+     * 面向服务器的一侧已发出 close_notify 且全部写出，可以关闭上游 socket 的输出。
+     */
+    boolean isUpstreamOutputDone() {
+        return mClientEngine.isOutboundDone() && upstreamOut.position() == 0;
+    }
+
+    /**
+     * 一端的输入结束且已无法再解出数据时，关闭另一端的输出，把关闭传递过去。
+     */
+    private boolean propagateClose(boolean appEof) {
+        boolean progress = false;
+        if (upstreamEof && !mClientEngine.isInboundDone()) {
+            closeInboundQuietly(mClientEngine);
+            progress = true;
+        }
+        if (mClientEngine.isInboundDone() && mDownloadPlain.position() == 0 && !mServerEngine.isOutboundDone()) {
+            mServerEngine.closeOutbound();
+            progress = true;
+        }
+        if (appEof && !mServerEngine.isInboundDone()) {
+            closeInboundQuietly(mServerEngine);
+            progress = true;
+        }
+        if (mServerEngine.isInboundDone() && mUploadPlain.position() == 0 && !mClientEngine.isOutboundDone()) {
+            mClientEngine.closeOutbound();
+            progress = true;
+        }
+        return progress;
+    }
+
+    private boolean unwrap(SSLEngine engine, ByteBuffer source, ByteBuffer target, PlaintextListener listener,
+            boolean upload) throws SSLException {
+        if (source.position() == 0 || engine.isInboundDone()
+                || target.remaining() < engine.getSession().getApplicationBufferSize()) {
+            return false;
+        }
+        int start = target.position();
+        SSLEngineResult result;
+        source.flip();
+        try {
+            result = engine.unwrap(source, target);
+        } catch (SSLException e) {
+            onFailure(engine, true);
+            throw e;
+        } finally {
+            source.compact();
+        }
+        if (target.position() > start) {
+            mAppDataReceived |= upload;
+            listener.onPlaintext(this, upload, target.array(), start, target.position() - start);
+        }
+        return afterOperation(engine, result);
+    }
+
+    private boolean wrap(SSLEngine engine, ByteBuffer source, ByteBuffer target) throws SSLException {
+        if (engine.isOutboundDone() || target.remaining() < engine.getSession().getPacketBufferSize()) {
+            return false;
+        }
+        SSLEngineResult result;
+        source.flip();
+        try {
+            result = engine.wrap(source, target);
+        } catch (SSLException e) {
+            onFailure(engine, false);
+            throw e;
+        } finally {
+            source.compact();
+        }
+        return afterOperation(engine, result);
+    }
+
+    private boolean afterOperation(SSLEngine engine, SSLEngineResult result) throws SSLException {
+        boolean progress = result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+            progress = true;
+        } else if (status == SSLEngineResult.HandshakeStatus.FINISHED) {
+            if (engine == mServerEngine) {
+                mServerHandshakeDone = true;
+                mHandshakeDoneMillis = mNowMillis;
+            } else if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, engine.getSession())) {
+                throw new SSLPeerUnverifiedException("hostname mismatch: " + host);
+            }
+            progress = true;
+        }
+        return progress;
+    }
+
+    /**
+     * @param inbound 解 App 发来的数据时出错，握手之后多半是 App 发了致命告警
+     */
+    private void onFailure(SSLEngine engine, boolean inbound) {
+        if (engine == mServerEngine && (!mServerHandshakeDone || (inbound && !mAppDataReceived))) {
+            mAppSideFailure = true;
+        }
+    }
+
+    private static void closeInboundQuietly(SSLEngine engine) {
+        try {
+            engine.closeInbound();
+        } catch (SSLException ignored) {
+            // 对端没发 close_notify 就断开，按截断处理
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.newchar.debug.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 弱网模拟：按 {@link DebugNetNetworkCondition} 对进出 TUN 的包做限速、延迟与丢包，只在转发线程使用。
+ *
+ * 每个包进入时一次算好放行时间：先过令牌桶得到发出时间，再加固定延迟与抖动；同一连接同一方向的放行时间
+ * 不早于前一个包，抖动不会造成乱序。待放行的包挂在一个 {@link TimingWheel} 上，由转发线程的 select 超时驱动，
+ * 不为连接单独起线程或定时器，几百个连接也只是时间轮上的节点。
+ *
+ * 本地 TCP 栈不做重传，下行 TCP 包不能真的丢：命中丢包的下行 TCP 包改为额外延迟一个重传超时再送达，
+ * 效果与丢包后重传一致；上行 TCP 包与 UDP 包按概率真正丢弃，由 App 的协议栈自行重传。
+ */
+final class NetworkConditioner {
+
+    /**
+     * 放行到期的包。buffer 的 position 为包长度，处理完由接收方归还缓冲池。
+     */
+    interface Output {
+
+        void deliverUplink(ByteBuffer buffer);
+
+        void deliverDownlink(ByteBuffer buffer);
+    }
+
+    private static final long TICK_NANOS = 1_000_000L;
+    private static final int WHEEL_SLOTS = 1024;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    /** 令牌桶允许的突发时长，至少能连续通过几个满 MTU 的包。 */
+    private static final long BURST_NANOS = 50 * NANOS_PER_MILLI;
+    private static final int MIN_BURST_BYTES = 4 * 1500;
+    /** 排队超过这个时长的包按路由器队列溢出处理；下行 TCP 不丢，由 App 的窗口自然限制排队量。 */
+    private static final long MAX_QUEUE_NANOS = 2000 * NANOS_PER_MILLI;
+    /** 下行 TCP 模拟丢包时额外等待的重传超时下限，与常见的最小 RTO 一致。 */
+    private static final long MIN_RETRANSMIT_NANOS = 200 * NANOS_PER_MILLI;
+    private static final long FLOW_IDLE_NANOS = 30_000 * NANOS_PER_MILLI;
+
+    private final PacketBufferPool mBufferPool;
+    private final AtomicLong mDelayedCount;
+    private final AtomicLong mDroppedCount;
+    private final TimingWheel<Pending> mWheel;
+    private final ArrayList<Pending> mExpired = new ArrayList<>();
+    private final Map<TcpReassembler.FlowKey, FlowState> mFlows = new HashMap<>();
+    private final TcpReassembler.FlowKey mLookupKey = new TcpReassembler.FlowKey();
+    private final PacketHeader mHeader = new PacketHeader();
+    private final Random mRandom = new Random();
+    private DebugNetNetworkCondition mSource;
+    /** 生效中的模拟参数，未开启时为 null。 */
+    private DebugNetNetworkCondition mCondition;
+    private TokenBucket mSharedUpload;
+    private TokenBucket mSharedDownload;
+
+    NetworkConditioner(PacketBufferPool bufferPool, AtomicLong delayedCount, AtomicLong droppedCount, long nowNanos) {
+        mBufferPool = bufferPool;
+        mDelayedCount = delayedCount;
+        mDroppedCount = droppedCount;
+        mWheel = new TimingWheel<>(TICK_NANOS, WHEEL_SLOTS, nowNanos);
+    }
+
+    /**
+     * 切换模拟参数。参数变化时先放行全部排队中的包，再按新参数重新计时，避免新旧包在同一连接内乱序。
+     */
+    void setCondition(DebugNetNetworkCondition condition, Output output) {
+        if (condition == mSource) {
+            return;
+        }
+        mSource = condition;
+        flush(output);
+        mFlows.clear();
+        mCondition = condition != null && condition.isEnabled() ? condition : null;
+        mSharedUpload = null;
+        mSharedDownload = null;
+        if (mCondition != null) {
+            mSharedUpload = TokenBucket.forKbps(mCondition.getUploadKbps());
+            mSharedDownload = TokenBucket.forKbps(mCondition.getDownloadKbps());
+        }
+    }
+
+    /**
+     * 上行包（App 发出）。返回 true 表示已接管缓冲区：排队等待放行或被丢弃并已归还缓冲池。
+     */
+    boolean offerUplink(ByteBuffer buffer, long nowNanos) {
+        return offer(buffer.array(), buffer.position(), true, buffer, nowNanos);
+    }
+
+    /**
+     * 下行包（写回 TUN）。返回 true 表示已拷贝排队或已丢弃，调用方不必再写出。
+     */
+    boolean offerDownlink(byte[] packet, int length, long nowNanos) {
+        return offer(packet, length, false, null, nowNanos);
+    }
+
+    /**
+     * 放行所有到期的包。
+     */
+    void expire(long nowNanos, Output output) {
+        if (mWheel.size() == 0) {
+            return;
+        }
+        mWheel.expire(nowNanos, mExpired);
+        deliverExpired(output);
+    }
+
+    /**
+     * 最近一个待放行包的时间，没有排队的包时返回 Long.MAX_VALUE。
+     */
+    long nextWakeupNanos() {
+        return mWheel.nextWakeupNanos();
+    }
+
+    /**
+     * 清理长时间没有包经过的连接状态。
+     */
+    void sweep(long nowNanos) {
+        Iterator<FlowState> iterator = mFlows.values().iterator();
+        while (iterator.hasNext()) {
+            FlowState flow = iterator.next();
+            if (flow.pendingCount == 0 && nowNanos - flow.lastActiveNanos >= FLOW_IDLE_NANOS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 转发停止时调用，排队中的包直接丢弃并归还缓冲池，之后不再模拟。
+     */
+    void release() {
+        mCondition = null;
+        mWheel.drainAll(mExpired);
+        for (int i = 0; i < mExpired.size(); i++) {
+            mBufferPool.release(mExpired.get(i).buffer);
+        }
+        mExpired.clear();
+        mFlows.clear();
+    }
+
+    private void flush(Output output) {
+        if (mWheel.size() == 0) {
+            return;
+        }
+        mWheel.drainAll(mExpired);
+        deliverExpired(output);
+    }
+
+    private void deliverExpired(Output output) {
+        // 放行上行包可能产生新的下行包再次进入时间轮，所以先整体取出再逐个交付
+        for (int i = 0; i < mExpired.size(); i++) {
+            Pending pending = mExpired.get(i);
+            mExpired.set(i, null);
+            pending.flow.pendingCount--;
+            if (pending.upload) {
+                output.deliverUplink(pending.buffer);
+            } else {
+                output.deliverDownlink(pending.buffer);
+            }
+        }
+        mExpired.clear();
+    }
+
+    private boolean offer(byte[] packet, int length, boolean upload, ByteBuffer buffer, long nowNanos) {
+        DebugNetNetworkCondition condition = mCondition;
+        if (condition == null) {
+            return false;
+        }
+        PacketFilter filter = condition.getFilter();
+        if (filter != null && !filter.matches(packet, length)) {
+            return false;
+        }
+        if (!IpPacketParser.parseHeader(packet, length, mHeader)) {
+            return false;
+        }
+        boolean tcp = mHeader.isTcp();
+        // RST 不会被重传，丢了只会让连接挂到超时，不参与丢包
+        boolean droppable = (upload || !tcp) && !(tcp && mHeader.hasTcpFlag(PacketHeader.TCP_RST));
+        mLookupKey.set(mHeader);
+        FlowState flow = mFlows.get(mLookupKey);
+        if (flow == null) {
+            flow = new FlowState();
+            if (condition.isPerFlowBandwidth()) {
+                flow.upload = TokenBucket.forKbps(condition.getUploadKbps());
+                flow.download = TokenBucket.forKbps(condition.getDownloadKbps());
+            }
+            mFlows.put(mLookupKey.copy(), flow);
+        }
+        flow.lastActiveNanos = nowNanos;
+
+        long extraNanos = 0L;
+        long delayNanos = condition.getDelayMillis() * NANOS_PER_MILLI;
+        if (condition.getLossPercent() > 0 && mRandom.nextFloat() * 100f < condition.getLossPercent()) {
+            if (droppable) {
+                return drop(buffer);
+            }
+            extraNanos = Math.max(MIN_RETRANSMIT_NANOS, 2 * delayNanos);
+        }
+        TokenBucket bucket = condition.isPerFlowBandwidth()
+                ? (upload ? flow.upload : flow.download)
+                : (upload ? mSharedUpload : mSharedDownload);
+        long departNanos = nowNanos;
+        if (bucket != null) {
+            if (droppable && bucket.backlogNanos(nowNanos) > MAX_QUEUE_NANOS) {
+                return drop(buffer);
+            }
+            departNanos = bucket.reserve(length, nowNanos);
+        }
+        int jitterMillis = condition.getJitterMillis();
+        if (jitterMillis > 0) {
+            delayNanos += (mRandom.nextInt(2 * jitterMillis + 1) - jitterMillis) * NANOS_PER_MILLI;
+        }
+        long dueNanos = departNanos + Math.max(0L, delayNanos) + extraNanos;
+        long lastDueNanos = upload ? flow.lastUploadDueNanos : flow.lastDownloadDueNanos;
+        if (dueNanos < lastDueNanos) {
+            dueNanos = lastDueNanos;
+        }
+        if (upload) {
+            flow.lastUploadDueNanos = dueNanos;
+        } else {
+            flow.lastDownloadDueNanos = dueNanos;
+        }
+        if (dueNanos <= nowNanos && flow.pendingCount == 0) {
+            // 只命中了没有丢的丢包判定或桶里令牌充足，直接放行，不拷贝
+            return false;
+        }
+        Pending pending = new Pending();
+        pending.flow = flow;
+        pending.upload = upload;
+        if (buffer != null) {
+            pending.buffer = buffer;
+        } else {
+            ByteBuffer copy = length <= mBufferPool.getBufferSize()
+                    ? mBufferPool.acquire() : ByteBuffer.allocate(length);
+            copy.put(packet, 0, length);
+            pending.buffer = copy;
+        }
+        flow.pendingCount++;
+        mWheel.schedule(pending, dueNanos);
+        mDelayedCount.incrementAndGet();
+        return true;
+    }
+
+    private boolean drop(ByteBuffer buffer) {
+        if (buffer != null) {
+            mBufferPool.release(buffer);
+        }
+        mDroppedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 以 GCRA 形式实现的令牌桶：不逐个补令牌，只记录理论上下一个字节可以发出的时间，
+     * 突发容量换算成可以提前的时长。
+     */
+    private static final class TokenBucket {
+
+        private final long mBytesPerSecond;
+        private final long mToleranceNanos;
+        private long mTheoreticalNanos = Long.MIN_VALUE;
+
+        private TokenBucket(long bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+            long burstBytes = Math.max(MIN_BURST_BYTES, bytesPerSecond * BURST_NANOS / NANOS_PER_SECOND);
+            mToleranceNanos = burstBytes * NANOS_PER_SECOND / bytesPerSecond;
+        }
+
+        static TokenBucket forKbps(int kbps) {
+            return kbps > 0 ? new TokenBucket(kbps * 1000L / 8) : null;
+        }
+
+        /**
+         * 当前排队的包还要等多久才能全部发出。
+         */
+        long backlogNanos(long nowNanos) {
+            return mTheoreticalNanos == Long.MIN_VALUE ? 0L : Math.max(0L, mTheoreticalNanos - mToleranceNanos - nowNanos);
+        }
+
+        /**
+         * 占用 bytes 个字节的额度，返回这个包可以发出的时间。
+         */
+        long reserve(int bytes, long nowNanos) {
+            long theoretical = mTheoreticalNanos == Long.MIN_VALUE ? nowNanos : Math.max(mTheoreticalNanos, nowNanos);
+            long departNanos = Math.max(nowNanos, theoretical - mToleranceNanos);
+            mTheoreticalNanos = theoretical + bytes * NANOS_PER_SECOND / mBytesPerSecond;
+            return departNanos;
+        }
+    }
+
+    private static final class FlowState {
+
+        TokenBucket upload;
+        TokenBucket download;
+        long lastUploadDueNanos = Long.MIN_VALUE;
+        long lastDownloadDueNanos = Long.MIN_VALUE;
+        long lastActiveNanos;
+        int pendingCount;
+    }
+
+    private static final class Pending extends TimingWheel.Node {
+
+        FlowState flow;
+        boolean upload;
+        ByteBuffer buffer;
+    }
+}
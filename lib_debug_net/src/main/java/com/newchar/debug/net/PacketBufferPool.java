@@ -0,0 +1,88 @@
+package com.newchar.debug.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TUN 读包缓冲池。捕获线程借出 ByteBuffer 直接从 FileChannel 读包，解析分发后归还，避免每个包都分配数组。
+ *
+ * 池为空时临时分配（记为 miss），归还时池已满则直接丢弃，由 GC 回收。
+ */
+public final class PacketBufferPool {
+
+    private final ByteBuffer[] mSlots;
+    private final int mBufferSize;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private int mAvailable;
+
+    PacketBufferPool(int capacity, int bufferSize) {
+        mSlots = new ByteBuffer[Math.max(1, capacity)];
+        mBufferSize = bufferSize;
+        for (int i = 0; i < mSlots.length; i++) {
+            mSlots[i] = ByteBuffer.allocate(bufferSize);
+        }
+        mAvailable = mSlots.length;
+    }
+
+    ByteBuffer acquire() {
+        synchronized (mSlots) {
+            if (mAvailable > 0) {
+                mAvailable--;
+                ByteBuffer buffer = mSlots[mAvailable];
+                mSlots[mAvailable] = null;
+                mHitCount.incrementAndGet();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        mMissCount.incrementAndGet();
+        return ByteBuffer.allocate(mBufferSize);
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != mBufferSize || !buffer.hasArray()) {
+            return;
+        }
+        buffer.clear();
+        synchronized (mSlots) {
+            if (mAvailable < mSlots.length) {
+                mSlots[mAvailable++] = buffer;
+            }
+        }
+    }
+
+    /**
+     * 池中缓冲区总数。
+     */
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * 当前空闲可借出的缓冲区数量。
+     */
+    public int getAvailableCount() {
+        synchronized (mSlots) {
+            return mAvailable;
+        }
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * 从池中直接借到缓冲区的次数。
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 池为空而临时分配缓冲区的次数。
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+}
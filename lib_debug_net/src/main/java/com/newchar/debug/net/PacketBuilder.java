@@ -0,0 +1,151 @@
+package com.newchar.debug.net;
+
+/**
+ * 构造写回 TUN 的 IPv4/IPv6 TCP、UDP 包，包括 IP 头与传输层校验和。输出写入调用方提供的数组，不分配对象。
+ */
+final class PacketBuilder {
+
+    static final int IPV4_HEADER_SIZE = 20;
+    static final int IPV6_HEADER_SIZE = 40;
+    static final int TCP_HEADER_SIZE = 20;
+    static final int TCP_MSS_OPTION_SIZE = 4;
+    static final int UDP_HEADER_SIZE = 8;
+
+    private int mIpv4Identification;
+
+    /**
+     * 构造一个 TCP 段。地址与端口按写回 TUN 的方向给出（source 为远端）。
+     *
+     * @param mss 大于 0 时附带 MSS 选项，只用于 SYN-ACK
+     * @return 包总长度
+     */
+    int buildTcp(byte[] out, boolean ipv6, long sourceHigh, long sourceLow, int sourcePort,
+                 long destinationHigh, long destinationLow, int destinationPort,
+                 int sequence, int acknowledgement, int flags, int window, int mss,
+                 byte[] payload, int payloadOffset, int payloadLength) {
+        int ipHeaderSize = ipv6 ? IPV6_HEADER_SIZE : IPV4_HEADER_SIZE;
+        int tcpHeaderSize = TCP_HEADER_SIZE + (mss > 0 ? TCP_MSS_OPTION_SIZE : 0);
+        int segmentLength = tcpHeaderSize + payloadLength;
+        writeIpHeader(out, ipv6, IpPacketParser.PROTOCOL_TCP, sourceHigh, sourceLow, destinationHigh,
+                destinationLow, segmentLength);
+        int offset = ipHeaderSize;
+        writeShort(out, offset, sourcePort);
+        writeShort(out, offset + 2, destinationPort);
+        writeInt(out, offset + 4, sequence);
+        writeInt(out, offset + 8, acknowledgement);
+        out[offset + 12] = (byte) ((tcpHeaderSize / 4) << 4);
+        out[offset + 13] = (byte) flags;
+        writeShort(out, offset + 14, Math.min(window, 0xFFFF));
+        writeShort(out, offset + 16, 0);
+        writeShort(out, offset + 18, 0);
+        if (mss > 0) {
+            out[offset + 20] = 2;
+            out[offset + 21] = 4;
+            writeShort(out, offset + 22, mss);
+        }
+        if (payloadLength > 0) {
+            System.arraycopy(payload, payloadOffset, out, offset + tcpHeaderSize, payloadLength);
+        }
+        int checksum = transportChecksum(out, ipv6, IpPacketParser.PROTOCOL_TCP, offset, segmentLength);
+        writeShort(out, offset + 16, checksum);
+        return ipHeaderSize + segmentLength;
+    }
+
+    /**
+     * 构造一个 UDP 包，地址方向同 {@link #buildTcp}。
+     */
+    int buildUdp(byte[] out, boolean ipv6, long sourceHigh, long sourceLow, int sourcePort,
+                 long destinationHigh, long destinationLow, int destinationPort,
+                 byte[] payload, int payloadOffset, int payloadLength) {
+        int ipHeaderSize = ipv6 ? IPV6_HEADER_SIZE : IPV4_HEADER_SIZE;
+        int datagramLength = UDP_HEADER_SIZE + payloadLength;
+        writeIpHeader(out, ipv6, IpPacketParser.PROTOCOL_UDP, sourceHigh, sourceLow, destinationHigh,
+                destinationLow, datagramLength);
+        int offset = ipHeaderSize;
+        writeShort(out, offset, sourcePort);
+        writeShort(out, offset + 2, destinationPort);
+        writeShort(out, offset + 4, datagramLength);
+        writeShort(out, offset + 6, 0);
+        System.arraycopy(payload, payloadOffset, out, offset + UDP_HEADER_SIZE, payloadLength);
+        int checksum = transportChecksum(out, ipv6, IpPacketParser.PROTOCOL_UDP, offset, datagramLength);
+        // UDP 校验和结果为 0 时按规范写 0xFFFF
+        writeShort(out, offset + 6, checksum == 0 ? 0xFFFF : checksum);
+        return ipHeaderSize + datagramLength;
+    }
+
+    private void writeIpHeader(byte[] out, boolean ipv6, int protocol, long sourceHigh, long sourceLow,
+                               long destinationHigh, long destinationLow, int payloadLength) {
+        if (ipv6) {
+            writeInt(out, 0, 6 << 28);
+            writeShort(out, 4, payloadLength);
+            out[6] = (byte) protocol;
+            out[7] = 64;
+            writeLong(out, 8, sourceHigh);
+            writeLong(out, 16, sourceLow);
+            writeLong(out, 24, destinationHigh);
+            writeLong(out, 32, destinationLow);
+            return;
+        }
+        out[0] = 0x45;
+        out[1] = 0;
+        writeShort(out, 2, IPV4_HEADER_SIZE + payloadLength);
+        writeShort(out, 4, mIpv4Identification++ & 0xFFFF);
+        // DF
+        writeShort(out, 6, 0x4000);
+        out[8] = 64;
+        out[9] = (byte) protocol;
+        writeShort(out, 10, 0);
+        writeInt(out, 12, (int) sourceLow);
+        writeInt(out, 16, (int) destinationLow);
+        writeShort(out, 10, finish(sum(out, 0, IPV4_HEADER_SIZE, 0)));
+    }
+
+    private static int transportChecksum(byte[] out, boolean ipv6, int protocol, int offset, int length) {
+        long sum;
+        if (ipv6) {
+            sum = sum(out, 8, 32, 0);
+        } else {
+            sum = sum(out, 12, 8, 0);
+        }
+        sum += protocol;
+        sum += length;
+        return finish(sum(out, offset, length, sum));
+    }
+
+    private static long sum(byte[] data, int offset, int length, long initial) {
+        long sum = initial;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 1 < end; i += 2) {
+            sum += ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+        }
+        if (i < end) {
+            sum += (data[i] & 0xFF) << 8;
+        }
+        return sum;
+    }
+
+    private static int finish(long sum) {
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (int) (~sum & 0xFFFF);
+    }
+
+    private static void writeShort(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 8);
+        out[offset + 1] = (byte) value;
+    }
+
+    private static void writeInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static void writeLong(byte[] out, int offset, long value) {
+        writeInt(out, offset, (int) (value >>> 32));
+        writeInt(out, offset + 4, (int) value);
+    }
+}
@@ -0,0 +1,605 @@
+package com.newchar.debug.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 类 BPF 的抓包过滤表达式，编译一次得到谓词树，之后直接在原始包字节上求值，不解析 {@link PacketHeader}、不分配对象。
+ *
+ * 支持的语法（与 tcpdump 的常用子集一致）：
+ * <pre>
+ *   expr      := term { ("or" | "||") term }
+ *   term      := factor { ("and" | "&&") factor }
+ *   factor    := ("not" | "!") factor | "(" expr ")" | primitive
+ *   primitive := ip | ip6 | tcp | udp | icmp | icmp6
+ *              | [tcp|udp] [src|dst] port N | [tcp|udp] [src|dst] portrange N-M
+ *              | [src|dst] host (IPv4 | IPv6 | 域名) | [src|dst] net CIDR
+ *              | less N | greater N
+ * </pre>
+ * 域名按 DNS 嗅探缓存匹配（等于或为其子域名），缓存里还没有该地址时不匹配。
+ */
+public final class PacketFilter {
+
+    private static final int DIRECTION_SOURCE = 1;
+    private static final int DIRECTION_DESTINATION = 2;
+    private static final int DIRECTION_EITHER = DIRECTION_SOURCE | DIRECTION_DESTINATION;
+
+    private final String mExpression;
+    private final Node mRoot;
+
+    private PacketFilter(String expression, Node root) {
+        mExpression = expression;
+        mRoot = root;
+    }
+
+    /**
+     * 编译过滤表达式。表达式为空时返回 null（不过滤）；语法错误抛出带位置说明的 IllegalArgumentException。
+     */
+    public static PacketFilter compile(String expression) {
+        return compile(expression, null);
+    }
+
+    /**
+     * @param dnsCache 域名条件查询的缓存，null 时使用 {@link DebugNetMonitor#getDnsCache()}
+     */
+    static PacketFilter compile(String expression, DnsCache dnsCache) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return null;
+        }
+        String trimmed = expression.trim();
+        return new PacketFilter(trimmed, new Parser(trimmed, dnsCache).parse());
+    }
+
+    public String getExpression() {
+        return mExpression;
+    }
+
+    /**
+     * 判断一个原始 IP 包是否命中，只做少量字节比较。
+     */
+    public boolean matches(byte[] packet, int length) {
+        return packet != null && length > 0 && length <= packet.length && mRoot.test(packet, length);
+    }
+
+    @Override
+    public String toString() {
+        return mExpression;
+    }
+
+    // ---------------------------------------------------------------- 原始字节访问
+
+    private static int version(byte[] packet) {
+        return (packet[0] >> 4) & 0x0F;
+    }
+
+    /**
+     * 传输层协议号，头部不完整时返回 -1。IPv6 扩展头不展开，与 {@link IpPacketParser} 一致。
+     */
+    private static int protocol(byte[] packet, int length) {
+        int version = version(packet);
+        if (version == 4) {
+            return length >= 20 ? packet[9] & 0xFF : -1;
+        }
+        if (version == 6) {
+            return length >= 40 ? packet[6] & 0xFF : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * TCP/UDP 端口，非 TCP/UDP、IPv4 非首分片或头部不完整时返回 -1。
+     */
+    private static int port(byte[] packet, int length, boolean source) {
+        int protocol = protocol(packet, length);
+        if (protocol != IpPacketParser.PROTOCOL_TCP && protocol != IpPacketParser.PROTOCOL_UDP) {
+            return -1;
+        }
+        int offset;
+        if (version(packet) == 4) {
+            if ((((packet[6] & 0x1F) << 8) | (packet[7] & 0xFF)) != 0) {
+                return -1;
+            }
+            offset = (packet[0] & 0x0F) * 4;
+        } else {
+            offset = 40;
+        }
+        offset += source ? 0 : 2;
+        if (offset + 2 > length) {
+            return -1;
+        }
+        return ((packet[offset] & 0xFF) << 8) | (packet[offset + 1] & 0xFF);
+    }
+
+    // ---------------------------------------------------------------- 谓词树
+
+    private abstract static class Node {
+
+        abstract boolean test(byte[] packet, int length);
+    }
+
+    private static final class AndNode extends Node {
+
+        private final Node mLeft;
+        private final Node mRight;
+
+        AndNode(Node left, Node right) {
+            mLeft = left;
+            mRight = right;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            return mLeft.test(packet, length) && mRight.test(packet, length);
+        }
+    }
+
+    private static final class OrNode extends Node {
+
+        private final Node mLeft;
+        private final Node mRight;
+
+        OrNode(Node left, Node right) {
+            mLeft = left;
+            mRight = right;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            return mLeft.test(packet, length) || mRight.test(packet, length);
+        }
+    }
+
+    private static final class NotNode extends Node {
+
+        private final Node mChild;
+
+        NotNode(Node child) {
+            mChild = child;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            return !mChild.test(packet, length);
+        }
+    }
+
+    private static final class VersionNode extends Node {
+
+        private final int mVersion;
+
+        VersionNode(int version) {
+            mVersion = version;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            return version(packet) == mVersion;
+        }
+    }
+
+    private static final class ProtocolNode extends Node {
+
+        private final int mProtocol;
+
+        ProtocolNode(int protocol) {
+            mProtocol = protocol;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            return protocol(packet, length) == mProtocol;
+        }
+    }
+
+    private static final class PortNode extends Node {
+
+        private final int mLow;
+        private final int mHigh;
+        private final int mDirections;
+
+        PortNode(int low, int high, int directions) {
+            mLow = low;
+            mHigh = high;
+            mDirections = directions;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            if ((mDirections & DIRECTION_SOURCE) != 0 && inRange(port(packet, length, true))) {
+                return true;
+            }
+            return (mDirections & DIRECTION_DESTINATION) != 0 && inRange(port(packet, length, false));
+        }
+
+        private boolean inRange(int port) {
+            return port >= mLow && port <= mHigh;
+        }
+    }
+
+    private static final class Ipv4NetNode extends Node {
+
+        private final int mNetwork;
+        private final int mMask;
+        private final int mDirections;
+
+        Ipv4NetNode(int network, int mask, int directions) {
+            mNetwork = network & mask;
+            mMask = mask;
+            mDirections = directions;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            if (length < 20 || version(packet) != 4) {
+                return false;
+            }
+            if ((mDirections & DIRECTION_SOURCE) != 0 && (IpPacketParser.readInt(packet, 12) & mMask) == mNetwork) {
+                return true;
+            }
+            return (mDirections & DIRECTION_DESTINATION) != 0
+                    && (IpPacketParser.readInt(packet, 16) & mMask) == mNetwork;
+        }
+    }
+
+    private static final class Ipv6NetNode extends Node {
+
+        private final long mNetworkHigh;
+        private final long mNetworkLow;
+        private final long mMaskHigh;
+        private final long mMaskLow;
+        private final int mDirections;
+
+        Ipv6NetNode(long high, long low, int prefixLength, int directions) {
+            mMaskHigh = prefixLength >= 64 ? -1L : prefixLength == 0 ? 0L : -1L << (64 - prefixLength);
+            mMaskLow = prefixLength >= 128 ? -1L : prefixLength <= 64 ? 0L : -1L << (128 - prefixLength);
+            mNetworkHigh = high & mMaskHigh;
+            mNetworkLow = low & mMaskLow;
+            mDirections = directions;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            if (length < 40 || version(packet) != 6) {
+                return false;
+            }
+            if ((mDirections & DIRECTION_SOURCE) != 0 && matchesAt(packet, 8)) {
+                return true;
+            }
+            return (mDirections & DIRECTION_DESTINATION) != 0 && matchesAt(packet, 24);
+        }
+
+        private boolean matchesAt(byte[] packet, int offset) {
+            return (IpPacketParser.readLong(packet, offset) & mMaskHigh) == mNetworkHigh
+                    && (IpPacketParser.readLong(packet, offset + 8) & mMaskLow) == mNetworkLow;
+        }
+    }
+
+    /**
+     * 按 DNS 嗅探缓存里的主机名匹配；查询本身无锁，只有缓存命中时才比较字符串。
+     */
+    private static final class HostNameNode extends Node {
+
+        private final String mName;
+        private final String mSuffix;
+        private final int mDirections;
+        private final DnsCache mDnsCache;
+
+        HostNameNode(String name, int directions, DnsCache dnsCache) {
+            mName = name;
+            mSuffix = "." + name;
+            mDirections = directions;
+            mDnsCache = dnsCache;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            int version = version(packet);
+            if ((version != 4 || length < 20) && (version != 6 || length < 40)) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if ((mDirections & DIRECTION_SOURCE) != 0 && matchesAt(packet, version, true, now)) {
+                return true;
+            }
+            return (mDirections & DIRECTION_DESTINATION) != 0 && matchesAt(packet, version, false, now);
+        }
+
+        private boolean matchesAt(byte[] packet, int version, boolean source, long now) {
+            DnsCache cache = mDnsCache != null ? mDnsCache : DebugNetMonitor.getDnsCache();
+            String host;
+            if (version == 4) {
+                long address = IpPacketParser.readInt(packet, source ? 12 : 16) & 0xFFFFFFFFL;
+                host = cache.lookup(false, 0L, address, now);
+            } else {
+                int offset = source ? 8 : 24;
+                host = cache.lookup(true, IpPacketParser.readLong(packet, offset),
+                        IpPacketParser.readLong(packet, offset + 8), now);
+            }
+            return host != null && (host.equalsIgnoreCase(mName)
+                    || host.regionMatches(true, host.length() - mSuffix.length(), mSuffix, 0, mSuffix.length()));
+        }
+    }
+
+    private static final class LengthNode extends Node {
+
+        private final boolean mLess;
+        private final int mLimit;
+
+        LengthNode(boolean less, int limit) {
+            mLess = less;
+            mLimit = limit;
+        }
+
+        @Override
+        boolean test(byte[] packet, int length) {
+            return mLess ? length <= mLimit : length >= mLimit;
+        }
+    }
+
+    // ---------------------------------------------------------------- 编译
+
+    private static final class Parser {
+
+        private final String mSource;
+        private final DnsCache mDnsCache;
+        private final List<String> mTokens = new ArrayList<>();
+        private final List<Integer> mPositions = new ArrayList<>();
+        private int mIndex;
+
+        Parser(String source, DnsCache dnsCache) {
+            mSource = source;
+            mDnsCache = dnsCache;
+            tokenize();
+        }
+
+        Node parse() {
+            Node node = parseOr();
+            if (mIndex < mTokens.size()) {
+                throw error("多余的内容 \"" + mTokens.get(mIndex) + "\"");
+            }
+            return node;
+        }
+
+        private Node parseOr() {
+            Node node = parseAnd();
+            while (accept("or") || accept("||")) {
+                node = new OrNode(node, parseAnd());
+            }
+            return node;
+        }
+
+        private Node parseAnd() {
+            Node node = parseNot();
+            while (accept("and") || accept("&&")) {
+                node = new AndNode(node, parseNot());
+            }
+            return node;
+        }
+
+        private Node parseNot() {
+            if (accept("not") || accept("!")) {
+                return new NotNode(parseNot());
+            }
+            if (accept("(")) {
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            return parsePrimitive();
+        }
+
+        private Node parsePrimitive() {
+            String token = next("过滤条件");
+            switch (token) {
+                case "ip":
+                    return new VersionNode(4);
+                case "ip6":
+                    return new VersionNode(6);
+                case "icmp":
+                    return new ProtocolNode(IpPacketParser.PROTOCOL_ICMP);
+                case "icmp6":
+                    return new ProtocolNode(IpPacketParser.PROTOCOL_ICMP_V6);
+                case "tcp":
+                case "udp": {
+                    Node protocol = new ProtocolNode("tcp".equals(token)
+                            ? IpPacketParser.PROTOCOL_TCP : IpPacketParser.PROTOCOL_UDP);
+                    // tcpdump 写法 "tcp port 443" 等价于 "tcp and port 443"
+                    if (peekIs("port") || peekIs("portrange") || peekIs("src") || peekIs("dst")) {
+                        return new AndNode(protocol, parseQualified());
+                    }
+                    return protocol;
+                }
+                case "less":
+                case "greater":
+                    return new LengthNode("less".equals(token), parseNumber(next("长度"), 0, 65535));
+                default:
+                    mIndex--;
+                    return parseQualified();
+            }
+        }
+
+        private Node parseQualified() {
+            int directions = DIRECTION_EITHER;
+            if (accept("src")) {
+                directions = DIRECTION_SOURCE;
+            } else if (accept("dst")) {
+                directions = DIRECTION_DESTINATION;
+            }
+            String keyword = next("host/net/port/portrange");
+            switch (keyword) {
+                case "port": {
+                    int port = parseNumber(next("端口"), 0, 65535);
+                    return new PortNode(port, port, directions);
+                }
+                case "portrange": {
+                    String range = next("端口范围");
+                    int dash = range.indexOf('-');
+                    if (dash <= 0 || dash == range.length() - 1) {
+                        throw error("端口范围应为 N-M: " + range);
+                    }
+                    int low = parseNumber(range.substring(0, dash), 0, 65535);
+                    int high = parseNumber(range.substring(dash + 1), 0, 65535);
+                    return new PortNode(Math.min(low, high), Math.max(low, high), directions);
+                }
+                case "host":
+                    return parseAddress(next("主机"), directions, false);
+                case "net":
+                    return parseAddress(next("网段"), directions, true);
+                default:
+                    mIndex--;
+                    throw error("无法识别 \"" + keyword + "\"");
+            }
+        }
+
+        private Node parseAddress(String text, int directions, boolean allowPrefix) {
+            String address = text;
+            int prefix = -1;
+            int slash = text.indexOf('/');
+            if (slash >= 0) {
+                if (!allowPrefix) {
+                    throw error("host 不支持网段，请使用 net: " + text);
+                }
+                address = text.substring(0, slash);
+                prefix = parseNumber(text.substring(slash + 1), 0, 128);
+            }
+            if (isIpv4Literal(address)) {
+                int value = 0;
+                for (String part : address.split("\\.")) {
+                    value = (value << 8) | Integer.parseInt(part);
+                }
+                int bits = prefix < 0 ? 32 : prefix;
+                if (bits > 32) {
+                    throw error("IPv4 前缀长度不能超过 32: " + text);
+                }
+                return new Ipv4NetNode(value, bits == 0 ? 0 : -1 << (32 - bits), directions);
+            }
+            if (address.indexOf(':') >= 0) {
+                byte[] bytes;
+                try {
+                    // 含 ':' 的只会按 IPv6 字面量解析，不会发起 DNS 查询
+                    bytes = InetAddress.getByName(address).getAddress();
+                } catch (UnknownHostException e) {
+                    bytes = null;
+                }
+                if (bytes == null || bytes.length != 16) {
+                    throw error("无效的 IPv6 地址: " + address);
+                }
+                return new Ipv6NetNode(IpPacketParser.readLong(bytes, 0), IpPacketParser.readLong(bytes, 8),
+                        prefix < 0 ? 128 : prefix, directions);
+            }
+            if (allowPrefix || !isHostName(address)) {
+                throw error("无效的地址: " + text);
+            }
+            return new HostNameNode(address.toLowerCase(Locale.US), directions, mDnsCache);
+        }
+
+        private int parseNumber(String text, int min, int max) {
+            try {
+                int value = Integer.parseInt(text);
+                if (value >= min && value <= max) {
+                    return value;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            throw error("数值应在 " + min + "~" + max + " 之间: " + text);
+        }
+
+        private static boolean isIpv4Literal(String text) {
+            String[] parts = text.split("\\.", -1);
+            if (parts.length != 4) {
+                return false;
+            }
+            for (String part : parts) {
+                if (part.isEmpty() || part.length() > 3) {
+                    return false;
+                }
+                for (int i = 0; i < part.length(); i++) {
+                    if (!Character.isDigit(part.charAt(i))) {
+                        return false;
+                    }
+                }
+                if (Integer.parseInt(part) > 255) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isHostName(String text) {
+            if (text.isEmpty() || text.startsWith(".") || text.endsWith(".")) {
+                return false;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (!(Character.isLetterOrDigit(c) || c == '-' || c == '.' || c == '_')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void tokenize() {
+            int length = mSource.length();
+            int i = 0;
+            while (i < length) {
+                char c = mSource.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                if (c == '(' || c == ')' || c == '!') {
+                    i++;
+                } else if ((c == '&' || c == '|') && i + 1 < length && mSource.charAt(i + 1) == c) {
+                    i += 2;
+                } else {
+                    while (i < length) {
+                        char d = mSource.charAt(i);
+                        if (Character.isWhitespace(d) || d == '(' || d == ')' || d == '!' || d == '&' || d == '|') {
+                            break;
+                        }
+                        i++;
+                    }
+                    if (i == start) {
+                        throw new IllegalArgumentException("过滤表达式第 " + (start + 1) + " 个字符无法识别: " + c);
+                    }
+                }
+                mTokens.add(mSource.substring(start, i).toLowerCase(Locale.US));
+                mPositions.add(start);
+            }
+        }
+
+        private boolean peekIs(String token) {
+            return mIndex < mTokens.size() && mTokens.get(mIndex).equals(token);
+        }
+
+        private boolean accept(String token) {
+            if (peekIs(token)) {
+                mIndex++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("缺少 \"" + token + "\"");
+            }
+        }
+
+        private String next(String expected) {
+            if (mIndex >= mTokens.size()) {
+                throw error("表达式不完整，缺少" + expected);
+            }
+            return mTokens.get(mIndex++);
+        }
+
+        private IllegalArgumentException error(String message) {
+            int position = mIndex < mPositions.size() ? mPositions.get(mIndex) + 1 : mSource.length() + 1;
+            return new IllegalArgumentException("过滤表达式第 " + position + " 个字符附近: " + message);
+        }
+    }
+}
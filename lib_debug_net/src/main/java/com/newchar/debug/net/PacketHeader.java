@@ -0,0 +1,66 @@
+package com.newchar.debug.net;
+
+/**
+ * 可复用的 IP/TCP/UDP 头部解析结果，只保存原始数值，由捕获线程独占使用。
+ */
+final class PacketHeader {
+
+    static final int TCP_FIN = 0x01;
+    static final int TCP_SYN = 0x02;
+    static final int TCP_RST = 0x04;
+    static final int TCP_PSH = 0x08;
+    static final int TCP_ACK = 0x10;
+
+    int version;
+    int protocol;
+    boolean ipv6;
+    long sourceHigh;
+    long sourceLow;
+    long destinationHigh;
+    long destinationLow;
+    int sourcePort;
+    int destinationPort;
+    /** 传输层头部在包内的偏移。 */
+    int transportOffset;
+    /** 传输层载荷在包内的偏移与长度，没有载荷时长度为 0。 */
+    int payloadOffset;
+    int payloadLength;
+    int tcpSequence;
+    int tcpAcknowledgement;
+    int tcpFlags;
+    int tcpWindow;
+    /** 包的实际长度。 */
+    int length;
+
+    void reset() {
+        version = 0;
+        protocol = 0;
+        ipv6 = false;
+        sourceHigh = 0L;
+        sourceLow = 0L;
+        destinationHigh = 0L;
+        destinationLow = 0L;
+        sourcePort = 0;
+        destinationPort = 0;
+        transportOffset = 0;
+        payloadOffset = 0;
+        payloadLength = 0;
+        tcpSequence = 0;
+        tcpAcknowledgement = 0;
+        tcpFlags = 0;
+        tcpWindow = 0;
+        length = 0;
+    }
+
+    boolean isTcp() {
+        return protocol == IpPacketParser.PROTOCOL_TCP;
+    }
+
+    boolean isUdp() {
+        return protocol == IpPacketParser.PROTOCOL_UDP;
+    }
+
+    boolean hasTcpFlag(int flag) {
+        return (tcpFlags & flag) != 0;
+    }
+}
@@ -0,0 +1,127 @@
+package com.newchar.debug.net;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 单个 pcapng 文件的顺序写入：一个 Section Header Block、一个 LINKTYPE_RAW 接口，之后每个包一个 Enhanced Packet Block。
+ *
+ * 写入先进入堆内缓冲区，写满或 {@link #flush()} 时才落到 FileChannel。非线程安全，只由写线程使用。
+ */
+final class PcapngWriter implements Closeable {
+
+    static final int LINKTYPE_RAW = 101;
+    static final int SNAP_LENGTH = 65535;
+
+    static final int BLOCK_SECTION_HEADER = 0x0A0D0D0A;
+    static final int BLOCK_INTERFACE_DESCRIPTION = 0x00000001;
+    static final int BLOCK_SIMPLE_PACKET = 0x00000003;
+    static final int BLOCK_ENHANCED_PACKET = 0x00000006;
+    static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    private static final int OPTION_END = 0;
+    private static final int OPTION_EPB_FLAGS = 2;
+    private static final int EPB_FLAG_INBOUND = 1;
+    private static final int EPB_FLAG_OUTBOUND = 2;
+    /** EPB 固定部分 28 字节 + flags 选项 8 字节 + 结束选项 4 字节 + 尾部长度 4 字节。 */
+    private static final int EPB_OVERHEAD = 44;
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    private final FileOutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long mWrittenBytes;
+
+    PcapngWriter(File file) throws IOException {
+        mOutputStream = new FileOutputStream(file);
+        mChannel = mOutputStream.getChannel();
+        writeSectionHeader();
+        writeInterfaceDescription();
+    }
+
+    /**
+     * 已写入（含尚在缓冲区中）的字节数，用于按大小轮转。
+     */
+    long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    void writePacket(byte[] packet, int offset, int length, boolean download, long timeMicros) throws IOException {
+        int captured = Math.min(length, SNAP_LENGTH);
+        int padded = align4(captured);
+        int total = EPB_OVERHEAD + padded;
+        ensureSpace(total);
+        mBuffer.putInt(BLOCK_ENHANCED_PACKET);
+        mBuffer.putInt(total);
+        mBuffer.putInt(0);
+        mBuffer.putInt((int) (timeMicros >>> 32));
+        mBuffer.putInt((int) timeMicros);
+        mBuffer.putInt(captured);
+        mBuffer.putInt(length);
+        mBuffer.put(packet, offset, captured);
+        for (int i = captured; i < padded; i++) {
+            mBuffer.put((byte) 0);
+        }
+        mBuffer.putShort((short) OPTION_EPB_FLAGS);
+        mBuffer.putShort((short) 4);
+        mBuffer.putInt(download ? EPB_FLAG_INBOUND : EPB_FLAG_OUTBOUND);
+        mBuffer.putShort((short) OPTION_END);
+        mBuffer.putShort((short) 0);
+        mBuffer.putInt(total);
+        mWrittenBytes += total;
+    }
+
+    void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mOutputStream.close();
+        }
+    }
+
+    private void writeSectionHeader() {
+        mBuffer.putInt(BLOCK_SECTION_HEADER);
+        mBuffer.putInt(28);
+        mBuffer.putInt(BYTE_ORDER_MAGIC);
+        mBuffer.putShort((short) 1);
+        mBuffer.putShort((short) 0);
+        // section 长度未知
+        mBuffer.putLong(-1L);
+        mBuffer.putInt(28);
+        mWrittenBytes += 28;
+    }
+
+    private void writeInterfaceDescription() {
+        mBuffer.putInt(BLOCK_INTERFACE_DESCRIPTION);
+        mBuffer.putInt(20);
+        mBuffer.putShort((short) LINKTYPE_RAW);
+        mBuffer.putShort((short) 0);
+        mBuffer.putInt(SNAP_LENGTH);
+        mBuffer.putInt(20);
+        mWrittenBytes += 20;
+    }
+
+    private void ensureSpace(int bytes) throws IOException {
+        if (mBuffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    static int align4(int value) {
+        return (value + 3) & ~3;
+    }
+}
@@ -0,0 +1,249 @@
+package com.newchar.debug.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 有序的后处理器链。每个 event 在链上的进度由一个 {@link Run} 记录：同步处理器在调用线程依次执行，
+ * 遇到异步处理器时把 Run 交给有界线程池，之后的处理器都在池中线程继续执行，完成后回调通知分发器。
+ *
+ * 分发器按 event 到达顺序交付，队头的 Run 超过当前异步步骤的截止时间仍未完成时由分发器 {@link #expire} 掉，
+ * 沿用这一步之前的结果。处理器列表整体替换，正在执行的 Run 继续使用开始时的快照。
+ */
+final class PostProcessorChain {
+
+    static final int ASYNC_THREAD_COUNT = 2;
+    static final int ASYNC_QUEUE_CAPACITY = 256;
+    private static final long ASYNC_KEEP_ALIVE_SECONDS = 30L;
+
+    private final Object mLock = new Object();
+    private volatile Entry[] mEntries = new Entry[0];
+    private ThreadPoolExecutor mAsyncExecutor;
+
+    boolean isEmpty() {
+        return mEntries.length == 0;
+    }
+
+    /**
+     * 替换整条链，null 或空表示不做后处理。统计随处理器一起重置。
+     */
+    void set(DebugNetPostProcessor processor) {
+        synchronized (mLock) {
+            mEntries = processor == null ? new Entry[0] : new Entry[]{new Entry(processor)};
+        }
+    }
+
+    void add(DebugNetPostProcessor processor) {
+        if (processor == null) {
+            return;
+        }
+        synchronized (mLock) {
+            Entry[] entries = mEntries;
+            for (Entry entry : entries) {
+                if (entry.processor == processor) {
+                    return;
+                }
+            }
+            Entry[] updated = new Entry[entries.length + 1];
+            System.arraycopy(entries, 0, updated, 0, entries.length);
+            updated[entries.length] = new Entry(processor);
+            mEntries = updated;
+        }
+    }
+
+    void remove(DebugNetPostProcessor processor) {
+        synchronized (mLock) {
+            ArrayList<Entry> kept = new ArrayList<>();
+            for (Entry entry : mEntries) {
+                if (entry.processor != processor) {
+                    kept.add(entry);
+                }
+            }
+            mEntries = kept.toArray(new Entry[0]);
+        }
+    }
+
+    List<DebugNetPostProcessorStats> snapshotStats() {
+        Entry[] entries = mEntries;
+        List<DebugNetPostProcessorStats> stats = new ArrayList<>(entries.length);
+        for (Entry entry : entries) {
+            stats.add(entry.snapshot());
+        }
+        return stats;
+    }
+
+    /**
+     * 在调用线程执行链上的同步部分。返回的 Run 可能已经完成，也可能正在线程池中执行，完成时调用 onAsyncDone。
+     */
+    Run start(DebugNetEvent event, Runnable onAsyncDone) {
+        Run run = new Run(this, mEntries, event, onAsyncDone);
+        advance(run, false);
+        return run;
+    }
+
+    /**
+     * 队头的 Run 当前异步步骤已超时时结束它，返回 true 表示可以按当前结果交付。
+     */
+    boolean expire(Run run, long nowNanos) {
+        long deadline = run.deadlineNanos;
+        if (deadline == 0L || nowNanos - deadline < 0) {
+            return false;
+        }
+        synchronized (run) {
+            // 与线程池写回结果互斥，返回后池中线程不会再改动要交付的 event
+            if (!run.finished.compareAndSet(false, true)) {
+                return false;
+            }
+        }
+        Entry entry = run.entries[Math.min(run.step, run.entries.length - 1)];
+        synchronized (entry) {
+            entry.timeoutCount++;
+        }
+        return true;
+    }
+
+    private void advance(Run run, boolean onAsyncThread) {
+        Entry[] entries = run.entries;
+        int resumedStep = onAsyncThread ? run.step : -1;
+        while (run.step < entries.length) {
+            if (run.finished.get()) {
+                // 已被分发器判定超时，结果不再使用
+                return;
+            }
+            Entry entry = entries[run.step];
+            if (entry.async && run.step != resumedStep) {
+                // 截止时间从提交时算起，包含在线程池中排队的时间
+                run.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(entry.timeoutMillis);
+                if (!onAsyncThread) {
+                    try {
+                        executor().execute(run);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // 线程池排满时跳过这一步，沿用当前结果
+                        synchronized (entry) {
+                            entry.rejectedCount++;
+                        }
+                        run.step++;
+                        continue;
+                    }
+                }
+            }
+            DebugNetEvent result = entry.invoke(run, run.current);
+            synchronized (run) {
+                if (!run.finished.get()) {
+                    run.current = result;
+                }
+            }
+            run.step++;
+        }
+        if (run.finished.compareAndSet(false, true) && onAsyncThread) {
+            run.onAsyncDone.run();
+        }
+    }
+
+    private ThreadPoolExecutor executor() {
+        synchronized (mLock) {
+            if (mAsyncExecutor == null) {
+                mAsyncExecutor = new ThreadPoolExecutor(ASYNC_THREAD_COUNT, ASYNC_THREAD_COUNT,
+                        ASYNC_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(ASYNC_QUEUE_CAPACITY),
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "DebugNetPostProcess");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                mAsyncExecutor.allowCoreThreadTimeOut(true);
+            }
+            return mAsyncExecutor;
+        }
+    }
+
+    /**
+     * 一个 event 在链上的执行进度。current 为最近一步成功后的结果，超时交付时即使用它。
+     * 判定超时与写回结果都以 Run 自身为锁，超时后池中线程只能继续跑完，不再写回。
+     */
+    static final class Run implements Runnable {
+
+        final AtomicBoolean finished = new AtomicBoolean();
+        private final PostProcessorChain mChain;
+        private final Entry[] entries;
+        private final Runnable onAsyncDone;
+        volatile DebugNetEvent current;
+        /** 当前异步步骤的截止时间，0 表示没有进入过异步步骤。 */
+        volatile long deadlineNanos;
+        volatile int step;
+
+        Run(PostProcessorChain chain, Entry[] entries, DebugNetEvent event, Runnable onAsyncDone) {
+            this.mChain = chain;
+            this.entries = entries;
+            this.current = event;
+            this.onAsyncDone = onAsyncDone;
+        }
+
+        boolean isFinished() {
+            return finished.get();
+        }
+
+        @Override
+        public void run() {
+            mChain.advance(this, true);
+        }
+    }
+
+    private static final class Entry {
+
+        final DebugNetPostProcessor processor;
+        final String name;
+        final boolean async;
+        final long timeoutMillis;
+        /** 以下统计以 Entry 自身为锁，分发线程和线程池都会写入。 */
+        final LogHistogram latencyMicros = new LogHistogram();
+        long timeoutCount;
+        long failureCount;
+        long rejectedCount;
+
+        Entry(DebugNetPostProcessor processor) {
+            this.processor = processor;
+            this.name = processor.getName();
+            this.async = processor.isAsync();
+            this.timeoutMillis = Math.max(1L, processor.getTimeoutMillis());
+        }
+
+        DebugNetEvent invoke(Run run, DebugNetEvent event) {
+            long start = System.nanoTime();
+            DebugNetEvent result = event;
+            boolean failed = false;
+            try {
+                DebugNetPayload payload = processor.process(new DebugNetPayload(event));
+                if (payload != null && payload.getEvent() != null) {
+                    result = payload.getEvent();
+                }
+            } catch (Throwable throwable) {
+                synchronized (run) {
+                    // 超时的 Run 已按当前结果交付，不能再改动交出去的 event
+                    if (!run.finished.get()) {
+                        event.setFailureReason(throwable.getMessage());
+                    }
+                }
+                failed = true;
+            }
+            long micros = (System.nanoTime() - start) / 1000L;
+            synchronized (this) {
+                latencyMicros.record(micros);
+                if (failed) {
+                    failureCount++;
+                }
+            }
+            return result;
+        }
+
+        synchronized DebugNetPostProcessorStats snapshot() {
+            return new DebugNetPostProcessorStats(name, async, timeoutMillis, latencyMicros, timeoutCount,
+                    failureCount, rejectedCount);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.newchar.debug.net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * 会话存储的记录编解码。每条记录是一个定长记录头加变长 payload，全部为大端序：
+ *
+ * <pre>
+ *  0  u8   记录类型（{@link #TYPE_EVENT} / {@link #TYPE_FLOW}）
+ *  1  u8   保留
+ *  2  u16  远端端口
+ *  4  i32  主机名哈希（小写后的 String.hashCode）
+ *  8  i64  时间戳（毫秒）
+ * 16  i32  payload 长度
+ * 20  i32  payload 的 CRC32
+ * </pre>
+ *
+ * 索引只需要记录头，重建索引时可以跳过 payload；CRC 用来识别进程被杀时写了一半的尾部记录。
+ */
+final class SessionRecordCodec {
+
+    static final int TYPE_EVENT = 1;
+    static final int TYPE_FLOW = 2;
+    static final int RECORD_HEADER_SIZE = 24;
+
+    /** 单个文本字段的字节上限，超出部分截断，避免一条带大 body 的记录撑满一个分段。 */
+    static final int MAX_TEXT_BYTES = 128 * 1024;
+
+    private SessionRecordCodec() {
+    }
+
+    static int hostHash(String host) {
+        return host == null ? 0 : host.toLowerCase(Locale.US).hashCode();
+    }
+
+    /**
+     * 远端端口：上行包的目的端口、下行包的源端口。
+     */
+    static int remotePort(DebugNetEvent event) {
+        return event.getDirection() == TrafficDirection.DOWNLOAD ? event.getSourcePort() : event.getDestinationPort();
+    }
+
+    static byte[] encodeEvent(DebugNetEvent event) {
+        Output out = new Output(256);
+        out.putByte(event.getDirection() == TrafficDirection.DOWNLOAD ? 1 : 0);
+        out.putInt(event.getProtocolNumber());
+        out.putByte(event.isIpv6() ? 1 : 0);
+        out.putString(event.getProtocol());
+        out.putString(event.getSourceAddress());
+        out.putInt(event.getSourcePort());
+        out.putString(event.getDestinationAddress());
+        out.putInt(event.getDestinationPort());
+        out.putInt(event.getByteCount());
+        out.putLong(event.getRequestTimeMillis());
+        out.putInt(event.getStatusCode());
+        out.putByte((event.isHttps() ? 1 : 0) | (event.isDecrypted() ? 2 : 0));
+        out.putString(event.getHost());
+        out.putString(event.getAlpn());
+        out.putString(event.getRequestPath());
+        out.putString(event.getFailureReason());
+        out.putString(event.getRequestHeadersText());
+        out.putString(event.getResponseHeadersText());
+        out.putString(event.getRequestBodyText());
+        out.putString(event.getResponseBodyText());
+        return out.toRecord(TYPE_EVENT, remotePort(event), hostHash(event.getHost()), event.getTimeMillis());
+    }
+
+    static byte[] encodeFlow(DebugNetFlow flow) {
+        Output out = new Output(128);
+        out.putLong(flow.getFlowId());
+        out.putInt(flow.getProtocolNumber());
+        out.putByte(flow.isIpv6() ? 1 : 0);
+        out.putLong(flow.getLocalHigh());
+        out.putLong(flow.getLocalLow());
+        out.putInt(flow.getLocalPort());
+        out.putLong(flow.getRemoteHigh());
+        out.putLong(flow.getRemoteLow());
+        out.putInt(flow.getRemotePort());
+        out.putString(flow.getResolvedHost());
+        out.putString(flow.getAlpn());
+        out.putLong(flow.getPacketCount());
+        out.putLong(flow.getBytesUp());
+        out.putLong(flow.getBytesDown());
+        out.putLong(flow.getFirstTimeMillis());
+        out.putLong(flow.getLastTimeMillis());
+        out.putInt(flow.getRttMillis());
+        out.putByte(flow.isClosed() ? 1 : 0);
+        return out.toRecord(TYPE_FLOW, flow.getRemotePort(), hostHash(flow.getHost()), flow.getLastTimeMillis());
+    }
+
+    static DebugNetEvent decodeEvent(ByteBuffer in, long timeMillis) {
+        TrafficDirection direction = in.get() == 1 ? TrafficDirection.DOWNLOAD : TrafficDirection.UPLOAD;
+        int protocolNumber = in.getInt();
+        boolean ipv6 = in.get() == 1;
+        String protocol = getString(in);
+        String sourceAddress = getString(in);
+        int sourcePort = in.getInt();
+        String destinationAddress = getString(in);
+        int destinationPort = in.getInt();
+        int byteCount = in.getInt();
+        DebugNetEvent event = new DebugNetEvent(timeMillis, direction, protocolNumber, protocol, ipv6,
+                sourceAddress, sourcePort, destinationAddress, destinationPort, byteCount);
+        event.setRequestTimeMillis(in.getLong());
+        event.setStatusCode(in.getInt());
+        int flags = in.get();
+        event.setHttps((flags & 1) != 0);
+        event.setDecrypted((flags & 2) != 0);
+        String host = getString(in);
+        if (host != null && !host.equals(destinationAddress)) {
+            event.setHost(host);
+        }
+        event.setAlpn(getString(in));
+        event.setRequestPath(getString(in));
+        event.setFailureReason(getString(in));
+        event.setRequestHeadersText(getString(in));
+        event.setResponseHeadersText(getString(in));
+        event.setRequestBodyText(getString(in));
+        event.setResponseBodyText(getString(in));
+        return event;
+    }
+
+    static DebugNetFlow decodeFlow(ByteBuffer in) {
+        long flowId = in.getLong();
+        int protocolNumber = in.getInt();
+        boolean ipv6 = in.get() == 1;
+        long localHigh = in.getLong();
+        long localLow = in.getLong();
+        int localPort = in.getInt();
+        long remoteHigh = in.getLong();
+        long remoteLow = in.getLong();
+        int remotePort = in.getInt();
+        String host = getString(in);
+        String alpn = getString(in);
+        long packetCount = in.getLong();
+        long bytesUp = in.getLong();
+        long bytesDown = in.getLong();
+        long firstTimeMillis = in.getLong();
+        long lastTimeMillis = in.getLong();
+        int rttMillis = in.getInt();
+        boolean closed = in.get() == 1;
+        return new DebugNetFlow(flowId, protocolNumber, ipv6, localHigh, localLow, localPort,
+                remoteHigh, remoteLow, remotePort, host, alpn, packetCount, bytesUp, bytesDown,
+                firstTimeMillis, lastTimeMillis, rttMillis, closed);
+    }
+
+    static int crc(byte[] data, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * 可增长的大端序输出缓冲，前 {@link #RECORD_HEADER_SIZE} 字节预留给记录头。
+     */
+    private static final class Output {
+
+        private byte[] mData;
+        private int mSize = RECORD_HEADER_SIZE;
+
+        Output(int initialPayloadSize) {
+            mData = new byte[RECORD_HEADER_SIZE + initialPayloadSize];
+        }
+
+        void putByte(int value) {
+            ensure(1);
+            mData[mSize++] = (byte) value;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            writeInt(mData, mSize, value);
+            mSize += 4;
+        }
+
+        void putLong(long value) {
+            ensure(8);
+            writeInt(mData, mSize, (int) (value >>> 32));
+            writeInt(mData, mSize + 4, (int) value);
+            mSize += 8;
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int length = bytes.length;
+            if (length > MAX_TEXT_BYTES) {
+                // 退到字符边界，不留半个字符：截断处是 10xxxxxx 续字节时往前找到这个字符的首字节
+                length = MAX_TEXT_BYTES;
+                while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                    length--;
+                }
+            }
+            putInt(length);
+            ensure(length);
+            System.arraycopy(bytes, 0, mData, mSize, length);
+            mSize += length;
+        }
+
+        byte[] toRecord(int type, int port, int hostHash, long timeMillis) {
+            int payloadLength = mSize - RECORD_HEADER_SIZE;
+            byte[] record = mData.length == mSize ? mData : Arrays.copyOf(mData, mSize);
+            record[0] = (byte) type;
+            record[1] = 0;
+            record[2] = (byte) (port >>> 8);
+            record[3] = (byte) port;
+            writeInt(record, 4, hostHash);
+            writeInt(record, 8, (int) (timeMillis >>> 32));
+            writeInt(record, 12, (int) timeMillis);
+            writeInt(record, 16, payloadLength);
+            writeInt(record, 20, crc(record, RECORD_HEADER_SIZE, payloadLength));
+            return record;
+        }
+
+        private void ensure(int extra) {
+            if (mSize + extra > mData.length) {
+                mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mSize + extra));
+            }
+        }
+
+        private static void writeInt(byte[] data, int offset, int value) {
+            data[offset] = (byte) (value >>> 24);
+            data[offset + 1] = (byte) (value >>> 16);
+            data[offset + 2] = (byte) (value >>> 8);
+            data[offset + 3] = (byte) value;
+        }
+    }
+}
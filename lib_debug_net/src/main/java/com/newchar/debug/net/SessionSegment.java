@@ -0,0 +1,425 @@
+package com.newchar.debug.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 会话存储的一个只追加分段文件及其内存索引。
+ *
+ * 索引为按写入顺序排列的平行数组（时间、主机哈希、端口、类型、文件偏移），外加分段级的时间范围和
+ * 主机/端口位图，查询时先用分段级信息整段跳过，再线性扫描索引，只有命中的记录才读盘解码。
+ * 分段封存时把索引写到同名 .idx 文件，重新打开时直接加载；.idx 缺失或与分段长度不符（进程被杀）
+ * 时扫描记录头重建，遇到写了一半的尾部记录即停止。
+ *
+ * 只有写线程调用写入方法；索引数组只会在尾部追加，读线程在锁内取到数组引用和已发布条数后即可无锁扫描。
+ */
+final class SessionSegment {
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int SEGMENT_MAGIC = 0x444E5353;
+    private static final int INDEX_MAGIC = 0x444E5349;
+    private static final int FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int BLOOM_WORDS = 8;
+    private static final int BLOOM_MASK = BLOOM_WORDS * 64 - 1;
+
+    private final long mId;
+    private final File mFile;
+    private final File mIndexFile;
+
+    private long[] mTimes = new long[256];
+    private int[] mHostHashes = new int[256];
+    private char[] mPorts = new char[256];
+    private byte[] mTypes = new byte[256];
+    private int[] mOffsets = new int[256];
+    /** 已写入文件并对查询可见的条数。 */
+    private int mCount;
+    /** 写线程已追加（可能还在写缓冲中）的条数。 */
+    private int mSize;
+    private long mMinTime = Long.MAX_VALUE;
+    private long mMaxTime = Long.MIN_VALUE;
+    private final long[] mHostBloom = new long[BLOOM_WORDS];
+    private final long[] mPortBloom = new long[BLOOM_WORDS];
+    private volatile long mLength;
+
+    private FileChannel mChannel;
+    private ByteBuffer mWriteBuffer;
+    private long mAppendOffset;
+
+    private SessionSegment(File directory, long id) {
+        mId = id;
+        mFile = new File(directory, fileName(id, SEGMENT_SUFFIX));
+        mIndexFile = new File(directory, fileName(id, INDEX_SUFFIX));
+    }
+
+    static String fileName(long id, String suffix) {
+        return String.format(Locale.US, "session_%010d%s", id, suffix);
+    }
+
+    /**
+     * 从文件名解析分段 id，不是分段文件时返回 -1。
+     */
+    static long parseId(String name) {
+        if (!name.startsWith("session_") || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(name.substring("session_".length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * 新建一个可写分段。
+     */
+    @SuppressWarnings("resource")
+    static SessionSegment create(File directory, long id) throws IOException {
+        SessionSegment segment = new SessionSegment(directory, id);
+        FileChannel channel = new RandomAccessFile(segment.mFile, "rw").getChannel();
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(SEGMENT_MAGIC).putInt(FORMAT_VERSION).flip();
+        channel.truncate(0L);
+        segment.mChannel = channel;
+        segment.writeFully(header);
+        segment.mWriteBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        segment.mAppendOffset = SEGMENT_HEADER_SIZE;
+        segment.mLength = SEGMENT_HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * 以只读方式打开已有分段：优先加载 .idx，否则扫描重建并补写 .idx。
+     */
+    static SessionSegment open(File directory, long id) throws IOException {
+        SessionSegment segment = new SessionSegment(directory, id);
+        if (!segment.loadIndex()) {
+            segment.scan();
+            segment.writeIndex();
+        }
+        return segment;
+    }
+
+    long getId() {
+        return mId;
+    }
+
+    long getLength() {
+        return mLength;
+    }
+
+    synchronized int getCount() {
+        return mCount;
+    }
+
+    synchronized long getMaxTimeMillis() {
+        return mMaxTime;
+    }
+
+    /**
+     * 写线程调用：追加这条记录会让分段超过 maxBytes 时返回 true。空分段总能放下第一条记录。
+     */
+    boolean isFullFor(int recordLength, long maxBytes) {
+        return maxBytes > 0 && mAppendOffset > SEGMENT_HEADER_SIZE && mAppendOffset + recordLength > maxBytes;
+    }
+
+    /**
+     * 追加一条完整记录（记录头 + payload）到写缓冲，{@link #flush()} 后才对查询可见。
+     */
+    void append(byte[] record) throws IOException {
+        if (record.length > mWriteBuffer.remaining()) {
+            writeBuffered();
+        }
+        if (record.length > mWriteBuffer.capacity()) {
+            writeFully(ByteBuffer.wrap(record));
+        } else {
+            mWriteBuffer.put(record);
+        }
+        ByteBuffer header = ByteBuffer.wrap(record, 0, SessionRecordCodec.RECORD_HEADER_SIZE);
+        int type = header.get(0);
+        int port = header.getChar(2);
+        int hostHash = header.getInt(4);
+        long timeMillis = header.getLong(8);
+        addEntry(type, port, hostHash, timeMillis, (int) mAppendOffset);
+        mAppendOffset += record.length;
+    }
+
+    /**
+     * 把写缓冲落盘并发布新追加的索引条目。
+     */
+    void flush() throws IOException {
+        writeBuffered();
+        synchronized (this) {
+            mCount = mSize;
+            mLength = mAppendOffset;
+        }
+    }
+
+    /**
+     * 落盘、关闭写入通道并写出 .idx，之后分段只读。
+     */
+    void seal() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            mChannel.close();
+            mChannel = null;
+            mWriteBuffer = null;
+        }
+        writeIndex();
+    }
+
+    /**
+     * 分段级过滤：时间范围不相交、主机或端口位图未命中时整段跳过。hostHash 为 0、port 为 0 表示不限。
+     */
+    synchronized boolean mayContain(int hostHash, int port, long fromMillis, long toMillis) {
+        if (mCount == 0 || mMaxTime < fromMillis || mMinTime > toMillis) {
+            return false;
+        }
+        if (hostHash != 0 && !bloomContains(mHostBloom, hostHash)) {
+            return false;
+        }
+        return port == 0 || bloomContains(mPortBloom, mixPort(port));
+    }
+
+    synchronized View view() {
+        return new View(mTimes, mHostHashes, mPorts, mTypes, mOffsets, mCount);
+    }
+
+    RandomAccessFile openForRead() throws IOException {
+        return new RandomAccessFile(mFile, "r");
+    }
+
+    /**
+     * 读取指定偏移处的记录 payload，返回的 buffer position 位于 payload 起点。
+     */
+    static ByteBuffer readPayload(RandomAccessFile file, int offset) throws IOException {
+        byte[] header = new byte[SessionRecordCodec.RECORD_HEADER_SIZE];
+        file.seek(offset);
+        file.readFully(header);
+        int length = ByteBuffer.wrap(header).getInt(16);
+        if (length < 0 || offset + (long) header.length + length > file.length()) {
+            throw new IOException("corrupt record at " + offset);
+        }
+        byte[] payload = new byte[length];
+        file.readFully(payload);
+        return ByteBuffer.wrap(payload);
+    }
+
+    void delete() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException ignored) {
+                // 删除前的关闭失败不影响删除
+            }
+            mChannel = null;
+        }
+        mFile.delete();
+        mIndexFile.delete();
+    }
+
+    private void addEntry(int type, int port, int hostHash, long timeMillis, int offset) {
+        if (mSize == mTimes.length) {
+            int capacity = mTimes.length * 2;
+            long[] times = Arrays.copyOf(mTimes, capacity);
+            int[] hostHashes = Arrays.copyOf(mHostHashes, capacity);
+            char[] ports = Arrays.copyOf(mPorts, capacity);
+            byte[] types = Arrays.copyOf(mTypes, capacity);
+            int[] offsets = Arrays.copyOf(mOffsets, capacity);
+            synchronized (this) {
+                mTimes = times;
+                mHostHashes = hostHashes;
+                mPorts = ports;
+                mTypes = types;
+                mOffsets = offsets;
+            }
+        }
+        // 尚未发布的位置不会被读线程访问，写入无需加锁；分段级信息与查询共享，需要加锁
+        mTimes[mSize] = timeMillis;
+        mHostHashes[mSize] = hostHash;
+        mPorts[mSize] = (char) port;
+        mTypes[mSize] = (byte) type;
+        mOffsets[mSize] = offset;
+        mSize++;
+        synchronized (this) {
+            mMinTime = Math.min(mMinTime, timeMillis);
+            mMaxTime = Math.max(mMaxTime, timeMillis);
+            bloomAdd(mHostBloom, hostHash);
+            bloomAdd(mPortBloom, mixPort(port));
+        }
+    }
+
+    private void writeBuffered() throws IOException {
+        mWriteBuffer.flip();
+        writeFully(mWriteBuffer);
+        mWriteBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private boolean loadIndex() {
+        if (!mIndexFile.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != FORMAT_VERSION) {
+                return false;
+            }
+            long length = in.readLong();
+            if (length != mFile.length()) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long timeMillis = in.readLong();
+                int hostHash = in.readInt();
+                int port = in.readChar();
+                int type = in.readByte();
+                int offset = in.readInt();
+                addEntry(type, port, hostHash, timeMillis, offset);
+            }
+            mCount = mSize;
+            mLength = length;
+            return true;
+        } catch (IOException e) {
+            mSize = 0;
+            mCount = 0;
+            return false;
+        }
+    }
+
+    private void scan() throws IOException {
+        long fileLength = mFile.length();
+        long offset = SEGMENT_HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != SEGMENT_MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("not a session segment: " + mFile);
+            }
+            byte[] header = new byte[SessionRecordCodec.RECORD_HEADER_SIZE];
+            ByteBuffer headerView = ByteBuffer.wrap(header);
+            byte[] payload = new byte[4096];
+            while (true) {
+                try {
+                    in.readFully(header);
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = headerView.getInt(16);
+                if (length < 0 || offset + header.length + length > fileLength) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+                if (SessionRecordCodec.crc(payload, 0, length) != headerView.getInt(20)) {
+                    break;
+                }
+                addEntry(header[0], headerView.getChar(2), headerView.getInt(4), headerView.getLong(8), (int) offset);
+                offset += header.length + length;
+            }
+        } catch (EOFException e) {
+            // 分段头都不完整，视为空分段
+        }
+        mCount = mSize;
+        mLength = fileLength;
+    }
+
+    private void writeIndex() throws IOException {
+        File temp = new File(mIndexFile.getPath() + ".tmp");
+        View view = view();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(mFile.length());
+            out.writeInt(view.count);
+            for (int i = 0; i < view.count; i++) {
+                out.writeLong(view.times[i]);
+                out.writeInt(view.hostHashes[i]);
+                out.writeChar(view.ports[i]);
+                out.writeByte(view.types[i]);
+                out.writeInt(view.offsets[i]);
+            }
+        }
+        if (!temp.renameTo(mIndexFile)) {
+            temp.delete();
+            throw new IOException("rename failed: " + mIndexFile);
+        }
+    }
+
+    private static int mixPort(int port) {
+        return port * 0x9E3779B1;
+    }
+
+    private static void bloomAdd(long[] bloom, int hash) {
+        int first = hash & BLOOM_MASK;
+        int second = (hash >>> 16) & BLOOM_MASK;
+        bloom[first >>> 6] |= 1L << first;
+        bloom[second >>> 6] |= 1L << second;
+    }
+
+    private static boolean bloomContains(long[] bloom, int hash) {
+        int first = hash & BLOOM_MASK;
+        int second = (hash >>> 16) & BLOOM_MASK;
+        return (bloom[first >>> 6] & (1L << first)) != 0 && (bloom[second >>> 6] & (1L << second)) != 0;
+    }
+
+    /**
+     * 索引的只读快照，下标小于 count 的条目不会再变化。
+     */
+    static final class View {
+
+        final long[] times;
+        final int[] hostHashes;
+        final char[] ports;
+        final byte[] types;
+        final int[] offsets;
+        final int count;
+
+        View(long[] times, int[] hostHashes, char[] ports, byte[] types, int[] offsets, int count) {
+            this.times = times;
+            this.hostHashes = hostHashes;
+            this.ports = ports;
+            this.types = types;
+            this.offsets = offsets;
+            this.count = count;
+        }
+
+        boolean matches(int index, int type, int hostHash, int port, long fromMillis, long toMillis) {
+            if (types[index] != type) {
+                return false;
+            }
+            long timeMillis = times[index];
+            if (timeMillis < fromMillis || timeMillis > toMillis) {
+                return false;
+            }
+            if (hostHash != 0 && hostHashes[index] != hostHash) {
+                return false;
+            }
+            return port == 0 || ports[index] == port;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.newchar.debug.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按 tag 汇总字节数的分段锁计数表。tag 按哈希分到固定数量的段，不同段的写入互不阻塞；
+ * 每次写入从全局序号取一个版本号记在条目上，读取方可以只取某个版本之后变化过的条目做增量刷新。
+ */
+final class TagCounterTable {
+
+    static final int STRIPE_COUNT = 16;
+
+    private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+    private final AtomicLong mVersion = new AtomicLong();
+
+    TagCounterTable() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe();
+        }
+    }
+
+    void add(int tag, long rxBytes, long txBytes, long calls) {
+        Stripe stripe = mStripes[stripeOf(tag)];
+        synchronized (stripe) {
+            Counter counter = stripe.counters.get(tag);
+            if (counter == null) {
+                counter = new Counter();
+                stripe.counters.put(tag, counter);
+            }
+            counter.rxBytes += rxBytes;
+            counter.txBytes += txBytes;
+            counter.calls += calls;
+            // 在段锁内取版本号：读取方先读版本再逐段扫描，不会漏掉版本号不大于它的写入
+            counter.version = mVersion.incrementAndGet();
+        }
+    }
+
+    long getVersion() {
+        return mVersion.get();
+    }
+
+    /**
+     * 把版本号大于 sinceVersion 的条目加入 out。
+     *
+     * @return 本次读取对应的版本号，下次增量读取时传回
+     */
+    long collectSince(long sinceVersion, TagNameResolver resolver, List<DebugNetTagStats> out) {
+        long version = mVersion.get();
+        if (version == sinceVersion) {
+            return version;
+        }
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                for (java.util.Map.Entry<Integer, Counter> entry : stripe.counters.entrySet()) {
+                    Counter counter = entry.getValue();
+                    if (counter.version > sinceVersion) {
+                        int tag = entry.getKey();
+                        out.add(new DebugNetTagStats(tag, resolver.nameOf(tag), counter.rxBytes, counter.txBytes,
+                                counter.calls));
+                    }
+                }
+            }
+        }
+        return version;
+    }
+
+    List<DebugNetTagStats> snapshot(TagNameResolver resolver) {
+        List<DebugNetTagStats> out = new ArrayList<>();
+        collectSince(-1L, resolver, out);
+        return out;
+    }
+
+    void clear() {
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                stripe.counters.clear();
+            }
+        }
+        mVersion.incrementAndGet();
+    }
+
+    private static int stripeOf(int tag) {
+        int hash = tag * 0x9E3779B9;
+        return (hash >>> 16) & (STRIPE_COUNT - 1);
+    }
+
+    interface TagNameResolver {
+
+        String nameOf(int tag);
+    }
+
+    private static final class Stripe {
+
+        final HashMap<Integer, Counter> counters = new HashMap<>();
+    }
+
+    private static final class Counter {
+
+        long rxBytes;
+        long txBytes;
+        long calls;
+        long version;
+    }
+}
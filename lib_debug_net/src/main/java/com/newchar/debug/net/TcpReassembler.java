@@ -0,0 +1,512 @@
+package com.newchar.debug.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 5 元组重组 TCP 流，并把按序字节交给 {@link HttpStreamParser} 解析 HTTP/1.1 请求与响应。
+ *
+ * 只在捕获线程使用，不做同步。每个方向的乱序缓存有上限，所有连接持有的字节再受全局预算约束，
+ * 超出时按最近最少活动的顺序淘汰连接；FIN/RST 或空闲超时后连接被移除。
+ */
+final class TcpReassembler {
+
+    static final int MAX_OUT_OF_ORDER_BYTES = 64 * 1024;
+    static final long MAX_GLOBAL_BYTES = 8L * 1024 * 1024;
+    static final long IDLE_TIMEOUT_MS = 60_000L;
+    private static final long SWEEP_INTERVAL_MS = 5_000L;
+    private static final int MAX_PENDING_REQUESTS = 16;
+
+    private final LinkedHashMap<FlowKey, TcpConnection> mConnections = new LinkedHashMap<>(64, 0.75f, true);
+    private final FlowKey mProbe = new FlowKey();
+    private final long mMaxGlobalBytes;
+    private long mRetainedBytes;
+    private long mLastSweepMillis;
+
+    TcpReassembler() {
+        this(MAX_GLOBAL_BYTES);
+    }
+
+    TcpReassembler(long maxGlobalBytes) {
+        mMaxGlobalBytes = maxGlobalBytes;
+    }
+
+    int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    long getRetainedBytes() {
+        return mRetainedBytes;
+    }
+
+    void clear() {
+        mConnections.clear();
+        mRetainedBytes = 0;
+    }
+
+    /**
+     * 按需提供当前包对应的 event：只有解析出 HTTP 信息时才会调用，没有结果的包不创建 event。
+     */
+    interface EventSource {
+
+        DebugNetEvent obtainEvent();
+    }
+
+    /**
+     * 处理一个 TCP 包，HTTP 解析结果写入 source 提供的 event。
+     *
+     * @return 该连接已识别出的主机名，未识别时为 null
+     */
+    String onPacket(PacketHeader header, byte[] packet, TrafficDirection direction, EventSource source,
+            int maxBodyBytes, long nowMillis) {
+        if (!header.isTcp()) {
+            return null;
+        }
+        sweepIdle(nowMillis);
+        mProbe.set(header);
+        TcpConnection connection = mConnections.get(mProbe);
+        if (connection == null) {
+            if (header.hasTcpFlag(PacketHeader.TCP_RST)) {
+                return null;
+            }
+            connection = new TcpConnection(mProbe.copy());
+            mConnections.put(connection.key, connection);
+        }
+        int before = connection.retainedBytes();
+        connection.lastSeenMillis = nowMillis;
+        connection.onSegment(header, packet, direction, source, maxBodyBytes, nowMillis);
+        if (connection.isClosed()) {
+            mConnections.remove(connection.key);
+            mRetainedBytes -= before;
+        } else {
+            mRetainedBytes += connection.retainedBytes() - before;
+            enforceGlobalBudget(connection);
+        }
+        return connection.host;
+    }
+
+    private void enforceGlobalBudget(TcpConnection current) {
+        if (mRetainedBytes <= mMaxGlobalBytes) {
+            return;
+        }
+        Iterator<TcpConnection> iterator = mConnections.values().iterator();
+        while (mRetainedBytes > mMaxGlobalBytes && iterator.hasNext()) {
+            TcpConnection candidate = iterator.next();
+            if (candidate == current) {
+                continue;
+            }
+            mRetainedBytes -= candidate.retainedBytes();
+            iterator.remove();
+        }
+        if (mRetainedBytes > mMaxGlobalBytes) {
+            // 单个连接就超出预算时，放弃它已缓存的数据并重新同步。
+            int before = current.retainedBytes();
+            current.dropBuffered();
+            mRetainedBytes += current.retainedBytes() - before;
+        }
+    }
+
+    private void sweepIdle(long nowMillis) {
+        if (nowMillis - mLastSweepMillis < SWEEP_INTERVAL_MS) {
+            return;
+        }
+        mLastSweepMillis = nowMillis;
+        Iterator<Map.Entry<FlowKey, TcpConnection>> iterator = mConnections.entrySet().iterator();
+        while (iterator.hasNext()) {
+            TcpConnection connection = iterator.next().getValue();
+            if (nowMillis - connection.lastSeenMillis < IDLE_TIMEOUT_MS) {
+                // access-order 下越靠后越活跃，遇到未超时的即可停止。
+                break;
+            }
+            mRetainedBytes -= connection.retainedBytes();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 不区分方向的连接键：两端按 (地址, 端口) 排序，上下行映射到同一连接。
+     */
+    static final class FlowKey {
+
+        boolean ipv6;
+        long firstHigh;
+        long firstLow;
+        int firstPort;
+        long secondHigh;
+        long secondLow;
+        int secondPort;
+
+        void set(PacketHeader header) {
+            ipv6 = header.ipv6;
+            boolean sourceFirst = compare(header.sourceHigh, header.sourceLow, header.sourcePort,
+                    header.destinationHigh, header.destinationLow, header.destinationPort) <= 0;
+            if (sourceFirst) {
+                firstHigh = header.sourceHigh;
+                firstLow = header.sourceLow;
+                firstPort = header.sourcePort;
+                secondHigh = header.destinationHigh;
+                secondLow = header.destinationLow;
+                secondPort = header.destinationPort;
+            } else {
+                firstHigh = header.destinationHigh;
+                firstLow = header.destinationLow;
+                firstPort = header.destinationPort;
+                secondHigh = header.sourceHigh;
+                secondLow = header.sourceLow;
+                secondPort = header.sourcePort;
+            }
+        }
+
+        FlowKey copy() {
+            FlowKey key = new FlowKey();
+            key.ipv6 = ipv6;
+            key.firstHigh = firstHigh;
+            key.firstLow = firstLow;
+            key.firstPort = firstPort;
+            key.secondHigh = secondHigh;
+            key.secondLow = secondLow;
+            key.secondPort = secondPort;
+            return key;
+        }
+
+        private static int compare(long aHigh, long aLow, int aPort, long bHigh, long bLow, int bPort) {
+            int result = Long.compare(aHigh, bHigh);
+            if (result == 0) {
+                result = Long.compare(aLow, bLow);
+            }
+            return result == 0 ? Integer.compare(aPort, bPort) : result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FlowKey)) {
+                return false;
+            }
+            FlowKey other = (FlowKey) o;
+            return ipv6 == other.ipv6
+                    && firstHigh == other.firstHigh && firstLow == other.firstLow && firstPort == other.firstPort
+                    && secondHigh == other.secondHigh && secondLow == other.secondLow
+                    && secondPort == other.secondPort;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(firstHigh);
+            result = 31 * result + Long.hashCode(firstLow);
+            result = 31 * result + firstPort;
+            result = 31 * result + Long.hashCode(secondHigh);
+            result = 31 * result + Long.hashCode(secondLow);
+            result = 31 * result + secondPort;
+            return ipv6 ? ~result : result;
+        }
+    }
+
+    /**
+     * 一条 TCP 连接：上行为 App 发出的请求流，下行为服务端返回的响应流。
+     */
+    static final class TcpConnection implements HttpStreamParser.Callback {
+
+        final FlowKey key;
+        final TcpStream upload = new TcpStream();
+        final TcpStream download = new TcpStream();
+        final HttpStreamParser requestParser = new HttpStreamParser(false, this);
+        final HttpStreamParser responseParser = new HttpStreamParser(true, this);
+        private final ArrayDeque<PendingRequest> mPendingRequests = new ArrayDeque<>();
+        long lastSeenMillis;
+        String host;
+        private EventSource mCurrentSource;
+        private long mCurrentMillis;
+        private PendingRequest mActiveResponseRequest;
+        private PendingRequest mLastRequest;
+        private boolean mUploadFinished;
+        private boolean mDownloadFinished;
+        private boolean mReset;
+
+        TcpConnection(FlowKey key) {
+            this.key = key;
+        }
+
+        boolean isClosed() {
+            return mReset || (mUploadFinished && mDownloadFinished);
+        }
+
+        int retainedBytes() {
+            return upload.retainedBytes() + download.retainedBytes()
+                    + requestParser.retainedBytes() + responseParser.retainedBytes();
+        }
+
+        void dropBuffered() {
+            upload.dropPending();
+            download.dropPending();
+            requestParser.resync();
+            responseParser.resync();
+        }
+
+        void onSegment(PacketHeader header, byte[] packet, TrafficDirection direction, EventSource source,
+                int maxBodyBytes, long nowMillis) {
+            mCurrentSource = source;
+            mCurrentMillis = nowMillis;
+            boolean isUpload = direction != TrafficDirection.DOWNLOAD;
+            if (header.hasTcpFlag(PacketHeader.TCP_RST)) {
+                mReset = true;
+                mCurrentSource = null;
+                return;
+            }
+            TcpStream stream = isUpload ? upload : download;
+            HttpStreamParser parser = isUpload ? requestParser : responseParser;
+            if (!parser.isIgnoring()) {
+                stream.onSegment(header, packet, parser, maxBodyBytes);
+            }
+            if (header.hasTcpFlag(PacketHeader.TCP_FIN)) {
+                parser.onClose();
+                if (isUpload) {
+                    mUploadFinished = true;
+                } else {
+                    mDownloadFinished = true;
+                }
+            }
+            mCurrentSource = null;
+        }
+
+        /**
+         * 直接喂入按序的明文（没有 TCP 序号），用于转发引擎终结 TLS 后解密出的数据。
+         */
+        void onPlaintext(boolean upload, byte[] data, int offset, int length, EventSource source,
+                int maxBodyBytes, long nowMillis) {
+            mCurrentSource = source;
+            mCurrentMillis = nowMillis;
+            HttpStreamParser parser = upload ? requestParser : responseParser;
+            if (!parser.isIgnoring()) {
+                parser.feed(data, offset, length, maxBodyBytes);
+            }
+            mCurrentSource = null;
+        }
+
+        private DebugNetEvent currentEvent() {
+            return mCurrentSource == null ? null : mCurrentSource.obtainEvent();
+        }
+
+        @Override
+        public void onRequestHead(String method, String path, String hostHeader, String headersText,
+                int headBytes) {
+            if (hostHeader != null && !hostHeader.isEmpty()) {
+                host = hostHeader;
+            }
+            if (mPendingRequests.size() >= MAX_PENDING_REQUESTS) {
+                mPendingRequests.pollFirst();
+            }
+            PendingRequest request = new PendingRequest(method, path, mCurrentMillis);
+            request.requestBytes = headBytes;
+            mPendingRequests.addLast(request);
+            mLastRequest = request;
+            DebugNetEvent event = currentEvent();
+            if (event != null) {
+                event.setRequestPath(path);
+                event.setRequestHeadersText(headersText);
+            }
+        }
+
+        @Override
+        public void onResponseHead(int statusCode, String headersText, int headBytes) {
+            PendingRequest active = mActiveResponseRequest;
+            if (active == null || active.statusCode >= 200) {
+                // 1xx 为中间响应，之后的最终响应仍对应同一个请求；只有上一个请求已收到最终响应才取下一个。
+                active = mPendingRequests.pollFirst();
+                mActiveResponseRequest = active;
+            }
+            if (active != null) {
+                if (active.responseStartMillis == 0) {
+                    active.responseStartMillis = mCurrentMillis;
+                }
+                active.statusCode = statusCode;
+                active.responseBytes += headBytes;
+            }
+            DebugNetEvent event = currentEvent();
+            if (event != null) {
+                event.setStatusCode(statusCode);
+                event.setResponseHeadersText(headersText);
+                applyRequest(event, mActiveResponseRequest);
+            }
+        }
+
+        @Override
+        public boolean responseHasBody(int statusCode) {
+            if (statusCode < 200 || statusCode == 204 || statusCode == 304) {
+                return false;
+            }
+            return mActiveResponseRequest == null || !"HEAD".equals(mActiveResponseRequest.method);
+        }
+
+        @Override
+        public void onMessageComplete(boolean response, String bodyText, long bodyBytes) {
+            PendingRequest request = response ? mActiveResponseRequest : mLastRequest;
+            if (request != null) {
+                if (response) {
+                    request.responseBytes += bodyBytes;
+                } else {
+                    request.requestBytes += bodyBytes;
+                }
+            }
+            DebugNetEvent event = currentEvent();
+            if (event == null) {
+                return;
+            }
+            if (response) {
+                event.setResponseBodyText(bodyText);
+                applyRequest(event, request);
+                if (request != null && request.statusCode >= 200) {
+                    // 响应结束所在的 event 可能不是收到响应头的那个，状态码需要补上；1xx 中间响应不计
+                    event.setStatusCode(request.statusCode);
+                    event.setExchangeMetrics(request.responseStartMillis - request.timeMillis,
+                            mCurrentMillis - request.timeMillis, request.requestBytes, request.responseBytes);
+                }
+            } else {
+                event.setRequestBodyText(bodyText);
+            }
+        }
+
+        private void applyRequest(DebugNetEvent event, PendingRequest request) {
+            if (request == null) {
+                return;
+            }
+            event.setRequestPath(request.path);
+            event.setRequestTimeMillis(request.timeMillis);
+        }
+    }
+
+    private static final class PendingRequest {
+
+        final String method;
+        final String path;
+        final long timeMillis;
+        long requestBytes;
+        long responseStartMillis;
+        long responseBytes;
+        int statusCode = -1;
+
+        PendingRequest(String method, String path, long timeMillis) {
+            this.method = method;
+            this.path = path;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    /**
+     * 单方向字节流：维护期望序号，按序部分直接交给解析器，提前到达的分段按序号缓存。
+     */
+    static final class TcpStream {
+
+        private final List<Segment> mOutOfOrder = new ArrayList<>();
+        private boolean mInitialized;
+        private int mNextSequence;
+        private int mOutOfOrderBytes;
+
+        int retainedBytes() {
+            return mOutOfOrderBytes;
+        }
+
+        void dropPending() {
+            mOutOfOrder.clear();
+            mOutOfOrderBytes = 0;
+        }
+
+        void onSegment(PacketHeader header, byte[] packet, HttpStreamParser parser, int maxBodyBytes) {
+            int sequence = header.tcpSequence;
+            if (header.hasTcpFlag(PacketHeader.TCP_SYN)) {
+                mInitialized = true;
+                mNextSequence = sequence + 1;
+                dropPending();
+                sequence++;
+            }
+            int length = header.payloadLength;
+            if (length <= 0) {
+                return;
+            }
+            if (!mInitialized) {
+                // 没有看到握手（例如开始抓包前已建立的连接），从第一个数据分段开始。
+                mInitialized = true;
+                mNextSequence = sequence;
+            }
+            int offset = header.payloadOffset;
+            int delta = sequence - mNextSequence;
+            if (delta > 0) {
+                storeOutOfOrder(sequence, packet, offset, length, parser, maxBodyBytes);
+                return;
+            }
+            if (-delta >= length) {
+                // 完全重复的重传。
+                return;
+            }
+            deliver(packet, offset - delta, length + delta, parser, maxBodyBytes);
+            drainOutOfOrder(parser, maxBodyBytes);
+        }
+
+        private void storeOutOfOrder(int sequence, byte[] packet, int offset, int length, HttpStreamParser parser,
+                int maxBodyBytes) {
+            if (mOutOfOrderBytes + length > MAX_OUT_OF_ORDER_BYTES) {
+                // 缺口迟迟补不上，跳过缺口从最早的分段继续，解析器重新同步。
+                parser.resync();
+                if (mOutOfOrder.isEmpty() || mOutOfOrder.get(0).sequence - sequence > 0) {
+                    mNextSequence = sequence;
+                    deliver(packet, offset, length, parser, maxBodyBytes);
+                } else {
+                    mNextSequence = mOutOfOrder.get(0).sequence;
+                    insertOutOfOrder(sequence, packet, offset, length);
+                }
+                drainOutOfOrder(parser, maxBodyBytes);
+                return;
+            }
+            insertOutOfOrder(sequence, packet, offset, length);
+        }
+
+        private void insertOutOfOrder(int sequence, byte[] packet, int offset, int length) {
+            byte[] copy = new byte[length];
+            System.arraycopy(packet, offset, copy, 0, length);
+            Segment segment = new Segment(sequence, copy);
+            int index = mOutOfOrder.size();
+            while (index > 0 && mOutOfOrder.get(index - 1).sequence - sequence > 0) {
+                index--;
+            }
+            mOutOfOrder.add(index, segment);
+            mOutOfOrderBytes += length;
+        }
+
+        private void drainOutOfOrder(HttpStreamParser parser, int maxBodyBytes) {
+            while (!mOutOfOrder.isEmpty()) {
+                Segment segment = mOutOfOrder.get(0);
+                int delta = segment.sequence - mNextSequence;
+                if (delta > 0) {
+                    return;
+                }
+                mOutOfOrder.remove(0);
+                mOutOfOrderBytes -= segment.data.length;
+                if (-delta < segment.data.length) {
+                    deliver(segment.data, -delta, segment.data.length + delta, parser, maxBodyBytes);
+                }
+            }
+        }
+
+        private void deliver(byte[] data, int offset, int length, HttpStreamParser parser, int maxBodyBytes) {
+            mNextSequence += length;
+            parser.feed(data, offset, length, maxBodyBytes);
+        }
+    }
+
+    private static final class Segment {
+
+        final int sequence;
+        final byte[] data;
+
+        Segment(int sequence, byte[] data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+}
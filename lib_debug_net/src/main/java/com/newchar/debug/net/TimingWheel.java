@@ -0,0 +1,160 @@
+package com.newchar.debug.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 单线程使用的哈希时间轮。节点按截止 tick 挂到 tick % 槽数 的槽位链表上，加入与取出都是 O(1)，
+ * 超过一圈的节点留在槽位里等之后再转到。节点自带链表指针，调度时不再分配对象。
+ *
+ * 取出的节点按截止 tick 升序、同一 tick 按加入顺序排列，调用方可依赖这一点保持同一连接内的包序。
+ */
+final class TimingWheel<T extends TimingWheel.Node> {
+
+    static class Node {
+        long deadlineTick;
+        Node next;
+    }
+
+    private static final Comparator<Node> DEADLINE_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            return Long.compare(a.deadlineTick, b.deadlineTick);
+        }
+    };
+
+    private final long mTickNanos;
+    /** nanoTime 可能为负，tick 从构造时刻起算。 */
+    private final long mOriginNanos;
+    private final int mMask;
+    private final Node[] mHeads;
+    private final Node[] mTails;
+    /** 下一个要转到的 tick，小于它的 tick 都已处理过。 */
+    private long mCurrentTick;
+    private int mSize;
+
+    TimingWheel(long tickNanos, int slotCount, long startNanos) {
+        int size = DispatchRingBuffer.roundCapacity(slotCount);
+        mTickNanos = tickNanos;
+        mMask = size - 1;
+        mHeads = new Node[size];
+        mTails = new Node[size];
+        mOriginNanos = startNanos;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * 在 deadlineNanos 之后取出节点；已经过去的时间点在下一次 {@link #expire} 时取出。
+     */
+    void schedule(T node, long deadlineNanos) {
+        long elapsed = deadlineNanos - mOriginNanos;
+        long tick = elapsed <= 0 ? 0L : (elapsed + mTickNanos - 1) / mTickNanos;
+        if (tick < mCurrentTick) {
+            tick = mCurrentTick;
+        }
+        node.deadlineTick = tick;
+        node.next = null;
+        int slot = (int) (tick & mMask);
+        if (mTails[slot] == null) {
+            mHeads[slot] = node;
+        } else {
+            mTails[slot].next = node;
+        }
+        mTails[slot] = node;
+        mSize++;
+    }
+
+    /**
+     * 把截止时间不晚于 nowNanos 的节点追加到 out。
+     *
+     * @return 取出的节点数
+     */
+    @SuppressWarnings("unchecked")
+    int expire(long nowNanos, ArrayList<T> out) {
+        long targetTick = (nowNanos - mOriginNanos) / mTickNanos;
+        if (targetTick < mCurrentTick) {
+            return 0;
+        }
+        int start = out.size();
+        if (mSize > 0) {
+            long visits = Math.min(targetTick - mCurrentTick + 1, mHeads.length);
+            for (long i = 0; i < visits; i++) {
+                int slot = (int) ((mCurrentTick + i) & mMask);
+                Node previous = null;
+                Node node = mHeads[slot];
+                while (node != null) {
+                    Node next = node.next;
+                    if (node.deadlineTick <= targetTick) {
+                        if (previous == null) {
+                            mHeads[slot] = next;
+                        } else {
+                            previous.next = next;
+                        }
+                        if (mTails[slot] == node) {
+                            mTails[slot] = previous;
+                        }
+                        node.next = null;
+                        mSize--;
+                        out.add((T) node);
+                    } else {
+                        previous = node;
+                    }
+                    node = next;
+                }
+            }
+            if (visits > 1 && out.size() - start > 1) {
+                // 一次转过多个槽位时，超过一圈的节点可能在槽位顺序上靠前，按截止 tick 稳定排序还原先后
+                sortByDeadline(out.subList(start, out.size()));
+            }
+        }
+        mCurrentTick = targetTick + 1;
+        return out.size() - start;
+    }
+
+    /**
+     * 取出全部节点，按截止 tick 排列。
+     */
+    @SuppressWarnings("unchecked")
+    void drainAll(ArrayList<T> out) {
+        int start = out.size();
+        for (int slot = 0; slot < mHeads.length; slot++) {
+            Node node = mHeads[slot];
+            while (node != null) {
+                Node next = node.next;
+                node.next = null;
+                out.add((T) node);
+                node = next;
+            }
+            mHeads[slot] = null;
+            mTails[slot] = null;
+        }
+        mSize = 0;
+        sortByDeadline(out.subList(start, out.size()));
+    }
+
+    /**
+     * 最近一个非空槽位对应的时间，用作 select 的超时；没有节点时返回 Long.MAX_VALUE。
+     * 槽位里若只有下一圈的节点会提前醒来一次，不影响正确性。
+     */
+    long nextWakeupNanos() {
+        if (mSize == 0) {
+            return Long.MAX_VALUE;
+        }
+        for (int i = 0; i < mHeads.length; i++) {
+            if (mHeads[(int) ((mCurrentTick + i) & mMask)] != null) {
+                return mOriginNanos + (mCurrentTick + i) * mTickNanos;
+            }
+        }
+        return mOriginNanos + (mCurrentTick + mHeads.length) * mTickNanos;
+    }
+
+    private static void sortByDeadline(List<? extends Node> nodes) {
+        // Collections.sort 是稳定排序，同一 tick 保持加入顺序
+        Collections.sort(nodes, DEADLINE_ORDER);
+    }
+}
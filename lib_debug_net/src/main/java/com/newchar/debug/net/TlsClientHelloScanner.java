@@ -0,0 +1,159 @@
+package com.newchar.debug.net;
+
+/**
+ * 在原始字节上扫描 TLS ClientHello，找出 SNI 主机名与第一个 ALPN 协议。
+ *
+ * 只记录它们在输入数组中的偏移与长度，扫描过程不分配对象，由调用方决定何时转成字符串。
+ * ClientHello 跨多个 TCP 段时返回 {@link #STATUS_NEED_MORE}，{@link Result#requiredLength} 给出完整记录的长度。
+ */
+final class TlsClientHelloScanner {
+
+    static final int STATUS_NOT_TLS = 0;
+    static final int STATUS_NEED_MORE = 1;
+    static final int STATUS_COMPLETE = 2;
+
+    private static final int CONTENT_TYPE_HANDSHAKE = 0x16;
+    private static final int HANDSHAKE_CLIENT_HELLO = 0x01;
+    private static final int EXTENSION_SERVER_NAME = 0;
+    private static final int EXTENSION_ALPN = 16;
+    private static final int NAME_TYPE_HOST_NAME = 0;
+    private static final int RECORD_HEADER_SIZE = 5;
+
+    private TlsClientHelloScanner() {
+    }
+
+    /**
+     * 可复用的扫描结果，偏移都是相对于输入数组的绝对下标，长度为 0 表示未找到。
+     */
+    static final class Result {
+
+        int sniOffset;
+        int sniLength;
+        int alpnOffset;
+        int alpnLength;
+        /** 第一个 TLS 记录的完整长度（含 5 字节记录头）。 */
+        int requiredLength;
+
+        void reset() {
+            sniOffset = 0;
+            sniLength = 0;
+            alpnOffset = 0;
+            alpnLength = 0;
+            requiredLength = 0;
+        }
+
+        boolean hasSni() {
+            return sniLength > 0;
+        }
+
+        boolean hasAlpn() {
+            return alpnLength > 0;
+        }
+    }
+
+    /**
+     * 看开头几个字节是否像 ClientHello 记录，用于决定是否值得缓存后续分段。
+     */
+    static boolean looksLikeClientHello(byte[] data, int offset, int end) {
+        int available = end - offset;
+        if (available < 1 || (data[offset] & 0xFF) != CONTENT_TYPE_HANDSHAKE) {
+            return false;
+        }
+        if (available >= 2 && data[offset + 1] != 3) {
+            return false;
+        }
+        return available < 6 || (data[offset + 5] & 0xFF) == HANDSHAKE_CLIENT_HELLO;
+    }
+
+    static int scan(byte[] data, int offset, int end, Result result) {
+        result.reset();
+        if (!looksLikeClientHello(data, offset, end)) {
+            return STATUS_NOT_TLS;
+        }
+        if (end - offset < RECORD_HEADER_SIZE + 4) {
+            return STATUS_NEED_MORE;
+        }
+        int recordEnd = offset + RECORD_HEADER_SIZE + readUnsignedShort(data, offset + 3);
+        result.requiredLength = recordEnd - offset;
+        int limit = Math.min(end, recordEnd);
+        // 数据不够时区分"还没收全"和"格式错误"
+        int truncated = end < recordEnd ? STATUS_NEED_MORE : STATUS_NOT_TLS;
+
+        // 握手头 4 字节、client_version 2 字节、random 32 字节
+        int cursor = offset + RECORD_HEADER_SIZE + 4 + 2 + 32;
+        if (cursor + 1 > limit) {
+            return truncated;
+        }
+        cursor += 1 + (data[cursor] & 0xFF);
+        if (cursor + 2 > limit) {
+            return truncated;
+        }
+        cursor += 2 + readUnsignedShort(data, cursor);
+        if (cursor + 1 > limit) {
+            return truncated;
+        }
+        cursor += 1 + (data[cursor] & 0xFF);
+        if (cursor + 2 > limit) {
+            // 没有扩展的 ClientHello 是合法的，只是没有 SNI
+            return cursor == recordEnd ? STATUS_COMPLETE : truncated;
+        }
+        int extensionsEnd = cursor + 2 + readUnsignedShort(data, cursor);
+        cursor += 2;
+        while (cursor + 4 <= Math.min(limit, extensionsEnd)) {
+            int type = readUnsignedShort(data, cursor);
+            int length = readUnsignedShort(data, cursor + 2);
+            int body = cursor + 4;
+            int bodyEnd = body + length;
+            if (bodyEnd > limit) {
+                return truncated;
+            }
+            if (type == EXTENSION_SERVER_NAME) {
+                scanServerName(data, body, bodyEnd, result);
+            } else if (type == EXTENSION_ALPN) {
+                scanAlpn(data, body, bodyEnd, result);
+            }
+            if (result.hasSni() && result.hasAlpn()) {
+                return STATUS_COMPLETE;
+            }
+            cursor = bodyEnd;
+        }
+        return cursor >= extensionsEnd ? STATUS_COMPLETE : truncated;
+    }
+
+    private static void scanServerName(byte[] data, int offset, int end, Result result) {
+        if (offset + 2 > end) {
+            return;
+        }
+        int listEnd = Math.min(end, offset + 2 + readUnsignedShort(data, offset));
+        int cursor = offset + 2;
+        while (cursor + 3 <= listEnd) {
+            int nameType = data[cursor] & 0xFF;
+            int nameLength = readUnsignedShort(data, cursor + 1);
+            int nameOffset = cursor + 3;
+            if (nameOffset + nameLength > listEnd) {
+                return;
+            }
+            if (nameType == NAME_TYPE_HOST_NAME && nameLength > 0) {
+                result.sniOffset = nameOffset;
+                result.sniLength = nameLength;
+                return;
+            }
+            cursor = nameOffset + nameLength;
+        }
+    }
+
+    private static void scanAlpn(byte[] data, int offset, int end, Result result) {
+        if (offset + 3 > end) {
+            return;
+        }
+        int protocolLength = data[offset + 2] & 0xFF;
+        if (protocolLength > 0 && offset + 3 + protocolLength <= end) {
+            result.alpnOffset = offset + 3;
+            result.alpnLength = protocolLength;
+        }
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+}
@@ -3,11 +3,14 @@ package com.newchar.debug.plugin;
 import android.content.Context;
 import android.graphics.Color;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.text.InputType;
 import android.text.TextUtils;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.BaseAdapter;
 import android.widget.Button;
@@ -24,17 +27,37 @@ import com.newchar.debug.utils.ViewUtils;
 import com.newchar.debug.api.PluginContext;
 import com.newchar.debug.api.ScreenDisplayPlugin;
 import com.newchar.debug.core.traffic.TrafficInfo;
-import com.newchar.debug.core.traffic.TrafficMonitor;
+import com.newchar.debug.core.traffic.TrafficSampler;
 import com.newchar.debug.net.DebugNetConfig;
 import com.newchar.debug.net.DebugNetEvent;
+import com.newchar.debug.net.DebugNetFlow;
+import com.newchar.debug.net.DebugNetFlowListener;
+import com.newchar.debug.net.DebugNetHistograms;
 import com.newchar.debug.net.DebugNetMonitor;
+import com.newchar.debug.net.DebugNetNetworkCondition;
+import com.newchar.debug.net.DebugNetOkHttpCapture;
+import com.newchar.debug.net.DebugNetPcapSink;
+import com.newchar.debug.net.DebugNetPostProcessorStats;
+import com.newchar.debug.net.DebugNetSessionQuery;
+import com.newchar.debug.net.DebugNetSessionStore;
+import com.newchar.debug.net.DebugNetTagStats;
 import com.newchar.debug.net.DebugNetTrafficListener;
+import com.newchar.debug.net.DebugNetTrafficTags;
+import com.newchar.debug.net.PacketBufferPool;
 import com.newchar.debug.utils.HandleWrapper;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 使用 VPN 捕获当前 App 网络包，并用列表展示每次通信记录。
@@ -44,17 +67,59 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
     public static final String TAG_PLUGIN = "DEBUG_NET";
 
     private static final int MAX_EVENT_COUNT = 300;
-    private static final int MAX_FLUSH_BATCH = 60;
+    private static final int MAX_FLOW_COUNT = 300;
+    private static final int HISTORY_PAGE_SIZE = 60;
+    private static final int DEFAULT_UI_REFRESH_HZ = 4;
     private static final long TRAFFIC_REFRESH_INTERVAL_MS = 1000L;
+    private static final int TRAFFIC_SAMPLE_CAPACITY = 60;
+    private static final int TRAFFIC_AVERAGE_WINDOW = 10;
+    private static final int TRAFFIC_SPARKLINE_WIDTH = 30;
+    private static final int TOP_TALKER_COUNT = 8;
     private static final String KEY_HTTP_DECODE = "debug_net_http_decode";
     private static final String KEY_HTTPS_DECODE = "debug_net_https_decode";
     private static final String KEY_CERT_PATH = "debug_net_cert_path";
     private static final String KEY_CERT_PASSWORD = "debug_net_cert_password";
     private static final String KEY_KEYSTORE_TYPE = "debug_net_keystore_type";
+    private static final String KEY_PACKET_EVENTS = "debug_net_packet_events";
+    private static final String KEY_CAPTURE_FILTER = "debug_net_capture_filter";
+    private static final String KEY_CONDITION_DELAY = "debug_net_condition_delay";
+    private static final String KEY_CONDITION_JITTER = "debug_net_condition_jitter";
+    private static final String KEY_CONDITION_DOWNLOAD = "debug_net_condition_download";
+    private static final String KEY_CONDITION_UPLOAD = "debug_net_condition_upload";
+    private static final String KEY_CONDITION_LOSS = "debug_net_condition_loss";
+    private static final String KEY_CONDITION_PER_FLOW = "debug_net_condition_per_flow";
+    private static final String KEY_CONDITION_FILTER = "debug_net_condition_filter";
+    private static final String[] STATS_SORT_LABELS = {"总耗时P95", "首字节P95", "总耗时P50", "响应字节P95", "请求字节P95"};
+    private static final int[] STATS_SORT_METRICS = {DebugNetHistograms.METRIC_DURATION, DebugNetHistograms.METRIC_TTFB,
+            DebugNetHistograms.METRIC_DURATION, DebugNetHistograms.METRIC_RESPONSE_BYTES,
+            DebugNetHistograms.METRIC_REQUEST_BYTES};
+    private static final double[] STATS_SORT_PERCENTILES = {95, 95, 50, 95, 95};
 
-    private final List<DebugNetEvent> mEvents = new ArrayList<>();
+    private final RingList<DebugNetEvent> mEvents = new RingList<>(MAX_EVENT_COUNT);
     private final ConcurrentLinkedQueue<DebugNetEvent> mPendingEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPendingEventCount = new AtomicInteger();
     private final AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+    private volatile long mUiRefreshIntervalMs = 1000L / DEFAULT_UI_REFRESH_HZ;
+    private volatile long mLastFlushUptimeMs;
+    /** 用户离开列表顶部或正在滚动时冻结列表内容，新数据暂存到回到顶部后再合并。 */
+    private boolean mListFrozen;
+    private boolean mFlowsDirty;
+    private int mScrollState = AbsListView.OnScrollListener.SCROLL_STATE_IDLE;
+    private final Map<Long, DebugNetFlow> mFlowsById = new HashMap<>();
+    private final List<DebugNetFlow> mFlows = new ArrayList<>();
+    private final ConcurrentLinkedQueue<List<DebugNetFlow>> mPendingFlows = new ConcurrentLinkedQueue<>();
+    private boolean mShowFlows = true;
+    private boolean mShowStats;
+    private final DebugNetHistograms mHistograms = new DebugNetHistograms();
+    private final List<DebugNetHistograms.Snapshot> mStatsRows = new ArrayList<>();
+    /** 统计快照在后台线程生成，以下字段只在主线程访问。 */
+    private final Handler mStatsHandler = HandleWrapper.obtainAsyncHandler(null);
+    private int mStatsGeneration;
+    private long mStatsVersion = -1L;
+    private int mStatsSort = -1;
+    private final List<Object> mHistoryRows = new ArrayList<>();
+    private boolean mShowHistory;
+    private DebugNetSessionQuery mNextHistoryQuery;
 
     private LinearLayout mRootView;
     private ListView mListView;
@@ -63,11 +128,32 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
     private TextView mTrafficView;
     private CheckBox mHttpDecodeCheckBox;
     private CheckBox mHttpsDecodeCheckBox;
+    private CheckBox mPacketEventsCheckBox;
+    private CheckBox mPcapExportCheckBox;
+    private CheckBox mSessionStoreCheckBox;
+    private EditText mHistoryInput;
+    private Spinner mStatsSortSpinner;
+    private Button mModeButton;
+    private EditText mCaptureFilterInput;
+    private EditText mConditionDelayInput;
+    private EditText mConditionJitterInput;
+    private EditText mConditionDownloadInput;
+    private EditText mConditionUploadInput;
+    private EditText mConditionLossInput;
+    private CheckBox mConditionPerFlowCheckBox;
+    private EditText mConditionFilterInput;
     private EditText mCertPathInput;
     private EditText mCertPasswordInput;
     private Spinner mKeystoreTypeSpinner;
     private Context mAppContext;
-    private TrafficMonitor mTrafficMonitor;
+    private TrafficSampler mTrafficSampler;
+    private TextView mTopTalkersView;
+    private CheckBox mTrafficTagsCheckBox;
+    private CheckBox mOkHttpCaptureCheckBox;
+    /** 流量大户按 tag 增量合并，只在主线程访问。 */
+    private final Map<Integer, DebugNetTagStats> mTagStats = new HashMap<>();
+    private final List<DebugNetTagStats> mTagChanges = new ArrayList<>();
+    private long mTagStatsVersion;
     private final Handler mMainHandler = HandleWrapper.getMainHandler();
 
     @Override
@@ -91,6 +177,8 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         lp.weight = 1f;
         restoreConfigIntoMonitor();
         DebugNetMonitor.addListener(mTrafficListener);
+        DebugNetMonitor.addFlowListener(mFlowListener);
+        DebugNetMonitor.addListener(mHistograms);
         updateStatus();
         ViewUtils.setVisibility(mRootView, View.GONE);
     }
@@ -111,11 +199,27 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
     @Override
     public void onUnload() {
         DebugNetMonitor.removeListener(mTrafficListener);
+        DebugNetMonitor.removeFlowListener(mFlowListener);
+        DebugNetMonitor.removeListener(mHistograms);
         HandleWrapper.getMainHandler().removeCallbacks(mFlushTask);
         stopTrafficMonitor();
         mPendingEvents.clear();
+        mPendingFlows.clear();
+        mPendingEventCount.set(0);
         mFlushScheduled.set(false);
+        mListFrozen = false;
+        mFlowsDirty = false;
         mEvents.clear();
+        mFlows.clear();
+        mFlowsById.clear();
+        mHistoryRows.clear();
+        mStatsRows.clear();
+        mStatsHandler.removeCallbacksAndMessages(null);
+        mStatsGeneration++;
+        mStatsVersion = -1L;
+        mStatsSort = -1;
+        mShowHistory = false;
+        mNextHistoryQuery = null;
         if (mAdapter != null) {
             mAdapter.notifyDataSetChanged();
         }
@@ -123,16 +227,34 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         mListView = null;
         mStatusView = null;
         mTrafficView = null;
+        mTopTalkersView = null;
+        mTrafficTagsCheckBox = null;
+        mOkHttpCaptureCheckBox = null;
+        mTagStats.clear();
+        mTagStatsVersion = 0L;
         mAdapter = null;
         mHttpDecodeCheckBox = null;
         mHttpsDecodeCheckBox = null;
+        mPacketEventsCheckBox = null;
+        mModeButton = null;
+        mSessionStoreCheckBox = null;
+        mHistoryInput = null;
+        mStatsSortSpinner = null;
+        mCaptureFilterInput = null;
+        mConditionDelayInput = null;
+        mConditionJitterInput = null;
+        mConditionDownloadInput = null;
+        mConditionUploadInput = null;
+        mConditionLossInput = null;
+        mConditionPerFlowCheckBox = null;
+        mConditionFilterInput = null;
         mCertPathInput = null;
         mCertPasswordInput = null;
         mKeystoreTypeSpinner = null;
         mAppContext = null;
-        if (mTrafficMonitor != null) {
-            mTrafficMonitor.release();
-            mTrafficMonitor = null;
+        if (mTrafficSampler != null) {
+            mTrafficSampler.stop();
+            mTrafficSampler = null;
         }
     }
 
@@ -145,9 +267,10 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         mRootView.setBackgroundColor(0x4D808080);
 
         mListView = new ListView(context);
-        mAdapter = new NetPluginAdapter(context, mEvents);
+        mAdapter = new NetPluginAdapter(context);
         mAdapter.ensureConfigView();
         mListView.setAdapter(mAdapter);
+        mListView.setOnScrollListener(mScrollListener);
 
         mRootView.addView(mListView, new LinearLayout.LayoutParams(
                 ViewGroup.LayoutParams.MATCH_PARENT,
@@ -158,34 +281,103 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         if (mAppContext == null) {
             return;
         }
-        if (mTrafficMonitor == null) {
-            mTrafficMonitor = new TrafficMonitor(mAppContext);
+        if (mTrafficSampler == null) {
+            mTrafficSampler = new TrafficSampler.Builder()
+                    .setUid(mAppContext.getApplicationInfo().uid)
+                    .setIntervalMs(TRAFFIC_REFRESH_INTERVAL_MS)
+                    .setCapacity(TRAFFIC_SAMPLE_CAPACITY)
+                    .build();
         }
+        mTrafficSampler.start();
         mMainHandler.removeCallbacks(mTrafficRefreshTask);
         mMainHandler.post(mTrafficRefreshTask);
     }
 
     private void stopTrafficMonitor() {
         mMainHandler.removeCallbacks(mTrafficRefreshTask);
+        if (mTrafficSampler != null) {
+            mTrafficSampler.stop();
+        }
     }
 
     private final Runnable mTrafficRefreshTask = new Runnable() {
         @Override
         public void run() {
-            if (mTrafficMonitor == null || mTrafficView == null) {
+            if (mTrafficSampler == null || mTrafficView == null) {
                 return;
             }
-            TrafficInfo info = mTrafficMonitor.sample();
-            mTrafficView.setText("网络流量\n接收总量 : " + formatBytes(info.getRxBytes())
-                    + "\n发送总量 : " + formatBytes(info.getTxBytes())
-                    + "\n接收速率 : " + formatBytes(info.getRxSpeedBytes()) + "/s"
-                    + "\n发送速率 : " + formatBytes(info.getTxSpeedBytes()) + "/s");
+            // 只读取采样线程写好的数据，主线程不碰 TrafficStats
+            TrafficInfo info = mTrafficSampler.getLatest();
+            if (info != null) {
+                mTrafficView.setText("网络流量\n接收总量 : " + formatBytes(info.getRxBytes())
+                        + "\n发送总量 : " + formatBytes(info.getTxBytes())
+                        + "\n接收速率 : " + formatBytes(info.getRxSpeedBytes()) + "/s"
+                        + formatRateSummary(TrafficSampler.METRIC_UID_RX_BYTES)
+                        + "\n发送速率 : " + formatBytes(info.getTxSpeedBytes()) + "/s"
+                        + formatRateSummary(TrafficSampler.METRIC_UID_TX_BYTES)
+                        + "\n收发包数 : " + mTrafficSampler.getMovingAverage(
+                        TrafficSampler.METRIC_UID_RX_PACKETS, 1) + " / "
+                        + mTrafficSampler.getMovingAverage(TrafficSampler.METRIC_UID_TX_PACKETS, 1) + " 个/s"
+                        + "\n移动网络 : ↓" + formatBytes(mTrafficSampler.getMovingAverage(
+                        TrafficSampler.METRIC_MOBILE_RX_BYTES, 1)) + "/s ↑"
+                        + formatBytes(mTrafficSampler.getMovingAverage(TrafficSampler.METRIC_MOBILE_TX_BYTES, 1)) + "/s"
+                        + "\n设备全部 : ↓" + formatBytes(mTrafficSampler.getMovingAverage(
+                        TrafficSampler.METRIC_TOTAL_RX_BYTES, 1)) + "/s ↑"
+                        + formatBytes(mTrafficSampler.getMovingAverage(TrafficSampler.METRIC_TOTAL_TX_BYTES, 1)) + "/s");
+            }
+            refreshTopTalkers();
+            if (mShowStats && !mShowHistory && !mListFrozen) {
+                refreshStats(false);
+            }
             if (mRootView != null && mRootView.getVisibility() == View.VISIBLE) {
                 mMainHandler.postDelayed(this, TRAFFIC_REFRESH_INTERVAL_MS);
             }
         }
     };
 
+    /**
+     * 只合并上次刷新之后变化过的 tag，没有变化时不重新排序和设置文本。
+     */
+    private void refreshTopTalkers() {
+        if (mTopTalkersView == null) {
+            return;
+        }
+        if (!DebugNetTrafficTags.isEnabled()) {
+            mTopTalkersView.setVisibility(View.GONE);
+            return;
+        }
+        mTopTalkersView.setVisibility(View.VISIBLE);
+        mTagChanges.clear();
+        long version = DebugNetTrafficTags.collectChanges(mTagStatsVersion, mTagChanges);
+        if (version == mTagStatsVersion && mTopTalkersView.getText().length() > 0) {
+            return;
+        }
+        mTagStatsVersion = version;
+        for (DebugNetTagStats stats : mTagChanges) {
+            mTagStats.put(stats.getTag(), stats);
+        }
+        mTagChanges.clear();
+        List<DebugNetTagStats> sorted = new ArrayList<>(mTagStats.values());
+        DebugNetTrafficTags.sortByTotalBytes(sorted);
+        StringBuilder builder = new StringBuilder("流量大户（按调用方）");
+        if (sorted.isEmpty()) {
+            builder.append("\n暂无数据，需通过 DebugNetOkHttpTagging 接入或调用 DebugNetTrafficTags.record 上报");
+        }
+        for (int i = 0; i < sorted.size() && i < TOP_TALKER_COUNT; i++) {
+            builder.append('\n').append(i + 1).append(". ").append(sorted.get(i).getSummaryText());
+        }
+        mTopTalkersView.setText(builder);
+    }
+
+    /**
+     * 一行速率摘要：近 10 个采样点的均值、整个窗口的峰值和迷你图。
+     */
+    private String formatRateSummary(int metric) {
+        return "\n    均值 " + formatBytes(mTrafficSampler.getMovingAverage(metric, TRAFFIC_AVERAGE_WINDOW)) + "/s"
+                + "  峰值 " + formatBytes(mTrafficSampler.getPeak(metric, TRAFFIC_SAMPLE_CAPACITY)) + "/s"
+                + "\n    " + mTrafficSampler.buildSparkline(metric, TRAFFIC_SPARKLINE_WIDTH);
+    }
+
     private static String formatBytes(double bytes) {
         if (bytes < 0) {
             return "不可用";
@@ -210,56 +402,172 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         String https = config.isHttpsDecodeEnabled() ? "HTTPS解码开" : "HTTPS解码关";
         String http = config.isHttpDecodeEnabled() ? "HTTP解析开" : "HTTP解析关";
         String path = TextUtils.isEmpty(config.getCertificatePath()) ? "证书未配置" : config.getCertificatePath();
+        PacketBufferPool pool = DebugNetMonitor.getPacketBufferPool();
+        String poolText = "缓冲池 " + pool.getCapacity() + " 命中/未命中 " + pool.getHitCount() + "/" + pool.getMissCount()
+                + " | 丢弃 " + DebugNetMonitor.getDroppedEventCount();
+        if (config.getCaptureFilterError() != null) {
+            poolText += " | " + config.getCaptureFilterError();
+        } else if (config.getCaptureFilter() != null) {
+            poolText += " | 过滤 " + config.getCaptureFilterExpression();
+        }
+        DebugNetNetworkCondition condition = config.getNetworkCondition();
+        if (condition != null && (condition.isEnabled() || condition.getFilterError() != null)) {
+            poolText += " | " + condition.getSummaryText() + " 延后/丢弃 " + DebugNetMonitor.getConditionedPacketCount()
+                    + "/" + DebugNetMonitor.getConditionedDropCount();
+        }
+        DebugNetPcapSink pcapSink = DebugNetMonitor.getPcapSink();
+        if (pcapSink != null) {
+            poolText += " | pcap " + pcapSink.getWrittenPacketCount() + "/丢弃 " + pcapSink.getDroppedPacketCount();
+        }
+        DebugNetSessionStore sessionStore = DebugNetMonitor.getSessionStore();
+        if (sessionStore != null) {
+            poolText += " | 历史 " + sessionStore.getWrittenRecordCount() + "条/" + formatBytes(sessionStore.getTotalBytes());
+        }
+        for (DebugNetPostProcessorStats stats : DebugNetMonitor.getPostProcessorStats()) {
+            if (stats.isSlow()) {
+                poolText += " | 慢处理器 " + stats.getSummaryText();
+            }
+        }
+        if (mListFrozen) {
+            poolText += " | 列表已冻结，待合并 " + mPendingEventCount.get() + " 条";
+        }
         if (DebugNetMonitor.isRunning()) {
-            mStatusView.setText("VPN监听中 | " + http + " | " + https + " | " + path);
+            mStatusView.setText("VPN监听中 | " + http + " | " + https + " | " + path + " | " + poolText);
         } else {
-            mStatusView.setText("VPN未启动 | " + http + " | " + https + " | " + path);
+            mStatusView.setText("VPN未启动 | " + http + " | " + https + " | " + path + " | " + poolText);
         }
     }
 
-    private void enqueueEvent(DebugNetEvent event) {
-        if (event == null) {
+    /**
+     * 列表刷新频率（次/秒），默认 4。event 与连接更新会合并到下一次刷新，避免高流量时每帧重绑整个列表。
+     */
+    public void setUiRefreshRate(int hz) {
+        mUiRefreshIntervalMs = 1000L / Math.max(1, Math.min(60, hz));
+    }
+
+    private void enqueueEvents(List<DebugNetEvent> events) {
+        if (events.isEmpty()) {
             return;
         }
-        mPendingEvents.offer(event);
+        // events 由分发线程复用，逐个取出而不是持有列表本身
+        mPendingEvents.addAll(events);
+        mPendingEventCount.addAndGet(events.size());
+        scheduleFlush();
+    }
+
+    /**
+     * 把刷新对齐到 UI 刷新间隔：距上次刷新不足一个间隔时延后执行，期间到达的数据合并到同一次刷新。
+     */
+    private void scheduleFlush() {
         if (mFlushScheduled.compareAndSet(false, true)) {
-            HandleWrapper.getMainHandler().post(mFlushTask);
+            long delay = mLastFlushUptimeMs + mUiRefreshIntervalMs - SystemClock.uptimeMillis();
+            mMainHandler.postDelayed(mFlushTask, Math.max(0L, delay));
         }
     }
 
     private final Runnable mFlushTask = new Runnable() {
         @Override
         public void run() {
-            int count = 0;
+            mFlushScheduled.set(false);
+            mLastFlushUptimeMs = SystemClock.uptimeMillis();
+            List<DebugNetFlow> updates;
+            while ((updates = mPendingFlows.poll()) != null) {
+                for (DebugNetFlow flow : updates) {
+                    mFlowsById.put(flow.getFlowId(), flow);
+                }
+                mFlowsDirty = true;
+            }
+            if (mListFrozen) {
+                // 冻结期间 Adapter 读取的列表不能变化；暂存的 event 超过列表容量的部分反正会被淘汰，直接丢掉
+                while (mPendingEventCount.get() > MAX_EVENT_COUNT && mPendingEvents.poll() != null) {
+                    mPendingEventCount.decrementAndGet();
+                }
+                updateStatus();
+                return;
+            }
+            boolean eventsChanged = false;
             DebugNetEvent event;
-            while (count < MAX_FLUSH_BATCH && (event = mPendingEvents.poll()) != null) {
-                mEvents.add(0, event);
-                count++;
+            while ((event = mPendingEvents.poll()) != null) {
+                mPendingEventCount.decrementAndGet();
+                mEvents.addFirst(event);
+                eventsChanged = true;
             }
-            while (mEvents.size() > MAX_EVENT_COUNT) {
-                mEvents.remove(mEvents.size() - 1);
+            boolean flowsChanged = mFlowsDirty;
+            if (flowsChanged) {
+                rebuildFlows();
             }
-            if (mAdapter != null) {
+            if (mAdapter != null && !mShowHistory && !mShowStats && (mShowFlows ? flowsChanged : eventsChanged)) {
                 mAdapter.notifyDataSetChanged();
             }
             updateStatus();
-            if (!mPendingEvents.isEmpty()) {
-                HandleWrapper.getMainHandler().post(this);
-                return;
-            }
-            mFlushScheduled.set(false);
-            if (!mPendingEvents.isEmpty() && mFlushScheduled.compareAndSet(false, true)) {
-                HandleWrapper.getMainHandler().post(this);
+            if (!mPendingEvents.isEmpty() || !mPendingFlows.isEmpty()) {
+                scheduleFlush();
             }
         }
     };
 
+    private void rebuildFlows() {
+        mFlowsDirty = false;
+        mFlows.clear();
+        mFlows.addAll(mFlowsById.values());
+        // 最近活跃的连接排在前面；超出上限时优先丢弃最久未活跃的。
+        Collections.sort(mFlows, (a, b) -> Long.compare(b.getLastTimeMillis(), a.getLastTimeMillis()));
+        while (mFlows.size() > MAX_FLOW_COUNT) {
+            DebugNetFlow removed = mFlows.remove(mFlows.size() - 1);
+            mFlowsById.remove(removed.getFlowId());
+        }
+    }
+
+    /**
+     * 第一条数据行（position 1）不在顶部或列表正在滚动时冻结；回到顶部且停止滚动后立即合并暂存的数据。
+     */
+    private void updateListFrozen(int firstVisibleItem) {
+        boolean frozen = mScrollState != AbsListView.OnScrollListener.SCROLL_STATE_IDLE || firstVisibleItem > 1;
+        if (frozen == mListFrozen) {
+            return;
+        }
+        mListFrozen = frozen;
+        if (!frozen) {
+            scheduleFlush();
+        }
+        updateStatus();
+    }
+
+    private final AbsListView.OnScrollListener mScrollListener = new AbsListView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+            mScrollState = scrollState;
+            updateListFrozen(view.getFirstVisiblePosition());
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            updateListFrozen(firstVisibleItem);
+        }
+    };
+
+    private final DebugNetFlowListener mFlowListener = new DebugNetFlowListener() {
+        @Override
+        public void onFlowsUpdated(List<DebugNetFlow> flows) {
+            // 连接统计已在抓包侧节流，这里与 event 合并到同一次 UI 刷新。
+            mPendingFlows.offer(flows);
+            scheduleFlush();
+        }
+    };
+
     private final DebugNetTrafficListener mTrafficListener = new DebugNetTrafficListener() {
         @Override
         public boolean onTrafficEvent(DebugNetEvent event) {
-            enqueueEvent(event);
+            if (event != null) {
+                enqueueEvents(Collections.singletonList(event));
+            }
             return true;
         }
+
+        @Override
+        public void onTrafficEvents(List<DebugNetEvent> events) {
+            enqueueEvents(events);
+        }
     };
 
     private LinearLayout buildSettingsLayout(Context context) {
@@ -275,6 +583,137 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         mHttpsDecodeCheckBox.setText("启用HTTPS解码配置");
         settingsLayout.addView(mHttpsDecodeCheckBox, matchWrap());
 
+        mPacketEventsCheckBox = new CheckBox(context);
+        mPacketEventsCheckBox.setText("逐包记录（关闭时只记录HTTP请求与连接统计）");
+        settingsLayout.addView(mPacketEventsCheckBox, matchWrap());
+
+        mPcapExportCheckBox = new CheckBox(context);
+        mPcapExportCheckBox.setText("导出pcapng（App外部文件目录/debug_net_pcap）");
+        mPcapExportCheckBox.setChecked(DebugNetMonitor.getPcapSink() != null);
+        mPcapExportCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            setPcapExportEnabled(isChecked);
+            updateStatus();
+        });
+        settingsLayout.addView(mPcapExportCheckBox, matchWrap());
+
+        mSessionStoreCheckBox = new CheckBox(context);
+        mSessionStoreCheckBox.setText("保存历史会话（App文件目录/debug_net_session，可按主机/端口查询）");
+        mSessionStoreCheckBox.setChecked(DebugNetMonitor.getSessionStore() != null);
+        mSessionStoreCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            setSessionStoreEnabled(isChecked);
+            updateStatus();
+        });
+        settingsLayout.addView(mSessionStoreCheckBox, matchWrap());
+
+        mTrafficTagsCheckBox = new CheckBox(context);
+        mTrafficTagsCheckBox.setText("按调用方统计流量（socket tag，需接入 DebugNetOkHttpTagging）");
+        mTrafficTagsCheckBox.setChecked(DebugNetTrafficTags.isEnabled());
+        mTrafficTagsCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            DebugNetTrafficTags.setEnabled(isChecked);
+            refreshTopTalkers();
+        });
+        settingsLayout.addView(mTrafficTagsCheckBox, matchWrap());
+
+        mOkHttpCaptureCheckBox = new CheckBox(context);
+        mOkHttpCaptureCheckBox.setText("OkHttp抓包（无需VPN，需接入 DebugNetOkHttpCapture）");
+        mOkHttpCaptureCheckBox.setChecked(DebugNetOkHttpCapture.isEnabled());
+        mOkHttpCaptureCheckBox.setOnCheckedChangeListener((buttonView, isChecked) ->
+                DebugNetOkHttpCapture.setEnabled(isChecked));
+        settingsLayout.addView(mOkHttpCaptureCheckBox, matchWrap());
+
+        TextView historyLabel = new TextView(context);
+        historyLabel.setText("历史查询（主机、主机:端口 或 端口，留空查全部；按当前模式查请求或已关闭连接）");
+        settingsLayout.addView(historyLabel, matchWrap());
+
+        mHistoryInput = new EditText(context);
+        mHistoryInput.setHint("api.example.com:443");
+        mHistoryInput.setSingleLine();
+        settingsLayout.addView(mHistoryInput, matchWrap());
+
+        LinearLayout historyBar = new LinearLayout(context);
+        historyBar.setOrientation(LinearLayout.HORIZONTAL);
+        Button historyButton = new Button(context);
+        historyButton.setText("查历史");
+        historyButton.setOnClickListener(v -> queryHistory(buildHistoryQuery(), false));
+        Button historyMoreButton = new Button(context);
+        historyMoreButton.setText("下一页");
+        historyMoreButton.setOnClickListener(v -> {
+            if (mShowHistory && mNextHistoryQuery != null) {
+                queryHistory(mNextHistoryQuery, true);
+            } else {
+                Toast.makeText(context, "没有更多历史记录", Toast.LENGTH_SHORT).show();
+            }
+        });
+        historyBar.addView(historyButton, new LinearLayout.LayoutParams(0,
+                ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+        historyBar.addView(historyMoreButton, new LinearLayout.LayoutParams(0,
+                ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+        settingsLayout.addView(historyBar, matchWrap());
+
+        LinearLayout statsBar = new LinearLayout(context);
+        statsBar.setOrientation(LinearLayout.HORIZONTAL);
+        statsBar.setGravity(Gravity.CENTER_VERTICAL);
+        TextView statsSortLabel = new TextView(context);
+        statsSortLabel.setText("耗时排序");
+        mStatsSortSpinner = new Spinner(context);
+        ArrayAdapter<String> sortAdapter = new ArrayAdapter<>(context, android.R.layout.simple_spinner_item,
+                STATS_SORT_LABELS);
+        sortAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mStatsSortSpinner.setAdapter(sortAdapter);
+        mStatsSortSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (mShowStats) {
+                    refreshStats(true);
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        Button exportStatsButton = new Button(context);
+        exportStatsButton.setText("导出统计JSON");
+        exportStatsButton.setOnClickListener(v -> exportStats());
+        statsBar.addView(statsSortLabel, new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        statsBar.addView(mStatsSortSpinner, new LinearLayout.LayoutParams(0,
+                ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+        statsBar.addView(exportStatsButton, new LinearLayout.LayoutParams(0,
+                ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+        settingsLayout.addView(statsBar, matchWrap());
+
+        TextView captureFilterLabel = new TextView(context);
+        captureFilterLabel.setText("抓包过滤（如 tcp and port 443 and host 10.0.0.5，留空不过滤）");
+        settingsLayout.addView(captureFilterLabel, matchWrap());
+
+        mCaptureFilterInput = new EditText(context);
+        mCaptureFilterInput.setHint("tcp port 443");
+        mCaptureFilterInput.setSingleLine();
+        settingsLayout.addView(mCaptureFilterInput, matchWrap());
+
+        TextView conditionLabel = new TextView(context);
+        conditionLabel.setText("弱网模拟（单向延迟ms、抖动ms、下行kbps、上行kbps、丢包%，全为0不模拟，应用配置后立即生效）");
+        settingsLayout.addView(conditionLabel, matchWrap());
+
+        LinearLayout conditionBar = new LinearLayout(context);
+        conditionBar.setOrientation(LinearLayout.HORIZONTAL);
+        mConditionDelayInput = addConditionInput(context, conditionBar, "延迟", false);
+        mConditionJitterInput = addConditionInput(context, conditionBar, "抖动", false);
+        mConditionDownloadInput = addConditionInput(context, conditionBar, "下行", false);
+        mConditionUploadInput = addConditionInput(context, conditionBar, "上行", false);
+        mConditionLossInput = addConditionInput(context, conditionBar, "丢包", true);
+        settingsLayout.addView(conditionBar, matchWrap());
+
+        mConditionPerFlowCheckBox = new CheckBox(context);
+        mConditionPerFlowCheckBox.setText("每个连接单独限速（关闭时命中的连接共享带宽）");
+        settingsLayout.addView(mConditionPerFlowCheckBox, matchWrap());
+
+        mConditionFilterInput = new EditText(context);
+        mConditionFilterInput.setHint("作用范围，如 host api.example.com，留空对全部流量生效");
+        mConditionFilterInput.setSingleLine();
+        settingsLayout.addView(mConditionFilterInput, matchWrap());
+
         TextView certPathLabel = new TextView(context);
         certPathLabel.setText("证书绝对路径");
         settingsLayout.addView(certPathLabel, matchWrap());
@@ -315,6 +754,185 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         return settingsLayout;
     }
 
+    private static EditText addConditionInput(Context context, LinearLayout bar, String hint, boolean decimal) {
+        EditText input = new EditText(context);
+        input.setHint(hint);
+        input.setSingleLine();
+        input.setInputType(decimal
+                ? InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL
+                : InputType.TYPE_CLASS_NUMBER);
+        bar.addView(input, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+        return input;
+    }
+
+    private void setPcapExportEnabled(boolean enabled) {
+        DebugNetPcapSink current = DebugNetMonitor.getPcapSink();
+        if (current != null) {
+            DebugNetMonitor.setPcapSink(null);
+            current.stop();
+        }
+        if (!enabled || mAppContext == null) {
+            return;
+        }
+        File directory = mAppContext.getExternalFilesDir("debug_net_pcap");
+        if (directory == null) {
+            directory = new File(mAppContext.getFilesDir(), "debug_net_pcap");
+        }
+        DebugNetPcapSink sink = new DebugNetPcapSink.Builder(directory).build();
+        sink.start();
+        DebugNetMonitor.setPcapSink(sink);
+    }
+
+    private void setSessionStoreEnabled(boolean enabled) {
+        DebugNetSessionStore current = DebugNetMonitor.getSessionStore();
+        if (current != null) {
+            DebugNetMonitor.setSessionStore(null);
+            current.stop();
+        }
+        if (!enabled || mAppContext == null) {
+            return;
+        }
+        File directory = new File(mAppContext.getFilesDir(), "debug_net_session");
+        DebugNetSessionStore store = new DebugNetSessionStore.Builder(directory).build();
+        store.start();
+        DebugNetMonitor.setSessionStore(store);
+    }
+
+    /**
+     * 输入支持 "host"、"host:port" 和纯端口；含多个冒号时按 IPv6 地址处理。
+     */
+    private DebugNetSessionQuery buildHistoryQuery() {
+        String input = mHistoryInput == null ? "" : mHistoryInput.getText().toString().trim();
+        String host = input;
+        int port = 0;
+        int colon = input.lastIndexOf(':');
+        if (colon > 0 && colon == input.indexOf(':')) {
+            host = input.substring(0, colon);
+            port = parsePort(input.substring(colon + 1));
+        } else if (!input.isEmpty() && TextUtils.isDigitsOnly(input)) {
+            host = "";
+            port = parsePort(input);
+        }
+        return new DebugNetSessionQuery.Builder()
+                .setHost(host)
+                .setPort(port)
+                .setLimit(HISTORY_PAGE_SIZE)
+                .build();
+    }
+
+    private static int parsePort(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void queryHistory(DebugNetSessionQuery query, boolean append) {
+        DebugNetSessionStore store = DebugNetMonitor.getSessionStore();
+        if (store == null) {
+            if (mAppContext != null) {
+                Toast.makeText(mAppContext, "请先勾选保存历史会话", Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
+        final boolean flows = mShowFlows;
+        HandleWrapper.obtainAsyncHandler(null).post(() -> {
+            DebugNetSessionStore.Page<?> page = flows ? store.queryFlows(query) : store.queryEvents(query);
+            mMainHandler.post(() -> {
+                if (mAdapter == null) {
+                    return;
+                }
+                if (!append) {
+                    mHistoryRows.clear();
+                }
+                mHistoryRows.addAll(page.getItems());
+                mNextHistoryQuery = page.nextQuery();
+                mShowHistory = true;
+                if (mModeButton != null) {
+                    mModeButton.setText(modeButtonText());
+                }
+                mAdapter.notifyDataSetChanged();
+            });
+        });
+    }
+
+    /**
+     * 按当前排序方式刷新"最慢接口"列表：在后台线程排序并只复制显示的前 {@link #MAX_FLOW_COUNT} 项，
+     * 结果回到主线程替换；统计和排序方式都没变时不重新生成。
+     *
+     * @param force 切换到统计列表或更换排序方式时为 true，即使统计没变也要刷新列表
+     */
+    private void refreshStats(boolean force) {
+        int selected = mStatsSortSpinner == null ? 0 : mStatsSortSpinner.getSelectedItemPosition();
+        if (selected < 0 || selected >= STATS_SORT_METRICS.length) {
+            selected = 0;
+        }
+        long version = mHistograms.getVersion();
+        if (version == mStatsVersion && selected == mStatsSort) {
+            if (force && mAdapter != null) {
+                mAdapter.notifyDataSetChanged();
+            }
+            return;
+        }
+        mStatsVersion = version;
+        mStatsSort = selected;
+        final int generation = ++mStatsGeneration;
+        final int metric = STATS_SORT_METRICS[selected];
+        final double percentile = STATS_SORT_PERCENTILES[selected];
+        mStatsHandler.post(() -> {
+            List<DebugNetHistograms.Snapshot> snapshots = mHistograms.snapshotEndpoints(metric, percentile,
+                    MAX_FLOW_COUNT);
+            mMainHandler.post(() -> {
+                // 期间又发起了新的刷新，或插件已卸载
+                if (generation != mStatsGeneration || mAdapter == null) {
+                    return;
+                }
+                mStatsRows.clear();
+                mStatsRows.addAll(snapshots);
+                mAdapter.notifyDataSetChanged();
+            });
+        });
+    }
+
+    private void exportStats() {
+        if (mAppContext == null) {
+            return;
+        }
+        File directory = mAppContext.getExternalFilesDir("debug_net_stats");
+        if (directory == null) {
+            directory = new File(mAppContext.getFilesDir(), "debug_net_stats");
+        }
+        final File file = new File(directory, "debug_net_stats_" + System.currentTimeMillis() + ".json");
+        final Context context = mAppContext;
+        HandleWrapper.obtainAsyncHandler(null).post(() -> {
+            String message;
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                message = "统计导出失败：无法创建目录";
+            } else {
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    out.write(mHistograms.toJson().getBytes(StandardCharsets.UTF_8));
+                    message = "统计已导出到 " + file.getAbsolutePath();
+                } catch (IOException e) {
+                    message = "统计导出失败：" + e.getMessage();
+                }
+            }
+            final String toast = message;
+            mMainHandler.post(() -> Toast.makeText(context, toast, Toast.LENGTH_LONG).show());
+        });
+    }
+
+    private String modeButtonText() {
+        if (mShowHistory) {
+            return "返回实时";
+        }
+        if (mShowStats) {
+            return "看连接";
+        }
+        return mShowFlows ? "看请求" : "看耗时";
+    }
+
     private void restoreConfigIntoMonitor() {
         if (mAppContext == null) {
             return;
@@ -330,6 +948,29 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         if (mHttpsDecodeCheckBox != null) {
             mHttpsDecodeCheckBox.setChecked(config.isHttpsDecodeEnabled());
         }
+        if (mPacketEventsCheckBox != null) {
+            mPacketEventsCheckBox.setChecked(config.isPacketEventsEnabled());
+        }
+        if (mCaptureFilterInput != null) {
+            mCaptureFilterInput.setText(config.getCaptureFilterExpression());
+        }
+        DebugNetNetworkCondition condition = config.getNetworkCondition();
+        if (condition == null) {
+            condition = new DebugNetNetworkCondition.Builder().build();
+        }
+        setConditionText(mConditionDelayInput, condition.getDelayMillis());
+        setConditionText(mConditionJitterInput, condition.getJitterMillis());
+        setConditionText(mConditionDownloadInput, condition.getDownloadKbps());
+        setConditionText(mConditionUploadInput, condition.getUploadKbps());
+        if (mConditionLossInput != null) {
+            mConditionLossInput.setText(condition.getLossPercent() > 0 ? String.valueOf(condition.getLossPercent()) : "");
+        }
+        if (mConditionPerFlowCheckBox != null) {
+            mConditionPerFlowCheckBox.setChecked(condition.isPerFlowBandwidth());
+        }
+        if (mConditionFilterInput != null) {
+            mConditionFilterInput.setText(condition.getFilterExpression());
+        }
         if (mCertPathInput != null) {
             mCertPathInput.setText(config.getCertificatePath());
         }
@@ -351,11 +992,54 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
                 .setCertificatePath(mCertPathInput == null ? "" : String.valueOf(mCertPathInput.getText()))
                 .setCertificatePassword(mCertPasswordInput == null ? "" : String.valueOf(mCertPasswordInput.getText()))
                 .setKeystoreType(resolveSpinnerType())
+                .setPacketEventsEnabled(mPacketEventsCheckBox != null && mPacketEventsCheckBox.isChecked())
+                .setCaptureFilter(mCaptureFilterInput == null ? "" : String.valueOf(mCaptureFilterInput.getText()))
+                .setNetworkCondition(buildConditionFromInputs())
                 .build();
         saveConfig(config);
         DebugNetMonitor.setConfig(config);
     }
 
+    private DebugNetNetworkCondition buildConditionFromInputs() {
+        return new DebugNetNetworkCondition.Builder()
+                .setDelayMillis(parseConditionInt(mConditionDelayInput))
+                .setJitterMillis(parseConditionInt(mConditionJitterInput))
+                .setDownloadKbps(parseConditionInt(mConditionDownloadInput))
+                .setUploadKbps(parseConditionInt(mConditionUploadInput))
+                .setLossPercent(parseConditionFloat(mConditionLossInput))
+                .setPerFlowBandwidth(mConditionPerFlowCheckBox != null && mConditionPerFlowCheckBox.isChecked())
+                .setFilter(mConditionFilterInput == null ? "" : String.valueOf(mConditionFilterInput.getText()))
+                .build();
+    }
+
+    private static void setConditionText(EditText input, int value) {
+        if (input != null) {
+            input.setText(value > 0 ? String.valueOf(value) : "");
+        }
+    }
+
+    private static int parseConditionInt(EditText input) {
+        if (input == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(input.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static float parseConditionFloat(EditText input) {
+        if (input == null) {
+            return 0f;
+        }
+        try {
+            return Float.parseFloat(input.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return 0f;
+        }
+    }
+
     private String resolveSpinnerType() {
         if (mKeystoreTypeSpinner == null || mKeystoreTypeSpinner.getSelectedItem() == null) {
             return DebugNetConfig.KEYSTORE_TYPE_PKCS12;
@@ -369,6 +1053,19 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         KVUtil.put(mAppContext, KEY_CERT_PATH, config.getCertificatePath());
         KVUtil.put(mAppContext, KEY_CERT_PASSWORD, config.getCertificatePassword());
         KVUtil.put(mAppContext, KEY_KEYSTORE_TYPE, config.getKeystoreType());
+        KVUtil.put(mAppContext, KEY_PACKET_EVENTS, config.isPacketEventsEnabled());
+        KVUtil.put(mAppContext, KEY_CAPTURE_FILTER, config.getCaptureFilterExpression());
+        DebugNetNetworkCondition condition = config.getNetworkCondition();
+        if (condition == null) {
+            condition = new DebugNetNetworkCondition.Builder().build();
+        }
+        KVUtil.put(mAppContext, KEY_CONDITION_DELAY, condition.getDelayMillis());
+        KVUtil.put(mAppContext, KEY_CONDITION_JITTER, condition.getJitterMillis());
+        KVUtil.put(mAppContext, KEY_CONDITION_DOWNLOAD, condition.getDownloadKbps());
+        KVUtil.put(mAppContext, KEY_CONDITION_UPLOAD, condition.getUploadKbps());
+        KVUtil.put(mAppContext, KEY_CONDITION_LOSS, condition.getLossPercent());
+        KVUtil.put(mAppContext, KEY_CONDITION_PER_FLOW, condition.isPerFlowBandwidth());
+        KVUtil.put(mAppContext, KEY_CONDITION_FILTER, condition.getFilterExpression());
     }
 
     private DebugNetConfig readConfigFromStorage() {
@@ -378,12 +1075,26 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         String certPassword = (String) KVUtil.get(mAppContext, KEY_CERT_PASSWORD, "");
         String keystoreType = (String) KVUtil.get(mAppContext, KEY_KEYSTORE_TYPE,
                 DebugNetConfig.KEYSTORE_TYPE_PKCS12);
+        boolean packetEvents = (Boolean) KVUtil.get(mAppContext, KEY_PACKET_EVENTS, false);
+        String captureFilter = (String) KVUtil.get(mAppContext, KEY_CAPTURE_FILTER, "");
+        DebugNetNetworkCondition condition = new DebugNetNetworkCondition.Builder()
+                .setDelayMillis((Integer) KVUtil.get(mAppContext, KEY_CONDITION_DELAY, 0))
+                .setJitterMillis((Integer) KVUtil.get(mAppContext, KEY_CONDITION_JITTER, 0))
+                .setDownloadKbps((Integer) KVUtil.get(mAppContext, KEY_CONDITION_DOWNLOAD, 0))
+                .setUploadKbps((Integer) KVUtil.get(mAppContext, KEY_CONDITION_UPLOAD, 0))
+                .setLossPercent((Float) KVUtil.get(mAppContext, KEY_CONDITION_LOSS, 0f))
+                .setPerFlowBandwidth((Boolean) KVUtil.get(mAppContext, KEY_CONDITION_PER_FLOW, false))
+                .setFilter((String) KVUtil.get(mAppContext, KEY_CONDITION_FILTER, ""))
+                .build();
         return new DebugNetConfig.Builder()
                 .setHttpDecodeEnabled(httpDecode)
                 .setHttpsDecodeEnabled(httpsDecode)
                 .setCertificatePath(certPath)
                 .setCertificatePassword(certPassword)
                 .setKeystoreType(keystoreType)
+                .setPacketEventsEnabled(packetEvents)
+                .setCaptureFilter(captureFilter)
+                .setNetworkCondition(condition)
                 .build();
     }
 
@@ -434,17 +1145,53 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         clearButton.setText("清空");
         clearButton.setOnClickListener(v -> {
             mEvents.clear();
+            mFlows.clear();
+            mFlowsById.clear();
+            mHistograms.reset();
+            DebugNetTrafficTags.reset();
+            mTagStats.clear();
+            if (mTopTalkersView != null) {
+                mTopTalkersView.setText("");
+            }
+            mStatsRows.clear();
+            mStatsVersion = -1L;
             if (mAdapter != null) {
                 mAdapter.notifyDataSetChanged();
             }
         });
 
+        mModeButton = new Button(context);
+        mModeButton.setText(modeButtonText());
+        mModeButton.setOnClickListener(v -> {
+            // 连接 -> 请求 -> 耗时统计 -> 连接；历史模式下先返回实时
+            if (mShowHistory) {
+                mShowHistory = false;
+                mHistoryRows.clear();
+                mNextHistoryQuery = null;
+            } else if (mShowStats) {
+                mShowStats = false;
+                mShowFlows = true;
+            } else if (mShowFlows) {
+                mShowFlows = false;
+            } else {
+                mShowStats = true;
+            }
+            mModeButton.setText(modeButtonText());
+            if (mShowStats && !mShowHistory) {
+                refreshStats(true);
+            } else if (mAdapter != null) {
+                mAdapter.notifyDataSetChanged();
+            }
+        });
+
         actionBar.addView(startButton, new LinearLayout.LayoutParams(0,
                 ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
         actionBar.addView(stopButton, new LinearLayout.LayoutParams(0,
                 ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
         actionBar.addView(clearButton, new LinearLayout.LayoutParams(0,
                 ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+        actionBar.addView(mModeButton, new LinearLayout.LayoutParams(0,
+                ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
 
         mStatusView = new TextView(context);
         mStatusView.setTextColor(Color.DKGRAY);
@@ -460,7 +1207,14 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         configRoot.addView(actionBar, matchWrap());
         configRoot.addView(settingsLayout, matchWrap());
         configRoot.addView(mStatusView, matchWrap());
+        mTopTalkersView = new TextView(context);
+        mTopTalkersView.setTextColor(Color.DKGRAY);
+        mTopTalkersView.setTextSize(13f);
+        mTopTalkersView.setPadding(12, 0, 12, 12);
+        mTopTalkersView.setVisibility(View.GONE);
+
         configRoot.addView(mTrafficView, matchWrap());
+        configRoot.addView(mTopTalkersView, matchWrap());
         return configRoot;
     }
 
@@ -470,12 +1224,20 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
         private static final int TYPE_TRAFFIC = 1;
 
         private final Context mContext;
-        private final List<DebugNetEvent> mEventList;
         private View mConfigView;
 
-        NetPluginAdapter(Context context, List<DebugNetEvent> events) {
+        NetPluginAdapter(Context context) {
             mContext = context;
-            mEventList = events;
+        }
+
+        private List<?> rows() {
+            if (mShowHistory) {
+                return mHistoryRows;
+            }
+            if (mShowStats) {
+                return mStatsRows;
+            }
+            return mShowFlows ? mFlows : mEvents;
         }
 
         void ensureConfigView() {
@@ -496,7 +1258,7 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
 
         @Override
         public int getCount() {
-            return 1 + mEventList.size();
+            return 1 + rows().size();
         }
 
         @Override
@@ -504,12 +1266,31 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
             if (position == 0) {
                 return null;
             }
-            return mEventList.get(position - 1);
+            return rows().get(position - 1);
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
         }
 
+        /**
+         * 稳定 id 让 ListView 在头插新数据后保留已有行的位置，只为新出现的行调用 getView。
+         */
         @Override
         public long getItemId(int position) {
-            return position;
+            if (position == 0) {
+                return Long.MIN_VALUE;
+            }
+            int index = position - 1;
+            if (mShowHistory) {
+                return index;
+            }
+            if (mShowStats) {
+                DebugNetHistograms.Snapshot stats = mStatsRows.get(index);
+                return ((long) stats.getHost().hashCode() << 32) ^ (stats.getPath() == null ? 0 : stats.getPath().hashCode());
+            }
+            return mShowFlows ? mFlows.get(index).getFlowId() : mEvents.getStableId(index);
         }
 
         @Override
@@ -528,10 +1309,27 @@ public class DebugNetPlugin extends ScreenDisplayPlugin {
                 textView.setTextSize(13f);
             }
             int index = position - 1;
-            if (index >= 0 && index < mEventList.size()) {
-                DebugNetEvent event = mEventList.get(index);
-                textView.setText(event.getSummaryText());
-                textView.setTextColor(event.getTextColor());
+            List<?> rows = rows();
+            if (index >= 0 && index < rows.size()) {
+                Object row = rows.get(index);
+                if (textView.getTag() == row) {
+                    // 同一行数据对象没变，跳过重新设置文本
+                    return textView;
+                }
+                textView.setTag(row);
+                if (row instanceof DebugNetHistograms.Snapshot) {
+                    DebugNetHistograms.Snapshot stats = (DebugNetHistograms.Snapshot) row;
+                    textView.setText(stats.getSummaryText());
+                    textView.setTextColor(stats.getTextColor());
+                } else if (row instanceof DebugNetFlow) {
+                    DebugNetFlow flow = (DebugNetFlow) row;
+                    textView.setText(flow.getSummaryText());
+                    textView.setTextColor(flow.getTextColor());
+                } else {
+                    DebugNetEvent event = (DebugNetEvent) row;
+                    textView.setText(event.getSummaryText());
+                    textView.setTextColor(event.getTextColor());
+                }
             }
             return textView;
         }
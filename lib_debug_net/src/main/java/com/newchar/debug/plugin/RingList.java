@@ -0,0 +1,78 @@
+package com.newchar.debug.plugin;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * 固定容量、最新元素在前的列表：头插与淘汰最旧元素都是 O(1)，供列表 Adapter 按下标随机访问。
+ *
+ * 每个元素在插入时获得一个递增序号，作为 Adapter 的稳定 id。只在主线程使用，不做同步。
+ */
+final class RingList<T> extends AbstractList<T> {
+
+    private final Object[] mItems;
+    /** 最新元素所在的槽位。 */
+    private int mHead;
+    private int mSize;
+    /** 累计插入次数，最新元素的序号为 mAddedCount - 1。 */
+    private long mAddedCount;
+
+    RingList(int capacity) {
+        mItems = new Object[Math.max(1, capacity)];
+    }
+
+    int capacity() {
+        return mItems.length;
+    }
+
+    /**
+     * 插到最前面，已满时淘汰最旧的元素。
+     */
+    void addFirst(T item) {
+        mHead = mHead == 0 ? mItems.length - 1 : mHead - 1;
+        mItems[mHead] = item;
+        if (mSize < mItems.length) {
+            mSize++;
+        }
+        mAddedCount++;
+        modCount++;
+    }
+
+    /**
+     * 第 index 个元素（0 为最新）的稳定 id，元素被淘汰前不会变化。
+     */
+    long getStableId(int index) {
+        checkIndex(index);
+        return mAddedCount - 1 - index;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        checkIndex(index);
+        int slot = mHead + index;
+        if (slot >= mItems.length) {
+            slot -= mItems.length;
+        }
+        return (T) mItems[slot];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(mItems, null);
+        mHead = 0;
+        mSize = 0;
+        modCount++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+    }
+}
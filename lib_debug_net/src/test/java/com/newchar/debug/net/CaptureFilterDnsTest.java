@@ -0,0 +1,66 @@
+package com.newchar.debug.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since {@code host 域名} 抓包过滤依赖嗅探到的 DNS 应答，应答本身被过滤掉时也要写入缓存
+ * @since 迭代版本，（以及描述）
+ */
+public class CaptureFilterDnsTest {
+
+    private static final long RESOLVED = 0x5DB8D822L;
+    private static final long OTHER = 0x01020304L;
+
+    @Test
+    public void hostFilterMatchesAfterFilteredDnsAnswer() {
+        DnsCache cache = new DnsCache(64);
+        PacketFilter filter = PacketFilter.compile("host example.com", cache);
+        PacketHeader header = new PacketHeader();
+        long now = System.currentTimeMillis();
+
+        byte[] syn = DnsTestPackets.tcpSyn(RESOLVED, 443);
+        assertFalse(accept(filter, syn, TrafficDirection.UPLOAD, header, cache, now));
+
+        byte[] dns = DnsTestPackets.udpFromResolver(DnsTestPackets.answer("example.com", 0, RESOLVED));
+        assertFalse(accept(filter, dns, TrafficDirection.DOWNLOAD, header, cache, now));
+        assertEquals("example.com", cache.lookup(false, 0L, RESOLVED, now));
+
+        assertTrue(accept(filter, syn, TrafficDirection.UPLOAD, header, cache, now));
+        assertFalse(accept(filter, DnsTestPackets.tcpSyn(OTHER, 443), TrafficDirection.UPLOAD, header, cache, now));
+    }
+
+    @Test
+    public void hostFilterMatchesSubdomains() {
+        DnsCache cache = new DnsCache(64);
+        PacketFilter filter = PacketFilter.compile("tcp and dst host example.com", cache);
+        PacketHeader header = new PacketHeader();
+        long now = System.currentTimeMillis();
+
+        byte[] dns = DnsTestPackets.udpFromResolver(DnsTestPackets.answer("cdn.example.com", 0, RESOLVED));
+        assertFalse(accept(filter, dns, TrafficDirection.DOWNLOAD, header, cache, now));
+        assertTrue(accept(filter, DnsTestPackets.tcpSyn(RESOLVED, 443), TrafficDirection.UPLOAD, header, cache, now));
+    }
+
+    @Test
+    public void uplinkQueriesAreNotSniffed() {
+        DnsCache cache = new DnsCache(64);
+        PacketFilter filter = PacketFilter.compile("host example.com", cache);
+        long now = System.currentTimeMillis();
+
+        byte[] dns = DnsTestPackets.udpFromResolver(DnsTestPackets.answer("example.com", 0, RESOLVED));
+        assertFalse(accept(filter, dns, TrafficDirection.UPLOAD, new PacketHeader(), cache, now));
+        assertNull(cache.lookup(false, 0L, RESOLVED, now));
+    }
+
+    private static boolean accept(PacketFilter filter, byte[] packet, TrafficDirection direction,
+            PacketHeader header, DnsCache cache, long now) {
+        return CapturePipeline.applyCaptureFilter(filter, packet, packet.length, direction, header, cache, now);
+    }
+}
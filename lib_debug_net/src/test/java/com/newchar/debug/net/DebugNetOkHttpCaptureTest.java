@@ -0,0 +1,98 @@
+package com.newchar.debug.net;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class DebugNetOkHttpCaptureTest {
+
+    private final List<DebugNetEvent> mEvents = new CopyOnWriteArrayList<>();
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        DebugNetOkHttpCapture.setEnabled(true);
+        mClient = new OkHttpClient.Builder()
+                .eventListenerFactory(DebugNetOkHttpCapture.eventListenerFactory(null, 1024 * 1024, mEvents::add))
+                .addInterceptor(DebugNetOkHttpCapture.interceptor())
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DebugNetOkHttpCapture.setEnabled(false);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void smallFixedLengthBodyIsCaptured() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("hello"));
+        try (Response response = mClient.newCall(new Request.Builder().url(mServer.url("/a")).build()).execute()) {
+            assertEquals("hello", response.body().string());
+        }
+        assertEquals(1, mEvents.size());
+        assertEquals(200, mEvents.get(0).getStatusCode());
+        assertEquals("hello", mEvents.get(0).getResponseBodyText());
+    }
+
+    @Test
+    public void lastChunkOfLargeBodyIsCaptured() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            body.append(i % 10);
+        }
+        mServer.enqueue(new MockResponse().setBody(body.toString()));
+        try (Response response = mClient.newCall(new Request.Builder().url(mServer.url("/big")).build()).execute()) {
+            assertEquals(body.toString(), response.body().string());
+        }
+        assertEquals(1, mEvents.size());
+        assertEquals(body.toString(), mEvents.get(0).getResponseBodyText());
+    }
+
+    @Test
+    public void chunkedBodyIsCaptured() throws Exception {
+        mServer.enqueue(new MockResponse().setChunkedBody("chunked body", 4));
+        try (Response response = mClient.newCall(new Request.Builder().url(mServer.url("/c")).build()).execute()) {
+            assertEquals("chunked body", response.body().string());
+        }
+        assertEquals("chunked body", mEvents.get(0).getResponseBodyText());
+    }
+
+    @Test
+    public void retriedRequestBodyIsCapturedOnce() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(408));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        RequestBody requestBody = RequestBody.create("abc", MediaType.get("text/plain"));
+        Request request = new Request.Builder().url(mServer.url("/post")).post(requestBody).build();
+        try (Response response = mClient.newCall(request).execute()) {
+            assertEquals("ok", response.body().string());
+        }
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(1, mEvents.size());
+        assertEquals("abc", mEvents.get(0).getRequestBodyText());
+        assertEquals("ok", mEvents.get(0).getResponseBodyText());
+    }
+
+    @Test
+    public void closingUnreadBodyStillEmits() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("unread"));
+        mClient.newCall(new Request.Builder().url(mServer.url("/u")).build()).execute().close();
+        assertEquals(1, mEvents.size());
+    }
+}
@@ -0,0 +1,45 @@
+package com.newchar.debug.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since DnsResponseParser 只接受成功的应答，A 记录按查询名写入缓存
+ * @since 迭代版本，（以及描述）
+ */
+public class DnsResponseParserTest {
+
+    private static final long NOW = 1_000_000L;
+
+    @Test
+    public void storesAddressesUnderQueryName() {
+        DnsCache cache = new DnsCache(64);
+        byte[] message = DnsTestPackets.answer("api.example.com", 0, 0x5DB8D822L, 0x5DB8D823L);
+        assertEquals(2, DnsResponseParser.parse(message, 0, message.length, cache, NOW));
+        assertEquals("api.example.com", cache.lookup(false, 0L, 0x5DB8D822L, NOW));
+        assertEquals("api.example.com", cache.lookup(false, 0L, 0x5DB8D823L, NOW));
+    }
+
+    @Test
+    public void parsesAtPayloadOffset() {
+        DnsCache cache = new DnsCache(64);
+        byte[] packet = DnsTestPackets.udpFromResolver(DnsTestPackets.answer("example.com", 0, 0x5DB8D822L));
+        int offset = PacketBuilder.IPV4_HEADER_SIZE + PacketBuilder.UDP_HEADER_SIZE;
+        assertEquals(1, DnsResponseParser.parse(packet, offset, packet.length - offset, cache, NOW));
+        assertEquals("example.com", cache.lookup(false, 0L, 0x5DB8D822L, NOW));
+    }
+
+    @Test
+    public void ignoresErrorsAndTruncatedMessages() {
+        DnsCache cache = new DnsCache(64);
+        byte[] failed = DnsTestPackets.answer("example.com", 3, 0x5DB8D822L);
+        assertEquals(0, DnsResponseParser.parse(failed, 0, failed.length, cache, NOW));
+        byte[] message = DnsTestPackets.answer("example.com", 0, 0x5DB8D822L);
+        assertEquals(0, DnsResponseParser.parse(message, 0, message.length - 1, cache, NOW));
+        assertNull(cache.lookup(false, 0L, 0x5DB8D822L, NOW));
+    }
+}
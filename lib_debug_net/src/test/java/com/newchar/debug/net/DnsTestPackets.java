@@ -0,0 +1,79 @@
+package com.newchar.debug.net;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since 测试用的 DNS 应答与 IPv4 包
+ * @since 迭代版本，（以及描述）
+ */
+final class DnsTestPackets {
+
+    static final long APP_ADDRESS = 0x0A000002L;
+    static final long RESOLVER_ADDRESS = 0x08080808L;
+
+    private DnsTestPackets() {
+    }
+
+    /**
+     * 一个 question、若干 A 记录的应答，记录名用指向 question 的压缩指针
+     */
+    static byte[] answer(String name, int rcode, long... addresses) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, 0x1234);
+        writeShort(out, 0x8180 | rcode);
+        writeShort(out, 1);
+        writeShort(out, addresses.length);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.write(0);
+        writeShort(out, 1);
+        writeShort(out, 1);
+        for (long address : addresses) {
+            writeShort(out, 0xC00C);
+            writeShort(out, 1);
+            writeShort(out, 1);
+            writeInt(out, 30);
+            writeShort(out, 4);
+            writeInt(out, (int) address);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 解析器返回到 App 的 UDP 包
+     */
+    static byte[] udpFromResolver(byte[] payload) {
+        byte[] packet = new byte[PacketBuilder.IPV4_HEADER_SIZE + PacketBuilder.UDP_HEADER_SIZE + payload.length];
+        new PacketBuilder().buildUdp(packet, false, 0L, RESOLVER_ADDRESS, DnsResponseParser.DNS_PORT,
+                0L, APP_ADDRESS, 40053, payload, 0, payload.length);
+        return packet;
+    }
+
+    /**
+     * App 发往 remote 的 SYN
+     */
+    static byte[] tcpSyn(long remote, int remotePort) {
+        byte[] packet = new byte[PacketBuilder.IPV4_HEADER_SIZE + PacketBuilder.TCP_HEADER_SIZE];
+        new PacketBuilder().buildTcp(packet, false, 0L, APP_ADDRESS, 41000, 0L, remote, remotePort,
+                1, 0, PacketHeader.TCP_SYN, 65535, 0, null, 0, 0);
+        return packet;
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value >>> 16);
+        writeShort(out, value);
+    }
+}
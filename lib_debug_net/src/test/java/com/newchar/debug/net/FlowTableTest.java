@@ -0,0 +1,117 @@
+package com.newchar.debug.net;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since FlowTable 的连接生命周期：更新、FIN 关闭、空闲超时与表满淘汰都要上报 closed
+ * @since 迭代版本，（以及描述）
+ */
+public class FlowTableTest {
+
+    @Test
+    public void countsPacketsPerDirection() {
+        FlowTable table = new FlowTable(16);
+        int up = table.update(tcp(40000, 0, 100), TrafficDirection.UPLOAD, 1L);
+        int down = table.update(reverse(tcp(40000, 0, 300)), TrafficDirection.DOWNLOAD, 2L);
+        assertEquals(up, down);
+
+        List<DebugNetFlow> updates = table.collectUpdates(3L);
+        assertNotNull(updates);
+        assertEquals(1, updates.size());
+        DebugNetFlow flow = updates.get(0);
+        assertEquals(2, flow.getPacketCount());
+        assertEquals(100, flow.getBytesUp());
+        assertEquals(300, flow.getBytesDown());
+        assertFalse(flow.isClosed());
+        // 没有变化时不再上报
+        assertNull(table.collectUpdates(4L));
+    }
+
+    @Test
+    public void finishedFlowIsReportedClosedAndRemovedAfterLinger() {
+        FlowTable table = new FlowTable(16);
+        table.update(tcp(40000, PacketHeader.TCP_FIN, 60), TrafficDirection.UPLOAD, 0L);
+        List<DebugNetFlow> updates = table.collectUpdates(1L);
+        assertTrue(updates.get(0).isClosed());
+        assertEquals(1, table.size());
+
+        updates = table.collectUpdates(FlowTable.CLOSED_LINGER_MS + 1);
+        assertEquals(1, updates.size());
+        assertTrue(updates.get(0).isClosed());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void idleFlowIsReportedClosed() {
+        FlowTable table = new FlowTable(16);
+        table.update(tcp(40000, 0, 60), TrafficDirection.UPLOAD, 0L);
+        table.collectUpdates(1L);
+
+        List<DebugNetFlow> updates = table.collectUpdates(FlowTable.IDLE_TIMEOUT_MS + 1);
+        assertEquals(1, updates.size());
+        assertTrue(updates.get(0).isClosed());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void evictedFlowIsReportedClosed() {
+        FlowTable table = new FlowTable(16);
+        int capacity = 0;
+        while (table.update(tcp(40000 + capacity, 0, 60), TrafficDirection.UPLOAD, capacity) >= 0
+                && table.size() == capacity + 1) {
+            capacity++;
+        }
+        // 最后一次 update 已经淘汰了最早的连接
+        assertEquals(capacity, table.size());
+        List<DebugNetFlow> updates = table.collectUpdates(capacity + 1);
+        assertNotNull(updates);
+        DebugNetFlow evicted = null;
+        int active = 0;
+        for (DebugNetFlow flow : updates) {
+            if (flow.isClosed()) {
+                assertNull("only one flow is evicted", evicted);
+                evicted = flow;
+            } else {
+                active++;
+            }
+        }
+        assertNotNull(evicted);
+        assertEquals(40000, evicted.getLocalPort());
+        assertEquals(capacity, active);
+        // 淘汰只上报一次
+        assertNull(table.collectUpdates(capacity + 2));
+    }
+
+    private static PacketHeader tcp(int localPort, int flags, int length) {
+        PacketHeader header = new PacketHeader();
+        header.version = 4;
+        header.protocol = IpPacketParser.PROTOCOL_TCP;
+        header.sourceLow = 0x0A000002L;
+        header.destinationLow = 0x5DB8D822L;
+        header.sourcePort = localPort;
+        header.destinationPort = 443;
+        header.tcpFlags = flags | PacketHeader.TCP_ACK;
+        header.length = length;
+        return header;
+    }
+
+    private static PacketHeader reverse(PacketHeader header) {
+        long low = header.sourceLow;
+        int port = header.sourcePort;
+        header.sourceLow = header.destinationLow;
+        header.sourcePort = header.destinationPort;
+        header.destinationLow = low;
+        header.destinationPort = port;
+        return header;
+    }
+}
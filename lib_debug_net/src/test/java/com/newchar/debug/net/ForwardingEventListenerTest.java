@@ -0,0 +1,35 @@
+package com.newchar.debug.net;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.EventListener;
+
+public class ForwardingEventListenerTest {
+
+    /**
+     * OkHttp 新增回调时，没转发的回调会让宿主自己的监听器悄悄收不到事件
+     */
+    @Test
+    public void overridesEveryPublicCallback() {
+        List<String> missing = new ArrayList<>();
+        for (Method method : EventListener.class.getDeclaredMethods()) {
+            int modifiers = method.getModifiers();
+            if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers)) {
+                continue;
+            }
+            try {
+                ForwardingEventListener.class.getDeclaredMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                missing.add(method.getName());
+            }
+        }
+        assertTrue("not forwarded: " + missing, missing.isEmpty());
+    }
+}
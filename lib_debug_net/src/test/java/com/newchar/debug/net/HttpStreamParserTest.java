@@ -0,0 +1,177 @@
+package com.newchar.debug.net;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since HttpStreamParser 的分帧：chunked body、缺口后重新同步与非 HTTP 流
+ * @since 迭代版本，（以及描述）
+ */
+public class HttpStreamParserTest {
+
+    private static final int MAX_BODY = 4096;
+
+    @Test
+    public void chunkedBodyLargerThanHeadLimit() {
+        Recorder recorder = new Recorder();
+        HttpStreamParser parser = new HttpStreamParser(true, recorder);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        write(stream, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n");
+        int chunks = 0;
+        // 每个 chunk 只有 1 字节，chunk 长度行与结尾 CRLF 合计远超 16KB
+        for (int i = 0; i < 8 * 1024; i++) {
+            write(stream, "1\r\nx\r\n");
+            chunks++;
+        }
+        write(stream, "0\r\n\r\n");
+        write(stream, "HTTP/1.1 204 No Content\r\n\r\n");
+        feedInPieces(parser, stream.toByteArray(), 1000);
+
+        assertFalse(parser.isIgnoring());
+        assertEquals(2, recorder.statusCodes.size());
+        assertEquals(204, (int) recorder.statusCodes.get(1));
+        assertEquals(2, recorder.bodyBytes.size());
+        assertEquals(chunks, (long) recorder.bodyBytes.get(0));
+    }
+
+    @Test
+    public void upperCaseChunkedTransferEncoding() {
+        Recorder recorder = new Recorder();
+        HttpStreamParser parser = new HttpStreamParser(true, recorder);
+        feed(parser, "HTTP/1.1 200 OK\r\nTransfer-Encoding: CHUNKED\r\n\r\n4\r\nabcd\r\n0\r\n\r\n");
+        assertEquals(1, recorder.bodies.size());
+        assertEquals("abcd", recorder.bodies.get(0));
+    }
+
+    @Test
+    public void resyncAfterGapInBody() {
+        Recorder recorder = new Recorder();
+        HttpStreamParser parser = new HttpStreamParser(true, recorder);
+        feed(parser, "HTTP/1.1 200 OK\r\nContent-Length: 100000\r\n\r\n");
+        feed(parser, "first part of the body\nmore body\n");
+        parser.resync();
+        // 缺口之后仍是上一个 body 的中间部分，里面出现的 HTTP 字样不完整，不能当成起始行
+        feed(parser, "ody continues\nHTTP/1.1 in text\nrandom HTTP/1.1 200 OK\n\r\n");
+        feed(parser, "HTTP/1.1 404 Not Found\r\nContent-Length: 2\r\n\r\nok");
+
+        assertFalse(parser.isIgnoring());
+        assertEquals(2, recorder.statusCodes.size());
+        assertEquals(404, (int) recorder.statusCodes.get(1));
+        assertEquals(1, recorder.bodies.size());
+        assertEquals("ok", recorder.bodies.get(0));
+    }
+
+    @Test
+    public void resyncAfterBadChunkFraming() {
+        Recorder recorder = new Recorder();
+        HttpStreamParser parser = new HttpStreamParser(false, recorder);
+        feed(parser, "POST /upload HTTP/1.1\r\nHost: example.com\r\nTransfer-Encoding: chunked\r\n\r\n");
+        feed(parser, "zz-not-a-size\r\nbinary\r\n");
+        feed(parser, "GET /next HTTP/1.1\r\nHost: example.com\r\n\r\n");
+
+        assertFalse(parser.isIgnoring());
+        assertEquals(2, recorder.paths.size());
+        assertEquals("/next", recorder.paths.get(1));
+        assertEquals(1, recorder.bodies.size());
+    }
+
+    @Test
+    public void resyncSplitAcrossFeeds() {
+        Recorder recorder = new Recorder();
+        HttpStreamParser parser = new HttpStreamParser(false, recorder);
+        feed(parser, "GET /a HTTP/1.1\r\n\r\n");
+        parser.resync();
+        byte[] bytes = "tail of something\r\nPUT /b HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"
+                .getBytes(StandardCharsets.ISO_8859_1);
+        feedInPieces(parser, bytes, 3);
+
+        assertEquals(2, recorder.paths.size());
+        assertEquals("/b", recorder.paths.get(1));
+        assertEquals("abc", recorder.bodies.get(recorder.bodies.size() - 1));
+    }
+
+    @Test
+    public void headBytesCountWireBytes() {
+        Recorder recorder = new Recorder();
+        HttpStreamParser parser = new HttpStreamParser(false, recorder);
+        String first = "GET /a HTTP/1.1\r\nHost: example.com\r\nX-Name: caf\u00e9\r\n\r\n";
+        String second = "GET /b HTTP/1.1\nHost: example.com\n\n";
+        feed(parser, "\r\n" + first + "\r\n" + second);
+        parser.resync();
+        String third = "PUT /c HTTP/1.1\r\nContent-Length: 0\r\n\r\n";
+        feed(parser, "junk\r\n" + third);
+
+        assertEquals(3, recorder.headBytes.size());
+        assertEquals(first.length(), (int) recorder.headBytes.get(0));
+        assertEquals(second.length(), (int) recorder.headBytes.get(1));
+        assertEquals(third.length(), (int) recorder.headBytes.get(2));
+    }
+
+    @Test
+    public void nonHttpStreamIsIgnored() {
+        Recorder recorder = new Recorder();
+        HttpStreamParser parser = new HttpStreamParser(false, recorder);
+        byte[] clientHello = {0x16, 0x03, 0x01, 0x02, 0x00, 0x01, 0x00, 0x01, (byte) 0xfc, '\n'};
+        parser.feed(clientHello, 0, clientHello.length, MAX_BODY);
+        assertTrue(parser.isIgnoring());
+        assertTrue(recorder.paths.isEmpty());
+    }
+
+    private static void feed(HttpStreamParser parser, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        parser.feed(bytes, 0, bytes.length, MAX_BODY);
+    }
+
+    private static void feedInPieces(HttpStreamParser parser, byte[] bytes, int piece) {
+        for (int offset = 0; offset < bytes.length; offset += piece) {
+            parser.feed(bytes, offset, Math.min(piece, bytes.length - offset), MAX_BODY);
+        }
+    }
+
+    private static void write(ByteArrayOutputStream stream, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        stream.write(bytes, 0, bytes.length);
+    }
+
+    private static final class Recorder implements HttpStreamParser.Callback {
+
+        final List<String> paths = new ArrayList<>();
+        final List<Integer> headBytes = new ArrayList<>();
+        final List<Integer> statusCodes = new ArrayList<>();
+        final List<String> bodies = new ArrayList<>();
+        final List<Long> bodyBytes = new ArrayList<>();
+
+        @Override
+        public void onRequestHead(String method, String path, String host, String headersText, int headBytes) {
+            paths.add(path);
+            this.headBytes.add(headBytes);
+        }
+
+        @Override
+        public void onResponseHead(int statusCode, String headersText, int headBytes) {
+            statusCodes.add(statusCode);
+            this.headBytes.add(headBytes);
+        }
+
+        @Override
+        public boolean responseHasBody(int statusCode) {
+            return statusCode >= 200 && statusCode != 204 && statusCode != 304;
+        }
+
+        @Override
+        public void onMessageComplete(boolean response, String bodyText, long bodyBytes) {
+            bodies.add(bodyText);
+            this.bodyBytes.add(bodyBytes);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.newchar.debug.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author newChar
+ * date 2026/10/17
+ * @since PacketFilter 在原始包字节上的求值与语法错误
+ * @since 迭代版本，（以及描述）
+ */
+public class PacketFilterTest {
+
+    private static final long REMOTE = 0x5DB8D822L;
+
+    @Test
+    public void emptyExpressionDoesNotFilter() {
+        assertNull(PacketFilter.compile(null));
+        assertNull(PacketFilter.compile("   "));
+    }
+
+    @Test
+    public void protocolAndPort() {
+        byte[] https = DnsTestPackets.tcpSyn(REMOTE, 443);
+        byte[] dns = DnsTestPackets.udpFromResolver(DnsTestPackets.answer("example.com", 0, REMOTE));
+        assertTrue(matches("tcp port 443", https));
+        assertFalse(matches("tcp port 80", https));
+        assertTrue(matches("dst port 443", https));
+        assertFalse(matches("src port 443", https));
+        assertTrue(matches("portrange 400-500", https));
+        assertTrue(matches("udp src port 53", dns));
+        assertFalse(matches("tcp", dns));
+    }
+
+    @Test
+    public void hostAndNet() {
+        byte[] https = DnsTestPackets.tcpSyn(REMOTE, 443);
+        assertTrue(matches("host 93.184.216.34", https));
+        assertTrue(matches("dst net 93.184.0.0/16", https));
+        assertFalse(matches("src net 93.184.0.0/16", https));
+        assertTrue(matches("src host 10.0.0.2", https));
+        assertFalse(matches("ip6", https));
+    }
+
+    @Test
+    public void booleanOperators() {
+        byte[] https = DnsTestPackets.tcpSyn(REMOTE, 443);
+        assertTrue(matches("udp or tcp and port 443", https));
+        assertFalse(matches("(udp or tcp) and port 80", https));
+        assertTrue(matches("not udp && !port 80", https));
+        assertTrue(matches("less 100", https));
+        assertFalse(matches("greater 100", https));
+    }
+
+    @Test
+    public void syntaxErrorsAreRejected() {
+        for (String expression : new String[]{"tcp and", "port 70000", "(tcp", "host", "net 10.0.0.0/33"}) {
+            try {
+                PacketFilter.compile(expression, new DnsCache(16));
+                fail(expression);
+            } catch (IllegalArgumentException expected) {
+                // 语法错误
+            }
+        }
+    }
+
+    private static boolean matches(String expression, byte[] packet) {
+        return PacketFilter.compile(expression, new DnsCache(16)).matches(packet, packet.length);
+    }
+}
@@ -0,0 +1,89 @@
+package com.newchar.debug.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PostProcessorChainTest {
+
+    @Test
+    public void syncFailureRecordsReason() {
+        PostProcessorChain chain = new PostProcessorChain();
+        chain.set(new Failing(false, null));
+        DebugNetEvent event = newEvent();
+
+        PostProcessorChain.Run run = chain.start(event, () -> {
+        });
+
+        assertTrue(run.isFinished());
+        assertEquals("boom", event.getFailureReason());
+    }
+
+    @Test
+    public void expiredRunIsNotTouchedByLateFailure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        PostProcessorChain chain = new PostProcessorChain();
+        chain.set(new Failing(true, release));
+        DebugNetEvent event = newEvent();
+        String reasonBefore = event.getFailureReason();
+
+        PostProcessorChain.Run run = chain.start(event, () -> {
+        });
+        Thread.sleep(20L);
+        assertTrue(chain.expire(run, System.nanoTime()));
+        release.countDown();
+        awaitFailureCount(chain, 1L);
+
+        assertEquals(reasonBefore, event.getFailureReason());
+        assertEquals(1L, chain.snapshotStats().get(0).getTimeoutCount());
+    }
+
+    private static void awaitFailureCount(PostProcessorChain chain, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (chain.snapshotStats().get(0).getFailureCount() < count) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private static DebugNetEvent newEvent() {
+        return new DebugNetEvent(TrafficDirection.UPLOAD, "TCP", "10.0.0.2", 40000, "10.0.0.1", 443, 0);
+    }
+
+    private static final class Failing implements DebugNetPostProcessor {
+
+        private final boolean mAsync;
+        private final CountDownLatch mRelease;
+
+        Failing(boolean async, CountDownLatch release) {
+            mAsync = async;
+            mRelease = release;
+        }
+
+        @Override
+        public DebugNetPayload process(DebugNetPayload payload) {
+            if (mRelease != null) {
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            throw new IllegalStateException("boom");
+        }
+
+        @Override
+        public boolean isAsync() {
+            return mAsync;
+        }
+
+        @Override
+        public long getTimeoutMillis() {
+            return 1L;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.newchar.debug.net;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class SessionRecordCodecTest {
+
+    @Test
+    public void eventRoundTrip() {
+        DebugNetEvent event = new DebugNetEvent(TrafficDirection.DOWNLOAD, "TCP", "93.184.216.34", 443,
+                "10.0.0.2", 40000, 1200);
+        event.setHost("example.com");
+        event.setRequestPath("/index");
+        event.setStatusCode(200);
+        event.setResponseBodyText("你好，world");
+
+        DebugNetEvent decoded = decode(SessionRecordCodec.encodeEvent(event), event.getTimeMillis());
+
+        assertEquals(TrafficDirection.DOWNLOAD, decoded.getDirection());
+        assertEquals("93.184.216.34", decoded.getSourceAddress());
+        assertEquals(40000, decoded.getDestinationPort());
+        assertEquals(1200, decoded.getByteCount());
+        assertEquals("example.com", decoded.getHost());
+        assertEquals("/index", decoded.getRequestPath());
+        assertEquals(200, decoded.getStatusCode());
+        assertEquals("你好，world", decoded.getResponseBodyText());
+        assertEquals(event.getRequestBodyText(), decoded.getRequestBodyText());
+    }
+
+    @Test
+    public void truncationKeepsWholeCharacters() {
+        String prefix = repeat('a', SessionRecordCodec.MAX_TEXT_BYTES - 1);
+        // 三字节的汉字与四字节的 emoji 都跨过上限，应整个丢掉
+        assertEquals(prefix, roundTripBody(prefix + "中文"));
+        assertEquals(prefix, roundTripBody(prefix + "😀"));
+        String exact = repeat('a', SessionRecordCodec.MAX_TEXT_BYTES - 3) + "中";
+        assertEquals(exact, roundTripBody(exact + "b"));
+    }
+
+    private static String roundTripBody(String body) {
+        DebugNetEvent event = new DebugNetEvent(TrafficDirection.UPLOAD, "TCP", "10.0.0.2", 40000,
+                "93.184.216.34", 443, 0);
+        event.setRequestBodyText(body);
+        return decode(SessionRecordCodec.encodeEvent(event), event.getTimeMillis()).getRequestBodyText();
+    }
+
+    private static DebugNetEvent decode(byte[] record, long timeMillis) {
+        ByteBuffer in = ByteBuffer.wrap(record);
+        in.position(SessionRecordCodec.RECORD_HEADER_SIZE);
+        return SessionRecordCodec.decodeEvent(in, timeMillis);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}